@@ -0,0 +1,88 @@
+package com.example.telnetirc.benchmark;
+
+import com.example.telnetirc.chat.ChatChannel;
+import com.example.telnetirc.chat.ChatMessage;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.codec.string.StringEncoder;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Аллокации на одну рассылку сообщения в канал в зависимости от количества участников.</p>
+ * <p>{@code encodeOnce} - текущий путь {@link ChatChannel#chat}, {@code encodePerMember} - рассылка строки,
+ * которую {@link StringEncoder} кодирует заново для каждого участника. Сравнивать gc.alloc.rate.norm</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+
+    private static final String TEXT = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor";
+
+    @Param({"1", "10", "100", "1000"})
+    private int members;
+
+    private EmbeddedChannel[] channels;
+    private ChatChannel chatChannel;
+    private ChannelGroup stringGroup;
+
+    @Setup
+    public void setUp() {
+        channels = new EmbeddedChannel[members];
+        chatChannel = new ChatChannel(members + 1, 10, new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE),
+                PooledByteBufAllocator.DEFAULT);
+        stringGroup = new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE);
+
+        for (int i = 0; i < members; i++) {
+            channels[i] = new EmbeddedChannel(new StringEncoder(CharsetUtil.UTF_8));
+            chatChannel.join(channels[i], "user" + i);
+            stringGroup.add(channels[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (EmbeddedChannel channel : channels) {
+            channel.finish();
+            drain(channel);
+        }
+    }
+
+    @Benchmark
+    public void encodeOnce() {
+        chatChannel.chat("vasya", TEXT);
+        drainAll();
+    }
+
+    @Benchmark
+    public void encodePerMember() {
+        stringGroup.writeAndFlush(new ChatMessage("vasya", TEXT).toString());
+        drainAll();
+    }
+
+    private void drainAll() {
+        for (EmbeddedChannel channel : channels) {
+            drain(channel);
+        }
+    }
+
+    private static void drain(EmbeddedChannel channel) {
+        Object message;
+        while ((message = channel.readOutbound()) != null) {
+            ReferenceCountUtil.release(message);
+        }
+    }
+}
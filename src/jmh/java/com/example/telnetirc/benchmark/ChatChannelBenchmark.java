@@ -0,0 +1,94 @@
+package com.example.telnetirc.benchmark;
+
+import com.example.telnetirc.chat.ChatChannel;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.codec.string.StringEncoder;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Операции канала чата на стороне сервера.</p>
+ * <p>{@code chat} - рассылка одного сообщения всем участникам, {@code join} - вход в канал с полной историей
+ * сообщений (и выход, чтобы следующий вызов начинался с того же состояния)</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatChannelBenchmark {
+
+    private static final String TEXT = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor";
+    private static final int LAST_MESSAGE_COUNT = 10;
+
+    @Param({"10", "100", "1000"})
+    private int members;
+
+    private EmbeddedChannel[] channels;
+    private EmbeddedChannel newcomer;
+    private ChatChannel chatChannel;
+
+    @Setup
+    public void setUp() {
+        channels = new EmbeddedChannel[members];
+        chatChannel = new ChatChannel(members + 1, LAST_MESSAGE_COUNT,
+                new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE), PooledByteBufAllocator.DEFAULT);
+
+        for (int i = 0; i < members; i++) {
+            channels[i] = new EmbeddedChannel(new StringEncoder(CharsetUtil.UTF_8));
+            chatChannel.join(channels[i], "user" + i);
+        }
+        newcomer = new EmbeddedChannel(new StringEncoder(CharsetUtil.UTF_8));
+
+        for (int i = 0; i < LAST_MESSAGE_COUNT; i++) {
+            chatChannel.chat("user0", TEXT);
+        }
+        drainAll();
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (EmbeddedChannel channel : channels) {
+            channel.finish();
+            drain(channel);
+        }
+        newcomer.finish();
+        drain(newcomer);
+    }
+
+    @Benchmark
+    public void chat() {
+        chatChannel.chat("user0", TEXT);
+        drainAll();
+    }
+
+    @Benchmark
+    public boolean join() {
+        chatChannel.join(newcomer, "newcomer");
+        drain(newcomer);
+        return chatChannel.leave(newcomer, "newcomer");
+    }
+
+    private void drainAll() {
+        for (EmbeddedChannel channel : channels) {
+            drain(channel);
+        }
+    }
+
+    private static void drain(EmbeddedChannel channel) {
+        Object message;
+        while ((message = channel.readOutbound()) != null) {
+            ReferenceCountUtil.release(message);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.telnetirc.benchmark;
+
+import com.example.telnetirc.chat.ChatMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Форматирование сообщения чата в строку и в буфер для рассылки.</p>
+ * <p>{@code chat} - путь одного сообщения: создание, рассылка и {@code replay} повторов из истории при входе
+ * в канал; {@code chatUncached} - то же с временем из {@link LocalDateTime#now()} и форматированием при каждом
+ * обращении, как до кеширования. Расход памяти - с {@code -prof gc}</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatMessageBenchmark {
+
+    private static final String TEXT = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor";
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm:ss");
+
+    @Param({"1"})
+    private int replay;
+
+    private ChatMessage message;
+
+    @Setup
+    public void setUp() {
+        message = new ChatMessage("vasya", LocalDateTime.now(), TEXT);
+    }
+
+    @Benchmark
+    public String format() {
+        return message.toString();
+    }
+
+    @Benchmark
+    public boolean encode() {
+        ByteBuf buffer = message.encode(PooledByteBufAllocator.DEFAULT);
+        return buffer.release();
+    }
+
+    @Benchmark
+    public boolean chat(Blackhole blackhole) {
+        ChatMessage message = new ChatMessage("vasya", TEXT);
+        ByteBuf buffer = message.encode(PooledByteBufAllocator.DEFAULT);
+        for (int i = 0; i < replay; i++) {
+            blackhole.consume(message.toString());
+        }
+        return buffer.release();
+    }
+
+    @Benchmark
+    public boolean chatUncached(Blackhole blackhole) {
+        LocalDateTime time = LocalDateTime.now();
+        ByteBuf buffer = ByteBufUtil.writeUtf8(PooledByteBufAllocator.DEFAULT, uncached("vasya", time, TEXT));
+        for (int i = 0; i < replay; i++) {
+            blackhole.consume(uncached("vasya", time, TEXT));
+        }
+        return buffer.release();
+    }
+
+    private static String uncached(String username, LocalDateTime time, String text) {
+        return String.format("%s (%s):\r\n %s\r\n", username, DATE_FORMATTER.format(time), text);
+    }
+}
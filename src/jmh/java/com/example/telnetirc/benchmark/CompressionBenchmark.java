@@ -0,0 +1,121 @@
+package com.example.telnetirc.benchmark;
+
+import com.example.telnetirc.Mccp2Handler;
+import com.example.telnetirc.chat.ChatMessage;
+import com.example.telnetirc.metrics.ServerMetrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Цена сжатия MCCP2 против сэкономленных байт.</p>
+ * <p>Одна операция - история канала при входе ({@link #HISTORY} сообщений разных авторов) одной отправкой с
+ * flush-ем. {@code compressed} - соединение с {@link Mccp2Handler} после согласия клиента, {@code plain} - без
+ * сжатия, разница в скорости - цена сжатия. Счетчики {@code inBytes} и {@code outBytes} - байты в микросекунду
+ * до и после сжатия. История повторяется, поэтому словарь zlib находит в ней совпадения, и степень сжатия выше,
+ * чем у разовой отправки</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    private static final int HISTORY = 10;
+    private static final String[] TEXTS = {
+            "Lorem ipsum dolor sit amet, consectetur adipiscing elit",
+            "sed do eiusmod tempor incididunt ut labore et dolore magna aliqua",
+            "ok",
+            "Ut enim ad minim veniam, quis nostrud exercitation ullamco laboris",
+            "see you tomorrow"
+    };
+    private static final byte[] DO_COMPRESS2 = {(byte) 255, (byte) 253, 86};
+
+    @Param({"1", "6", "9"})
+    private int level;
+
+    @Param({"0", "65536"})
+    private long reset;
+
+    private ByteBuf[] messages;
+    private EmbeddedChannel compressed;
+    private EmbeddedChannel plain;
+
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class Bytes {
+
+        public long inBytes;
+        public long outBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            inBytes = 0;
+            outBytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        messages = new ByteBuf[HISTORY];
+        for (int i = 0; i < HISTORY; i++) {
+            messages[i] = Unpooled.unreleasableBuffer(new ChatMessage("user" + i % 4, TEXTS[i % TEXTS.length])
+                    .encode(PooledByteBufAllocator.DEFAULT));
+        }
+
+        compressed = new EmbeddedChannel(new Mccp2Handler(level, reset, new ServerMetrics()));
+        compressed.writeInbound(Unpooled.wrappedBuffer(DO_COMPRESS2));
+        drain(compressed);
+
+        plain = new EmbeddedChannel();
+    }
+
+    @TearDown
+    public void tearDown() {
+        compressed.finish();
+        plain.finish();
+        drain(compressed);
+        drain(plain);
+    }
+
+    @Benchmark
+    public long compressed(Bytes bytes) {
+        return send(compressed, bytes);
+    }
+
+    @Benchmark
+    public long plain(Bytes bytes) {
+        return send(plain, bytes);
+    }
+
+    private long send(EmbeddedChannel channel, Bytes bytes) {
+        for (ByteBuf message : messages) {
+            bytes.inBytes += message.readableBytes();
+            channel.write(message.duplicate());
+        }
+        channel.flush();
+        long out = drain(channel);
+        bytes.outBytes += out;
+        return out;
+    }
+
+    private static long drain(EmbeddedChannel channel) {
+        long bytes = 0;
+        Object message;
+        while ((message = channel.readOutbound()) != null) {
+            ByteBuf buffer = (ByteBuf) message;
+            bytes += buffer.readableBytes();
+            buffer.release();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.telnetirc.benchmark;
+
+import com.example.telnetirc.BinaryCommandDecoder;
+import com.example.telnetirc.CommandDecoder;
+import com.example.telnetirc.LineCommandDecoder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DelimiterBasedFrameDecoder;
+import io.netty.handler.codec.Delimiters;
+import io.netty.handler.codec.string.StringDecoder;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Разбор одной входящей строки: старая цепочка DelimiterBasedFrameDecoder -> StringDecoder ->
+ * {@link CommandDecoder} против {@link LineCommandDecoder} и тех же команд в кадрах бинарного протокола
+ * ({@link BinaryCommandDecoder}).</p>
+ * <p>{@code mixed} - поток строк, близкий к реальному: в основном сообщения, изредка служебные команды</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecoderBenchmark {
+
+    private static final String CHAT = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor\r\n";
+    private static final String LOGIN = "/login vasya password\r\n";
+    private static final String JOIN = "/join profsouz\r\n";
+    private static final String USERS = "/users\r\n";
+
+    @Param({"chat", "login", "join", "mixed"})
+    private String line;
+
+    private ByteBuf[] inputs;
+    private ByteBuf[] frames;
+    private int next;
+    private EmbeddedChannel stringChain;
+    private EmbeddedChannel lineDecoder;
+    private EmbeddedChannel binaryDecoder;
+
+    @Setup
+    public void setUp() {
+        String[] lines;
+        switch (line) {
+            case "login":
+                lines = new String[]{LOGIN};
+                break;
+            case "join":
+                lines = new String[]{JOIN};
+                break;
+            case "mixed":
+                lines = new String[]{CHAT, CHAT, CHAT, CHAT, USERS, CHAT, CHAT, CHAT, CHAT, JOIN,
+                        CHAT, CHAT, CHAT, CHAT, USERS, CHAT, CHAT, CHAT, CHAT, LOGIN};
+                break;
+            default:
+                lines = new String[]{CHAT};
+        }
+
+        inputs = new ByteBuf[lines.length];
+        frames = new ByteBuf[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            inputs[i] = Unpooled.unreleasableBuffer(
+                    Unpooled.directBuffer().writeBytes(lines[i].getBytes(CharsetUtil.UTF_8)));
+            frames[i] = Unpooled.unreleasableBuffer(frame(lines[i]));
+        }
+
+        stringChain = new EmbeddedChannel(new DelimiterBasedFrameDecoder(8192, Delimiters.lineDelimiter()),
+                new StringDecoder(CharsetUtil.UTF_8), new CommandDecoder());
+        lineDecoder = new EmbeddedChannel(new LineCommandDecoder(8192));
+        binaryDecoder = new EmbeddedChannel(new BinaryCommandDecoder(8192));
+    }
+
+    /**
+     * Та же команда в кадре бинарного протокола
+     */
+    private static ByteBuf frame(String line) {
+        String[] args = line.trim().split(" ");
+        ByteBuf frame = Unpooled.directBuffer().writeInt(0);
+        switch (args[0]) {
+            case "/login":
+                frame.writeByte(BinaryCommandDecoder.LOGIN);
+                break;
+            case "/join":
+                frame.writeByte(BinaryCommandDecoder.JOIN);
+                break;
+            case "/users":
+                frame.writeByte(BinaryCommandDecoder.USERS);
+                break;
+            default:
+                frame.writeByte(BinaryCommandDecoder.CHAT).writeBytes(line.trim().getBytes(CharsetUtil.UTF_8));
+                return frame.setInt(0, frame.readableBytes() - 4);
+        }
+        for (int i = 1; i < args.length; i++) {
+            byte[] bytes = args[i].getBytes(CharsetUtil.UTF_8);
+            frame.writeShort(bytes.length).writeBytes(bytes);
+        }
+        return frame.setInt(0, frame.readableBytes() - 4);
+    }
+
+    @TearDown
+    public void tearDown() {
+        stringChain.finish();
+        lineDecoder.finish();
+        binaryDecoder.finish();
+    }
+
+    @Benchmark
+    public Object commandDecoder() {
+        return decode(stringChain);
+    }
+
+    @Benchmark
+    public Object lineCommandDecoder() {
+        return decode(lineDecoder);
+    }
+
+    @Benchmark
+    public Object binaryCommandDecoder() {
+        return decode(binaryDecoder, frames);
+    }
+
+    private Object decode(EmbeddedChannel channel) {
+        return decode(channel, inputs);
+    }
+
+    private Object decode(EmbeddedChannel channel, ByteBuf[] inputs) {
+        ByteBuf input = inputs[next];
+        next = next + 1 == inputs.length ? 0 : next + 1;
+
+        channel.writeInbound(input.duplicate());
+        Object command = channel.readInbound();
+        ReferenceCountUtil.release(command);
+        return command;
+    }
+}
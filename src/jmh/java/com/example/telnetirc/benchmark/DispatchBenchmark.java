@@ -0,0 +1,77 @@
+package com.example.telnetirc.benchmark;
+
+import com.example.telnetirc.ChatServerHandler;
+import com.example.telnetirc.auth.InMemoryAuthService;
+import com.example.telnetirc.command.*;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.string.StringEncoder;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Обработка уже разобранной команды в {@code ChatServerHandler.channelRead0}: поиск обработчика, проверки
+ * сессии и ответ пользователю.</p>
+ * <p>Пользователь залогинен и состоит в канале, где он единственный участник, так что {@code chat} измеряет
+ * диспетчеризацию и одну запись, а не рассылку (см. {@link ChatChannelBenchmark})</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    @Param({"chat", "users", "join"})
+    private String command;
+
+    private EmbeddedChannel channel;
+    private Command input;
+
+    @Setup
+    public void setUp() {
+        channel = new EmbeddedChannel(new StringEncoder(CharsetUtil.UTF_8),
+                new ChatServerHandler(10, new InMemoryAuthService()));
+        channel.writeInbound(new LoginCommand(new String[]{"vasya", "password"}));
+        channel.writeInbound(new JoinCommand(new String[]{"profsouz"}));
+        drain();
+
+        switch (command) {
+            case "users":
+                input = new UsersCommand(new String[0]);
+                break;
+            case "join":
+                // повторный вход в тот же канал: ветка с ошибкой без обращения к каналу чата
+                input = new JoinCommand(new String[]{"profsouz"});
+                break;
+            default:
+                // команда без буфера: release при автоосвобождении ничего не делает, ее можно переиспользовать
+                input = new ChatCommand(new String[]{"Lorem ipsum dolor sit amet, consectetur adipiscing elit"});
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.finish();
+        drain();
+    }
+
+    @Benchmark
+    public void channelRead() {
+        channel.writeInbound(input);
+        drain();
+    }
+
+    private void drain() {
+        Object message;
+        while ((message = channel.readOutbound()) != null) {
+            ReferenceCountUtil.release(message);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.telnetirc.benchmark;
+
+import com.example.telnetirc.chat.ChatChannel;
+import com.example.telnetirc.chat.ChatMessage;
+import com.example.telnetirc.chat.OverflowPolicy;
+import com.example.telnetirc.metrics.RoomMetrics;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoop;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalEventLoopGroup;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Время рассылки одного сообщения всем участникам канала в зависимости от количества участников и
+ * event loop-ов их соединений.</p>
+ * <p>{@code sharded} - {@link ChatChannel#chat}: шарды event loop-ов пишут своим участникам параллельно, время
+ * считается до того, как последний шард закончил запись ({@link RoomMetrics#getMessages()}); {@code channelGroup}
+ * - {@link DefaultChannelGroup#writeAndFlush(Object)} из event loop-а канала, задача на каждого участника, время до
+ * завершения всех записей. Участники - соединения {@link LocalChannel}, получатель на другой стороне освобождает
+ * сообщения</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class FanOutBenchmark {
+
+    private static final String TEXT = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor";
+
+    @Param({"1000", "10000", "50000"})
+    private int members;
+
+    @Param({"1", "4"})
+    private int loops;
+
+    private LocalEventLoopGroup roomGroup;
+    private LocalEventLoopGroup memberGroup;
+    private Channel server;
+    private Channel[] channels;
+
+    private EventLoop roomLoop;
+    private ChatChannel chatChannel;
+    private RoomMetrics metrics;
+    private ChannelGroup group;
+    private Runnable chat;
+
+    @Setup
+    public void setUp() throws Exception {
+        roomGroup = new LocalEventLoopGroup(1);
+        memberGroup = new LocalEventLoopGroup(loops);
+        roomLoop = roomGroup.next();
+
+        LocalAddress address = new LocalAddress("fan-out");
+        server = new ServerBootstrap()
+                .group(memberGroup)
+                .channel(LocalServerChannel.class)
+                .childHandler(Discard.INSTANCE)
+                .bind(address).sync().channel();
+
+        Bootstrap bootstrap = new Bootstrap()
+                .group(memberGroup)
+                .channel(LocalChannel.class)
+                .handler(Discard.INSTANCE);
+
+        channels = new Channel[members];
+        for (int i = 0; i < members; i++) {
+            channels[i] = bootstrap.connect(address).sync().channel();
+        }
+
+        metrics = new RoomMetrics();
+        chatChannel = new ChatChannel(members + 1, 10, roomLoop, PooledByteBufAllocator.DEFAULT,
+                OverflowPolicy.skip(), metrics);
+        group = new DefaultChannelGroup(roomLoop);
+        roomLoop.submit(() -> {
+            for (int i = 0; i < members; i++) {
+                chatChannel.join(channels[i], "user" + i);
+                group.add(channels[i]);
+            }
+        }).sync();
+
+        chat = () -> chatChannel.chat("user0", TEXT);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        for (Channel channel : channels) {
+            channel.close();
+        }
+        server.close().sync();
+        memberGroup.shutdownGracefully().sync();
+        roomGroup.shutdownGracefully().sync();
+    }
+
+    @Benchmark
+    public void sharded() {
+        long sent = metrics.getMessages();
+        roomLoop.execute(chat);
+        while (metrics.getMessages() == sent) {
+            Thread.yield();
+        }
+    }
+
+    @Benchmark
+    public void channelGroup() throws Exception {
+        roomLoop.submit(() -> group.writeAndFlush(new ChatMessage("user0", TEXT)
+                .encode(PooledByteBufAllocator.DEFAULT))).get().awaitUninterruptibly();
+    }
+
+    @ChannelHandler.Sharable
+    private static final class Discard extends ChannelInboundHandlerAdapter {
+
+        static final Discard INSTANCE = new Discard();
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+}
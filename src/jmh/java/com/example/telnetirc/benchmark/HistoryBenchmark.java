@@ -0,0 +1,78 @@
+package com.example.telnetirc.benchmark;
+
+import com.example.telnetirc.chat.ChatMessage;
+import com.example.telnetirc.chat.MessageHistory;
+import com.example.telnetirc.chat.MessageRingBuffer;
+import com.example.telnetirc.journal.MessageJournal;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * <p>История канала в памяти ({@link MessageRingBuffer}) против журнала на диске ({@link MessageJournal}):
+ * добавление сообщения и чтение последних {@code replay} сообщений при входе в канал</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryBenchmark {
+
+    private static final String TEXT = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor";
+
+    @Param({"memory", "journal"})
+    private String store;
+
+    @Param({"10", "1000"})
+    private int replay;
+
+    private Path directory;
+    private MessageHistory history;
+    private ChatMessage message;
+
+    @Setup
+    public void setUp() throws IOException {
+        if ("journal".equals(store)) {
+            directory = Files.createTempDirectory("journal-benchmark");
+            history = MessageJournal.open(directory, 64 * 1024 * 1024, 256L * 1024 * 1024, 0, TimeUnit.HOURS);
+        } else {
+            history = new MessageRingBuffer(replay);
+        }
+
+        message = new ChatMessage("vasya", TEXT);
+        for (int i = 0; i < replay; i++) {
+            history.add(message);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        history.close();
+        if (directory != null) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    public long add() {
+        return history.add(message);
+    }
+
+    @Benchmark
+    public int replay(Blackhole blackhole) {
+        return history.forEachLast(replay, blackhole::consume);
+    }
+}
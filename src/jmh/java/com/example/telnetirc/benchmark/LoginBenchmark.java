@@ -0,0 +1,77 @@
+package com.example.telnetirc.benchmark;
+
+import com.example.telnetirc.auth.AuthResult;
+import com.example.telnetirc.auth.CredentialCache;
+import com.example.telnetirc.auth.InMemoryAuthService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Пропускная способность входа (аутентификация и выход) в зависимости от стоимости хеша пароля и доли
+ * входов, найденных в кеше проверенных паролей.</p>
+ * <p>Входы из кеша выполняются сервисом с кешем, промахи - таким же сервисом без кеша, поэтому каждый промах
+ * платит полную стоимость хеша, как вход после истечения записи или подбор пароля</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoginBenchmark {
+
+    private static final int USERS = 16;
+    private static final int PATTERN_SIZE = 1024;
+
+    @Param({"1000", "10000", "100000"})
+    private int iterations;
+
+    @Param({"0", "0.9", "0.99", "1"})
+    private double hitRate;
+
+    private InMemoryAuthService cached;
+    private InMemoryAuthService uncached;
+    private String[] usernames;
+    private boolean[] hits;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        cached = new InMemoryAuthService(iterations, new CredentialCache(USERS, 1, TimeUnit.HOURS));
+        uncached = new InMemoryAuthService(iterations, new CredentialCache(0, 0, TimeUnit.SECONDS));
+
+        usernames = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            usernames[i] = "user" + i;
+            // регистрация и первый вход, который кладет пароль в кеш
+            for (InMemoryAuthService authService : new InMemoryAuthService[]{cached, uncached}) {
+                authService.authenticate(usernames[i], "password");
+                authService.logout(usernames[i]);
+            }
+            cached.authenticate(usernames[i], "password");
+            cached.logout(usernames[i]);
+        }
+
+        Random random = new Random(42);
+        hits = new boolean[PATTERN_SIZE];
+        for (int i = 0; i < PATTERN_SIZE; i++) {
+            hits[i] = random.nextDouble() < hitRate;
+        }
+    }
+
+    @Benchmark
+    public AuthResult login() {
+        int index = next++ & (PATTERN_SIZE - 1);
+        InMemoryAuthService authService = hits[index] ? cached : uncached;
+        String username = usernames[index % USERS];
+
+        AuthResult result = authService.authenticate(username, "password");
+        authService.logout(username);
+        return result;
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.telnetirc.benchmark;
+
+import com.example.telnetirc.ChatServerHandler;
+import com.example.telnetirc.ChatSession;
+import com.example.telnetirc.auth.InMemoryAuthService;
+import com.example.telnetirc.command.LoginCommand;
+import com.example.telnetirc.command.MsgCommand;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalEventLoopGroup;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Пропускная способность личных сообщений ({@code /msg}) при нескольких одновременных отправителях.</p>
+ * <p>Каждый поток JMH - отправитель со своим соединением, который пишет получателям по кругу. Получатели -
+ * соединения {@link LocalChannel} с {@link ChatServerHandler}, вошедшие через команду входа и найденные по
+ * реестру сессий; клиент на другой стороне считает и освобождает сообщения. {@code recipients = 1} - все
+ * отправители пишут одному получателю. Отправители ждут, если недоставленных сообщений больше
+ * {@link #MAX_IN_FLIGHT}, поэтому результат - скорость доставки, а не рост очередей event loop-ов; сообщения,
+ * отклоненные из-за того, что соединение получателя не готово к записи, в ожидании не учитываются</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class PrivateMessageBenchmark {
+
+    private static final String TEXT = "Lorem ipsum dolor sit amet, consectetur adipiscing elit";
+    private static final String PASSWORD = "password";
+    private static final long MAX_IN_FLIGHT = 65536;
+    private static final int CHECK_EVERY = 1024;
+
+    @Param({"1", "1000"})
+    private int recipients;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final AtomicInteger senderIds = new AtomicInteger();
+
+    private ChatServerHandler chatServerHandler;
+    private LocalEventLoopGroup group;
+    private Channel server;
+    private List<Channel> clients;
+
+    @Setup
+    public void setUp() throws Exception {
+        chatServerHandler = new ChatServerHandler(10, new InMemoryAuthService());
+        group = new LocalEventLoopGroup(4);
+
+        ConcurrentLinkedQueue<Channel> accepted = new ConcurrentLinkedQueue<>();
+        LocalAddress address = new LocalAddress("private-messages");
+        server = new ServerBootstrap()
+                .group(group)
+                .channel(LocalServerChannel.class)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel channel) {
+                        channel.pipeline().addLast(chatServerHandler);
+                        accepted.add(channel);
+                    }
+                })
+                .bind(address).sync().channel();
+
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(LocalChannel.class)
+                .handler(new Counter(delivered));
+
+        clients = new ArrayList<>(recipients);
+        for (int i = 0; i < recipients; i++) {
+            clients.add(bootstrap.connect(address).sync().channel());
+        }
+        while (accepted.size() < recipients) {
+            Thread.sleep(1);
+        }
+
+        int index = 0;
+        for (Channel channel : accepted) {
+            String name = "user" + index++;
+            channel.eventLoop().submit(() -> channel.pipeline().fireChannelRead(
+                    new LoginCommand(new String[]{name, PASSWORD}))).sync();
+            while (channel.eventLoop().submit(() -> ChatSession.get(channel).getUsername()).get() == null) {
+                Thread.sleep(1);
+            }
+        }
+
+        // приветствия и ответы на вход не считаются
+        Thread.sleep(100);
+        delivered.reset();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        for (Channel client : clients) {
+            client.close();
+        }
+        server.close().sync();
+        group.shutdownGracefully().sync();
+    }
+
+    @State(Scope.Thread)
+    public static class Sender {
+
+        private EmbeddedChannel channel;
+        private MsgCommand[] commands;
+        private int next;
+        private long sent;
+
+        @Setup
+        public void setUp(PrivateMessageBenchmark benchmark) throws Exception {
+            channel = new EmbeddedChannel(benchmark.chatServerHandler);
+            channel.writeInbound(new LoginCommand(new String[]{"sender" + benchmark.senderIds.incrementAndGet(),
+                    PASSWORD}));
+            while (ChatSession.get(channel).getUsername() == null) {
+                channel.runPendingTasks();
+                Thread.sleep(1);
+            }
+            drain();
+
+            commands = new MsgCommand[benchmark.recipients];
+            for (int i = 0; i < commands.length; i++) {
+                commands[i] = new MsgCommand(new String[]{"user" + i, TEXT});
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            channel.finish();
+            drain();
+        }
+
+        /**
+         * @return сколько ответов отправителю прочитано: ошибки о недоставленных сообщениях
+         */
+        private int drain() {
+            int count = 0;
+            Object message;
+            while ((message = channel.readOutbound()) != null) {
+                ReferenceCountUtil.release(message);
+                count++;
+            }
+            return count;
+        }
+    }
+
+    @Benchmark
+    public void msg(Sender sender) {
+        sender.channel.writeInbound(sender.commands[sender.next]);
+        if (++sender.next == sender.commands.length) sender.next = 0;
+
+        if (++sender.sent % CHECK_EVERY == 0) {
+            // сообщения, отклоненные из-за занятого получателя, не будут доставлены
+            sent.add(CHECK_EVERY - sender.drain());
+            while (sent.sum() - delivered.sum() > MAX_IN_FLIGHT) {
+                Thread.yield();
+            }
+        }
+    }
+
+    @ChannelHandler.Sharable
+    private static final class Counter extends ChannelInboundHandlerAdapter {
+
+        private final LongAdder delivered;
+
+        Counter(LongAdder delivered) {
+            this.delivered = delivered;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            delivered.increment();
+            ReferenceCountUtil.release(msg);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.telnetirc.benchmark;
+
+import com.example.telnetirc.auth.PasswordHash;
+import com.example.telnetirc.auth.User;
+import com.example.telnetirc.auth.UserStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * <p>Холодный старт хранилища пользователей: чтение снимка из {@code users} пользователей и хвоста журнала
+ * из {@code tail} регистраций в карту пользователей сервиса аутентификации</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class UserStoreBenchmark {
+
+    @Param({"1000000"})
+    private int users;
+
+    @Param({"10000"})
+    private int tail;
+
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("users-benchmark");
+        ConcurrentHashMap<String, User> userMap = new ConcurrentHashMap<>();
+
+        UserStore store = UserStore.open(directory, Integer.MAX_VALUE);
+        store.start(userMap.values());
+        CompletableFuture<Void> appended = CompletableFuture.completedFuture(null);
+        // стоимость хеша не влияет на размер записи, поэтому пользователи создаются с одной итерацией
+        for (int i = 0; i < users; i++) {
+            User user = User.withPasswordHash("user" + i, PasswordHash.create("password" + i, 1));
+            userMap.put(user.getUsername(), user);
+            if (i == users - tail) store.snapshot().get();
+            if (i >= users - tail) appended = store.append(user);
+        }
+        appended.get();
+        store.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public int recover() throws IOException {
+        ConcurrentHashMap<String, User> userMap = new ConcurrentHashMap<>();
+        UserStore store = UserStore.open(directory, Integer.MAX_VALUE);
+        int count = store.recover(user -> userMap.put(user.getUsername(), user));
+        store.close();
+        return count + userMap.size();
+    }
+}
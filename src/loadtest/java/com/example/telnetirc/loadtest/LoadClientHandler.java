@@ -0,0 +1,98 @@
+package com.example.telnetirc.loadtest;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * <p>Клиентское соединение нагрузочного теста.</p>
+ * <p>После подключения пользователь логинится, входит в свою комнату и отмечается в {@code ready}. Каждое
+ * сообщение чата несет время отправки ({@code lt <System.nanoTime()>}), по нему получатели считают задержку
+ * рассылки - клиенты работают в одном процессе, поэтому часы у них общие</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+class LoadClientHandler extends SimpleChannelInboundHandler<String> {
+
+    static final String MARKER = "lt ";
+
+    private static final String CHAT_LINE_PREFIX = " " + MARKER;
+
+    private final String username;
+    private final String room;
+    private final LoadStats stats;
+    private final CountDownLatch ready;
+
+    private boolean setupDone;
+    private volatile boolean inRoom;
+
+    LoadClientHandler(String username, String room, LoadStats stats, CountDownLatch ready) {
+        this.username = username;
+        this.room = room;
+        this.stats = stats;
+        this.ready = ready;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        ctx.writeAndFlush("/login " + username + " password\r\n");
+        super.channelActive(ctx);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, String line) throws Exception {
+        if (line.startsWith(CHAT_LINE_PREFIX)) {
+            int end = line.indexOf(' ', CHAT_LINE_PREFIX.length());
+            long sentAt = Long.parseLong(line.substring(CHAT_LINE_PREFIX.length(), end < 0 ? line.length() : end));
+            stats.recordLatency(System.nanoTime() - sentAt);
+            stats.received.increment();
+
+        } else if (line.startsWith("Server: authentication successful")) {
+            ctx.writeAndFlush("/join " + room + "\r\n");
+
+        } else if (line.startsWith("Server: You joined the channel")) {
+            inRoom = true;
+            finishSetup();
+
+        } else if (line.startsWith("Server: your connection was too slow")) {
+            stats.lagged.increment();
+
+        } else if (line.startsWith("Error")) {
+            stats.errors.increment();
+            if (!setupDone) {
+                // соединение не дошло до комнаты: не заставлять тест ждать его до таймаута
+                finishSetup();
+                ctx.close();
+            }
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (!setupDone) {
+            stats.errors.increment();
+            finishSetup();
+        }
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        stats.errors.increment();
+        ctx.close();
+    }
+
+    /**
+     * @return вошел ли пользователь в свою комнату
+     */
+    boolean isInRoom() {
+        return inRoom;
+    }
+
+    private void finishSetup() {
+        setupDone = true;
+        ready.countDown();
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.telnetirc.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Счетчики и гистограмма задержек, общие для всех клиентских соединений
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+class LoadStats {
+
+    /**
+     * задержка от отправки сообщения до его получения участником комнаты, в наносекундах
+     */
+    private final Recorder latency = new Recorder(3);
+
+    final LongAdder sent = new LongAdder();
+    final LongAdder received = new LongAdder();
+    final LongAdder unwritable = new LongAdder();
+    final LongAdder lagged = new LongAdder();
+    final LongAdder errors = new LongAdder();
+
+    void recordLatency(long nanos) {
+        latency.recordValue(nanos);
+    }
+
+    /**
+     * Гистограмма задержек с момента предыдущего вызова
+     *
+     * @param recycle гистограмма предыдущего интервала для повторного использования, может быть null
+     * @return гистограмма за интервал
+     */
+    Histogram intervalLatency(Histogram recycle) {
+        return recycle == null ? latency.getIntervalHistogram() : latency.getIntervalHistogram(recycle);
+    }
+}
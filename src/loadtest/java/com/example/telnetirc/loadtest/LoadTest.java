@@ -0,0 +1,258 @@
+package com.example.telnetirc.loadtest;
+
+import com.example.telnetirc.ServerConfig;
+import com.example.telnetirc.TelnetIrcServer;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LineBasedFrameDecoder;
+import io.netty.handler.codec.string.StringDecoder;
+import io.netty.handler.codec.string.StringEncoder;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.HdrHistogram.Histogram;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Нагрузочный тест сервера: N соединений логинятся, расходятся по M комнатам и пишут в чат с заданной
+ * суммарной частотой.</p>
+ * <p>Каждую секунду и в конце выводятся отправленные и доставленные сообщения, перцентили задержки рассылки
+ * (от отправки до получения участником комнаты) и ошибки. Первые {@code load.warmup} секунд в итог не входят</p>
+ * <p>Задержка считается от фактического момента отправки, поэтому если клиент сам не успевает отправлять,
+ * это видно по счетчику {@code unwritable}, а не по перцентилям</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class LoadTest {
+
+    private static final int CONNECT_BATCH = 512;
+    private static final long SETUP_TIMEOUT_SECONDS = 60;
+    private static final long DRAIN_MILLIS = 1000;
+
+    private final LoadTestConfig config;
+    private final InetSocketAddress address;
+    private final LoadStats stats = new LoadStats();
+
+    private LoadTest(LoadTestConfig config, InetSocketAddress address) {
+        this.config = config;
+        this.address = address;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = LoadTestConfig.fromSystemProperties();
+
+        TelnetIrcServer server = null;
+        InetSocketAddress address;
+
+        if (config.isInProcess()) {
+            // все пользователи комнаты должны в нее поместиться, если лимит не задан явно
+            if (System.getProperty("telnetirc.room.users.limit") == null) {
+                System.setProperty("telnetirc.room.users.limit", String.valueOf(Math.max(2, config.usersPerRoom())));
+            }
+            // нагрузочный тест измеряет рассылку, а не хеширование паролей тысяч новых пользователей
+            if (System.getProperty("telnetirc.auth.hash.iterations") == null) {
+                System.setProperty("telnetirc.auth.hash.iterations", "1000");
+            }
+            server = new TelnetIrcServer(0, ServerConfig.load());
+            InetSocketAddress bound = (InetSocketAddress) server.bind().localAddress();
+            address = new InetSocketAddress("127.0.0.1", bound.getPort());
+        } else {
+            address = new InetSocketAddress(config.host, config.port);
+        }
+
+        try {
+            new LoadTest(config, address).run();
+        } finally {
+            if (server != null) server.shutdown();
+        }
+    }
+
+    private void run() throws InterruptedException {
+        System.out.printf("load test against %s: %s%n", address, config);
+
+        EventLoopGroup group = new NioEventLoopGroup(config.threads, new DefaultThreadFactory("loadtest-client"));
+        try {
+            CountDownLatch ready = new CountDownLatch(config.connections);
+            List<Channel> channels = connect(group, ready);
+
+            if (!ready.await(SETUP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                System.out.printf("%d connections haven't joined in %d s%n", ready.getCount(), SETUP_TIMEOUT_SECONDS);
+            }
+
+            List<Channel> joined = new ArrayList<>();
+            for (Channel channel : channels) {
+                if (channel.isActive() && channel.pipeline().get(LoadClientHandler.class).isInRoom()) {
+                    joined.add(channel);
+                }
+            }
+            System.out.printf("%d of %d users joined %d rooms, errors %d%n", joined.size(), config.connections,
+                    config.rooms, stats.errors.sum());
+
+            measure(joined);
+
+            for (Channel channel : channels) {
+                channel.close();
+            }
+        } finally {
+            group.shutdownGracefully().sync();
+        }
+    }
+
+    private List<Channel> connect(EventLoopGroup group, CountDownLatch ready) {
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+
+        List<Channel> channels = new ArrayList<>(config.connections);
+        List<ChannelFuture> batch = new ArrayList<>(CONNECT_BATCH);
+
+        for (int i = 0; i < config.connections; i++) {
+            LoadClientHandler handler = new LoadClientHandler("user" + i, "room" + (i % config.rooms), stats, ready);
+
+            ChannelFuture future = bootstrap.clone().handler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel ch) throws Exception {
+                    ch.pipeline().addLast(new LineBasedFrameDecoder(8192),
+                            new StringDecoder(CharsetUtil.UTF_8),
+                            new StringEncoder(CharsetUtil.UTF_8),
+                            handler);
+                }
+            }).connect(address);
+
+            future.addListener(f -> {
+                if (!f.isSuccess()) {
+                    stats.errors.increment();
+                    ready.countDown();
+                }
+            });
+            channels.add(future.channel());
+            batch.add(future);
+
+            // не переполнять очередь accept-а сервера
+            if (batch.size() == CONNECT_BATCH) {
+                batch.forEach(ChannelFuture::awaitUninterruptibly);
+                batch.clear();
+            }
+        }
+        batch.forEach(ChannelFuture::awaitUninterruptibly);
+
+        return channels;
+    }
+
+    private void measure(List<Channel> channels) throws InterruptedException {
+        if (channels.isEmpty()) return;
+
+        // частота задана на весь тест, каждое соединение пишет с периодом connections / rate секунд
+        long period = Math.max(1, TimeUnit.SECONDS.toNanos(channels.size()) / config.rate);
+        String padding = padding();
+
+        List<ScheduledFuture<?>> senders = new ArrayList<>(channels.size());
+        for (Channel channel : channels) {
+            senders.add(channel.eventLoop().scheduleAtFixedRate(() -> send(channel, padding),
+                    ThreadLocalRandom.current().nextLong(period), period, TimeUnit.NANOSECONDS));
+        }
+
+        Histogram interval = null;
+        Histogram total = new Histogram(3);
+        long[] measuredFrom = null;
+        long[] previous = counters();
+        long start = System.nanoTime();
+
+        for (int second = 1; second <= config.warmupSeconds + config.durationSeconds; second++) {
+            sleepUntil(start + TimeUnit.SECONDS.toNanos(second));
+
+            interval = stats.intervalLatency(interval);
+            long[] current = counters();
+            boolean warmup = second <= config.warmupSeconds;
+
+            System.out.printf("%s%4d s  sent %8d/s  delivered %9d/s  p50 %8.1f us  p99 %8.1f us  errors %d%n",
+                    warmup ? "warmup " : "       ", second, current[0] - previous[0], current[1] - previous[1],
+                    micros(interval.getValueAtPercentile(50)), micros(interval.getValueAtPercentile(99)),
+                    current[2]);
+
+            if (warmup) {
+                measuredFrom = current;
+            } else {
+                total.add(interval);
+            }
+            previous = current;
+        }
+
+        long[] measuredTo = counters();
+        if (measuredFrom == null) measuredFrom = new long[measuredTo.length];
+
+        senders.forEach(sender -> sender.cancel(false));
+        // сообщения, отправленные в последнюю секунду, еще в пути
+        Thread.sleep(DRAIN_MILLIS);
+        total.add(stats.intervalLatency(interval));
+
+        report(total, measuredFrom, measuredTo);
+    }
+
+    private void send(Channel channel, String padding) {
+        if (!channel.isActive()) return;
+
+        if (channel.isWritable()) {
+            channel.writeAndFlush(LoadClientHandler.MARKER + System.nanoTime() + " " + padding + "\r\n");
+            stats.sent.increment();
+        } else {
+            stats.unwritable.increment();
+        }
+    }
+
+    private void report(Histogram latency, long[] from, long[] to) {
+        double seconds = config.durationSeconds;
+
+        System.out.printf("%n=== %d connections, %d rooms, %d s ===%n", config.connections, config.rooms,
+                config.durationSeconds);
+        System.out.printf("sent        %10.1f msg/s  (%d)%n", (to[0] - from[0]) / seconds, to[0] - from[0]);
+        System.out.printf("delivered   %10.1f msg/s  (%d)%n", (to[1] - from[1]) / seconds, to[1] - from[1]);
+        System.out.printf("latency us  p50 %.1f  p90 %.1f  p99 %.1f  p999 %.1f  max %.1f  (%d samples)%n",
+                micros(latency.getValueAtPercentile(50)), micros(latency.getValueAtPercentile(90)),
+                micros(latency.getValueAtPercentile(99)), micros(latency.getValueAtPercentile(99.9)),
+                micros(latency.getMaxValue()), latency.getTotalCount());
+        System.out.printf("unwritable  %d  (client connection not ready, message not sent)%n", to[3] - from[3]);
+        System.out.printf("lagged      %d  (server reported skipped messages)%n", stats.lagged.sum());
+        System.out.printf("errors      %d%n", stats.errors.sum());
+    }
+
+    private long[] counters() {
+        return new long[]{stats.sent.sum(), stats.received.sum(), stats.errors.sum(), stats.unwritable.sum()};
+    }
+
+    private String padding() {
+        // "lt " + время отправки занимают около 20 байт
+        char[] padding = new char[Math.max(1, config.messageSize - 20)];
+        Arrays.fill(padding, 'x');
+        return new String(padding);
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    private static void sleepUntil(long deadline) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+    }
+}
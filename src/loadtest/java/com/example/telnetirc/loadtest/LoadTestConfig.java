@@ -0,0 +1,71 @@
+package com.example.telnetirc.loadtest;
+
+/**
+ * <p>Параметры нагрузочного теста, читаются из системных свойств {@code load.*}</p>
+ * <p>Если {@code load.host} не задан, сервер запускается в том же процессе на loopback-е</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+class LoadTestConfig {
+
+    final String host;
+    final int port;
+    final int connections;
+    final int rooms;
+    final int rate;
+    final int messageSize;
+    final int warmupSeconds;
+    final int durationSeconds;
+    final int threads;
+
+    private LoadTestConfig(String host, int port, int connections, int rooms, int rate, int messageSize,
+                           int warmupSeconds, int durationSeconds, int threads) {
+        if (connections < 1) throw new IllegalArgumentException("load.connections should be positive");
+        if (rooms < 1 || rooms > connections) {
+            throw new IllegalArgumentException("load.rooms should be between 1 and load.connections");
+        }
+        if (rate < 1) throw new IllegalArgumentException("load.rate should be positive");
+        if (durationSeconds < 1) throw new IllegalArgumentException("load.duration should be positive");
+
+        this.host = host;
+        this.port = port;
+        this.connections = connections;
+        this.rooms = rooms;
+        this.rate = rate;
+        this.messageSize = messageSize;
+        this.warmupSeconds = warmupSeconds;
+        this.durationSeconds = durationSeconds;
+        this.threads = threads;
+    }
+
+    static LoadTestConfig fromSystemProperties() {
+        return new LoadTestConfig(
+                System.getProperty("load.host"),
+                Integer.getInteger("load.port", 0),
+                Integer.getInteger("load.connections", 1000),
+                Integer.getInteger("load.rooms", 100),
+                Integer.getInteger("load.rate", 1000),
+                Integer.getInteger("load.message.size", 64),
+                Integer.getInteger("load.warmup", 5),
+                Integer.getInteger("load.duration", 30),
+                Integer.getInteger("load.threads", 0));
+    }
+
+    boolean isInProcess() {
+        return host == null || host.isEmpty();
+    }
+
+    /**
+     * @return максимальное количество пользователей в одной комнате при равномерном распределении
+     */
+    int usersPerRoom() {
+        return (connections + rooms - 1) / rooms;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("connections=%d rooms=%d rate=%d msg/s message.size=%d warmup=%ds duration=%ds",
+                connections, rooms, rate, messageSize, warmupSeconds, durationSeconds);
+    }
+}
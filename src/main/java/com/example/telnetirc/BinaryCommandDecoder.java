@@ -0,0 +1,117 @@
+package com.example.telnetirc;
+
+import com.example.telnetirc.command.*;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.CharsetUtil;
+
+import java.util.List;
+
+/**
+ * <p>Декодер команд бинарного протокола ({@link com.example.telnetirc.chat.BinaryFrame}).</p>
+ * <p>Кадр клиента: длина (4 байта, без учета самой длины), тип команды (1 байт), аргументы. Аргумент - длина
+ * (2 байта) и строка в UTF-8. Текст сообщения в канал ({@link #CHAT}) идет без длины, до конца кадра, и передается
+ * в {@link ChatCommand} срезом буфера, как в {@link LineCommandDecoder}. Команды те же, что и в текстовом
+ * протоколе, и обрабатываются тем же {@link ChatServerHandler}</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class BinaryCommandDecoder extends ByteToMessageDecoder {
+
+    public static final byte LOGIN = 1;
+    public static final byte JOIN = 2;
+    public static final byte PART = 3;
+    public static final byte LEAVE = 4;
+    public static final byte USERS = 5;
+    public static final byte CHAT = 6;
+    public static final byte MSG = 7;
+    public static final byte STATS = 8;
+
+    private static final String[] NO_ARGS = new String[0];
+
+    private final int maxFrameLength;
+
+    /**
+     *
+     * @param maxFrameLength максимальная длина кадра без учета длины
+     */
+    public BinaryCommandDecoder(int maxFrameLength) {
+        if (maxFrameLength < 1) throw new IllegalArgumentException("max frame length should be positive");
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        if (in.readableBytes() < 4) return;
+
+        int length = in.getInt(in.readerIndex());
+        if (length < 1 || length > maxFrameLength) {
+            // после неверной длины границы кадров потеряны, продолжать разбор нельзя
+            in.skipBytes(in.readableBytes());
+            ctx.close();
+            throw new TooLongFrameException("invalid frame length: " + length);
+        }
+        if (in.readableBytes() < 4 + length) return;
+
+        int start = in.readerIndex() + 5;
+        int end = in.readerIndex() + 4 + length;
+        byte type = in.getByte(start - 1);
+        in.readerIndex(end);
+
+        if (type == CHAT) {
+            if (end == start) throw new IllegalArgumentException("chat message can not be empty");
+            out.add(new ChatCommand(in.slice(start, end - start).retain()));
+            return;
+        }
+
+        String[] args = args(in, start, end);
+        switch (type) {
+            case LOGIN:
+                out.add(new LoginCommand(args));
+                break;
+            case JOIN:
+                out.add(new JoinCommand(args));
+                break;
+            case PART:
+                out.add(new PartCommand(args));
+                break;
+            case LEAVE:
+                out.add(new LeaveCommand(args));
+                break;
+            case USERS:
+                out.add(new UsersCommand(args));
+                break;
+            case MSG:
+                out.add(new MsgCommand(args));
+                break;
+            case STATS:
+                out.add(new StatsCommand(args));
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid command");
+        }
+    }
+
+    private static String[] args(ByteBuf in, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i += 2 + in.getUnsignedShort(i)) {
+            if (i + 2 > end || i + 2 + in.getUnsignedShort(i) > end) {
+                throw new IllegalArgumentException("invalid command arguments");
+            }
+            count++;
+        }
+        if (count == 0) return NO_ARGS;
+
+        String[] args = new String[count];
+        int index = start;
+        for (int i = 0; i < count; i++) {
+            int length = in.getUnsignedShort(index);
+            args[i] = in.toString(index + 2, length, CharsetUtil.UTF_8);
+            index += 2 + length;
+        }
+        return args;
+    }
+}
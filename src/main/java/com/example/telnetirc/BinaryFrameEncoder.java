@@ -0,0 +1,36 @@
+package com.example.telnetirc;
+
+import com.example.telnetirc.chat.BinaryFrame;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * <p>Кодировщик ответов сервера в кадры {@link BinaryFrame#TEXT} для бинарных соединений.</p>
+ * <p>Заменяет {@link io.netty.handler.codec.string.StringEncoder}: строки и буферы ответов, которые обработчики
+ * пишут так же, как в текстовые соединения, уходят кадрами. Уже закодированные кадры (сообщения каналов, личные
+ * сообщения) пишутся через контекст этого обработчика и проходят мимо него</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+@Sharable
+public class BinaryFrameEncoder extends ChannelOutboundHandlerAdapter {
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ByteBuf) {
+            ByteBuf text = (ByteBuf) msg;
+            try {
+                msg = BinaryFrame.text(ctx.alloc(), text);
+            } finally {
+                text.release();
+            }
+        } else if (msg instanceof CharSequence) {
+            msg = BinaryFrame.text(ctx.alloc(), (CharSequence) msg);
+        }
+        ctx.write(msg, promise);
+    }
+}
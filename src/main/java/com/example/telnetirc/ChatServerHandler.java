@@ -1,23 +1,47 @@
 package com.example.telnetirc;
 
+import com.example.telnetirc.auth.AuthResult;
 import com.example.telnetirc.auth.AuthService;
+import com.example.telnetirc.chat.BinaryFrame;
 import com.example.telnetirc.chat.ChatChannel;
+import com.example.telnetirc.chat.ChatChannelFactory;
+import com.example.telnetirc.chat.ChatMessage;
+import com.example.telnetirc.chat.OverflowPolicy;
 import com.example.telnetirc.command.*;
+import com.example.telnetirc.metrics.ServerMetrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.channel.group.DefaultChannelGroup;
-import io.netty.util.AttributeKey;
-import io.netty.util.concurrent.GlobalEventExecutor;
-
-import java.text.MessageFormat;
-import java.util.*;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Обработчик команд чата, поступаемых от пользователя
+ * <p>Обработчик команд чата, поступаемых от пользователя</p>
+ * <p>Пользователь может состоять в нескольких каналах (до {@link #USER_ROOM_LIMIT}): {@code /join} добавляет канал
+ * и делает его активным, {@code /part} выходит из одного канала, строка {@code #канал текст} отправляет сообщение в
+ * указанный канал, остальные сообщения и {@code /users} без аргумента относятся к активному каналу.</p>
+ * <p>Личное сообщение ({@code /msg}) находит соединение получателя в {@link SessionRegistry} и пишется в него
+ * напрямую, минуя каналы чата</p>
+ * <p>Когда соединение закрывается (командой выхода, клиентом или по таймауту {@link IdleTimeoutHandler}),
+ * пользователь выходит из всех своих каналов чата и его сессия завершается. Канал чата, оставшийся пустым в течение
+ * {@code roomGracePeriod}, удаляется вместе с его историей и показателями</p>
+ * <p>Ответы сервера пишутся заранее закодированными буферами {@link ServerMessages}</p>
+ * <p>Команда выбирается по коду ({@link Command#getOpcode()}), состояние пользователя берется из {@link ChatSession}:
+ * сообщение чата доходит до канала без поиска по картам и, если канал в том же event loop-е, без выделения
+ * памяти</p>
  *
  * @author Denis Pakhomov.
  * @version 1.0
@@ -25,57 +49,288 @@ import java.util.stream.Collectors;
 @Sharable
 public class ChatServerHandler extends SimpleChannelInboundHandler<Command> {
 
-    private final int userChannelLimit;
-    private final static int LAST_MESSAGE_COUNT = 10;
+    final static int LAST_MESSAGE_COUNT = 10;
+    final static long ROOM_GRACE_SECONDS = 60;
+    final static int USER_ROOM_LIMIT = 32;
 
-    private ResourceBundle resource = PropertyResourceBundle.getBundle("messages/messages", Locale.getDefault());
+    private final ChatChannelFactory chatChannelFactory;
 
-    private final Map<Class<? extends Command>, CommandHandler> commandDispatcher =
-            new HashMap<>();
+    private final ServerMessages messages = ServerMessages.forLocale(Locale.getDefault());
 
     private final AuthService authService;
+    private final ServerMetrics metrics;
+    private final Set<String> operators;
+    private final long roomGracePeriodNanos;
     private final ConcurrentHashMap<String, ChatChannel> chatChannelMap = new ConcurrentHashMap<>();
+    private final SessionRegistry sessions = new SessionRegistry();
 
-    private final AttributeKey<String> usernameAttr = AttributeKey.valueOf("username");
-    private final AttributeKey<String> chatChannelNameAttr = AttributeKey.valueOf("chatChannel");
-
-    private Function<ChannelHandlerContext, Optional<String>> usernameGetter = ctx -> Optional.ofNullable(
-            ctx.channel().attr(usernameAttr).get());
-    private Function<ChannelHandlerContext, Optional<String>> chatChannelGetter = ctx -> Optional.ofNullable(
-            ctx.channel().attr(chatChannelNameAttr).get());
+    private final LoginHandler loginHandler = new LoginHandler();
+    private final LeaveHandler leaveHandler = new LeaveHandler();
+    private final JoinHandler joinHandler = new JoinHandler();
+    private final PartHandler partHandler = new PartHandler();
+    private final UsersHandler usersHandler = new UsersHandler();
+    private final ChatHandler chatHandler = new ChatHandler();
+    private final MsgHandler msgHandler = new MsgHandler();
+    private final StatsHandler statsHandler = new StatsHandler();
 
     public ChatServerHandler(int userChannelLimit, AuthService authService) {
+        this(userChannelLimit, authService, new ServerMetrics(), Collections.emptySet());
+    }
+
+    /**
+     *
+     * @param userChannelLimit максимальное количество пользователей в канале чата
+     * @param authService сервис аутентификации
+     * @param metrics реестр показателей сервера
+     * @param operators пользователи, которым доступны команды оператора
+     */
+    public ChatServerHandler(int userChannelLimit, AuthService authService, ServerMetrics metrics,
+                             Set<String> operators) {
+        this(new ChatChannelFactory(userChannelLimit, LAST_MESSAGE_COUNT,
+                name -> OverflowPolicy.dropOldest(LAST_MESSAGE_COUNT), metrics), authService, metrics, operators);
+    }
+
+    public ChatServerHandler(ChatChannelFactory chatChannelFactory, AuthService authService) {
+        this(chatChannelFactory, authService, new ServerMetrics(), Collections.emptySet());
+    }
+
+    /**
+     *
+     * @param chatChannelFactory создание каналов чата
+     * @param authService сервис аутентификации
+     * @param metrics реестр показателей сервера
+     * @param operators пользователи, которым доступны команды оператора
+     */
+    public ChatServerHandler(ChatChannelFactory chatChannelFactory, AuthService authService, ServerMetrics metrics,
+                             Set<String> operators) {
+        this(chatChannelFactory, authService, metrics, operators, ROOM_GRACE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     *
+     * @param chatChannelFactory создание каналов чата
+     * @param authService сервис аутентификации
+     * @param metrics реестр показателей сервера
+     * @param operators пользователи, которым доступны команды оператора
+     * @param roomGracePeriod сколько канал чата может оставаться пустым, прежде чем будет удален
+     * @param unit единица измерения времени
+     */
+    public ChatServerHandler(ChatChannelFactory chatChannelFactory, AuthService authService, ServerMetrics metrics,
+                             Set<String> operators, long roomGracePeriod, TimeUnit unit) {
+        if (roomGracePeriod < 0) throw new IllegalArgumentException("room grace period can't be negative");
 
-        this.userChannelLimit = userChannelLimit;
+        this.chatChannelFactory = chatChannelFactory;
         this.authService = authService;
+        this.metrics = metrics;
+        this.operators = operators;
+        this.roomGracePeriodNanos = unit.toNanos(roomGracePeriod);
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        metrics.connectionOpened(ctx.channel());
+        ctx.fireChannelActive();
+    }
 
-        commandDispatcher.put(LoginCommand.class, new LoginHandler());
-        commandDispatcher.put(LeaveCommand.class, new LeaveHandler());
-        commandDispatcher.put(JoinCommand.class, new JoinHandler());
-        commandDispatcher.put(UsersCommand.class, new UsersHandler());
-        commandDispatcher.put(ChatCommand.class, new ChatHandler());
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        logout(ctx);
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof IdleStateEvent) {
+            metrics.idleDisconnect();
+            if (((IdleStateEvent) evt).state() == IdleState.READER_IDLE) {
+                ctx.writeAndFlush(messages.get("idle.timeout"));
+            }
+            // соединение, не забирающее данные, закрывается без прощального сообщения
+            ctx.close();
+        } else {
+            ctx.fireUserEventTriggered(evt);
+        }
     }
 
     @Override
     public void channelRegistered(ChannelHandlerContext ctx) throws Exception {
-        ctx.channel().writeAndFlush(resource.getString("welcome"));
+        ctx.channel().writeAndFlush(messages.get("welcome"));
     }
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, Command msg) throws Exception {
+        metrics.commandDecoded(msg.getOpcode());
+
+        ChatSession session = ChatSession.get(ctx.channel());
+        switch (msg.getOpcode()) {
+            case CHAT:
+                chatHandler.handle(ctx, session, (ChatCommand) msg);
+                break;
+            case MSG:
+                msgHandler.handle(ctx, session, (MsgCommand) msg);
+                break;
+            case LOGIN:
+                loginHandler.handle(ctx, session, (LoginCommand) msg);
+                break;
+            case JOIN:
+                joinHandler.handle(ctx, session, (JoinCommand) msg);
+                break;
+            case PART:
+                partHandler.handle(ctx, session, (PartCommand) msg);
+                break;
+            case USERS:
+                usersHandler.handle(ctx, session, (UsersCommand) msg);
+                break;
+            case LEAVE:
+                leaveHandler.handle(ctx, session, (LeaveCommand) msg);
+                break;
+            case STATS:
+                statsHandler.handle(ctx, session, (StatsCommand) msg);
+                break;
+            default:
+                ctx.writeAndFlush(messages.get("handler.error.not_implemented"));
+        }
+    }
 
-        if (commandDispatcher.containsKey(msg.getClass())) {
-            commandDispatcher.get(msg.getClass()).handle(ctx, msg);
-        } else
-            ctx.writeAndFlush(resource.getString("handler.error.not_implemented"));
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        ChatSession session = ChatSession.get(ctx.channel());
+        if (ctx.channel().isWritable() && session.getRoomCount() > 0) {
+            // отложенные сообщения участника хранят шарды его event loop-а, то есть этого соединения
+            long skipped = 0;
+            for (int i = 0; i < session.getRoomCount(); i++) {
+                skipped += session.roomAt(i).resume(ctx.channel());
+            }
+            if (skipped > 0) {
+                ctx.writeAndFlush(messages.template("chat.warning.lagged").format(ctx.alloc(), skipped));
+            }
+        }
+        ctx.fireChannelWritabilityChanged();
     }
 
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        if (cause instanceof DecoderException) metrics.decodeError();
+
         String message = Optional.ofNullable(cause.getCause()).map(e -> e.getMessage()).orElse(cause.getMessage());
         ctx.writeAndFlush(String.format("Error: %s\r\n", message));
     }
 
+    /**
+     * Выполнить действие в event loop-е канала чата; ошибки отправляются в pipeline соединения пользователя
+     *
+     * @param ctx контекст соединения пользователя
+     * @param chatChannel канал чата
+     * @param task действие с каналом чата
+     */
+    private static void inChatChannel(ChannelHandlerContext ctx, ChatChannel chatChannel, Runnable task) {
+        if (chatChannel.inEventLoop()) {
+            run(ctx, task);
+        } else {
+            chatChannel.execute(() -> run(ctx, task));
+        }
+    }
+
+    private static void run(ChannelHandlerContext ctx, Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            ctx.pipeline().fireExceptionCaught(e);
+        }
+    }
+
+    /**
+     * Выполнить действие в event loop-е соединения пользователя, например, из задачи канала чата
+     *
+     * @param ctx контекст соединения пользователя
+     * @param task действие с сессией пользователя
+     */
+    private static void inConnection(ChannelHandlerContext ctx, Runnable task) {
+        if (ctx.executor().inEventLoop()) {
+            task.run();
+        } else {
+            ctx.executor().execute(task);
+        }
+    }
+
+    /**
+     * Закрыть соединение пользователя, вошедшего на этом сервере; например, если узел-владелец имени в кластере отдал
+     * сессию другому узлу. Может вызываться из любого потока
+     *
+     * @param username имя пользователя
+     */
+    public void disconnect(String username) {
+        Channel channel = sessions.find(username);
+        if (channel != null) {
+            channel.writeAndFlush(messages.get("session.revoked")).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    /**
+     * Вывести пользователя соединения из всех его каналов чата и завершить его сессию; повторный вызов ничего не
+     * делает
+     *
+     * @param ctx контекст соединения пользователя
+     */
+    private void logout(ChannelHandlerContext ctx) {
+        ChatSession session = ChatSession.get(ctx.channel());
+        String username = session.logout();
+        if (username == null) return;
+        sessions.unregister(username, ctx.channel());
+
+        // только каналы пользователя, без обхода всех каналов сервера
+        while (session.getRoomCount() > 0) {
+            int last = session.getRoomCount() - 1;
+            leave(ctx, session, username, session.roomNameAt(last), session.roomAt(last));
+        }
+        if (authService.logout(username)) metrics.sessionClosed();
+    }
+
+    /**
+     * Вывести пользователя из канала чата сессии; если канал опустел, запланировать его удаление
+     *
+     * @param ctx контекст соединения пользователя
+     * @param session сессия пользователя
+     * @param username имя пользователя
+     * @param channelName имя канала чата
+     * @param chatChannel канал чата из каналов сессии
+     */
+    private void leave(ChannelHandlerContext ctx, ChatSession session, String username, String channelName,
+                       ChatChannel chatChannel) {
+        session.exit(chatChannel);
+
+        Channel channel = ctx.channel();
+        inChatChannel(ctx, chatChannel, () -> {
+            chatChannel.leave(channel, username);
+            // канал мог опустеть и раньше, например, если участник отключен по OverflowPolicy
+            if (chatChannel.getEmptySince() != 0) scheduleRemoval(channelName, chatChannel);
+        });
+    }
+
+    /**
+     * Удалить канал чата, если он останется пустым {@code roomGracePeriod}; вызывается в event loop-е канала
+     *
+     * @param channelName имя канала чата
+     * @param chatChannel пустой канал чата
+     */
+    private void scheduleRemoval(String channelName, ChatChannel chatChannel) {
+        long emptySince = chatChannel.getEmptySince();
+
+        chatChannel.schedule(() -> {
+            // в канал входили: удаление запланирует следующий выход
+            if (chatChannel.getEmptySince() != emptySince) return;
+
+            // вход в канал отмечается в compute той же карты, поэтому канал не удаляется между выбором канала
+            // для входа и самим входом; закрытие истории ставится в исполнитель историй раньше, чем открытие
+            // истории канала с тем же именем
+            chatChannelMap.computeIfPresent(channelName, (name, room) -> {
+                if (room != chatChannel || room.hasPendingJoins()) return room;
+                chatChannelFactory.remove(name, room);
+                return null;
+            });
+        }, roomGracePeriodNanos, TimeUnit.NANOSECONDS);
+    }
+
     //region command handlers
 
     /**
@@ -85,39 +340,72 @@ public class ChatServerHandler extends SimpleChannelInboundHandler<Command> {
      */
     private interface CommandHandler<T extends Command> {
 
-        @SuppressWarnings("unchecked")
-        default void handle(ChannelHandlerContext ctx, Command command) {
-            handleInner(ctx, (T) command);
-        }
-
-        void handleInner(ChannelHandlerContext ctx, T command);
+        void handle(ChannelHandlerContext ctx, ChatSession session, T command);
     }
 
     /**
-     * Обработчик команды аутентификации пользователя
+     * <p>Обработчик команды аутентификации пользователя</p>
+     * <p>Аутентификация выполняется асинхронно, ответ пишется в event loop-е соединения, когда она завершится.
+     * Пока аутентификация не завершилась, повторная команда входа отклоняется</p>
      */
     private class LoginHandler implements CommandHandler<LoginCommand> {
 
         @Override
-        public void handleInner(ChannelHandlerContext ctx, LoginCommand command) {
-            if (usernameGetter.apply(ctx).isPresent()) {
-                ctx.writeAndFlush(resource.getString("login.error.already_auth"));
+        public void handle(ChannelHandlerContext ctx, ChatSession session, LoginCommand command) {
+            if (session.getUsername() != null) {
+                ctx.writeAndFlush(messages.get("login.error.already_auth"));
+                return;
+            }
+            if (session.isLoginPending()) {
+                ctx.writeAndFlush(messages.get("login.error.pending"));
+                return;
+            }
+            session.setLoginPending(true);
+
+            CompletableFuture<AuthResult> result;
+            try {
+                result = authService.authenticateAsync(command.getName(), command.getPassword());
+            } catch (RuntimeException e) {
+                session.setLoginPending(false);
+                throw e;
+            }
+
+            result.whenComplete((authResult, error) -> inConnection(ctx,
+                    () -> completed(ctx, session, command.getName(), authResult, error)));
+        }
+
+        private void completed(ChannelHandlerContext ctx, ChatSession session, String username,
+                               AuthResult authResult, Throwable error) {
+            session.setLoginPending(false);
+
+            if (error != null) {
+                ctx.pipeline().fireExceptionCaught(error);
+                return;
+            }
+            if (!ctx.channel().isActive()) {
+                // соединение закрылось, пока шла аутентификация
+                if (authResult == AuthResult.AUTHENTICATED) authService.logout(username);
                 return;
             }
 
-            switch (authService.authenticate(command.getName(), command.getPassword())) {
+            switch (authResult) {
                 case INCORRECT_PASSWORD:
-                    ctx.writeAndFlush(resource.getString("login.error.incorrect_password"));
+                    ctx.writeAndFlush(messages.get("login.error.incorrect_password"));
                     break;
                 case ALREADY_AUTHENTICATED:
-                    ctx.writeAndFlush(resource.getString("login.error.another_auth"));
+                    ctx.writeAndFlush(messages.get("login.error.another_auth"));
                     break;
                 case AUTHENTICATED:
-                    ctx.channel().attr(usernameAttr).set(command.getName());
-                    ctx.writeAndFlush(resource.getString("login.success"));
+                    session.login(username);
+                    sessions.register(username, ctx.channel());
+                    metrics.sessionOpened();
+                    ctx.writeAndFlush(messages.get("login.success"));
+                    break;
+                case BUSY:
+                    ctx.writeAndFlush(messages.get("login.error.busy"));
                     break;
                 default:
-                    ctx.writeAndFlush(resource.getString("login.error.unexpected"));
+                    ctx.writeAndFlush(messages.get("login.error.unexpected"));
             }
         }
     }
@@ -128,68 +416,156 @@ public class ChatServerHandler extends SimpleChannelInboundHandler<Command> {
     private class LeaveHandler implements CommandHandler<LeaveCommand> {
 
         @Override
-        public void handleInner(ChannelHandlerContext ctx, LeaveCommand command) {
-            usernameGetter.apply(ctx).ifPresent(username -> {
-                chatChannelGetter.apply(ctx).ifPresent(chatChannel -> chatChannelMap.get(chatChannel)
-                        .leave(ctx.channel(), username));
-                authService.logout(username);
-            });
+        public void handle(ChannelHandlerContext ctx, ChatSession session, LeaveCommand command) {
+            logout(ctx);
 
-            ctx.writeAndFlush(resource.getString("logout.success"));
+            ctx.writeAndFlush(messages.get("logout.success"));
             ctx.channel().close();
         }
     }
 
     /**
-     * Обработчик команды добавления пользователя в канал чата
+     * <p>Обработчик команды добавления пользователя в канал чата</p>
+     * <p>Канал добавляется к каналам пользователя и становится активным; если пользователь уже в канале, канал
+     * только становится активным</p>
+     * <p>Для канала, которого еще нет, сначала открывается история ({@link ChatChannelFactory#openHistory}) в
+     * исполнителе историй, и вход завершается в event loop-е соединения, когда история открыта; как и при
+     * аутентификации, пока вход не завершен, новый вход отклоняется</p>
      */
     private class JoinHandler implements CommandHandler<JoinCommand> {
 
         @Override
-        public void handleInner(ChannelHandlerContext ctx, JoinCommand command) {
+        public void handle(ChannelHandlerContext ctx, ChatSession session, JoinCommand command) {
+
+            String username = session.getUsername();
+            if (username == null) {
+                ctx.writeAndFlush(messages.get("join.error.anonymous"));
+                return;
+            }
+
+            if (session.isJoinPending()) {
+                ctx.writeAndFlush(messages.get("join.error.pending"));
+                return;
+            }
+
+            if (command.getChannel().equals(session.getRoomName())) {
+                ctx.writeAndFlush(messages.get("join.error.already_joined"));
+                return;
+            }
+
+            ChatChannel joined = session.getRoom(command.getChannel());
+            if (joined != null) {
+                session.enter(command.getChannel(), joined);
+                ctx.writeAndFlush(messages.get("join.active"));
+                return;
+            }
 
-            Optional<String> username = usernameGetter.apply(ctx);
-            if (!username.isPresent()) {
-                ctx.writeAndFlush(resource.getString("join.error.anonymous"));
+            if (session.getRoomCount() >= USER_ROOM_LIMIT) {
+                ctx.writeAndFlush(messages.get("join.error.room_limit"));
                 return;
             }
 
-            Optional<String> channelName = chatChannelGetter.apply(ctx);
+            ChatChannel chatChannel = chatChannelMap.computeIfPresent(command.getChannel(), (name, room) -> {
+                room.beginJoin();
+                return room;
+            });
+            if (chatChannel != null) {
+                join(ctx, session, username, command.getChannel(), chatChannel);
+                return;
+            }
+
+            session.setJoinPending(true);
+            chatChannelFactory.openHistory(command.getChannel()).whenComplete((history, error) -> inConnection(ctx,
+                    () -> opened(ctx, session, username, command, error)));
+        }
+
+        private void opened(ChannelHandlerContext ctx, ChatSession session, String username, JoinCommand command,
+                            Throwable error) {
+            session.setJoinPending(false);
+
+            if (error != null) {
+                ctx.pipeline().fireExceptionCaught(error);
+                return;
+            }
+            // соединение закрылось, пока открывалась история: ее заберет следующий вход в канал
+            if (!ctx.channel().isActive()) return;
+
+            Channel channel = ctx.channel();
+            ChatChannel chatChannel = chatChannelMap.compute(command.getChannel(), (name, existing) -> {
+                ChatChannel room = existing != null ? existing
+                        : chatChannelFactory.create(name, channel.eventLoop(), ctx.alloc());
+                if (room != null) room.beginJoin();
+                return room;
+            });
 
-            if (channelName.map(channel -> channel.equals(command.getChannel())).orElse(false)) {
-                ctx.writeAndFlush(resource.getString("join.error.already_joined"));
+            if (chatChannel == null) {
+                // историю забрал канал, который успели создать и удалить: открыть заново
+                handle(ctx, session, command);
                 return;
             }
+            join(ctx, session, username, command.getChannel(), chatChannel);
+        }
 
-            channelName.ifPresent(channel -> chatChannelMap.get(channel).leave(ctx.channel(), username.get()));
+        private void join(ChannelHandlerContext ctx, ChatSession session, String username, String channelName,
+                          ChatChannel chatChannel) {
+            Channel channel = ctx.channel();
+
+            // канал выставляется сразу, чтобы следующие команды пользователя шли в очередь того же канала
+            session.enter(channelName, chatChannel);
+
+            inChatChannel(ctx, chatChannel, () -> {
+                try {
+                    if (chatChannel.join(channel, username)) {
+                        ctx.writeAndFlush(messages.get("join.success"));
+                    } else {
+                        inConnection(ctx, () -> {
+                            session.exit(chatChannel);
+                            ctx.writeAndFlush(messages.get("join.error.user_limit"));
+                        });
+                    }
+                } finally {
+                    chatChannel.endJoin();
+                }
+            });
+        }
+    }
 
-            chatChannelMap.putIfAbsent(command.getChannel(), new ChatChannel(userChannelLimit, LAST_MESSAGE_COUNT,
-                    new DefaultChannelGroup(GlobalEventExecutor.INSTANCE)));
+    /**
+     * Обработчик команды выхода пользователя из одного канала чата
+     */
+    private class PartHandler implements CommandHandler<PartCommand> {
 
-            ChatChannel chatChannel = chatChannelMap.get(command.getChannel());
+        @Override
+        public void handle(ChannelHandlerContext ctx, ChatSession session, PartCommand command) {
+            String username = session.getUsername();
+            ChatChannel chatChannel = session.getRoom(command.getChannel());
 
-            if (chatChannel.join(ctx.channel(), username.get())) {
-                ctx.channel().attr(chatChannelNameAttr).set(command.getChannel());
-                ctx.writeAndFlush(resource.getString("join.success"));
+            if (username == null || chatChannel == null) {
+                ctx.writeAndFlush(messages.get("part.error.not_joined"));
+                return;
+            }
 
-            } else ctx.writeAndFlush(resource.getString("join.error.user_limit"));
+            leave(ctx, session, username, command.getChannel(), chatChannel);
+            ctx.writeAndFlush(messages.get("part.success"));
         }
     }
 
     /**
-     * Обработчик команды просмотра пользователей в канале чата
+     * Обработчик команды просмотра пользователей в активном или указанном канале чата
      */
     private class UsersHandler implements CommandHandler<UsersCommand> {
 
         @Override
-        public void handleInner(ChannelHandlerContext ctx, UsersCommand command) {
-            String message = chatChannelGetter.apply(ctx)
-                    .map(chatChannelName -> chatChannelMap.get(chatChannelName))
-                    .map(chatChannel -> chatChannel.users().collect(Collectors.joining(", ")))
-                    .map(users -> MessageFormat.format(resource.getString("users.online"), users))
-                    .orElse(resource.getString("users.error.no_channel"));
+        public void handle(ChannelHandlerContext ctx, ChatSession session, UsersCommand command) {
+            ChatChannel chatChannel = command.getChannel() != null ? session.getRoom(command.getChannel())
+                    : session.getRoom();
 
-            ctx.writeAndFlush(message);
+            if (chatChannel != null) {
+                inChatChannel(ctx, chatChannel, () -> ctx.writeAndFlush(messages.template("users.online")
+                        .format(ctx.alloc(), chatChannel.users()::iterator, ", ")));
+            } else {
+                ctx.writeAndFlush(messages.get("users.error.no_channel"));
+            }
         }
     }
 
@@ -199,16 +575,98 @@ public class ChatServerHandler extends SimpleChannelInboundHandler<Command> {
     private class ChatHandler implements CommandHandler<ChatCommand> {
 
         @Override
-        public void handleInner(ChannelHandlerContext ctx, ChatCommand command) {
+        public void handle(ChannelHandlerContext ctx, ChatSession session, ChatCommand command) {
+
+            String username = session.getUsername();
+            String target = command.getRoom();
+            ChatChannel targeted = target != null ? session.getRoom(target) : null;
+            // "#слово текст", где слово - не канал пользователя (хэштег), целиком идет в активный канал
+            ChatChannel chatChannel = targeted != null ? targeted : session.getRoom();
+
+            if (username == null) {
+                ctx.writeAndFlush(messages.get("chat.error.anonymous"));
+            } else if (chatChannel == null) {
+                ctx.writeAndFlush(messages.get("chat.error.no_channel"));
+            } else {
+                // текст декодируется до передачи в другой event loop: буфер команды освобождается после обработки
+                String text = targeted != null ? command.getMessage() : command.getLine();
+                if (chatChannel.inEventLoop()) {
+                    chat(ctx, chatChannel, username, text);
+                } else {
+                    chatChannel.execute(() -> chat(ctx, chatChannel, username, text));
+                }
+            }
+        }
+
+        /**
+         * Отправить сообщение в канал чата; вызывается в event loop-е канала
+         */
+        private void chat(ChannelHandlerContext ctx, ChatChannel chatChannel, String username, String text) {
+            try {
+                // вход в канал мог не состояться: сообщения, поставленные за ним в очередь, отклоняются
+                if (chatChannel.isMember(ctx.channel(), username)) {
+                    chatChannel.chat(username, text);
+                } else {
+                    ctx.writeAndFlush(messages.get("chat.error.no_channel"));
+                }
+            } catch (RuntimeException e) {
+                ctx.pipeline().fireExceptionCaught(e);
+            }
+        }
+    }
+
+    /**
+     * <p>Обработчик команды личного сообщения</p>
+     * <p>Сообщение кодируется один раз и пишется в соединение получателя одной записью. Если соединение получателя
+     * не готово к записи, сообщение не доставляется, а отправитель получает ошибку: личные сообщения не копятся в
+     * памяти сервера. Бинарный получатель получает кадр {@link BinaryFrame#PRIVATE}</p>
+     */
+    private class MsgHandler implements CommandHandler<MsgCommand> {
+
+        @Override
+        public void handle(ChannelHandlerContext ctx, ChatSession session, MsgCommand command) {
+            String username = session.getUsername();
+            if (username == null) {
+                ctx.writeAndFlush(messages.get("msg.error.anonymous"));
+                return;
+            }
 
-            Optional<String> username = usernameGetter.apply(ctx);
-            Optional<String> channelName = chatChannelGetter.apply(ctx);
+            Channel recipient = sessions.find(command.getRecipient());
+            if (recipient == null) {
+                ctx.writeAndFlush(messages.get("msg.error.offline"));
+            } else if (!recipient.isWritable()) {
+                ctx.writeAndFlush(messages.get("msg.error.busy"));
+            } else {
+                ChatMessage message = new ChatMessage(username, command.getText());
+                ChannelHandlerContext frames = BinaryFrame.encoder(recipient);
+                if (frames != null) {
+                    frames.writeAndFlush(BinaryFrame.message(recipient.alloc(), BinaryFrame.PRIVATE, message));
+                    return;
+                }
+
+                ByteBuf prefix = messages.get("msg.prefix");
+                String wire = message.toString();
+                ByteBuf buffer = recipient.alloc().buffer(prefix.readableBytes() + wire.length());
+                buffer.writeBytes(prefix);
+                ByteBufUtil.writeUtf8(buffer, wire);
+                recipient.writeAndFlush(buffer);
+            }
+        }
+    }
 
-            if (username.isPresent() && channelName.isPresent()) {
-                chatChannelMap.get(channelName.get()).chat(username.get(), command.getMessage());
+    /**
+     * Обработчик команды оператора для просмотра показателей сервера
+     */
+    private class StatsHandler implements CommandHandler<StatsCommand> {
+
+        @Override
+        public void handle(ChannelHandlerContext ctx, ChatSession session, StatsCommand command) {
+            String username = session.getUsername();
+            if (username != null && operators.contains(username)) {
+                ctx.write(messages.get("stats.header"));
+                ctx.writeAndFlush(metrics.report());
             } else {
-                String messageCode = !username.isPresent() ? "chat.error.anonymous" : "chat.error.no_channel";
-                ctx.writeAndFlush(resource.getString(messageCode));
+                ctx.writeAndFlush(messages.get("stats.error.forbidden"));
             }
         }
     }
@@ -0,0 +1,189 @@
+package com.example.telnetirc;
+
+import com.example.telnetirc.chat.ChatChannel;
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+import java.util.Arrays;
+
+/**
+ * <p>Сессия пользователя в соединении: имя вошедшего пользователя и каналы чата, в которых он состоит.</p>
+ * <p>Сессия хранится в одном атрибуте соединения, поэтому обработчик команд получает все состояние пользователя
+ * одним обращением, а канал чата - прямой ссылкой, без поиска по имени в общей карте каналов.</p>
+ * <p>Каналы пользователя хранятся в компактном наборе - массивах каналов и их имен в порядке входа: пользователь
+ * состоит в небольшом числе каналов, поэтому поиск, выход при отключении и выбор канала для сообщения проходят
+ * только по его каналам. Один из каналов активный: в него идут сообщения без указания канала.</p>
+ * <p>Сессия меняется и читается только в event loop-е соединения</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public final class ChatSession {
+
+    private static final AttributeKey<ChatSession> SESSION = AttributeKey.valueOf("chatSession");
+
+    private static final ChatChannel[] NO_ROOMS = new ChatChannel[0];
+    private static final String[] NO_NAMES = new String[0];
+
+    private String username;
+    private boolean loginPending;
+    private boolean joinPending;
+    private String roomName;
+    private ChatChannel room;
+    private ChatChannel[] rooms = NO_ROOMS;
+    private String[] roomNames = NO_NAMES;
+    private int roomCount;
+
+    /**
+     * Сессия соединения; создается при первом обращении
+     *
+     * @param channel соединение пользователя
+     * @return сессия соединения
+     */
+    public static ChatSession get(Channel channel) {
+        Attribute<ChatSession> attribute = channel.attr(SESSION);
+        ChatSession session = attribute.get();
+        if (session == null) {
+            session = new ChatSession();
+            ChatSession existing = attribute.setIfAbsent(session);
+            if (existing != null) session = existing;
+        }
+        return session;
+    }
+
+    /**
+     * @return имя вошедшего пользователя, null - пользователь не вошел
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * @param username имя пользователя, прошедшего аутентификацию
+     */
+    public void login(String username) {
+        if (username == null || username.isEmpty()) throw new IllegalArgumentException("user is null or empty");
+        this.username = username;
+    }
+
+    /**
+     * Завершить сессию пользователя; каналы чата сессии остаются, их нужно покинуть отдельно
+     *
+     * @return имя пользователя, null - пользователь не входил
+     */
+    public String logout() {
+        String username = this.username;
+        this.username = null;
+        return username;
+    }
+
+    /**
+     * @return идет ли аутентификация
+     */
+    public boolean isLoginPending() {
+        return loginPending;
+    }
+
+    public void setLoginPending(boolean loginPending) {
+        this.loginPending = loginPending;
+    }
+
+    /**
+     * @return идет ли вход в канал, история которого открывается
+     */
+    public boolean isJoinPending() {
+        return joinPending;
+    }
+
+    public void setJoinPending(boolean joinPending) {
+        this.joinPending = joinPending;
+    }
+
+    /**
+     * @return имя активного канала чата, null - пользователь не в канале
+     */
+    public String getRoomName() {
+        return roomName;
+    }
+
+    /**
+     * @return активный канал чата, null - пользователь не в канале; вход в канал может быть еще не выполнен
+     */
+    public ChatChannel getRoom() {
+        return room;
+    }
+
+    /**
+     * @param roomName имя канала
+     * @return канал чата с этим именем, если пользователь в нем состоит, иначе null
+     */
+    public ChatChannel getRoom(String roomName) {
+        for (int i = 0; i < roomCount; i++) {
+            if (roomNames[i].equals(roomName)) return rooms[i];
+        }
+        return null;
+    }
+
+    /**
+     * @return в скольких каналах чата состоит пользователь
+     */
+    public int getRoomCount() {
+        return roomCount;
+    }
+
+    ChatChannel roomAt(int index) {
+        return rooms[index];
+    }
+
+    String roomNameAt(int index) {
+        return roomNames[index];
+    }
+
+    /**
+     * Добавить канал чата в каналы пользователя и сделать его активным: следующие команды пользователя без
+     * указания канала идут в очередь этого канала
+     *
+     * @param roomName имя канала
+     * @param room канал чата
+     */
+    void enter(String roomName, ChatChannel room) {
+        this.roomName = roomName;
+        this.room = room;
+        if (getRoom(roomName) == room) return;
+
+        if (roomCount == rooms.length) {
+            int capacity = Math.max(4, roomCount * 2);
+            rooms = Arrays.copyOf(rooms, capacity);
+            roomNames = Arrays.copyOf(roomNames, capacity);
+        }
+        rooms[roomCount] = room;
+        roomNames[roomCount] = roomName;
+        roomCount++;
+    }
+
+    /**
+     * Убрать канал чата из каналов пользователя; если канал был активным, активным становится канал, в который
+     * пользователь вошел последним
+     *
+     * @param room канал чата
+     */
+    void exit(ChatChannel room) {
+        for (int i = 0; i < roomCount; i++) {
+            if (rooms[i] != room) continue;
+
+            // сдвиг сохраняет порядок входа в каналы
+            System.arraycopy(rooms, i + 1, rooms, i, roomCount - i - 1);
+            System.arraycopy(roomNames, i + 1, roomNames, i, roomCount - i - 1);
+            roomCount--;
+            rooms[roomCount] = null;
+            roomNames[roomCount] = null;
+            break;
+        }
+
+        if (this.room == room) {
+            this.room = roomCount > 0 ? rooms[roomCount - 1] : null;
+            this.roomName = roomCount > 0 ? roomNames[roomCount - 1] : null;
+        }
+    }
+}
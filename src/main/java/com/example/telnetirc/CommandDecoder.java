@@ -23,8 +23,11 @@ public class CommandDecoder extends MessageToMessageDecoder<String> {
     public CommandDecoder() {
         operationCommandMap.put("/login", LoginCommand::new);
         operationCommandMap.put("/join", JoinCommand::new);
+        operationCommandMap.put("/part", PartCommand::new);
+        operationCommandMap.put("/msg", MsgCommand::new);
         operationCommandMap.put("/leave", LeaveCommand::new);
         operationCommandMap.put("/users", UsersCommand::new);
+        operationCommandMap.put("/stats", StatsCommand::new);
     }
 
     @Override
@@ -34,7 +37,8 @@ public class CommandDecoder extends MessageToMessageDecoder<String> {
 
         if (msg.startsWith("/")) {
 
-            String[] parts = msg.trim().split("\\s");
+            // текст личного сообщения - остаток строки вместе с пробелами
+            String[] parts = msg.startsWith("/msg") ? msg.trim().split("\\s+", 3) : msg.trim().split("\\s");
             String prefix = parts[0];
             String[] args = parts.length > 1 ? Arrays.copyOfRange(parts, 1, parts.length) : new String[0];
 
@@ -0,0 +1,170 @@
+package com.example.telnetirc;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Обнаружение мертвых соединений.</p>
+ * <p>{@link IdleStateEvent#READER_IDLE_STATE_EVENT} - от пользователя ничего не приходило {@code readTimeout};
+ * {@link IdleStateEvent#WRITER_IDLE_STATE_EVENT} - соединение не готово к записи (исходящий буфер выше верхней
+ * отметки) дольше {@code writeTimeout}, то есть клиент не забирает данные. События передаются дальше по pipeline,
+ * решение об отключении принимает обработчик команд</p>
+ * <p>Проверки выполняются в общем {@link Timer} (обычно {@link io.netty.util.HashedWheelTimer}), а не задачами
+ * event loop-а: у таймера дешевые вставка и отмена, а точность до такта таймера для таких таймаутов достаточна.
+ * Чтение только запоминает время, таймаут перепланируется на остаток, когда срабатывает</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class IdleTimeoutHandler extends ChannelInboundHandlerAdapter {
+
+    private final Timer timer;
+    private final long readTimeoutNanos;
+    private final long writeTimeoutNanos;
+
+    private volatile long lastRead;
+    private volatile long unwritableSince;
+    private volatile Timeout readTimeout;
+    private volatile Timeout writeTimeout;
+    private boolean active;
+
+    /**
+     *
+     * @param timer таймер проверок, общий для соединений
+     * @param readTimeout сколько ждать данных от пользователя, 0 - не ограничено
+     * @param writeTimeout сколько соединение может быть не готово к записи, 0 - не ограничено
+     * @param unit единица измерения таймаутов
+     */
+    public IdleTimeoutHandler(Timer timer, long readTimeout, long writeTimeout, TimeUnit unit) {
+        if (readTimeout < 0 || writeTimeout < 0) throw new IllegalArgumentException("timeout can't be negative");
+
+        this.timer = timer;
+        this.readTimeoutNanos = unit.toNanos(readTimeout);
+        this.writeTimeoutNanos = unit.toNanos(writeTimeout);
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isActive() && ctx.channel().isRegistered()) start(ctx);
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        start(ctx);
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        lastRead = System.nanoTime();
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (active && writeTimeoutNanos > 0) {
+            if (ctx.channel().isWritable()) {
+                unwritableSince = 0;
+                if (writeTimeout != null) {
+                    writeTimeout.cancel();
+                    writeTimeout = null;
+                }
+            } else if (writeTimeout == null) {
+                unwritableSince = System.nanoTime();
+                writeTimeout = timer.newTimeout(new WriteTimeoutTask(ctx), writeTimeoutNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        stop();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        stop();
+    }
+
+    private void start(ChannelHandlerContext ctx) {
+        if (active) return;
+        active = true;
+
+        lastRead = System.nanoTime();
+        if (readTimeoutNanos > 0) {
+            readTimeout = timer.newTimeout(new ReadTimeoutTask(ctx), readTimeoutNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void stop() {
+        active = false;
+        if (readTimeout != null) readTimeout.cancel();
+        if (writeTimeout != null) writeTimeout.cancel();
+        readTimeout = null;
+        writeTimeout = null;
+    }
+
+    /**
+     * Передать событие в event loop-е соединения, если оно еще открыто
+     */
+    private static void fire(ChannelHandlerContext ctx, IdleStateEvent event) {
+        if (ctx.executor().inEventLoop()) {
+            if (ctx.channel().isActive()) ctx.fireUserEventTriggered(event);
+        } else {
+            ctx.executor().execute(() -> fire(ctx, event));
+        }
+    }
+
+    private final class ReadTimeoutTask implements TimerTask {
+
+        private final ChannelHandlerContext ctx;
+
+        private ReadTimeoutTask(ChannelHandlerContext ctx) {
+            this.ctx = ctx;
+        }
+
+        @Override
+        public void run(Timeout timeout) throws Exception {
+            if (timeout.isCancelled() || !ctx.channel().isOpen()) return;
+
+            long remaining = readTimeoutNanos - (System.nanoTime() - lastRead);
+            if (remaining <= 0) {
+                fire(ctx, IdleStateEvent.READER_IDLE_STATE_EVENT);
+                remaining = readTimeoutNanos;
+            }
+            readTimeout = timer.newTimeout(this, remaining, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private final class WriteTimeoutTask implements TimerTask {
+
+        private final ChannelHandlerContext ctx;
+
+        private WriteTimeoutTask(ChannelHandlerContext ctx) {
+            this.ctx = ctx;
+        }
+
+        @Override
+        public void run(Timeout timeout) throws Exception {
+            if (timeout.isCancelled() || !ctx.channel().isOpen()) return;
+
+            long since = unwritableSince;
+            if (since == 0) return;
+
+            long remaining = writeTimeoutNanos - (System.nanoTime() - since);
+            if (remaining <= 0) {
+                fire(ctx, IdleStateEvent.WRITER_IDLE_STATE_EVENT);
+            } else {
+                writeTimeout = timer.newTimeout(this, remaining, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+}
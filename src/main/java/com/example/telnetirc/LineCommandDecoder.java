@@ -0,0 +1,169 @@
+package com.example.telnetirc;
+
+import com.example.telnetirc.command.*;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufProcessor;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.CharsetUtil;
+
+import java.util.List;
+
+/**
+ * <p>Декодер команд пользователя, работающий напрямую с входящим буфером.</p>
+ * <p>Заменяет цепочку DelimiterBasedFrameDecoder -> StringDecoder -> {@link CommandDecoder}: находит конец строки,
+ * определяет команду по байтам префикса и вырезает аргументы из буфера. Строка чата передается дальше срезом
+ * буфера в {@link ChatCommand} и декодируется, только когда текст действительно понадобится</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class LineCommandDecoder extends ByteToMessageDecoder {
+
+    private static final byte[] LOGIN = ascii("login");
+    private static final byte[] MSG = ascii("msg");
+    private static final byte[] JOIN = ascii("join");
+    private static final byte[] PART = ascii("part");
+    private static final byte[] LEAVE = ascii("leave");
+    private static final byte[] USERS = ascii("users");
+    private static final byte[] STATS = ascii("stats");
+
+    private final int maxLineLength;
+    private boolean discarding;
+
+    /**
+     *
+     * @param maxLineLength максимальная длина строки без учета разделителя
+     */
+    public LineCommandDecoder(int maxLineLength) {
+        if (maxLineLength < 1) throw new IllegalArgumentException("max line length should be positive");
+        this.maxLineLength = maxLineLength;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+
+        int lineFeed = in.forEachByte(ByteBufProcessor.FIND_LF);
+
+        if (lineFeed < 0) {
+            if (in.readableBytes() > maxLineLength) {
+                int discarded = in.readableBytes();
+                in.skipBytes(discarded);
+                if (!discarding) {
+                    discarding = true;
+                    throw new TooLongFrameException("line length exceeds " + maxLineLength + ": " + discarded);
+                }
+            }
+            return;
+        }
+
+        int start = in.readerIndex();
+        int end = lineFeed > start && in.getByte(lineFeed - 1) == '\r' ? lineFeed - 1 : lineFeed;
+        in.readerIndex(lineFeed + 1);
+
+        if (discarding) {
+            discarding = false;
+            return;
+        }
+
+        if (end - start > maxLineLength) {
+            throw new TooLongFrameException("line length exceeds " + maxLineLength + ": " + (end - start));
+        }
+
+        if (end == start || in.getByte(start) != '/') {
+            out.add(new ChatCommand(in.slice(start, end - start).retain()));
+        } else {
+            out.add(decodeCommand(in, start, trimEnd(in, start, end)));
+        }
+    }
+
+    /**
+     * Разбор сервисной команды: опкод сравнивается побайтно, аргументы разделены пробельными символами
+     */
+    private static Command decodeCommand(ByteBuf in, int start, int end) {
+
+        int opcodeStart = start + 1;
+        int opcodeEnd = nextWhitespace(in, opcodeStart, end);
+        if (opcodeEnd - opcodeStart == 3 && matches(in, opcodeStart, MSG)) return decodeMsg(in, opcodeEnd, end);
+
+        String[] args = args(in, opcodeEnd, end);
+
+        switch (opcodeEnd - opcodeStart) {
+            case 4:
+                if (matches(in, opcodeStart, JOIN)) return new JoinCommand(args);
+                if (matches(in, opcodeStart, PART)) return new PartCommand(args);
+                break;
+            case 5:
+                if (matches(in, opcodeStart, LOGIN)) return new LoginCommand(args);
+                if (matches(in, opcodeStart, LEAVE)) return new LeaveCommand(args);
+                if (matches(in, opcodeStart, USERS)) return new UsersCommand(args);
+                if (matches(in, opcodeStart, STATS)) return new StatsCommand(args);
+                break;
+        }
+
+        throw new IllegalArgumentException("Invalid command");
+    }
+
+    /**
+     * Личное сообщение: первый аргумент - получатель, текст - остаток строки вместе с пробелами
+     */
+    private static Command decodeMsg(ByteBuf in, int from, int end) {
+        int recipientStart = skipWhitespace(in, from, end);
+        int recipientEnd = nextWhitespace(in, recipientStart, end);
+        int textStart = skipWhitespace(in, recipientEnd, end);
+
+        if (recipientStart == recipientEnd) return new MsgCommand(new String[0]);
+        return new MsgCommand(new String[]{
+                in.toString(recipientStart, recipientEnd - recipientStart, CharsetUtil.UTF_8),
+                in.toString(textStart, end - textStart, CharsetUtil.UTF_8)});
+    }
+
+    private static String[] args(ByteBuf in, int from, int end) {
+
+        int count = 0;
+        for (int i = skipWhitespace(in, from, end); i < end; i = skipWhitespace(in, nextWhitespace(in, i, end), end)) {
+            count++;
+        }
+
+        String[] args = new String[count];
+        int index = skipWhitespace(in, from, end);
+        for (int i = 0; i < count; i++) {
+            int argEnd = nextWhitespace(in, index, end);
+            args[i] = in.toString(index, argEnd - index, CharsetUtil.UTF_8);
+            index = skipWhitespace(in, argEnd, end);
+        }
+
+        return args;
+    }
+
+    private static boolean matches(ByteBuf in, int index, byte[] opcode) {
+        for (int i = 0; i < opcode.length; i++) {
+            if (in.getByte(index + i) != opcode[i]) return false;
+        }
+        return true;
+    }
+
+    private static int nextWhitespace(ByteBuf in, int index, int end) {
+        while (index < end && !isWhitespace(in.getByte(index))) index++;
+        return index;
+    }
+
+    private static int skipWhitespace(ByteBuf in, int index, int end) {
+        while (index < end && isWhitespace(in.getByte(index))) index++;
+        return index;
+    }
+
+    private static int trimEnd(ByteBuf in, int start, int end) {
+        while (end > start && isWhitespace(in.getByte(end - 1))) end--;
+        return end;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '\f' || b == 0x0B;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(CharsetUtil.US_ASCII);
+    }
+}
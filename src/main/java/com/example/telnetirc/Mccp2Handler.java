@@ -0,0 +1,270 @@
+package com.example.telnetirc;
+
+import com.example.telnetirc.metrics.ServerMetrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufProcessor;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import java.util.zip.Deflater;
+
+/**
+ * <p>Сжатие исходящих данных по протоколу MCCP2 (telnet-опция COMPRESS2, 86).</p>
+ * <p>При подключении сервер предлагает опцию ({@code IAC WILL COMPRESS2}). Если клиент соглашается
+ * ({@code IAC DO COMPRESS2}), сервер отправляет {@code IAC SB COMPRESS2 IAC SE}, и все последующие данные
+ * соединения идут одним zlib-потоком; {@code IAC DONT COMPRESS2} завершает поток, и данные снова идут без сжатия.
+ * Клиенты, не знающие опцию, ее игнорируют и получают данные как раньше.</p>
+ * <p>Записи сжимаются без сброса потока, а на flush поток сбрасывается ({@link Deflater#SYNC_FLUSH}), чтобы клиент
+ * мог распаковать все отправленное: чем больше сообщений между flush-ами (история при входе в канал, рассылки
+ * одного такта event loop-а), тем лучше сжатие. Поэтому обработчик стоит в pipeline ближе к сокету, чем
+ * {@link io.netty.handler.flush.FlushConsolidationHandler}. Если задан {@code resetBytes}, после стольких байт
+ * данных ближайший flush сбрасывает словарь ({@link Deflater#FULL_FLUSH}): сжатие чуть хуже, но клиент может
+ * начать распаковку с этой точки.</p>
+ * <p>Telnet-команды клиента ({@code IAC ...}) вырезаются из входящих данных, чтобы не попасть в команды чата</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class Mccp2Handler extends ChannelDuplexHandler {
+
+    static final byte IAC = (byte) 255;
+    static final byte DONT = (byte) 254;
+    static final byte DO = (byte) 253;
+    static final byte WONT = (byte) 252;
+    static final byte WILL = (byte) 251;
+    static final byte SB = (byte) 250;
+    static final byte SE = (byte) 240;
+    static final byte COMPRESS2 = 86;
+
+    private static final ByteBuf WILL_COMPRESS2 = command(IAC, WILL, COMPRESS2);
+    private static final ByteBuf START_COMPRESS2 = command(IAC, SB, COMPRESS2, IAC, SE);
+    private static final ByteBufProcessor FIND_IAC = value -> value != IAC;
+
+    private static final int DATA = 0;
+    private static final int COMMAND = 1;
+    private static final int OPTION = 2;
+    private static final int SUBNEGOTIATION = 3;
+    private static final int SUBNEGOTIATION_IAC = 4;
+
+    private final int level;
+    private final long resetBytes;
+    private final ServerMetrics metrics;
+
+    private int state = DATA;
+    private byte verb;
+
+    private Deflater deflater;
+    private boolean unflushed;
+    private long sinceReset;
+    private byte[] input;
+
+    /**
+     *
+     * @param level уровень сжатия zlib, от 1 до 9
+     * @param resetBytes через сколько байт данных сбрасывать словарь, 0 - не сбрасывать
+     * @param metrics реестр показателей сервера
+     */
+    public Mccp2Handler(int level, long resetBytes, ServerMetrics metrics) {
+        if (level < 1 || level > 9) throw new IllegalArgumentException("compression level should be from 1 to 9");
+        if (resetBytes < 0) throw new IllegalArgumentException("reset bytes can't be negative");
+
+        this.level = level;
+        this.resetBytes = resetBytes;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        ctx.writeAndFlush(WILL_COMPRESS2.duplicate());
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        end();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        end();
+    }
+
+    //region inbound
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof ByteBuf)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        ByteBuf in = (ByteBuf) msg;
+        // обычный случай - в данных нет telnet-команд, буфер передается как есть
+        if (state == DATA && in.forEachByte(FIND_IAC) < 0) {
+            ctx.fireChannelRead(in);
+            return;
+        }
+
+        ByteBuf out = ctx.alloc().buffer(in.readableBytes());
+        try {
+            for (int i = in.readerIndex(); i < in.writerIndex(); i++) {
+                byte value = in.getByte(i);
+                switch (state) {
+                    case DATA:
+                        if (value == IAC) {
+                            state = COMMAND;
+                        } else {
+                            out.writeByte(value);
+                        }
+                        break;
+                    case COMMAND:
+                        if (value == IAC) {
+                            // IAC IAC - байт 255 в данных
+                            out.writeByte(value);
+                            state = DATA;
+                        } else if (value == WILL || value == WONT || value == DO || value == DONT) {
+                            verb = value;
+                            state = OPTION;
+                        } else {
+                            state = value == SB ? SUBNEGOTIATION : DATA;
+                        }
+                        break;
+                    case OPTION:
+                        option(ctx, verb, value);
+                        state = DATA;
+                        break;
+                    case SUBNEGOTIATION:
+                        if (value == IAC) state = SUBNEGOTIATION_IAC;
+                        break;
+                    case SUBNEGOTIATION_IAC:
+                        state = value == SE ? DATA : SUBNEGOTIATION;
+                        break;
+                }
+            }
+        } finally {
+            in.release();
+        }
+
+        if (out.isReadable()) {
+            ctx.fireChannelRead(out);
+        } else {
+            out.release();
+        }
+    }
+
+    /**
+     * Ответ клиента на предложение сжатия; остальные опции не поддерживаются и игнорируются
+     */
+    private void option(ChannelHandlerContext ctx, byte verb, byte option) {
+        if (option != COMPRESS2) return;
+
+        if (verb == DO && deflater == null) {
+            start(ctx);
+        } else if (verb == DONT && deflater != null) {
+            stop(ctx);
+        }
+    }
+
+    //endregion
+
+    //region outbound
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (deflater == null || !(msg instanceof ByteBuf)) {
+            ctx.write(msg, promise);
+            return;
+        }
+
+        ByteBuf in = (ByteBuf) msg;
+        ByteBuf out;
+        try {
+            out = deflate(ctx, in, Deflater.NO_FLUSH);
+        } finally {
+            in.release();
+        }
+        unflushed = true;
+        ctx.write(out, promise);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        if (deflater != null && unflushed) {
+            unflushed = false;
+
+            int mode = Deflater.SYNC_FLUSH;
+            if (resetBytes > 0 && sinceReset >= resetBytes) {
+                mode = Deflater.FULL_FLUSH;
+                sinceReset = 0;
+            }
+            ctx.write(deflate(ctx, Unpooled.EMPTY_BUFFER, mode), ctx.voidPromise());
+        }
+        ctx.flush();
+    }
+
+    /**
+     * Клиент согласился на сжатие: маркер начала потока уходит без сжатия, все следующие записи - сжатыми
+     */
+    private void start(ChannelHandlerContext ctx) {
+        ctx.writeAndFlush(START_COMPRESS2.duplicate());
+        deflater = new Deflater(level);
+        sinceReset = 0;
+        metrics.compressionStarted();
+    }
+
+    /**
+     * Клиент отказался от сжатия: поток завершается, следующие записи идут без сжатия
+     */
+    private void stop(ChannelHandlerContext ctx) {
+        deflater.finish();
+        ByteBuf out = deflate(ctx, Unpooled.EMPTY_BUFFER, Deflater.NO_FLUSH);
+        end();
+        unflushed = false;
+        ctx.writeAndFlush(out);
+    }
+
+    /**
+     * Сжать данные буфера; результат - все, что zlib выдал к этому моменту (при {@link Deflater#NO_FLUSH} может
+     * быть пустым)
+     */
+    private ByteBuf deflate(ChannelHandlerContext ctx, ByteBuf in, int mode) {
+        int length = in.readableBytes();
+        if (in.hasArray()) {
+            deflater.setInput(in.array(), in.arrayOffset() + in.readerIndex(), length);
+        } else {
+            if (input == null || input.length < length) input = new byte[Math.max(length, 1024)];
+            in.getBytes(in.readerIndex(), input, 0, length);
+            deflater.setInput(input, 0, length);
+        }
+
+        ByteBuf out = ctx.alloc().heapBuffer(Math.max(64, length / 2));
+        for (;;) {
+            int writable = out.writableBytes();
+            int written = deflater.deflate(out.array(), out.arrayOffset() + out.writerIndex(), writable, mode);
+            out.writerIndex(out.writerIndex() + written);
+            // выходной буфер не заполнен целиком: zlib выдал все, что мог
+            if (written < writable) break;
+            out.ensureWritable(Math.max(64, out.capacity()));
+        }
+
+        sinceReset += length;
+        metrics.compressed(length, out.readableBytes());
+        return out;
+    }
+
+    //endregion
+
+    private void end() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+    }
+
+    private static ByteBuf command(byte... bytes) {
+        return Unpooled.unreleasableBuffer(Unpooled.unmodifiableBuffer(Unpooled.wrappedBuffer(bytes)));
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.telnetirc;
+
+import com.example.telnetirc.chat.BinaryFrame;
+import com.example.telnetirc.metrics.ServerMetrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.string.StringEncoder;
+
+import java.util.List;
+
+/**
+ * <p>Выбор протокола соединения по первым байтам клиента.</p>
+ * <p>Соединение настраивается для текстового протокола. Если клиент начинает с {@link BinaryFrame#MAGIC},
+ * обработчик переводит соединение на бинарный протокол: сжатие MCCP2 убирается, {@link LineCommandDecoder}
+ * заменяется на {@link BinaryCommandDecoder}, строковый кодировщик - на {@link BinaryFrameEncoder}, и клиенту
+ * отправляется {@link BinaryFrame#MAGIC}. Любой другой первый байт - текстовый протокол, и pipeline не меняется.
+ * После выбора обработчик удаляет себя, и дальше данные соединения идут без проверок</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class ProtocolSniffer extends ByteToMessageDecoder {
+
+    private static final BinaryFrameEncoder FRAME_ENCODER = new BinaryFrameEncoder();
+    private static final ByteBuf MAGIC = Unpooled.unreleasableBuffer(
+            Unpooled.unmodifiableBuffer(Unpooled.wrappedBuffer(BinaryFrame.MAGIC)));
+
+    private final int maxFrameLength;
+    private final ServerMetrics metrics;
+
+    /**
+     *
+     * @param maxFrameLength максимальная длина кадра бинарного протокола
+     * @param metrics реестр показателей сервера
+     */
+    public ProtocolSniffer(int maxFrameLength, ServerMetrics metrics) {
+        if (maxFrameLength < 1) throw new IllegalArgumentException("max frame length should be positive");
+        this.maxFrameLength = maxFrameLength;
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        int start = in.readerIndex();
+
+        if (in.getByte(start) != BinaryFrame.MAGIC[0]) {
+            // оставшиеся байты ByteToMessageDecoder передаст дальше при удалении
+            ctx.pipeline().remove(this);
+            return;
+        }
+        if (in.readableBytes() < BinaryFrame.MAGIC.length) return;
+
+        for (int i = 1; i < BinaryFrame.MAGIC.length; i++) {
+            if (in.getByte(start + i) != BinaryFrame.MAGIC[i]) {
+                in.skipBytes(in.readableBytes());
+                ctx.close();
+                return;
+            }
+        }
+        in.skipBytes(BinaryFrame.MAGIC.length);
+
+        ChannelPipeline pipeline = ctx.pipeline();
+        if (pipeline.get(Mccp2Handler.class) != null) pipeline.remove(Mccp2Handler.class);
+        pipeline.replace(LineCommandDecoder.class, "binaryCommandDecoder", new BinaryCommandDecoder(maxFrameLength));
+        pipeline.replace(StringEncoder.class, BinaryFrame.ENCODER, FRAME_ENCODER);
+        metrics.binaryConnection();
+
+        ctx.writeAndFlush(MAGIC.duplicate());
+        pipeline.remove(this);
+    }
+}
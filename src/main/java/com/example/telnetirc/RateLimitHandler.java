@@ -0,0 +1,272 @@
+package com.example.telnetirc;
+
+import com.example.telnetirc.command.ChatCommand;
+import com.example.telnetirc.command.Command;
+import com.example.telnetirc.metrics.ServerMetrics;
+import com.example.telnetirc.ratelimit.RateLimiter;
+import com.example.telnetirc.ratelimit.TokenBucket;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Ограничение частоты команд соединения по ведрам токенов {@link RateLimiter}.</p>
+ * <p>Каждая команда берет токены соединения и адреса клиента, сообщение чата, личное сообщение и вход в канал - еще
+ * и токен пользователя, сообщение чата - токен канала. Если токена нет, соединение перестает читать (autoRead
+ * выключается) до появления токена, а команда выполняется позже: клиент, пишущий быстрее ограничения, замедляется
+ * TCP, а не теряет команды. Команды, уже прочитанные из сокета, ждут в очереди соединения. Команда, которую пришлось бы
+ * задержать дольше {@link RateLimiter#getMaxDelayNanos()}, и команды сверх очереди отклоняются</p>
+ * <p>Проверка токенов не выделяет памяти: ведра адреса, пользователя и канала запоминаются, пока не сменятся
+ * пользователь или канал сессии или пока {@link RateLimiter} не удалит ведро как полное. Токен канала берется только
+ * для каналов, в которых состоит пользователь сессии: имя канала в строке задает клиент, и ведра для произвольных
+ * имен заполняли бы {@link RateLimiter}</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class RateLimitHandler extends ChannelInboundHandlerAdapter {
+
+    static final int MAX_PENDING = 256;
+
+    private final RateLimiter limiter;
+    private final ServerMetrics metrics;
+    private final ServerMessages messages = ServerMessages.forLocale(Locale.getDefault());
+
+    private TokenBucket connectionBucket;
+    private String host;
+    private TokenBucket addressBucket;
+    private String username;
+    private TokenBucket userBucket;
+    private String roomName;
+    private TokenBucket roomBucket;
+
+    private ArrayDeque<Command> pending;
+    private boolean throttled;
+    private boolean rejectionReported;
+    private long throttledSince;
+
+    /**
+     *
+     * @param limiter ограничения частоты команд
+     * @param metrics реестр показателей сервера
+     */
+    public RateLimitHandler(RateLimiter limiter, ServerMetrics metrics) {
+        this.limiter = limiter;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        long now = System.nanoTime();
+        connectionBucket = limiter.connectionBucket(now);
+        host = host(ctx.channel().remoteAddress());
+        addressBucket = limiter.addressBucket(host, now);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof Command)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        Command command = (Command) msg;
+        if (throttled) {
+            enqueue(ctx, command);
+            return;
+        }
+
+        long delay = acquire(ctx, command, System.nanoTime());
+        if (delay == 0) {
+            ctx.fireChannelRead(command);
+        } else {
+            throttle(ctx, command, delay);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (throttled) {
+            throttled = false;
+            metrics.throttled(System.nanoTime() - throttledSince);
+        }
+        releasePending();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        releasePending();
+    }
+
+    /**
+     * Взять токены всех уровней, которые касаются команды; если токена нет на каком-то уровне, взятые токены
+     * возвращаются
+     *
+     * @return 0, если команду можно выполнить, иначе через сколько наносекунд появится недостающий токен
+     */
+    private long acquire(ChannelHandlerContext ctx, Command command, long now) {
+        TokenBucket user = null;
+        TokenBucket room = null;
+
+        switch (command.getOpcode()) {
+            case CHAT:
+                room = roomBucket(ctx, (ChatCommand) command, now);
+                // сообщение чата расходует и токен пользователя
+                user = userBucket(ctx, now);
+                break;
+            case MSG:
+            case JOIN:
+                user = userBucket(ctx, now);
+                break;
+        }
+
+        long delay = acquire(connectionBucket, now);
+        if (delay > 0) return delay;
+
+        TokenBucket address = addressBucket(now);
+        delay = acquire(address, now);
+        if (delay > 0) return refund(delay, connectionBucket);
+
+        delay = acquire(user, now);
+        if (delay > 0) return refund(delay, connectionBucket, address);
+
+        delay = acquire(room, now);
+        if (delay > 0) return refund(delay, connectionBucket, address, user);
+
+        return 0;
+    }
+
+    private TokenBucket addressBucket(long now) {
+        if (evicted(addressBucket)) addressBucket = limiter.addressBucket(host, now);
+        return addressBucket;
+    }
+
+    private TokenBucket userBucket(ChannelHandlerContext ctx, long now) {
+        String current = ChatSession.get(ctx.channel()).getUsername();
+        if (current == null) return null;
+        if (current != username || evicted(userBucket)) {
+            username = current;
+            userBucket = limiter.userBucket(current, now);
+        }
+        return userBucket;
+    }
+
+    private TokenBucket roomBucket(ChannelHandlerContext ctx, ChatCommand command, long now) {
+        ChatSession session = ChatSession.get(ctx.channel());
+        if (session.getUsername() == null) return null;
+
+        String target = command.getRoom();
+        // "#слово текст", где слово - не канал пользователя, уходит в активный канал
+        String current = target != null && session.getRoom(target) != null ? target : session.getRoomName();
+        if (current == null) return null;
+        if (!current.equals(roomName) || evicted(roomBucket)) {
+            roomName = current;
+            roomBucket = limiter.roomBucket(current, now);
+        }
+        return roomBucket;
+    }
+
+    private static boolean evicted(TokenBucket bucket) {
+        return bucket != null && bucket.isEvicted();
+    }
+
+    private static long acquire(TokenBucket bucket, long now) {
+        return bucket == null ? 0 : bucket.tryAcquire(now);
+    }
+
+    private static long refund(long delay, TokenBucket... buckets) {
+        for (TokenBucket bucket : buckets) {
+            if (bucket != null) bucket.refund();
+        }
+        return delay;
+    }
+
+    /**
+     * Остановить чтение, пока не появится токен; команда выполнится после паузы или, если ждать слишком долго,
+     * отклоняется
+     */
+    private void throttle(ChannelHandlerContext ctx, Command command, long delay) {
+        if (delay > limiter.getMaxDelayNanos()) {
+            reject(ctx, command);
+            delay = limiter.getMaxDelayNanos();
+        } else {
+            if (pending == null) pending = new ArrayDeque<>();
+            pending.addFirst(command);
+        }
+
+        throttled = true;
+        throttledSince = System.nanoTime();
+        ctx.channel().config().setAutoRead(false);
+        ctx.executor().schedule(() -> resume(ctx), delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Пауза закончилась: выполнить команды из очереди, пока хватает токенов, и снова читать из сокета
+     */
+    private void resume(ChannelHandlerContext ctx) {
+        if (!throttled) return;
+
+        long now = System.nanoTime();
+        throttled = false;
+        rejectionReported = false;
+        metrics.throttled(now - throttledSince);
+
+        Command command;
+        while (pending != null && (command = pending.pollFirst()) != null) {
+            long delay = acquire(ctx, command, now);
+            if (delay > 0) {
+                throttle(ctx, command, delay);
+                return;
+            }
+            ctx.fireChannelRead(command);
+        }
+
+        ctx.channel().config().setAutoRead(true);
+    }
+
+    private void enqueue(ChannelHandlerContext ctx, Command command) {
+        if (pending == null) pending = new ArrayDeque<>();
+        if (pending.size() >= MAX_PENDING) {
+            reject(ctx, command);
+        } else {
+            pending.addLast(command);
+        }
+    }
+
+    /**
+     * Отклонить команду; пользователь получает одно сообщение об ошибке за паузу, чтобы ответы на отклоненные
+     * команды сами не нагружали соединение
+     */
+    private void reject(ChannelHandlerContext ctx, Command command) {
+        ReferenceCountUtil.release(command);
+        metrics.rateLimited();
+        if (!rejectionReported) {
+            rejectionReported = true;
+            ctx.writeAndFlush(messages.get("rate.error.limited"));
+        }
+    }
+
+    private void releasePending() {
+        if (pending == null) return;
+
+        Command command;
+        while ((command = pending.pollFirst()) != null) {
+            ReferenceCountUtil.release(command);
+        }
+    }
+
+    private static String host(SocketAddress address) {
+        if (address instanceof InetSocketAddress) {
+            InetSocketAddress inet = (InetSocketAddress) address;
+            return inet.getAddress() != null ? inet.getAddress().getHostAddress() : inet.getHostString();
+        }
+        return String.valueOf(address);
+    }
+}
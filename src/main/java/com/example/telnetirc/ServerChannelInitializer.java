@@ -1,12 +1,37 @@
 package com.example.telnetirc;
 
+import com.example.telnetirc.auth.AuthService;
+import com.example.telnetirc.auth.CredentialCache;
+import com.example.telnetirc.auth.ExecutorAuthService;
 import com.example.telnetirc.auth.InMemoryAuthService;
+import com.example.telnetirc.auth.UserStore;
+import com.example.telnetirc.chat.ChatChannelFactory;
+import com.example.telnetirc.chat.MessageHistory;
+import com.example.telnetirc.chat.MessageRingBuffer;
+import com.example.telnetirc.cluster.ClusterAuthService;
+import com.example.telnetirc.cluster.ClusterChatChannelFactory;
+import com.example.telnetirc.cluster.ClusterNode;
+import com.example.telnetirc.journal.JournalRooms;
+import com.example.telnetirc.journal.MessageJournal;
+import com.example.telnetirc.metrics.ServerMetrics;
+import com.example.telnetirc.ratelimit.RateLimiter;
+import io.netty.channel.ChannelConfig;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.DelimiterBasedFrameDecoder;
-import io.netty.handler.codec.Delimiters;
-import io.netty.handler.codec.string.StringDecoder;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.codec.string.StringEncoder;
+import io.netty.util.CharsetUtil;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * @author Denis Pakhomov.
@@ -14,23 +39,192 @@ import io.netty.handler.codec.string.StringEncoder;
  */
 public class ServerChannelInitializer extends ChannelInitializer<SocketChannel> {
 
-    private static final int USER_CHANNEL_LIMIT = 10;
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    private static final StringEncoder STRING_ENCODER = new StringEncoder(CharsetUtil.UTF_8);
+
+    private final ServerConfig config;
+    private final ServerMetrics metrics;
+    private final RateLimiter rateLimiter;
+    private final ChatChannelFactory chatChannelFactory;
+    private final InMemoryAuthService users;
+    private final ExecutorAuthService authService;
+    private final ChatServerHandler chatServerHandler;
+    private final HashedWheelTimer idleTimer;
+    private final ExecutorService historyExecutor;
+
+    public ServerChannelInitializer(ServerConfig config) {
+        this(config, new ServerMetrics());
+    }
 
+    /**
+     *
+     * @param config настройки сервера
+     * @param metrics реестр показателей сервера
+     */
+    public ServerChannelInitializer(ServerConfig config, ServerMetrics metrics) {
+        this(config, metrics, historyExecutor());
+    }
 
-    private static final StringDecoder STRING_DECODER = new StringDecoder();
-    private static final CommandDecoder COMMAND_DECODER = new CommandDecoder();
-    private static final ChatServerHandler CHAT_SERVER_HANDLER = new ChatServerHandler(USER_CHANNEL_LIMIT,
-            new InMemoryAuthService());
+    private ServerChannelInitializer(ServerConfig config, ServerMetrics metrics, ExecutorService historyExecutor) {
+        this(config, metrics, new ChatChannelFactory(config::getRoomUsersLimit, config.getHistoryReplayCount(),
+                        config::getOverflowPolicy, metrics, histories(config, historyExecutor), historyExecutor),
+                users(config), Function.identity(), historyExecutor);
+    }
 
-    private static final StringEncoder STRING_ENCODER = new StringEncoder();
+    /**
+     *
+     * @param config настройки сервера
+     * @param metrics реестр показателей сервера
+     * @param cluster узел кластера, с которым сервер разделяет каналы и сессии пользователей
+     */
+    public ServerChannelInitializer(ServerConfig config, ServerMetrics metrics, ClusterNode cluster) {
+        this(config, metrics, cluster, historyExecutor());
+        cluster.getSessions().setRevokeListener(chatServerHandler::disconnect);
+    }
+
+    private ServerChannelInitializer(ServerConfig config, ServerMetrics metrics, ClusterNode cluster,
+                                     ExecutorService historyExecutor) {
+        this(config, metrics, new ClusterChatChannelFactory(config::getRoomUsersLimit,
+                        config.getHistoryReplayCount(), config::getOverflowPolicy, metrics,
+                        histories(config, historyExecutor), historyExecutor, cluster.getRelay()),
+                users(config), users -> new ClusterAuthService(users, cluster.getSessions()), historyExecutor);
+    }
+
+    private ServerChannelInitializer(ServerConfig config, ServerMetrics metrics, ChatChannelFactory chatChannelFactory,
+                                     InMemoryAuthService users, Function<AuthService, AuthService> sessions,
+                                     ExecutorService historyExecutor) {
+        this.config = config;
+        this.historyExecutor = historyExecutor;
+        this.metrics = metrics;
+        this.rateLimiter = config.getRateLimiter();
+        this.chatChannelFactory = chatChannelFactory;
+        this.users = users;
+        this.authService = new ExecutorAuthService(sessions.apply(users), config.getAuthThreads(),
+                config.getAuthMaxInFlight());
+        this.chatServerHandler = new ChatServerHandler(chatChannelFactory, this.authService, metrics,
+                config.getOperators(), config.getRoomGraceSeconds(), TimeUnit.SECONDS);
+
+        boolean idleTimeouts = config.getIdleReadSeconds() > 0 || config.getIdleWriteSeconds() > 0;
+        // таймауты в секундах: такт 100 мс и колесо на 512 тактов без переполнения раундов для типичных значений
+        this.idleTimer = idleTimeouts ? new HashedWheelTimer(new DefaultThreadFactory("telnetirc-idle", true),
+                100, TimeUnit.MILLISECONDS, 512) : null;
+    }
+
+    /**
+     * Освободить ресурсы каналов чата (журналы истории), пул аутентификации, хранилище пользователей и таймер
+     * таймаутов; вызывается после остановки event loop-ов
+     */
+    public void close() {
+        if (idleTimer != null) idleTimer.stop();
+        authService.close();
+        users.close();
+        chatChannelFactory.close();
+
+        // дождаться закрытия журналов: они сбрасываются на диск в потоке журналов
+        historyExecutor.shutdown();
+        try {
+            historyExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
     @Override
     protected void initChannel(SocketChannel ch) throws Exception {
-        ch.pipeline().addLast(new DelimiterBasedFrameDecoder(8192, Delimiters.lineDelimiter()));
-        ch.pipeline().addLast(STRING_DECODER);
+        setWriteBufferWaterMarks(ch.config());
+
+        if (config.isBinaryProtocolEnabled()) {
+            // первым: первые байты клиента проверяются до разбора telnet-команд
+            ch.pipeline().addLast(new ProtocolSniffer(MAX_LINE_LENGTH, metrics));
+        }
+        if (config.isMccp2Enabled()) {
+            // ближе к сокету, чем объединение flush-ей: поток сжатия сбрасывается реже, сжатие лучше
+            ch.pipeline().addLast(new Mccp2Handler(config.getMccp2Level(), config.getMccp2ResetBytes(), metrics));
+        }
+        if (config.isFlushConsolidation()) {
+            // до всех обработчиков, чтобы через него проходили flush-и всех обработчиков и рассылок каналов чата
+            ch.pipeline().addLast(new FlushConsolidationHandler(config.getFlushConsolidationLimit(), true));
+        }
+        if (idleTimer != null) {
+            ch.pipeline().addLast(new IdleTimeoutHandler(idleTimer, config.getIdleReadSeconds(),
+                    config.getIdleWriteSeconds(), TimeUnit.SECONDS));
+        }
+        ch.pipeline().addLast(new LineCommandDecoder(MAX_LINE_LENGTH));
+        if (rateLimiter.isEnabled()) {
+            ch.pipeline().addLast(new RateLimitHandler(rateLimiter, metrics));
+        }
         ch.pipeline().addLast(STRING_ENCODER);
-        ch.pipeline().addLast(COMMAND_DECODER);
-        ch.pipeline().addLast(CHAT_SERVER_HANDLER);
+        ch.pipeline().addLast(chatServerHandler);
+
+    }
+
+    private static InMemoryAuthService users(ServerConfig config) {
+        int iterations = config.getAuthHashIterations();
+        CredentialCache cache = new CredentialCache(config.getAuthCacheSize(), config.getAuthCacheTtlSeconds(),
+                TimeUnit.SECONDS);
+
+        switch (config.getUsersStore()) {
+            case "memory":
+                return new InMemoryAuthService(iterations, cache);
+            case "file":
+                Path directory = Paths.get(config.getUsersDirectory());
+                try {
+                    return new InMemoryAuthService(iterations, cache,
+                            UserStore.open(directory, config.getUsersSnapshotRecords()));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("can't open user store " + directory, e);
+                }
+            default:
+                throw new IllegalArgumentException("unknown user store: " + config.getUsersStore());
+        }
+    }
+
+    /**
+     * Один поток на все журналы: открытие, сброс на диск и закрытие журналов идут не в event loop-ах, и операции
+     * с журналом одного канала выполняются по порядку
+     */
+    private static ExecutorService historyExecutor() {
+        return Executors.newSingleThreadExecutor(new DefaultThreadFactory("telnetirc-journal", true));
+    }
+
+    private static Function<String, MessageHistory> histories(ServerConfig config, ExecutorService historyExecutor) {
+        int replayCount = config.getHistoryReplayCount();
+
+        switch (config.getHistoryStore()) {
+            case "memory":
+                return name -> new MessageRingBuffer(replayCount);
+            case "journal":
+                JournalRooms journals = new JournalRooms(Paths.get(config.getJournalDirectory()),
+                        config.getJournalSegmentSize(), config.getJournalRetentionBytes(),
+                        config.getJournalRetentionHours(), TimeUnit.HOURS, config.getJournalMaxRooms(),
+                        historyExecutor);
+
+                return name -> {
+                    try {
+                        // журналов уже journal.max.rooms, и все открыты: история канала в памяти
+                        MessageJournal journal = journals.open(name);
+                        return journal != null ? journal : new MessageRingBuffer(replayCount);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("can't open journal of channel " + name, e);
+                    }
+                };
+            default:
+                throw new IllegalArgumentException("unknown history store: " + config.getHistoryStore());
+        }
+    }
+
+    private void setWriteBufferWaterMarks(ChannelConfig channelConfig) {
+        int high = config.getWriteBufferHighWaterMark();
+        int low = config.getWriteBufferLowWaterMark();
 
+        // netty проверяет low <= high при установке каждого значения, поэтому порядок зависит от текущих значений
+        if (low > channelConfig.getWriteBufferHighWaterMark()) {
+            channelConfig.setWriteBufferHighWaterMark(high);
+            channelConfig.setWriteBufferLowWaterMark(low);
+        } else {
+            channelConfig.setWriteBufferLowWaterMark(low);
+            channelConfig.setWriteBufferHighWaterMark(high);
+        }
     }
 }
@@ -0,0 +1,481 @@
+package com.example.telnetirc;
+
+import com.example.telnetirc.auth.PasswordHash;
+import com.example.telnetirc.chat.OverflowPolicy;
+import com.example.telnetirc.ratelimit.RateLimit;
+import com.example.telnetirc.ratelimit.RateLimiter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * <p>Настройки сервера.</p>
+ * <p>Значения по умолчанию читаются из ресурса {@code config/server.properties}, любое из них можно
+ * переопределить системным свойством с префиксом {@code telnetirc.}</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class ServerConfig {
+
+    private static final String DEFAULTS_RESOURCE = "config/server.properties";
+    private static final String SYSTEM_PREFIX = "telnetirc.";
+
+    private final Properties properties;
+
+    /**
+     *
+     * @param properties значения настроек
+     */
+    public ServerConfig(Properties properties) {
+        if (properties == null) throw new IllegalArgumentException("properties can't be null");
+        this.properties = properties;
+    }
+
+    /**
+     * Загрузить настройки по умолчанию с учетом системных свойств
+     *
+     * @return настройки сервера
+     */
+    public static ServerConfig load() {
+        Properties properties = new Properties();
+
+        try (InputStream defaults = ServerConfig.class.getClassLoader().getResourceAsStream(DEFAULTS_RESOURCE)) {
+            if (defaults != null) properties.load(defaults);
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't read " + DEFAULTS_RESOURCE, e);
+        }
+
+        System.getProperties().stringPropertyNames().stream()
+                .filter(name -> name.startsWith(SYSTEM_PREFIX))
+                .forEach(name -> properties.setProperty(name.substring(SYSTEM_PREFIX.length()),
+                        System.getProperty(name)));
+
+        return new ServerConfig(properties);
+    }
+
+    //region transport
+
+    public String getTransport() {
+        return string("transport", "auto");
+    }
+
+    public int getBossThreads() {
+        return integer("boss.threads", 1);
+    }
+
+    public int getWorkerThreads() {
+        return integer("worker.threads", 0);
+    }
+
+    public int getBacklog() {
+        return integer("so.backlog", 1024);
+    }
+
+    public boolean isReuseAddress() {
+        return bool("so.reuseaddr", true);
+    }
+
+    public boolean isTcpNoDelay() {
+        return bool("tcp.nodelay", true);
+    }
+
+    public int getReceiveBufferSize() {
+        return integer("so.rcvbuf", 0);
+    }
+
+    public int getSendBufferSize() {
+        return integer("so.sndbuf", 0);
+    }
+
+    public boolean isPooledAllocator() {
+        String allocator = string("allocator", "pooled");
+        switch (allocator) {
+            case "pooled":
+                return true;
+            case "unpooled":
+                return false;
+            default:
+                throw new IllegalArgumentException("unknown allocator: " + allocator);
+        }
+    }
+
+    public int getWriteBufferHighWaterMark() {
+        return integer("write.buffer.high", 64 * 1024);
+    }
+
+    public int getWriteBufferLowWaterMark() {
+        int low = integer("write.buffer.low", 32 * 1024);
+        if (low > getWriteBufferHighWaterMark()) {
+            throw new IllegalArgumentException("write.buffer.low can't be greater than write.buffer.high");
+        }
+        return low;
+    }
+
+    /**
+     * Объединять ли flush-и соединения в пределах одной пачки чтения или одного такта event loop-а
+     *
+     * @return включено ли объединение flush-ей
+     */
+    public boolean isFlushConsolidation() {
+        return bool("flush.consolidation", true);
+    }
+
+    /**
+     * Сколько flush-ей можно отложить, прежде чем выполнить flush принудительно
+     *
+     * @return максимальное количество отложенных flush-ей
+     */
+    public int getFlushConsolidationLimit() {
+        return integer("flush.consolidation.limit", 256);
+    }
+
+    /**
+     * Через сколько секунд без данных от пользователя соединение закрывается, 0 - не закрывается
+     *
+     * @return таймаут чтения
+     */
+    public int getIdleReadSeconds() {
+        return integer("idle.read.seconds", 900);
+    }
+
+    /**
+     * Через сколько секунд соединение, не готовое к записи, закрывается, 0 - не закрывается
+     *
+     * @return таймаут записи
+     */
+    public int getIdleWriteSeconds() {
+        return integer("idle.write.seconds", 60);
+    }
+
+    /**
+     * Предлагать ли клиентам сжатие исходящих данных по протоколу MCCP2
+     *
+     * @return включено ли сжатие
+     */
+    public boolean isMccp2Enabled() {
+        return bool("mccp2.enabled", false);
+    }
+
+    /**
+     * @return уровень сжатия zlib, от 1 до 9
+     */
+    public int getMccp2Level() {
+        return integer("mccp2.level", 6);
+    }
+
+    /**
+     * Через сколько байт данных сбрасывать словарь сжатия, 0 - не сбрасывать
+     *
+     * @return байты между сбросами словаря
+     */
+    public long getMccp2ResetBytes() {
+        return longValue("mccp2.reset.bytes", 0);
+    }
+
+    /**
+     * @return принимать ли на том же порту клиентов бинарного протокола
+     */
+    public boolean isBinaryProtocolEnabled() {
+        return bool("binary.enabled", true);
+    }
+
+    //endregion
+
+    //region chat channels
+
+    /**
+     * Максимальное количество пользователей в канале чата: {@code room.<имя>.users.limit} или общий
+     * {@code room.users.limit}
+     *
+     * @param channelName имя канала чата
+     * @return лимит пользователей канала
+     */
+    public int getRoomUsersLimit(String channelName) {
+        return integer("room." + channelName + ".users.limit", integer("room.users.limit", 10));
+    }
+
+    /**
+     * Сколько секунд пустой канал чата хранится, прежде чем удаляется вместе с историей в памяти
+     *
+     * @return время хранения пустого канала
+     */
+    public int getRoomGraceSeconds() {
+        return integer("room.grace.seconds", 60);
+    }
+
+    /**
+     * Где хранится история каналов: {@code memory} - последние сообщения в памяти, {@code journal} - журнал на диске
+     *
+     * @return тип хранилища истории
+     */
+    public String getHistoryStore() {
+        return string("history.store", "memory");
+    }
+
+    /**
+     * Сколько последних сообщений получает пользователь при входе в канал
+     *
+     * @return количество сообщений истории при входе
+     */
+    public int getHistoryReplayCount() {
+        return integer("history.replay", 10);
+    }
+
+    public String getJournalDirectory() {
+        return string("journal.dir", "data/journal");
+    }
+
+    public int getJournalSegmentSize() {
+        return integer("journal.segment.size", 16 * 1024 * 1024);
+    }
+
+    /**
+     * @return максимальный размер журнала одного канала в байтах
+     */
+    public long getJournalRetentionBytes() {
+        return longValue("journal.retention.bytes", 1024L * 1024 * 1024);
+    }
+
+    /**
+     * @return максимальный возраст сегмента журнала и журнала удаленного канала в часах, 0 - не ограничен
+     */
+    public int getJournalRetentionHours() {
+        return integer("journal.retention.hours", 168);
+    }
+
+    /**
+     * @return максимальное количество журналов каналов на диске
+     */
+    public int getJournalMaxRooms() {
+        return integer("journal.max.rooms", 10000);
+    }
+
+    /**
+     * Политика для медленных участников канала: {@code room.<имя>.overflow.*} или общие {@code overflow.*}
+     *
+     * @param channelName имя канала чата
+     * @return политика для медленных участников
+     */
+    public OverflowPolicy getOverflowPolicy(String channelName) {
+        String prefix = "room." + channelName + ".";
+        String policy = string(prefix + "overflow.policy", string("overflow.policy", "drop-oldest"));
+
+        switch (policy) {
+            case "drop-oldest":
+                return OverflowPolicy.dropOldest(integer(prefix + "overflow.backlog", integer("overflow.backlog", 64)));
+            case "skip":
+                return OverflowPolicy.skip();
+            case "disconnect":
+                return OverflowPolicy.disconnectAfter(integer(prefix + "overflow.disconnect.seconds",
+                        integer("overflow.disconnect.seconds", 30)), TimeUnit.SECONDS);
+            default:
+                throw new IllegalArgumentException("unknown overflow policy: " + policy);
+        }
+    }
+
+    //endregion
+
+    //region authentication
+
+    /**
+     * Количество потоков, в которых выполняется аутентификация
+     *
+     * @return размер пула аутентификации
+     */
+    public int getAuthThreads() {
+        return integer("auth.threads", 2);
+    }
+
+    /**
+     * Максимальное количество незавершенных аутентификаций; сверх него вход сразу отклоняется
+     *
+     * @return ограничение одновременных входов
+     */
+    public int getAuthMaxInFlight() {
+        return integer("auth.max.inflight", 1024);
+    }
+
+    /**
+     * Стоимость хеша пароля: количество итераций PBKDF2 для новых пользователей
+     *
+     * @return количество итераций
+     */
+    public int getAuthHashIterations() {
+        return integer("auth.hash.iterations", PasswordHash.DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * Сколько успешных проверок пароля помнить, 0 - не помнить
+     *
+     * @return размер кеша проверенных паролей
+     */
+    public int getAuthCacheSize() {
+        return integer("auth.cache.size", 10_000);
+    }
+
+    public int getAuthCacheTtlSeconds() {
+        return integer("auth.cache.ttl.seconds", 300);
+    }
+
+    /**
+     * Где хранятся зарегистрированные пользователи: {@code memory} - только в памяти, {@code file} - журнал
+     * регистраций и снимки на диске
+     *
+     * @return тип хранилища пользователей
+     */
+    public String getUsersStore() {
+        return string("users.store", "memory");
+    }
+
+    public String getUsersDirectory() {
+        return string("users.dir", "data/users");
+    }
+
+    /**
+     * @return через сколько регистраций писать снимок пользователей
+     */
+    public int getUsersSnapshotRecords() {
+        return integer("users.snapshot.records", 100_000);
+    }
+
+    //endregion
+
+    //region rate limits
+
+    /**
+     * Ограничения частоты команд: соединения, адреса клиента, пользователя и канала чата
+     *
+     * @return ограничения частоты
+     */
+    public RateLimiter getRateLimiter() {
+        return new RateLimiter(rateLimit("ratelimit.connection", 20, 40), rateLimit("ratelimit.address", 100, 200),
+                rateLimit("ratelimit.user", 10, 30), rateLimit("ratelimit.room", 200, 400),
+                integer("ratelimit.max.delay.millis", 5000), TimeUnit.MILLISECONDS);
+    }
+
+    private RateLimit rateLimit(String prefix, int perSecond, int burst) {
+        return RateLimit.of(integer(prefix + ".rate", perSecond), integer(prefix + ".burst", burst));
+    }
+
+    //endregion
+
+    //region monitoring
+
+    /**
+     * Регистрировать ли показатели сервера в JMX
+     *
+     * @return включен ли JMX
+     */
+    public boolean isJmxEnabled() {
+        return bool("jmx.enabled", true);
+    }
+
+    /**
+     * Пользователи, которым доступны команды оператора ({@code /stats}), через запятую
+     *
+     * @return имена операторов
+     */
+    public Set<String> getOperators() {
+        return Arrays.stream(string("operators", "").split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .collect(Collectors.toSet());
+    }
+
+    //endregion
+
+    //region cluster
+
+    /**
+     * Работает ли сервер узлом кластера
+     *
+     * @return включен ли кластер
+     */
+    public boolean isClusterEnabled() {
+        return bool("cluster.enabled", false);
+    }
+
+    /**
+     * @return имя этого узла в {@link #getClusterNodes()}
+     */
+    public String getClusterNode() {
+        return string("cluster.node", null);
+    }
+
+    /**
+     * Узлы кластера через запятую в виде {@code имя=хост:порт}; порядок должен совпадать на всех узлах
+     *
+     * @return адреса шины узлов по имени в заданном порядке
+     */
+    public Map<String, InetSocketAddress> getClusterNodes() {
+        Map<String, InetSocketAddress> nodes = new LinkedHashMap<>();
+        for (String node : string("cluster.nodes", "").split(",")) {
+            if (node.trim().isEmpty()) continue;
+
+            int separator = node.indexOf('=');
+            int port = node.lastIndexOf(':');
+            if (separator < 1 || port < separator) {
+                throw new IllegalArgumentException("invalid value of cluster.nodes: " + node.trim());
+            }
+            try {
+                nodes.put(node.substring(0, separator).trim(), new InetSocketAddress(
+                        node.substring(separator + 1, port).trim(), Integer.parseInt(node.substring(port + 1).trim())));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid value of cluster.nodes: " + node.trim(), e);
+            }
+        }
+        return nodes;
+    }
+
+    public int getClusterBatchSize() {
+        return integer("cluster.batch.size", 256);
+    }
+
+    public int getClusterBatchMillis() {
+        return integer("cluster.batch.millis", 1);
+    }
+
+    public int getClusterSessionTimeoutMillis() {
+        return integer("cluster.session.timeout.millis", 2000);
+    }
+
+    //endregion
+
+    private String string(String key, String defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    private int integer(String key, int defaultValue) {
+        String value = string(key, null);
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("invalid value of %s: %s", key, value), e);
+        }
+    }
+
+    private long longValue(String key, long defaultValue) {
+        String value = string(key, null);
+        try {
+            return value == null ? defaultValue : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("invalid value of %s: %s", key, value), e);
+        }
+    }
+
+    private boolean bool(String key, boolean defaultValue) {
+        String value = string(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.telnetirc;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Ответы сервера пользователю, закодированные заранее.</p>
+ * <p>Строки {@code messages/messages.properties} для языка кодируются в UTF-8 один раз, в общие буферы только для
+ * чтения, которые нельзя освободить. Ответ пишется в соединение как duplicate общего буфера: без кодирования
+ * и без копирования.</p>
+ * <p>Строки с аргументом {@code {0}} - шаблоны ({@link Template}): заранее закодированы части до и после аргумента,
+ * аргумент дописывается между ними в новый буфер</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public final class ServerMessages {
+
+    private static final String BUNDLE = "messages/messages";
+    private static final String ARGUMENT = "{0}";
+
+    private static final ConcurrentHashMap<Locale, ServerMessages> LOCALES = new ConcurrentHashMap<>();
+
+    private final Map<String, ByteBuf> messages = new HashMap<>();
+    private final Map<String, Template> templates = new HashMap<>();
+
+    private ServerMessages(ResourceBundle bundle) {
+        for (String key : bundle.keySet()) {
+            String text = bundle.getString(key);
+            int argument = text.indexOf(ARGUMENT);
+
+            if (argument < 0) {
+                messages.put(key, shared(text));
+            } else {
+                templates.put(key, new Template(shared(text.substring(0, argument)),
+                        shared(text.substring(argument + ARGUMENT.length()))));
+            }
+        }
+    }
+
+    /**
+     * Ответы сервера на языке; закодированные ответы одного языка общие для всех обработчиков
+     *
+     * @param locale язык
+     * @return ответы сервера
+     */
+    public static ServerMessages forLocale(Locale locale) {
+        return LOCALES.computeIfAbsent(locale, l -> new ServerMessages(ResourceBundle.getBundle(BUNDLE, l)));
+    }
+
+    /**
+     * @param key ключ ответа
+     * @return буфер с ответом для записи в соединение; освобождать его не нужно
+     * @throws MissingResourceException если ответа с таким ключом нет
+     */
+    public ByteBuf get(String key) {
+        ByteBuf message = messages.get(key);
+        if (message == null) throw new MissingResourceException("no server message " + key, BUNDLE, key);
+        return message.duplicate();
+    }
+
+    /**
+     * @param key ключ ответа с аргументом
+     * @return шаблон ответа
+     * @throws MissingResourceException если шаблона с таким ключом нет
+     */
+    public Template template(String key) {
+        Template template = templates.get(key);
+        if (template == null) throw new MissingResourceException("no server message template " + key, BUNDLE, key);
+        return template;
+    }
+
+    private static ByteBuf shared(String text) {
+        byte[] bytes = text.getBytes(CharsetUtil.UTF_8);
+        ByteBuf buffer = Unpooled.directBuffer(bytes.length).writeBytes(bytes);
+        return Unpooled.unreleasableBuffer(Unpooled.unmodifiableBuffer(buffer));
+    }
+
+    /**
+     * Ответ с одним аргументом
+     */
+    public static final class Template {
+
+        private final ByteBuf prefix;
+        private final ByteBuf suffix;
+
+        private Template(ByteBuf prefix, ByteBuf suffix) {
+            this.prefix = prefix;
+            this.suffix = suffix;
+        }
+
+        /**
+         * @param allocator аллокатор буфера ответа
+         * @param value аргумент
+         * @return новый буфер с ответом
+         */
+        public ByteBuf format(ByteBufAllocator allocator, long value) {
+            ByteBuf buffer = allocator.buffer(prefix.readableBytes() + 20 + suffix.readableBytes());
+            buffer.writeBytes(prefix, prefix.readerIndex(), prefix.readableBytes());
+            ByteBufUtil.writeAscii(buffer, Long.toString(value));
+            buffer.writeBytes(suffix, suffix.readerIndex(), suffix.readableBytes());
+            return buffer;
+        }
+
+        /**
+         * @param allocator аллокатор буфера ответа
+         * @param values значения аргумента, выводятся через {@code separator}
+         * @param separator разделитель значений
+         * @param <T> тип значений
+         * @return новый буфер с ответом
+         */
+        public <T extends CharSequence> ByteBuf format(ByteBufAllocator allocator, Iterable<T> values,
+                                                       String separator) {
+            ByteBuf buffer = allocator.buffer(prefix.readableBytes() + 256 + suffix.readableBytes());
+            buffer.writeBytes(prefix, prefix.readerIndex(), prefix.readableBytes());
+
+            Iterator<T> iterator = values.iterator();
+            while (iterator.hasNext()) {
+                ByteBufUtil.writeUtf8(buffer, iterator.next());
+                if (iterator.hasNext()) ByteBufUtil.writeUtf8(buffer, separator);
+            }
+
+            buffer.writeBytes(suffix, suffix.readerIndex(), suffix.readableBytes());
+            return buffer;
+        }
+    }
+}
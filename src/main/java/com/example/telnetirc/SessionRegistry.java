@@ -0,0 +1,52 @@
+package com.example.telnetirc;
+
+import io.netty.channel.Channel;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Соединения вошедших пользователей по имени пользователя.</p>
+ * <p>Соединение регистрируется при успешном входе и снимается при выходе или отключении, поэтому личное сообщение
+ * находит соединение получателя одним обращением к карте, без обхода каналов чата. Пользователи других узлов
+ * кластера в реестре не видны</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public final class SessionRegistry {
+
+    private final ConcurrentHashMap<String, Channel> channels = new ConcurrentHashMap<>();
+
+    /**
+     * @param username имя вошедшего пользователя
+     * @param channel соединение пользователя
+     */
+    public void register(String username, Channel channel) {
+        channels.put(username, channel);
+    }
+
+    /**
+     * Снять регистрацию, если имя все еще принадлежит этому соединению
+     *
+     * @param username имя пользователя
+     * @param channel соединение пользователя
+     */
+    public void unregister(String username, Channel channel) {
+        channels.remove(username, channel);
+    }
+
+    /**
+     * @param username имя пользователя
+     * @return соединение пользователя, null - пользователь не вошел на этом узле
+     */
+    public Channel find(String username) {
+        return channels.get(username);
+    }
+
+    /**
+     * @return количество зарегистрированных соединений
+     */
+    public int size() {
+        return channels.size();
+    }
+}
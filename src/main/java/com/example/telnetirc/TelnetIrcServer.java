@@ -1,11 +1,22 @@
 package com.example.telnetirc;
 
+import com.example.telnetirc.cluster.ClusterNode;
+import com.example.telnetirc.cluster.MessageBus;
+import com.example.telnetirc.cluster.TcpMessageBus;
+import com.example.telnetirc.metrics.ServerMetrics;
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.channel.ChannelFuture;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
 
 /**
@@ -14,10 +25,43 @@ import java.net.InetSocketAddress;
  */
 public class TelnetIrcServer {
 
+    private static final InternalLogger logger = InternalLoggerFactory.getInstance(TelnetIrcServer.class);
+
     private final int port;
+    private final ServerConfig config;
+    private final ServerMetrics metrics = new ServerMetrics();
+    private final MessageBus bus;
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private ObjectName metricsName;
+    private ServerChannelInitializer channelInitializer;
+    private ClusterNode cluster;
 
     public TelnetIrcServer(int port) {
+        this(port, ServerConfig.load());
+    }
+
+    /**
+     *
+     * @param port порт сервера, 0 - любой свободный
+     * @param config настройки сервера
+     */
+    public TelnetIrcServer(int port, ServerConfig config) {
+        this(port, config, config.isClusterEnabled() ?
+                new TcpMessageBus(config.getClusterNode(), config.getClusterNodes()) : null);
+    }
+
+    /**
+     *
+     * @param port порт сервера, 0 - любой свободный
+     * @param config настройки сервера
+     * @param bus шина сообщений кластера, null - сервер работает один
+     */
+    public TelnetIrcServer(int port, ServerConfig config, MessageBus bus) {
         this.port = port;
+        this.config = config;
+        this.bus = bus;
     }
 
     public static void main(String[] args) throws Exception {
@@ -26,18 +70,99 @@ public class TelnetIrcServer {
     }
 
     public void start() throws Exception {
-        final EventLoopGroup eventLoopGroup = new NioEventLoopGroup();
         try {
-            ServerBootstrap bootstrap = new ServerBootstrap();
-            bootstrap.group(eventLoopGroup)
-                    .channel(NioServerSocketChannel.class)
-                    .localAddress(new InetSocketAddress(port))
-                    .childHandler(new ServerChannelInitializer());
-
-            ChannelFuture future = bootstrap.bind().sync();
-            future.channel().closeFuture().sync();
+            bind().closeFuture().sync();
         } finally {
-            eventLoopGroup.shutdownGracefully().sync();
+            shutdown();
+        }
+    }
+
+    /**
+     * Запустить сервер, не дожидаясь его остановки
+     *
+     * @return серверный канал
+     * @throws InterruptedException если поток прервали во время привязки к порту
+     */
+    public Channel bind() throws InterruptedException {
+        Transport transport = Transport.resolve(config.getTransport());
+        ByteBufAllocator allocator = config.isPooledAllocator() ? PooledByteBufAllocator.DEFAULT :
+                UnpooledByteBufAllocator.DEFAULT;
+
+        bossGroup = transport.newEventLoopGroup(config.getBossThreads(), "telnetirc-boss");
+        workerGroup = transport.newEventLoopGroup(config.getWorkerThreads(), "telnetirc-worker");
+
+        if (bus != null) {
+            cluster = new ClusterNode(bus, config.getClusterBatchSize(), config.getClusterBatchMillis(),
+                    config.getClusterSessionTimeoutMillis());
+            cluster.start();
+            channelInitializer = new ServerChannelInitializer(config, metrics, cluster);
+        } else {
+            channelInitializer = new ServerChannelInitializer(config, metrics);
+        }
+
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        bootstrap.group(bossGroup, workerGroup)
+                .channel(transport.serverChannelClass())
+                .localAddress(new InetSocketAddress(port))
+                .option(ChannelOption.SO_BACKLOG, config.getBacklog())
+                .option(ChannelOption.SO_REUSEADDR, config.isReuseAddress())
+                .option(ChannelOption.ALLOCATOR, allocator)
+                .childOption(ChannelOption.TCP_NODELAY, config.isTcpNoDelay())
+                .childOption(ChannelOption.ALLOCATOR, allocator)
+                .childHandler(channelInitializer);
+
+        if (config.getReceiveBufferSize() > 0) {
+            bootstrap.childOption(ChannelOption.SO_RCVBUF, config.getReceiveBufferSize());
+        }
+        if (config.getSendBufferSize() > 0) {
+            bootstrap.childOption(ChannelOption.SO_SNDBUF, config.getSendBufferSize());
+        }
+
+        Channel channel = bootstrap.bind().sync().channel();
+        logger.info("telnet irc server started on {} with {} transport", channel.localAddress(), transport);
+        if (cluster != null) logger.info("cluster node {} of {}", cluster.getName(), bus.nodes());
+
+        if (config.isJmxEnabled()) {
+            registerMetrics(((InetSocketAddress) channel.localAddress()).getPort());
+        }
+        return channel;
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Остановить сервер и его event loop-ы
+     *
+     * @throws InterruptedException если поток прервали во время остановки
+     */
+    public void shutdown() throws InterruptedException {
+        unregisterMetrics();
+        if (bossGroup != null) bossGroup.shutdownGracefully().sync();
+        if (workerGroup != null) workerGroup.shutdownGracefully().sync();
+        if (cluster != null) cluster.close();
+        if (channelInitializer != null) channelInitializer.close();
+    }
+
+    private void registerMetrics(int port) {
+        try {
+            metricsName = new ObjectName("com.example.telnetirc:type=ServerMetrics,port=" + port);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, metricsName);
+        } catch (JMException e) {
+            // сервер работает и без JMX
+            logger.warn("can't register server metrics in JMX", e);
+            metricsName = null;
+        }
+    }
+
+    private void unregisterMetrics() {
+        if (metricsName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+        } catch (JMException e) {
+            logger.warn("can't unregister server metrics from JMX", e);
         }
+        metricsName = null;
     }
 }
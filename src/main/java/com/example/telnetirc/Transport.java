@@ -0,0 +1,88 @@
+package com.example.telnetirc;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+/**
+ * Сетевой транспорт сервера: нативный epoll на Linux или переносимый NIO
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public enum Transport {
+
+    EPOLL {
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, String name) {
+            return new EpollEventLoopGroup(threads, new DefaultThreadFactory(name));
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return EpollServerSocketChannel.class;
+        }
+    },
+
+    NIO {
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, String name) {
+            return new NioEventLoopGroup(threads, new DefaultThreadFactory(name));
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return NioServerSocketChannel.class;
+        }
+    };
+
+    private static final InternalLogger logger = InternalLoggerFactory.getInstance(Transport.class);
+
+    /**
+     * Создать группу event loop-ов транспорта
+     *
+     * @param threads количество потоков, 0 - количество по умолчанию
+     * @param name префикс имени потоков
+     * @return группа event loop-ов
+     */
+    public abstract EventLoopGroup newEventLoopGroup(int threads, String name);
+
+    /**
+     * Класс серверного канала транспорта
+     *
+     * @return класс серверного канала
+     */
+    public abstract Class<? extends ServerChannel> serverChannelClass();
+
+    /**
+     * <p>Выбрать транспорт по названию режима.</p>
+     * <p>В режиме {@code auto} используется epoll, если нативная библиотека доступна, иначе NIO. Явно заданный
+     * epoll без нативной библиотеки считается ошибкой конфигурации</p>
+     *
+     * @param mode auto, epoll или nio
+     * @return транспорт
+     */
+    public static Transport resolve(String mode) {
+        switch (mode) {
+            case "auto":
+                if (Epoll.isAvailable()) return EPOLL;
+                logger.info("epoll transport is not available, falling back to nio: {}",
+                        Epoll.unavailabilityCause().toString());
+                return NIO;
+            case "epoll":
+                Epoll.ensureAvailability();
+                return EPOLL;
+            case "nio":
+                return NIO;
+            default:
+                throw new IllegalArgumentException("unknown transport: " + mode);
+        }
+    }
+}
@@ -9,5 +9,9 @@ package com.example.telnetirc.auth;
 public enum AuthResult {
     INCORRECT_PASSWORD,
     ALREADY_AUTHENTICATED,
-    AUTHENTICATED
+    AUTHENTICATED,
+    /**
+     * на узле слишком много незавершенных аутентификаций, попытка не выполнялась
+     */
+    BUSY
 }
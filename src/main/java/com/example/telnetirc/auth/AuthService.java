@@ -1,5 +1,7 @@
 package com.example.telnetirc.auth;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author Denis Pakhomov.
  * @version 1.0
@@ -20,6 +22,19 @@ public interface AuthService {
      */
     AuthResult authenticate(String username, String password);
 
+    /**
+     * <p>Аутентификация пользователя без блокировки вызывающего потока, см. {@link #authenticate(String, String)}</p>
+     * <p>Реализация по умолчанию выполняет аутентификацию в вызывающем потоке; сервисы с медленной проверкой
+     * вызываются через {@link ExecutorAuthService}</p>
+     *
+     * @param username имя пользователя
+     * @param password пароль
+     * @return результат аутентификации
+     */
+    default CompletableFuture<AuthResult> authenticateAsync(String username, String password) {
+        return CompletableFuture.completedFuture(authenticate(username, password));
+    }
+
     /**
      * Выйти из чата
      *
@@ -0,0 +1,147 @@
+package com.example.telnetirc.auth;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Кеш успешно проверенных пар имя пользователя + пароль.</p>
+ * <p>Повторный вход с тем же паролем в течение {@code ttl} не пересчитывает медленный хеш пароля. В кеше хранятся
+ * не пароли, а HMAC-SHA256 от имени и пароля на случайном ключе процесса, поэтому содержимое кеша не позволяет
+ * подбирать пароли без этого ключа. Неудачные проверки не кешируются - подбор пароля платит полную стоимость</p>
+ * <p>Размер кеша ограничен, при заполнении вытесняется давно не использованная запись</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class CredentialCache {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final int capacity;
+    private final long ttlNanos;
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+    private final Map<ByteBuffer, Long> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     *
+     * @param capacity максимальное количество записей, 0 - кеш выключен
+     * @param ttl время жизни записи
+     * @param unit единица измерения времени жизни
+     */
+    public CredentialCache(int capacity, long ttl, TimeUnit unit) {
+        if (capacity < 0) throw new IllegalArgumentException("capacity can't be negative");
+        if (ttl < 0) throw new IllegalArgumentException("ttl can't be negative");
+
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+
+        this.capacity = capacity;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.macs = ThreadLocal.withInitial(this::newMac);
+        this.entries = new LruMap(capacity);
+    }
+
+    /**
+     * Проверялся ли этот пароль пользователя успешно в течение времени жизни записи
+     *
+     * @param username имя пользователя
+     * @param password пароль
+     * @return есть ли живая запись
+     */
+    public boolean contains(String username, String password) {
+        if (capacity == 0) return false;
+
+        ByteBuffer digest = digest(username, password);
+        long now = System.nanoTime();
+        boolean found;
+        synchronized (entries) {
+            Long expiresAt = entries.get(digest);
+            found = expiresAt != null && now - expiresAt < 0;
+            if (expiresAt != null && !found) entries.remove(digest);
+        }
+
+        (found ? hits : misses).increment();
+        return found;
+    }
+
+    /**
+     * Запомнить успешную проверку пароля
+     *
+     * @param username имя пользователя
+     * @param password пароль
+     */
+    public void put(String username, String password) {
+        if (capacity == 0) return;
+
+        ByteBuffer digest = digest(username, password);
+        long expiresAt = System.nanoTime() + ttlNanos;
+        synchronized (entries) {
+            entries.put(digest, expiresAt);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private ByteBuffer digest(String username, String password) {
+        Mac mac = macs.get();
+        mac.update(username.getBytes(StandardCharsets.UTF_8));
+        // разделитель, чтобы пары ("ab", "c") и ("a", "bc") давали разные ключи
+        mac.update((byte) 0);
+        return ByteBuffer.wrap(mac.doFinal(password.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+    }
+
+    /**
+     * Записи в порядке использования; при превышении емкости вытесняется давно не использованная запись
+     */
+    private static final class LruMap extends LinkedHashMap<ByteBuffer, Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        private LruMap(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Long> eldest) {
+            return size() > capacity;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.telnetirc.auth;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * <p>Аутентификация в отдельном пуле потоков, чтобы проверка пароля не занимала event loop-ы соединений.</p>
+ * <p>Количество незавершенных аутентификаций ограничено: сверх ограничения попытка сразу завершается
+ * {@link AuthResult#BUSY}, поэтому волна входов после перезапуска сервера не копит очередь задач
+ * и не отнимает время у сообщений чата</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class ExecutorAuthService implements AuthService, AutoCloseable {
+
+    private final AuthService delegate;
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+
+    /**
+     *
+     * @param delegate сервис аутентификации, вызываемый в пуле потоков
+     * @param threads количество потоков пула
+     * @param maxInFlight максимальное количество незавершенных аутентификаций
+     */
+    public ExecutorAuthService(AuthService delegate, int threads, int maxInFlight) {
+        if (threads < 1) throw new IllegalArgumentException("threads should be positive");
+        if (maxInFlight < 1) throw new IllegalArgumentException("max in-flight logins should be positive");
+
+        this.delegate = delegate;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        // в очереди не может оказаться больше задач, чем разрешений, поэтому пул не отклоняет задачи
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(maxInFlight), new DefaultThreadFactory("telnetirc-auth", true));
+    }
+
+    @Override
+    public AuthResult authenticate(String username, String password) {
+        return delegate.authenticate(username, password);
+    }
+
+    /**
+     * Аутентификация в пуле потоков; результат (и продолжения, добавленные к нему) завершается в потоке пула
+     * или в потоке, в котором завершилась асинхронная аутентификация делегата
+     */
+    @Override
+    public CompletableFuture<AuthResult> authenticateAsync(String username, String password) {
+        if (!inFlight.tryAcquire()) return CompletableFuture.completedFuture(AuthResult.BUSY);
+
+        CompletableFuture<AuthResult> result;
+        try {
+            result = CompletableFuture.supplyAsync(() -> delegate.authenticateAsync(username, password), executor)
+                    .thenCompose(Function.identity());
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+        result.whenComplete((authResult, error) -> inFlight.release());
+        return result;
+    }
+
+    @Override
+    public boolean logout(String username) {
+        return delegate.logout(username);
+    }
+
+    /**
+     * @return количество незавершенных аутентификаций
+     */
+    public int getInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    /**
+     * Остановить пул; незавершенные аутентификации выполняются до конца
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -1,30 +1,91 @@
 package com.example.telnetirc.auth;
 
+import java.io.IOException;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import static com.example.telnetirc.auth.AuthResult.ALREADY_AUTHENTICATED;
 import static com.example.telnetirc.auth.AuthResult.AUTHENTICATED;
 import static com.example.telnetirc.auth.AuthResult.INCORRECT_PASSWORD;
 
 /**
- * Сервис для аутентификации пользователей чата
+ * <p>Сервис для аутентификации пользователей чата</p>
+ * <p>Пароли хранятся в виде медленных хешей ({@link PasswordHash}); успешные проверки запоминаются
+ * в {@link CredentialCache}, поэтому частые переподключения не пересчитывают хеш</p>
+ * <p>С {@link UserStore} пользователи восстанавливаются при создании сервиса, а вход нового пользователя
+ * завершается, когда его регистрация записана на диск</p>
  *
  * @author Denis Pakhomov.
  * @version 1.0
  */
-public class InMemoryAuthService implements AuthService {
+public class InMemoryAuthService implements AuthService, AutoCloseable {
+
+    private static final int DEFAULT_CACHE_SIZE = 10_000;
+    private static final long DEFAULT_CACHE_TTL_SECONDS = 300;
 
     private final ConcurrentHashMap<String, User> userMap = new ConcurrentHashMap<>();
+    private final int iterations;
+    private final CredentialCache credentialCache;
+    private final UserStore userStore;
+
+    public InMemoryAuthService() {
+        this(PasswordHash.DEFAULT_ITERATIONS, new CredentialCache(DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL_SECONDS,
+                TimeUnit.SECONDS));
+    }
+
+    /**
+     *
+     * @param iterations стоимость хеша паролей новых пользователей, см. {@link PasswordHash}
+     * @param credentialCache кеш успешных проверок пароля
+     */
+    public InMemoryAuthService(int iterations, CredentialCache credentialCache) {
+        if (iterations < 1) throw new IllegalArgumentException("iterations should be positive");
+
+        this.iterations = iterations;
+        this.credentialCache = credentialCache;
+        this.userStore = null;
+    }
+
+    /**
+     *
+     * @param iterations стоимость хеша паролей новых пользователей, см. {@link PasswordHash}
+     * @param credentialCache кеш успешных проверок пароля
+     * @param userStore хранилище зарегистрированных пользователей
+     * @throws IOException если пользователей не удалось восстановить
+     */
+    public InMemoryAuthService(int iterations, CredentialCache credentialCache, UserStore userStore)
+            throws IOException {
+        if (iterations < 1) throw new IllegalArgumentException("iterations should be positive");
+        if (userStore == null) throw new IllegalArgumentException("user store can't be null");
+
+        this.iterations = iterations;
+        this.credentialCache = credentialCache;
+        this.userStore = userStore;
+
+        userStore.recover(user -> userMap.put(user.getUsername(), user));
+        userStore.start(userMap.values());
+    }
 
     @Override
     public AuthResult authenticate(String username, String password) {
-        userMap.putIfAbsent(username, new User(username, password));
+        return authenticateAsync(username, password).join();
+    }
 
+    @Override
+    public CompletableFuture<AuthResult> authenticateAsync(String username, String password) {
         User user = userMap.get(username);
-        return !user.isPasswordCorrect(password) ? INCORRECT_PASSWORD  :
-                user.startSession() ? AUTHENTICATED : ALREADY_AUTHENTICATED;
+        if (user == null) {
+            // хеш считается вне блокировок карты; если пользователя одновременно создали с другим паролем,
+            // пароль проверяется как для существующего
+            User created = User.withPasswordHash(username, PasswordHash.create(password, iterations));
+            user = userMap.putIfAbsent(username, created);
+            if (user == null) return register(created);
+        }
 
+        if (!isPasswordCorrect(user, password)) return CompletableFuture.completedFuture(INCORRECT_PASSWORD);
+        return CompletableFuture.completedFuture(user.startSession() ? AUTHENTICATED : ALREADY_AUTHENTICATED);
     }
 
     @Override
@@ -32,4 +93,39 @@ public class InMemoryAuthService implements AuthService {
         if (username == null) throw new IllegalArgumentException("username can't be null");
         return Optional.ofNullable(userMap.get(username)).map(User::closeSession).orElse(false);
     }
+
+    public CredentialCache getCredentialCache() {
+        return credentialCache;
+    }
+
+    /**
+     * Дописать на диск принятые регистрации
+     */
+    @Override
+    public void close() {
+        if (userStore != null) userStore.close();
+    }
+
+    private CompletableFuture<AuthResult> register(User created) {
+        AuthResult result = created.startSession() ? AUTHENTICATED : ALREADY_AUTHENTICATED;
+        if (userStore == null) return CompletableFuture.completedFuture(result);
+
+        return userStore.append(created).handle((ignored, e) -> {
+            if (e == null) return result;
+
+            // регистрация не сохранена: пользователь сможет зарегистрироваться снова
+            created.closeSession();
+            userMap.remove(created.getUsername(), created);
+            throw new IllegalStateException("can't save user " + created.getUsername(), e);
+        });
+    }
+
+    private boolean isPasswordCorrect(User user, String password) {
+        if (password == null || password.isEmpty()) return false;
+        if (credentialCache.contains(user.getUsername(), password)) return true;
+        if (!user.isPasswordCorrect(password)) return false;
+
+        credentialCache.put(user.getUsername(), password);
+        return true;
+    }
 }
@@ -0,0 +1,127 @@
+package com.example.telnetirc.auth;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * <p>Хеш пароля PBKDF2 (HMAC-SHA256) со случайной солью.</p>
+ * <p>Стоимость проверки пароля задается количеством итераций и хранится вместе с хешем, поэтому ее можно
+ * поднять для новых пользователей, не пересчитывая хеши существующих. Строковое представление:
+ * {@code pbkdf2-sha256$<итерации>$<соль base64>$<хеш base64>}</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public final class PasswordHash {
+
+    public static final int DEFAULT_ITERATIONS = 100_000;
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2-sha256";
+    private static final int SALT_LENGTH = 16;
+    private static final int HASH_LENGTH = 32;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int iterations;
+    private final byte[] salt;
+    private final byte[] hash;
+
+    private PasswordHash(int iterations, byte[] salt, byte[] hash) {
+        this.iterations = iterations;
+        this.salt = salt;
+        this.hash = hash;
+    }
+
+    /**
+     * Посчитать хеш пароля с новой солью
+     *
+     * @param password пароль
+     * @param iterations количество итераций PBKDF2
+     * @return хеш пароля
+     */
+    public static PasswordHash create(String password, int iterations) {
+        if (password == null || password.isEmpty()) throw new IllegalArgumentException("password is null or empty");
+        if (iterations < 1) throw new IllegalArgumentException("iterations should be positive");
+
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        return new PasswordHash(iterations, salt, pbkdf2(password, salt, iterations));
+    }
+
+    /**
+     * Восстановить хеш из строкового представления
+     *
+     * @param encoded строковое представление, см. {@link #encode()}
+     * @return хеш пароля
+     */
+    public static PasswordHash decode(String encoded) {
+        String[] parts = encoded.split("\\$");
+        if (parts.length != 4 || !PREFIX.equals(parts[0])) {
+            throw new IllegalArgumentException("invalid password hash: " + encoded);
+        }
+        try {
+            return new PasswordHash(Integer.parseInt(parts[1]), Base64.getDecoder().decode(parts[2]),
+                    Base64.getDecoder().decode(parts[3]));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid password hash: " + encoded, e);
+        }
+    }
+
+    /**
+     * Хеш из сохраненных частей, без копирования массивов
+     */
+    static PasswordHash of(int iterations, byte[] salt, byte[] hash) {
+        return new PasswordHash(iterations, salt, hash);
+    }
+
+    /**
+     * Проверить пароль; время сравнения не зависит от того, сколько байт хеша совпало
+     *
+     * @param password проверяемый пароль
+     * @return совпадает ли пароль
+     */
+    public boolean matches(String password) {
+        if (password == null || password.isEmpty()) return false;
+        return MessageDigest.isEqual(hash, pbkdf2(password, salt, iterations));
+    }
+
+    /**
+     * @return строковое представление для хранения
+     */
+    public String encode() {
+        return PREFIX + '$' + iterations + '$' + Base64.getEncoder().encodeToString(salt) + '$'
+                + Base64.getEncoder().encodeToString(hash);
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    byte[] salt() {
+        return salt;
+    }
+
+    byte[] hash() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_LENGTH * 8);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -11,31 +11,51 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class User {
 
     private final String username;
-    private final String password;
+    private final PasswordHash passwordHash;
     private final AtomicBoolean active;
 
+    /**
+     * регистрация пользователя сохранена на диск ({@link UserStore}); в снимок попадают только такие пользователи
+     */
+    private volatile boolean stored;
+
     /**
      *
      * @param username имя пользователя
-     * @param password пароль
+     * @param password пароль, хранится только его хеш со стоимостью {@link PasswordHash#DEFAULT_ITERATIONS}
      */
     public User(String username, String password) {
+        this(username, PasswordHash.create(password, PasswordHash.DEFAULT_ITERATIONS));
+    }
+
+    /**
+     * Пользователь с уже посчитанным хешем пароля
+     *
+     * @param username имя пользователя
+     * @param passwordHash хеш пароля
+     * @return пользователь с неактивной сессией
+     */
+    public static User withPasswordHash(String username, PasswordHash passwordHash) {
+        return new User(username, passwordHash);
+    }
+
+    private User(String username, PasswordHash passwordHash) {
         if (username == null || username.isEmpty()) throw new IllegalArgumentException("user is null or empty");
-        if (password == null || password.isEmpty()) throw new IllegalArgumentException("password is null or empty");
+        if (passwordHash == null) throw new IllegalArgumentException("password hash can't be null");
 
         this.username = username;
-        this.password = password;
+        this.passwordHash = passwordHash;
         this.active = new AtomicBoolean(false);
     }
 
     /**
-     * проверка пароля пользователя
+     * проверка пароля пользователя; медленная операция, см. {@link PasswordHash}
      *
      * @param expectedPassword пароль для проверки
      * @return является ли пароль правильным
      */
     public boolean isPasswordCorrect(String expectedPassword) {
-        return this.password.equals(expectedPassword);
+        return passwordHash.matches(expectedPassword);
     }
 
     /**
@@ -60,11 +80,19 @@ public class User {
         return username;
     }
 
-    public String getPassword() {
-        return password;
+    public PasswordHash getPasswordHash() {
+        return passwordHash;
     }
 
     public boolean getActive() {
         return active.get();
     }
+
+    boolean isStored() {
+        return stored;
+    }
+
+    void markStored() {
+        stored = true;
+    }
 }
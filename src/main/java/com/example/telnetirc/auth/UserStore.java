@@ -0,0 +1,579 @@
+package com.example.telnetirc.auth;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.internal.PlatformDependent;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Хранилище зарегистрированных пользователей на диске: журнал регистраций (WAL) и снимки.</p>
+ * <p>Регистрация дописывается в журнал отдельным потоком записи. Все регистрации, накопившиеся, пока поток
+ * сбрасывал на диск предыдущую пачку, пишутся одной записью и одним fsync (group commit); регистрация считается
+ * сохраненной, когда завершается результат {@link #append(User)}</p>
+ * <p>Если пачку не удалось записать или сбросить на диск, журнал обрезается до ее начала: отклоненные регистрации
+ * не вернутся после перезапуска, а следующие пачки не окажутся за оборванной записью. Если обрезать журнал не
+ * удалось, следующая пачка начинает новый журнал.</p>
+ * <p>Каждые {@code snapshotRecords} регистраций поток записи начинает новый журнал, а в фоне пишется снимок всех
+ * сохраненных пользователей. Снимок пишется во временный файл и переименовывается после fsync, после чего старые снимки и
+ * журналы удаляются. При запуске читается последний снимок и журналы после него, поэтому время восстановления
+ * ограничено размером снимка и хвоста журнала</p>
+ * <p>Файлы: {@code users-<поколение>.wal} - записи {@code [int длина][int crc32][пользователь]},
+ * {@code users-<поколение>.snap} - {@code [int magic][int версия][пользователи][int количество][int crc32]}
+ * со всеми пользователями журналов предыдущих поколений. Пользователь:
+ * {@code [short длина имени][имя UTF-8][int итерации][byte длина соли][соль][byte длина хеша][хеш]}</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class UserStore implements AutoCloseable {
+
+    private static final InternalLogger logger = InternalLoggerFactory.getInstance(UserStore.class);
+
+    private static final String PREFIX = "users-";
+    private static final String WAL_SUFFIX = ".wal";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int SNAPSHOT_MAGIC = 0x54495553;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_HEADER_SIZE = 8;
+    private static final int SNAPSHOT_TRAILER_SIZE = 8;
+    private static final int WAL_HEADER_SIZE = 8;
+    private static final int MAX_BATCH = 4096;
+    private static final int WRITE_CHUNK = 1024 * 1024;
+
+    private final Path directory;
+    private final int snapshotRecords;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final List<Pending> snapshotRequests = new ArrayList<>();
+    private final ExecutorService snapshotExecutor =
+            Executors.newSingleThreadExecutor(new DefaultThreadFactory("telnetirc-user-snapshot", true));
+    private final AtomicBoolean snapshotRunning = new AtomicBoolean();
+    private final LongAdder records = new LongAdder();
+    private final LongAdder syncs = new LongAdder();
+
+    private long generation;
+    private long snapshotGeneration;
+    private FileChannel wal;
+    /**
+     * журнал не удалось обрезать после сбоя записи, следующая пачка пишется в новый журнал
+     */
+    private boolean torn;
+    private int recordsSinceSnapshot;
+    private Collection<User> users;
+    private Thread writer;
+    private volatile boolean closed;
+
+    private UserStore(Path directory, int snapshotRecords) {
+        this.directory = directory;
+        this.snapshotRecords = snapshotRecords;
+    }
+
+    /**
+     * Открыть хранилище; пользователи читаются {@link #recover(Consumer)}, запись начинается {@link #start(Collection)}
+     *
+     * @param directory каталог хранилища, создается при необходимости
+     * @param snapshotRecords через сколько регистраций писать снимок
+     * @return хранилище пользователей
+     * @throws IOException если каталог недоступен
+     */
+    public static UserStore open(Path directory, int snapshotRecords) throws IOException {
+        if (snapshotRecords < 1) throw new IllegalArgumentException("snapshot interval should be positive");
+
+        Files.createDirectories(directory);
+        return new UserStore(directory, snapshotRecords);
+    }
+
+    /**
+     * Прочитать последний снимок и журналы после него
+     *
+     * @param consumer получатель восстановленных пользователей, в порядке регистрации
+     * @return количество восстановленных записей
+     * @throws IOException если файлы хранилища недоступны или снимок поврежден
+     */
+    public int recover(Consumer<User> consumer) throws IOException {
+        long start = System.nanoTime();
+
+        List<Long> snapshots = generations(SNAPSHOT_SUFFIX);
+        List<Long> wals = generations(WAL_SUFFIX);
+
+        int fromSnapshot = 0;
+        if (!snapshots.isEmpty()) {
+            snapshotGeneration = snapshots.get(snapshots.size() - 1);
+            fromSnapshot = readSnapshot(path(snapshotGeneration, SNAPSHOT_SUFFIX), consumer);
+        }
+
+        int fromWal = 0;
+        generation = snapshotGeneration;
+        for (long walGeneration : wals) {
+            if (walGeneration < snapshotGeneration) continue;
+            fromWal += readWal(path(walGeneration, WAL_SUFFIX), consumer);
+            generation = walGeneration;
+        }
+        recordsSinceSnapshot = fromWal;
+
+        logger.info("recovered {} users ({} from snapshot, {} from wal) in {} ms", fromSnapshot + fromWal,
+                fromSnapshot, fromWal, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return fromSnapshot + fromWal;
+    }
+
+    /**
+     * Начать запись регистраций
+     *
+     * @param users все пользователи; живое представление, из которого пишутся снимки сохраненных пользователей
+     * @throws IOException если журнал не удалось открыть
+     */
+    public void start(Collection<User> users) throws IOException {
+        this.users = users;
+        this.wal = openWal(generation);
+
+        writer = new DefaultThreadFactory("telnetirc-user-wal", true).newThread(this::writeLoop);
+        writer.start();
+    }
+
+    /**
+     * Сохранить регистрацию пользователя; до {@link #start(Collection)} регистрации копятся в очереди
+     *
+     * @param user новый пользователь
+     * @return завершается, когда запись сброшена на диск
+     */
+    public CompletableFuture<Void> append(User user) {
+        if (user == null) throw new IllegalArgumentException("user can't be null");
+        return enqueue(new Pending(user));
+    }
+
+    /**
+     * Начать новый журнал и записать снимок, не дожидаясь {@code snapshotRecords} регистраций
+     *
+     * @return завершается, когда снимок записан
+     */
+    public CompletableFuture<Void> snapshot() {
+        return enqueue(new Pending(null));
+    }
+
+    /**
+     * @return количество записей, сохраненных в журнал с момента открытия
+     */
+    public long getRecords() {
+        return records.sum();
+    }
+
+    /**
+     * @return количество fsync журнала с момента открытия
+     */
+    public long getSyncs() {
+        return syncs.sum();
+    }
+
+    /**
+     * Дописать уже принятые регистрации и закрыть журнал
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (writer != null) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        snapshotExecutor.shutdown();
+        try {
+            snapshotExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            if (wal != null) wal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.warn("can't close user wal", e);
+        }
+        IllegalStateException cause = new IllegalStateException("user store is closed");
+        snapshotRequests.forEach(pending -> pending.future.completeExceptionally(cause));
+        failPending(cause);
+    }
+
+    //region write
+
+    private CompletableFuture<Void> enqueue(Pending pending) {
+        if (closed) {
+            pending.future.completeExceptionally(new IllegalStateException("user store is closed"));
+        } else {
+            queue.add(pending);
+        }
+        return pending.future;
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        ByteBuf buffer = Unpooled.buffer(64 * 1024);
+        CRC32 crc = new CRC32();
+
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    write(batch, buffer, crc);
+                }
+
+                if (!snapshotRequests.isEmpty() || recordsSinceSnapshot >= snapshotRecords) startSnapshot();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException | RuntimeException e) {
+                logger.error("can't write user wal", e);
+                batch.forEach(pending -> pending.future.completeExceptionally(e));
+                snapshotRequests.forEach(pending -> pending.future.completeExceptionally(e));
+                snapshotRequests.clear();
+            } finally {
+                batch.clear();
+                buffer.clear();
+            }
+        }
+    }
+
+    private void write(List<Pending> batch, ByteBuf buffer, CRC32 crc) throws IOException {
+        int written = 0;
+        for (Pending pending : batch) {
+            if (pending.user == null) {
+                snapshotRequests.add(pending);
+                continue;
+            }
+            int start = buffer.writerIndex();
+            buffer.writerIndex(start + WAL_HEADER_SIZE);
+            writeUser(buffer, pending.user);
+
+            int length = buffer.writerIndex() - start - WAL_HEADER_SIZE;
+            crc.reset();
+            crc.update(buffer.array(), buffer.arrayOffset() + start + WAL_HEADER_SIZE, length);
+            buffer.setInt(start, length);
+            buffer.setInt(start + 4, (int) crc.getValue());
+            written++;
+        }
+
+        if (written > 0) {
+            if (torn) rollWal();
+
+            long position = wal.position();
+            try {
+                while (buffer.isReadable()) {
+                    buffer.readerIndex(buffer.readerIndex() + wal.write(buffer.nioBuffer()));
+                }
+                // один fsync на все регистрации пачки
+                wal.force(false);
+            } catch (IOException | RuntimeException e) {
+                discard(position);
+                throw e;
+            }
+            syncs.increment();
+            records.add(written);
+            recordsSinceSnapshot += written;
+        }
+
+        for (Pending pending : batch) {
+            if (pending.user != null) {
+                pending.user.markStored();
+                pending.future.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Отрезать пачку, которую не удалось записать или сбросить на диск, начиная с позиции ее первой записи
+     */
+    private void discard(long position) {
+        try {
+            wal.truncate(position);
+            wal.position(position);
+            wal.force(false);
+        } catch (IOException | RuntimeException e) {
+            logger.error("can't truncate user wal at {}, next batch starts a new wal", position, e);
+            torn = true;
+        }
+    }
+
+    private void rollWal() throws IOException {
+        FileChannel next = openWal(generation + 1);
+        try {
+            wal.close();
+        } catch (IOException e) {
+            logger.warn("can't close user wal", e);
+        }
+        wal = next;
+        generation++;
+        torn = false;
+    }
+
+    private void startSnapshot() throws IOException {
+        // предыдущий снимок еще пишется: новый начнется после него
+        if (!snapshotRunning.compareAndSet(false, true)) return;
+
+        List<Pending> requests = new ArrayList<>(snapshotRequests);
+        snapshotRequests.clear();
+
+        // регистрации после этой точки попадают в новый журнал, все предыдущие уже есть в users
+        long snapshot = generation + 1;
+        try {
+            rollWal();
+        } catch (IOException e) {
+            snapshotRunning.set(false);
+            throw e;
+        }
+        recordsSinceSnapshot = 0;
+
+        snapshotExecutor.execute(() -> {
+            try {
+                writeSnapshot(snapshot);
+                requests.forEach(request -> request.future.complete(null));
+            } catch (IOException | RuntimeException e) {
+                logger.error("can't write user snapshot", e);
+                requests.forEach(request -> request.future.completeExceptionally(e));
+            } finally {
+                snapshotRunning.set(false);
+            }
+        });
+    }
+
+    private void writeSnapshot(long snapshot) throws IOException {
+        long start = System.nanoTime();
+        Path temp = directory.resolve(name(snapshot, SNAPSHOT_SUFFIX) + TEMP_SUFFIX);
+        ByteBuf buffer = Unpooled.buffer(WRITE_CHUNK + 1024);
+        CRC32 crc = new CRC32();
+        int count = 0;
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.writeInt(SNAPSHOT_MAGIC);
+            buffer.writeInt(SNAPSHOT_VERSION);
+            writeFully(channel, buffer);
+
+            for (User user : users) {
+                // регистрация еще пишется в журнал или не сохранилась
+                if (!user.isStored()) continue;
+                writeUser(buffer, user);
+                count++;
+                if (buffer.readableBytes() >= WRITE_CHUNK) {
+                    crc.update(buffer.array(), buffer.arrayOffset(), buffer.readableBytes());
+                    writeFully(channel, buffer);
+                }
+            }
+            crc.update(buffer.array(), buffer.arrayOffset(), buffer.readableBytes());
+            buffer.writeInt(count);
+            buffer.writeInt((int) crc.getValue());
+            writeFully(channel, buffer);
+            channel.force(true);
+        }
+
+        Files.move(temp, path(snapshot, SNAPSHOT_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory();
+        snapshotGeneration = snapshot;
+
+        for (long old : generations(SNAPSHOT_SUFFIX)) {
+            if (old < snapshot) Files.deleteIfExists(path(old, SNAPSHOT_SUFFIX));
+        }
+        for (long old : generations(WAL_SUFFIX)) {
+            if (old < snapshot) Files.deleteIfExists(path(old, WAL_SUFFIX));
+        }
+
+        logger.info("wrote snapshot of {} users in {} ms", count,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuf buffer) throws IOException {
+        while (buffer.isReadable()) {
+            buffer.readerIndex(buffer.readerIndex() + channel.write(buffer.nioBuffer()));
+        }
+        buffer.clear();
+    }
+
+    private void forceDirectory() {
+        // fsync каталога сохраняет переименование; поддерживается не всеми платформами
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.debug("can't sync directory {}", directory, e);
+        }
+    }
+
+    private void failPending(Throwable cause) {
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            pending.future.completeExceptionally(cause);
+        }
+    }
+
+    private FileChannel openWal(long walGeneration) throws IOException {
+        FileChannel channel = FileChannel.open(path(walGeneration, WAL_SUFFIX), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        return channel;
+    }
+
+    //endregion
+
+    //region read
+
+    private int readSnapshot(Path path, Consumer<User> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                ByteBuf buffer = Unpooled.wrappedBuffer(mapped);
+                int end = buffer.capacity() - SNAPSHOT_TRAILER_SIZE;
+                if (end < SNAPSHOT_HEADER_SIZE || buffer.getInt(0) != SNAPSHOT_MAGIC
+                        || buffer.getInt(4) != SNAPSHOT_VERSION) {
+                    throw new IOException("invalid user snapshot " + path);
+                }
+
+                CRC32 crc = new CRC32();
+                crc.update(buffer.nioBuffer(SNAPSHOT_HEADER_SIZE, end - SNAPSHOT_HEADER_SIZE));
+                if ((int) crc.getValue() != buffer.getInt(end + 4)) {
+                    throw new IOException("user snapshot " + path + " is corrupted");
+                }
+
+                int count = 0;
+                buffer.readerIndex(SNAPSHOT_HEADER_SIZE);
+                while (buffer.readerIndex() < end) {
+                    consumer.accept(readUser(buffer));
+                    count++;
+                }
+                if (count != buffer.getInt(end)) throw new IOException("user snapshot " + path + " is corrupted");
+                return count;
+            } finally {
+                PlatformDependent.freeDirectBuffer(mapped);
+            }
+        }
+    }
+
+    private int readWal(Path path, Consumer<User> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size == 0) return 0;
+
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int count = 0;
+            int position = 0;
+            try {
+                ByteBuf buffer = Unpooled.wrappedBuffer(mapped);
+                CRC32 crc = new CRC32();
+                while (position + WAL_HEADER_SIZE <= buffer.capacity()) {
+                    int length = buffer.getInt(position);
+                    int payload = position + WAL_HEADER_SIZE;
+                    if (length <= 0 || payload + length > buffer.capacity()) break;
+
+                    crc.reset();
+                    crc.update(buffer.nioBuffer(payload, length));
+                    if ((int) crc.getValue() != buffer.getInt(position + 4)) break;
+
+                    buffer.readerIndex(payload);
+                    consumer.accept(readUser(buffer));
+                    position = payload + length;
+                    count++;
+                }
+            } finally {
+                PlatformDependent.freeDirectBuffer(mapped);
+            }
+
+            if (position < size) {
+                // недописанная пачка: сбой во время записи, регистрации из нее не были подтверждены
+                logger.warn("truncating torn tail of {} at {} of {} bytes", path, position, size);
+                channel.truncate(position);
+            }
+            return count;
+        }
+    }
+
+    //endregion
+
+    private static void writeUser(ByteBuf buffer, User user) {
+        PasswordHash hash = user.getPasswordHash();
+
+        int lengthIndex = buffer.writerIndex();
+        buffer.writeShort(0);
+        buffer.setShort(lengthIndex, ByteBufUtil.writeUtf8(buffer, user.getUsername()));
+        buffer.writeInt(hash.getIterations());
+        buffer.writeByte(hash.salt().length);
+        buffer.writeBytes(hash.salt());
+        buffer.writeByte(hash.hash().length);
+        buffer.writeBytes(hash.hash());
+    }
+
+    private static User readUser(ByteBuf buffer) {
+        int usernameLength = buffer.readUnsignedShort();
+        String username = buffer.toString(buffer.readerIndex(), usernameLength, CharsetUtil.UTF_8);
+        buffer.skipBytes(usernameLength);
+
+        int iterations = buffer.readInt();
+        byte[] salt = new byte[buffer.readUnsignedByte()];
+        buffer.readBytes(salt);
+        byte[] hash = new byte[buffer.readUnsignedByte()];
+        buffer.readBytes(hash);
+
+        User user = User.withPasswordHash(username, PasswordHash.of(iterations, salt, hash));
+        user.markStored();
+        return user;
+    }
+
+    private List<Long> generations(String suffix) throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + suffix)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                generations.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - suffix.length())));
+            }
+        } catch (NumberFormatException e) {
+            throw new UncheckedIOException(new IOException("unexpected file in user store " + directory, e));
+        }
+        generations.sort(null);
+        return generations;
+    }
+
+    private Path path(long fileGeneration, String suffix) {
+        return directory.resolve(name(fileGeneration, suffix));
+    }
+
+    private static String name(long fileGeneration, String suffix) {
+        // имя с ведущими нулями, чтобы файлы сортировались по имени
+        return String.format("%s%020d%s", PREFIX, fileGeneration, suffix);
+    }
+
+    /**
+     * Регистрация, ожидающая записи; без пользователя - запрос снимка
+     */
+    private static final class Pending {
+
+        private final User user;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Pending(User user) {
+            this.user = user;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.telnetirc.chat;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+
+/**
+ * <p>Формат бинарного протокола для ботов.</p>
+ * <p>Клиент начинает соединение с {@link #MAGIC}; сервер отвечает тем же {@link #MAGIC} и дальше пишет только
+ * кадры. Все, что сервер отправил до этого (приветствие, предложение telnet-опций), не содержит байта 0, поэтому
+ * клиент пропускает данные до первого нулевого байта.</p>
+ * <p>Кадр: длина (4 байта, big-endian, без учета самой длины), тип (1 байт), данные. Кадры сервера:</p>
+ * <ul>
+ *     <li>{@link #TEXT} - ответ сервера, текст в UTF-8 как в текстовом протоколе;</li>
+ *     <li>{@link #MESSAGE} и {@link #PRIVATE} - сообщение канала и личное сообщение: время (8 байт, секунды
+ *     с начала эпохи), длина имени (2 байта), имя и текст в UTF-8.</li>
+ * </ul>
+ * <p>Кадры сообщений канала кодируются один раз на сообщение и пишутся всем бинарным участникам канала как
+ * duplicate общего буфера, как и текстовый вид сообщения</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public final class BinaryFrame {
+
+    /**
+     * начало бинарного соединения; первый байт 0 не встречается в строках текстового протокола
+     */
+    public static final byte[] MAGIC = {0, 'T', 'I', 'B'};
+
+    public static final byte TEXT = 1;
+    public static final byte MESSAGE = 2;
+    public static final byte PRIVATE = 3;
+
+    /**
+     * длина заголовка кадра: длина и тип
+     */
+    public static final int HEADER_LENGTH = 5;
+
+    /**
+     * имя кодировщика кадров в pipeline бинарного соединения
+     */
+    public static final String ENCODER = "binaryFrameEncoder";
+
+    private BinaryFrame() {
+    }
+
+    /**
+     * <p>Контекст кодировщика кадров соединения; null - соединение текстовое.</p>
+     * <p>Запись через этот контекст идет мимо кодировщика, прямо к сокету: так пишутся уже закодированные кадры</p>
+     *
+     * @param channel соединение
+     * @return контекст кодировщика кадров или null
+     */
+    public static ChannelHandlerContext encoder(Channel channel) {
+        ChannelPipeline pipeline = channel.pipeline();
+        return pipeline != null ? pipeline.context(ENCODER) : null;
+    }
+
+    /**
+     * Закодировать сообщение в кадр
+     *
+     * @param allocator аллокатор буфера
+     * @param type {@link #MESSAGE} или {@link #PRIVATE}
+     * @param message сообщение
+     * @return буфер с кадром
+     */
+    public static ByteBuf message(ByteBufAllocator allocator, byte type, ChatMessage message) {
+        String username = message.getUsername();
+        String text = message.getText();
+
+        ByteBuf frame = allocator.buffer(HEADER_LENGTH + 10 + username.length() + text.length());
+        frame.writerIndex(HEADER_LENGTH);
+        frame.writeLong(message.getEpochSecond());
+        int usernameStart = frame.writerIndex();
+        frame.writerIndex(usernameStart + 2);
+        frame.setShort(usernameStart, ByteBufUtil.writeUtf8(frame, username));
+        ByteBufUtil.writeUtf8(frame, text);
+        return header(frame, type);
+    }
+
+    /**
+     * Закодировать ответ сервера в кадр {@link #TEXT}
+     *
+     * @param allocator аллокатор буфера
+     * @param text текст ответа
+     * @return буфер с кадром
+     */
+    public static ByteBuf text(ByteBufAllocator allocator, CharSequence text) {
+        ByteBuf frame = allocator.buffer(HEADER_LENGTH + text.length());
+        frame.writerIndex(HEADER_LENGTH);
+        ByteBufUtil.writeUtf8(frame, text);
+        return header(frame, TEXT);
+    }
+
+    /**
+     * Скопировать закодированный ответ сервера в кадр {@link #TEXT}
+     *
+     * @param allocator аллокатор буфера
+     * @param text текст ответа в UTF-8
+     * @return буфер с кадром
+     */
+    public static ByteBuf text(ByteBufAllocator allocator, ByteBuf text) {
+        int length = text.readableBytes();
+        ByteBuf frame = allocator.buffer(HEADER_LENGTH + length);
+        frame.writerIndex(HEADER_LENGTH);
+        frame.writeBytes(text, text.readerIndex(), length);
+        return header(frame, TEXT);
+    }
+
+    private static ByteBuf header(ByteBuf frame, byte type) {
+        frame.setInt(0, frame.writerIndex() - 4);
+        frame.setByte(4, type);
+        return frame;
+    }
+}
@@ -1,37 +1,62 @@
 package com.example.telnetirc.chat;
 
+import com.example.telnetirc.metrics.RoomMetrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
 import io.netty.channel.group.ChannelGroup;
-import io.netty.channel.group.ChannelGroupFuture;
-import io.netty.channel.group.ChannelGroupFutureListener;
-import io.netty.util.concurrent.Future;
-import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ImmediateEventExecutor;
 
-import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
 /**
- * Канал общения в чате
+ * <p>Канал общения в чате</p>
+ * <p>Канал закреплен за одним event loop-ом: состояние канала не синхронизировано, поэтому все методы, кроме
+ * {@link #execute(Runnable)}, отметок входа ({@link #beginJoin()}, {@link #endJoin()}) и {@link #resume(Channel)},
+ * должны вызываться из этого event loop-а</p>
+ * <p>Участники разбиты на шарды по event loop-ам их соединений ({@link ChatShard}). Сообщение передается всем
+ * шардам, и каждый шард пишет своим участникам в своем event loop-е: рассылка в канал с десятками тысяч участников
+ * идет параллельно на всех ядрах, а не в потоке отправителя. Канал, созданный с внешней {@link ChannelGroup},
+ * рассылает сообщения в одном шарде, в потоке вызова</p>
  *
  * @author Denis Pakhomov.
  * @version 1.0
  */
 public class ChatChannel {
 
+    private final int usersLimit;
     private final int lastMessageCount;
+    /**
+     * внешняя группа соединений участников; null - канал создан с event loop-ом, и участники есть только в шардах
+     */
     private final ChannelGroup group;
-    private final Semaphore usersLimitSemaphore;
-    private final ConcurrentHashMap<String, LocalDateTime> users;
-    private final ConcurrentLinkedDeque<ChatMessage> messagesDeque;
-    private final AtomicInteger messageHistorySize;
+    private final ByteBufAllocator allocator;
+    private final EventExecutor executor;
+    private final RoomMetrics metrics;
+    private final Map<String, ChatMember> users;
+    private final MessageHistory history;
+    private final OverflowStats overflowStats = new OverflowStats();
+    private final AtomicInteger pendingJoins = new AtomicInteger();
+    private final boolean sharded;
+    private final ConcurrentHashMap<EventExecutor, ChatShard> shards = new ConcurrentHashMap<>();
+    private final List<ChatShard> shardList = new ArrayList<>();
+
+    private volatile OverflowPolicy overflowPolicy;
+    private ChatChannelListener listener = ChatChannelListener.NONE;
+    private long emptySince = System.nanoTime();
+    private int binaryMembers;
+    private boolean closed;
 
     /**
      *
@@ -40,15 +65,141 @@ public class ChatChannel {
      * @param channelGroup
      */
     public ChatChannel(int usersLimit, int lastMessageCount, ChannelGroup channelGroup) {
+        this(usersLimit, lastMessageCount, channelGroup, ByteBufAllocator.DEFAULT);
+    }
+
+    /**
+     *
+     * @param usersLimit максимальное количество пользователей в чате
+     * @param lastMessageCount количество сообщений в логе
+     * @param channelGroup
+     * @param allocator аллокатор для буферов рассылаемых сообщений
+     */
+    public ChatChannel(int usersLimit, int lastMessageCount, ChannelGroup channelGroup, ByteBufAllocator allocator) {
+        this(usersLimit, lastMessageCount, channelGroup, allocator, ImmediateEventExecutor.INSTANCE, false,
+                OverflowPolicy.dropOldest(lastMessageCount), new RoomMetrics(), new MessageRingBuffer(lastMessageCount));
+    }
+
+    /**
+     *
+     * @param usersLimit максимальное количество пользователей в чате
+     * @param lastMessageCount количество сообщений в логе
+     * @param eventLoop event loop, за которым закреплен канал
+     * @param allocator аллокатор для буферов рассылаемых сообщений
+     * @param overflowPolicy поведение по отношению к участникам, не успевающим забирать сообщения
+     */
+    public ChatChannel(int usersLimit, int lastMessageCount, EventLoop eventLoop, ByteBufAllocator allocator,
+                       OverflowPolicy overflowPolicy) {
+        this(usersLimit, lastMessageCount, eventLoop, allocator, overflowPolicy, new RoomMetrics());
+    }
+
+    /**
+     *
+     * @param usersLimit максимальное количество пользователей в чате
+     * @param lastMessageCount количество сообщений в логе
+     * @param eventLoop event loop, за которым закреплен канал
+     * @param allocator аллокатор для буферов рассылаемых сообщений
+     * @param overflowPolicy поведение по отношению к участникам, не успевающим забирать сообщения
+     * @param metrics показатели канала
+     */
+    public ChatChannel(int usersLimit, int lastMessageCount, EventLoop eventLoop, ByteBufAllocator allocator,
+                       OverflowPolicy overflowPolicy, RoomMetrics metrics) {
+        this(usersLimit, lastMessageCount, eventLoop, allocator, overflowPolicy, metrics,
+                new MessageRingBuffer(lastMessageCount));
+    }
+
+    /**
+     *
+     * @param usersLimit максимальное количество пользователей в чате
+     * @param lastMessageCount количество сообщений истории, которые получает вошедший пользователь
+     * @param eventLoop event loop, за которым закреплен канал
+     * @param allocator аллокатор для буферов рассылаемых сообщений
+     * @param overflowPolicy поведение по отношению к участникам, не успевающим забирать сообщения
+     * @param metrics показатели канала
+     * @param history история сообщений канала
+     */
+    public ChatChannel(int usersLimit, int lastMessageCount, EventLoop eventLoop, ByteBufAllocator allocator,
+                       OverflowPolicy overflowPolicy, RoomMetrics metrics, MessageHistory history) {
+        this(usersLimit, lastMessageCount, null, allocator, eventLoop, true, overflowPolicy, metrics, history);
+    }
+
+    private ChatChannel(int usersLimit, int lastMessageCount, ChannelGroup channelGroup, ByteBufAllocator allocator,
+                        EventExecutor executor, boolean sharded, OverflowPolicy overflowPolicy, RoomMetrics metrics,
+                        MessageHistory history) {
         if (usersLimit < 2) throw new IllegalArgumentException("Users limit on chat channel should be more than 2");
         if (lastMessageCount < 1) throw new IllegalArgumentException("Last messages count should be more than 1");
 
         group = channelGroup;
-        messagesDeque = new ConcurrentLinkedDeque<>();
-        usersLimitSemaphore = new Semaphore(usersLimit);
-        users = new ConcurrentHashMap<>(usersLimit);
+        this.allocator = allocator;
+        this.executor = executor;
+        this.metrics = metrics;
+        this.history = history;
+        this.sharded = sharded;
+        users = new HashMap<>();
+        this.overflowPolicy = overflowPolicy;
+        this.usersLimit = usersLimit;
         this.lastMessageCount = lastMessageCount;
-        this.messageHistorySize = new AtomicInteger(0);
+    }
+
+    /**
+     * Выполнить задачу в event loop-е канала: сразу, если вызов уже из него, иначе поставить в очередь
+     *
+     * @param task задача, работающая с состоянием канала
+     */
+    public void execute(Runnable task) {
+        if (executor.inEventLoop()) {
+            task.run();
+        } else {
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * @return вызван ли метод из event loop-а канала
+     */
+    public boolean inEventLoop() {
+        return executor.inEventLoop();
+    }
+
+    /**
+     * Выполнить задачу в event loop-е канала через заданное время
+     *
+     * @param task задача, работающая с состоянием канала
+     * @param delay задержка
+     * @param unit единица измерения задержки
+     * @return результат задачи
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return executor.schedule(task, delay, unit);
+    }
+
+    /**
+     * Отметить, что в канал поставлен вход пользователя; пока вход не выполнен, канал не считается пустым.
+     * Может вызываться из любого потока
+     */
+    public void beginJoin() {
+        pendingJoins.incrementAndGet();
+    }
+
+    /**
+     * Отметить, что поставленный вход выполнен (успешно или нет). Может вызываться из любого потока
+     */
+    public void endJoin() {
+        pendingJoins.decrementAndGet();
+    }
+
+    /**
+     * @return есть ли поставленные, но еще не выполненные входы в канал
+     */
+    public boolean hasPendingJoins() {
+        return pendingJoins.get() > 0;
+    }
+
+    /**
+     * @return {@link System#nanoTime()}, когда из канала вышел последний участник; 0 - в канале есть участники
+     */
+    public long getEmptySince() {
+        return emptySince;
     }
 
     /**
@@ -65,44 +216,57 @@ public class ChatChannel {
         if (username == null || username.isEmpty()) throw new IllegalArgumentException("username is null or empty");
         if (channel == null) throw new IllegalArgumentException("channel can't be null");
 
-        if (!users.containsKey(username) && usersLimitSemaphore.tryAcquire()) {
-            if (users.putIfAbsent(username, LocalDateTime.now()) == null) {
+        if (users.size() >= usersLimit || users.containsKey(username)) return false;
 
-                getLastMessages().stream().forEach(message -> channel.write(message.toString()));
-                channel.flush();
+        ChatMember member = new ChatMember(channel, username);
+        users.put(username, member);
+        if (member.isBinary()) binaryMembers++;
 
-                group.add(channel);
-                return true;
-            } else {
-                usersLimitSemaphore.release();
-            }
+        ChatShard shard = shard(channel);
+        shard.roomMembers++;
+        if (!shard.joinNow(member, history, lastMessageCount)) {
+            // шард другого event loop-а прочитает историю позже, а кольцевой буфер принадлежит event loop-у канала
+            List<ChatMessage> replay = new ArrayList<>(lastMessageCount);
+            history.forEachLast(lastMessageCount, replay::add);
+            shard.submit(new ChatShard.Join(member, replay));
         }
-        return false;
+
+        if (group != null) group.add(channel);
+        emptySince = 0;
+        metrics.joined();
+        listener.membersChanged(users.size());
+        return true;
     }
 
     /**
-     * Получаем последние сообщения пользователя с канала
+     * Активные пользователи в канале
      *
-     * @return список последних сообщений пользователей в канале
+     * @return stream активных пользователей в канале
      */
-    private List<ChatMessage> getLastMessages() {
-        List<ChatMessage> messages = new ArrayList<>(lastMessageCount);
-        Iterator<ChatMessage> iterator = messagesDeque.descendingIterator();
-        for (int i = 0; i < lastMessageCount && iterator.hasNext(); i++) {
-            messages.add(iterator.next());
-        }
-        Collections.reverse(messages);
+    public Stream<String> users() {
+        return users.keySet().stream();
+    }
 
-        return messages;
+    /**
+     * Состоит ли пользователь в канале
+     *
+     * @param username имя пользователя
+     * @return состоит ли пользователь в канале
+     */
+    public boolean contains(String username) {
+        return users.containsKey(username);
     }
 
     /**
-     * Активные пользователи в канале
+     * Состоит ли в канале пользователь с этим соединением
      *
-     * @return stream активных пользователей в канале
+     * @param channel netty-канал пользователя
+     * @param username имя пользователя
+     * @return состоит ли пользователь с этим соединением в канале
      */
-    public Stream<String> users() {
-        return users.keySet().stream();
+    public boolean isMember(Channel channel, String username) {
+        ChatMember member = users.get(username);
+        return member != null && member.channel == channel;
     }
 
     /**
@@ -117,9 +281,17 @@ public class ChatChannel {
         if (username == null || username.isEmpty()) throw new IllegalArgumentException("username is null or empty");
         if (channel == null) throw new IllegalArgumentException("channel can't be null");
 
-        if (users.remove(username) != null) {
-            usersLimitSemaphore.release();
-            group.remove(channel);
+        // запоздалый выход старого соединения не выводит пользователя, снова вошедшего с другим соединением
+        ChatMember member = users.get(username);
+        if (member != null && member.channel == channel && users.remove(username, member)) {
+            if (member.isBinary()) binaryMembers--;
+            ChatShard shard = shard(member.channel);
+            shard.roomMembers--;
+            shard.submit(new ChatShard.Leave(member));
+            if (group != null) group.remove(channel);
+            if (users.isEmpty()) emptySince = System.nanoTime();
+            metrics.left();
+            listener.membersChanged(users.size());
             return true;
         }
 
@@ -127,7 +299,9 @@ public class ChatChannel {
     }
 
     /**
-     * Вывести сообщение пользователя в канал
+     * <p>Вывести сообщение пользователя в канал</p>
+     * <p>Сообщение доставляется участникам канала (см. {@link #deliver(ChatMessage)}) и передается
+     * {@link ChatChannelListener}</p>
      *
      * @param username имя пользователя
      * @param text сообщение
@@ -137,17 +311,103 @@ public class ChatChannel {
         if (text == null || text.isEmpty()) throw new IllegalArgumentException("text is null or empty");
 
         ChatMessage message = new ChatMessage(username, text);
-        messagesDeque.addLast(message);
-        messageHistorySize.incrementAndGet();
-        group.writeAndFlush(message.toString()).addListener(future -> {
-            while (true) {
-                int currentValue = messageHistorySize.get();
-                if (currentValue <= lastMessageCount) break;
-                if (messageHistorySize.compareAndSet(currentValue, currentValue - 1)) {
-                    messagesDeque.removeFirst();
-                    break;
-                }
-            }
-        });
+        deliver(message);
+        listener.messagePosted(message);
+    }
+
+    /**
+     * <p>Добавить сообщение в историю и разослать участникам канала</p>
+     * <p>Сообщение кодируется один раз в общий буфер и передается шардам канала; каждый участник получает его
+     * duplicate со своим счетчиком ссылок. Если в канале есть бинарные участники, так же один раз кодируется и кадр
+     * сообщения ({@link BinaryFrame})</p>
+     * <p>Участникам, чье соединение не готово к записи, сообщение доставляется согласно {@link OverflowPolicy}</p>
+     *
+     * @param message сообщение
+     */
+    public void deliver(ChatMessage message) {
+        if (message == null) throw new IllegalArgumentException("message can't be null");
+        // сообщение с другого узла кластера, поставленное в очередь до удаления канала
+        if (closed) return;
+
+        history.add(message);
+
+        int targets = 0;
+        for (int i = 0; i < shardList.size(); i++) {
+            if (shardList.get(i).roomMembers > 0) targets++;
+        }
+        if (targets == 0) {
+            metrics.messageSent(0);
+            return;
+        }
+
+        ByteBuf frame = binaryMembers > 0 ? BinaryFrame.message(allocator, BinaryFrame.MESSAGE, message) : null;
+        ChatShard.Delivery delivery = new ChatShard.Delivery(message.encode(allocator), frame, System.nanoTime(),
+                metrics, targets);
+        for (int i = 0; i < shardList.size(); i++) {
+            ChatShard shard = shardList.get(i);
+            if (shard.roomMembers > 0) shard.submit(delivery);
+        }
+    }
+
+    /**
+     * <p>Соединение участника снова готово к записи; вызывается в event loop-е соединения участника.</p>
+     * <p>Отложенные сообщения отправляются участнику, отсчет времени до отключения сбрасывается</p>
+     *
+     * @param channel netty-канал участника
+     * @return сколько сообщений участник пропустил с момента последнего вызова
+     */
+    public long resume(Channel channel) {
+        ChatShard shard = shards.get(sharded ? channel.eventLoop() : executor);
+        return shard == null ? 0 : shard.resume(channel);
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null) throw new IllegalArgumentException("overflow policy can't be null");
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public OverflowStats getOverflowStats() {
+        return overflowStats;
+    }
+
+    /**
+     * @param listener наблюдатель за событиями канала
+     */
+    public void setListener(ChatChannelListener listener) {
+        if (listener == null) throw new IllegalArgumentException("listener can't be null");
+        this.listener = listener;
+    }
+
+    public RoomMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Закрыть канал и его историю; вызывается в event loop-е канала, когда канал больше не используется
+     *
+     * @param historyExecutor исполнитель, в котором закрывается история: закрытие журнала сбрасывает его на диск
+     */
+    public void close(Executor historyExecutor) {
+        closed = true;
+        historyExecutor.execute(history::close);
+    }
+
+    /**
+     * Шард участников с тем же event loop-ом, что и у соединения; вызывается в event loop-е канала
+     */
+    private ChatShard shard(Channel channel) {
+        EventExecutor owner = sharded ? channel.eventLoop() : executor;
+
+        ChatShard shard = shards.get(owner);
+        if (shard == null) {
+            shard = new ChatShard(this, owner);
+            shards.put(owner, shard);
+            shardList.add(shard);
+        }
+        return shard;
     }
 }
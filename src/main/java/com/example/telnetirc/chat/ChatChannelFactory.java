@@ -0,0 +1,177 @@
+package com.example.telnetirc.chat;
+
+import com.example.telnetirc.metrics.ServerMetrics;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.EventLoop;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * <p>Создание каналов чата с настройками сервера</p>
+ * <p>История канала открывается отдельно от создания канала ({@link #openHistory(String)}) в исполнителе историй:
+ * открытие журнала с восстановлением сегментов - работа с диском, которой не место в event loop-е. Там же
+ * закрываются истории удаленных каналов. Исполнитель однопоточный, поэтому история канала, удаленного и сразу
+ * созданного заново, открывается после того, как закрыта прежняя</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class ChatChannelFactory {
+
+    private final ToIntFunction<String> usersLimits;
+    private final int lastMessageCount;
+    private final Function<String, OverflowPolicy> overflowPolicies;
+    private final ServerMetrics metrics;
+    private final Function<String, MessageHistory> histories;
+    private final Executor historyExecutor;
+    private final Set<ChatChannel> opened = ConcurrentHashMap.newKeySet();
+
+    /**
+     * открываемые и открытые истории каналов, которые еще не забрал {@link #create}
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<MessageHistory>> opening = new ConcurrentHashMap<>();
+
+    /**
+     *
+     * @param usersLimit максимальное количество пользователей в канале
+     * @param lastMessageCount количество сообщений в логе канала
+     * @param overflowPolicies политика для медленных участников по имени канала
+     */
+    public ChatChannelFactory(int usersLimit, int lastMessageCount,
+                              Function<String, OverflowPolicy> overflowPolicies) {
+        this(usersLimit, lastMessageCount, overflowPolicies, new ServerMetrics());
+    }
+
+    /**
+     *
+     * @param usersLimit максимальное количество пользователей в канале
+     * @param lastMessageCount количество сообщений в логе канала
+     * @param overflowPolicies политика для медленных участников по имени канала
+     * @param metrics реестр показателей, в котором регистрируются каналы
+     */
+    public ChatChannelFactory(int usersLimit, int lastMessageCount,
+                              Function<String, OverflowPolicy> overflowPolicies, ServerMetrics metrics) {
+        this(usersLimit, lastMessageCount, overflowPolicies, metrics, name -> new MessageRingBuffer(lastMessageCount));
+    }
+
+    /**
+     *
+     * @param usersLimit максимальное количество пользователей в канале
+     * @param lastMessageCount количество сообщений истории, которые получает вошедший пользователь
+     * @param overflowPolicies политика для медленных участников по имени канала
+     * @param metrics реестр показателей, в котором регистрируются каналы
+     * @param histories история сообщений по имени канала
+     */
+    public ChatChannelFactory(int usersLimit, int lastMessageCount, Function<String, OverflowPolicy> overflowPolicies,
+                              ServerMetrics metrics, Function<String, MessageHistory> histories) {
+        this(name -> usersLimit, lastMessageCount, overflowPolicies, metrics, histories);
+    }
+
+    /**
+     *
+     * @param usersLimits максимальное количество пользователей по имени канала
+     * @param lastMessageCount количество сообщений истории, которые получает вошедший пользователь
+     * @param overflowPolicies политика для медленных участников по имени канала
+     * @param metrics реестр показателей, в котором регистрируются каналы
+     * @param histories история сообщений по имени канала
+     */
+    public ChatChannelFactory(ToIntFunction<String> usersLimits, int lastMessageCount,
+                              Function<String, OverflowPolicy> overflowPolicies, ServerMetrics metrics,
+                              Function<String, MessageHistory> histories) {
+        this(usersLimits, lastMessageCount, overflowPolicies, metrics, histories, Runnable::run);
+    }
+
+    /**
+     *
+     * @param usersLimits максимальное количество пользователей по имени канала
+     * @param lastMessageCount количество сообщений истории, которые получает вошедший пользователь
+     * @param overflowPolicies политика для медленных участников по имени канала
+     * @param metrics реестр показателей, в котором регистрируются каналы
+     * @param histories история сообщений по имени канала
+     * @param historyExecutor однопоточный исполнитель, в котором открываются и закрываются истории каналов
+     */
+    public ChatChannelFactory(ToIntFunction<String> usersLimits, int lastMessageCount,
+                              Function<String, OverflowPolicy> overflowPolicies, ServerMetrics metrics,
+                              Function<String, MessageHistory> histories, Executor historyExecutor) {
+        if (historyExecutor == null) throw new IllegalArgumentException("history executor can't be null");
+        this.usersLimits = usersLimits;
+        this.lastMessageCount = lastMessageCount;
+        this.overflowPolicies = overflowPolicies;
+        this.metrics = metrics;
+        this.histories = histories;
+        this.historyExecutor = historyExecutor;
+    }
+
+    /**
+     * Открыть историю канала в исполнителе историй. Одновременные вызовы для одного канала получают одну и ту же
+     * историю; открытая история ждет {@link #create}, который ее заберет
+     *
+     * @param name имя канала
+     * @return история канала, когда она будет открыта
+     */
+    public CompletableFuture<MessageHistory> openHistory(String name) {
+        CompletableFuture<MessageHistory> history = opening.computeIfAbsent(name,
+                key -> CompletableFuture.supplyAsync(() -> histories.apply(key), historyExecutor));
+        // неудачное открытие не запоминается: следующий вход в канал попробует снова
+        history.whenComplete((opened, error) -> {
+            if (error != null) opening.remove(name, history);
+        });
+        return history;
+    }
+
+    /**
+     * Создать канал чата с историей, открытой {@link #openHistory(String)}
+     *
+     * @param name имя канала
+     * @param eventLoop event loop, за которым будет закреплен канал
+     * @param allocator аллокатор для буферов рассылаемых сообщений
+     * @return новый канал чата; null - история канала не открыта, например, ее уже забрал канал, удаленный с тех
+     * пор
+     */
+    public ChatChannel create(String name, EventLoop eventLoop, ByteBufAllocator allocator) {
+        CompletableFuture<MessageHistory> history = opening.get(name);
+        if (history == null || !history.isDone() || history.isCompletedExceptionally()) return null;
+        opening.remove(name, history);
+
+        ChatChannel channel = new ChatChannel(usersLimits.applyAsInt(name), lastMessageCount, eventLoop, allocator,
+                overflowPolicies.apply(name), metrics.room(name), history.join());
+        opened.add(channel);
+        return channel;
+    }
+
+    /**
+     * Удалить канал чата, который больше не используется: закрыть его историю и убрать его показатели
+     *
+     * @param name имя канала
+     * @param channel канал чата
+     */
+    public void remove(String name, ChatChannel channel) {
+        if (!opened.remove(channel)) return;
+
+        channel.close(historyExecutor);
+        metrics.removeRoom(name);
+    }
+
+    /**
+     * Закрыть истории всех созданных каналов и истории, открытые для так и не созданных каналов; вызывается при
+     * остановке сервера, до остановки исполнителя историй
+     */
+    public void close() {
+        for (Iterator<ChatChannel> iterator = opened.iterator(); iterator.hasNext(); ) {
+            ChatChannel channel = iterator.next();
+            iterator.remove();
+            channel.close(historyExecutor);
+        }
+        for (Iterator<CompletableFuture<MessageHistory>> iterator = opening.values().iterator(); iterator.hasNext(); ) {
+            CompletableFuture<MessageHistory> history = iterator.next();
+            iterator.remove();
+            history.thenAccept(MessageHistory::close);
+        }
+    }
+}
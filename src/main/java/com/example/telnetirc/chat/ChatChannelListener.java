@@ -0,0 +1,29 @@
+package com.example.telnetirc.chat;
+
+/**
+ * Наблюдатель за событиями канала чата; вызывается из event loop-а канала
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public interface ChatChannelListener {
+
+    ChatChannelListener NONE = new ChatChannelListener() {
+    };
+
+    /**
+     * Участник канала опубликовал сообщение
+     *
+     * @param message сообщение
+     */
+    default void messagePosted(ChatMessage message) {
+    }
+
+    /**
+     * Изменилось количество участников канала
+     *
+     * @param members текущее количество участников
+     */
+    default void membersChanged(int members) {
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.telnetirc.chat;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+
+import java.util.ArrayDeque;
+
+/**
+ * Участник канала чата и состояние доставки ему сообщений; состояние доставки принадлежит event loop-у
+ * соединения участника ({@link ChatShard})
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+class ChatMember {
+
+    final Channel channel;
+    final String username;
+
+    /**
+     * кодировщик кадров бинарного соединения ({@link BinaryFrame#encoder(Channel)}), null - соединение текстовое
+     */
+    final ChannelHandlerContext frames;
+
+    /**
+     * сообщения, отложенные, пока соединение не готово к записи
+     */
+    ArrayDeque<ByteBuf> backlog;
+
+    /**
+     * сколько сообщений участник пропустил с момента последнего уведомления
+     */
+    long skipped;
+
+    /**
+     * с какого момента (System.nanoTime) соединение не готово к записи, 0 - готово
+     */
+    long unwritableSince;
+
+    /**
+     * участник отключен по {@link OverflowPolicy.Mode#DISCONNECT} и ждет выхода из шарда, сообщений не получает
+     */
+    boolean disconnected;
+
+    /**
+     * позиция в списке участников шарда
+     */
+    int index;
+
+    /**
+     * участнику писали сообщения в текущем разборе очереди шарда, нужен flush
+     */
+    boolean unflushed;
+
+    ChatMember(Channel channel, String username) {
+        this.channel = channel;
+        this.username = username;
+        this.frames = BinaryFrame.encoder(channel);
+    }
+
+    boolean isBinary() {
+        return frames != null;
+    }
+
+    /**
+     * Записать участнику сообщение; бинарному участнику - уже закодированный кадр, мимо кодировщика кадров
+     */
+    void write(Object message) {
+        if (frames != null) {
+            frames.write(message);
+        } else {
+            channel.write(message);
+        }
+    }
+
+    void flush() {
+        if (frames != null) {
+            frames.flush();
+        } else {
+            channel.flush();
+        }
+    }
+
+    boolean hasBacklog() {
+        return backlog != null && !backlog.isEmpty();
+    }
+
+    void releaseBacklog() {
+        if (backlog != null) {
+            ByteBuf buffer;
+            while ((buffer = backlog.pollFirst()) != null) {
+                buffer.release();
+            }
+        }
+    }
+}
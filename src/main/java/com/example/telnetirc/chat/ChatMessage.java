@@ -1,29 +1,38 @@
 package com.example.telnetirc.chat;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.ZoneId;
 
 /**
- * Сущность сообщения пользователя в канале
+ * <p>Сущность сообщения пользователя в канале</p>
+ * <p>Время нового сообщения берется из {@link MessageClock} с точностью до секунды. Вид сообщения для отправки
+ * ({@link #toString()}) строится при первом обращении и запоминается: одна и та же строка используется
+ * для рассылки и для истории при входе в канал</p>
  *
  * @author Denis Pakhomov.
  * @version 1.0
  */
 public class ChatMessage {
 
-    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm:ss");
-
     private final String username;
     private final LocalDateTime time;
     private final String text;
 
+    private String formattedTime;
+    private String wire;
+    private long epochSecond = Long.MIN_VALUE;
+
     /**
      *
      * @param username имя пользователя
      * @param text сообщение
      */
     public ChatMessage(String username, String text) {
-        this(username, LocalDateTime.now(), text);
+        this(username, MessageClock.now(), text);
     }
 
     /**
@@ -38,8 +47,58 @@ public class ChatMessage {
         this.text = text;
     }
 
+    private ChatMessage(String username, MessageClock.Tick tick, String text) {
+        this(username, tick.time, text);
+        this.formattedTime = tick.formatted;
+        this.epochSecond = tick.second;
+    }
+
+    /**
+     * Закодировать сообщение в том виде, в котором оно уходит в сеть (UTF-8)
+     *
+     * @param allocator аллокатор буфера
+     * @return буфер с закодированным сообщением
+     */
+    public ByteBuf encode(ByteBufAllocator allocator) {
+        return ByteBufUtil.writeUtf8(allocator, toString());
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public LocalDateTime getTime() {
+        return time;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return время публикации в секундах с начала эпохи
+     */
+    public long getEpochSecond() {
+        long epochSecond = this.epochSecond;
+        if (epochSecond == Long.MIN_VALUE) {
+            epochSecond = time.atZone(ZoneId.systemDefault()).toEpochSecond();
+            this.epochSecond = epochSecond;
+        }
+        return epochSecond;
+    }
+
     @Override
     public String toString() {
-        return String.format("%s (%s):\r\n %s\r\n", username, DATE_FORMATTER.format(time), text);
+        // гонка при первом обращении безопасна: строки неизменяемы и одинаковы
+        String wire = this.wire;
+        if (wire == null) {
+            String formatted = formattedTime != null ? formattedTime : MessageClock.format(time);
+            wire = new StringBuilder(username.length() + formatted.length() + text.length() + 9)
+                    .append(username).append(" (").append(formatted).append("):\r\n ")
+                    .append(text).append("\r\n")
+                    .toString();
+            this.wire = wire;
+        }
+        return wire;
     }
 }
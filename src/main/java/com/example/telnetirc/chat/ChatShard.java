@@ -0,0 +1,325 @@
+package com.example.telnetirc.chat;
+
+import com.example.telnetirc.metrics.RoomMetrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.EventExecutor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * <p>Участники канала чата, чьи соединения обслуживает один event loop, и доставка им сообщений.</p>
+ * <p>Канал передает шарду сообщения и изменения состава через очередь; шард разбирает ее в своем event loop-е:
+ * пишет каждое сообщение всем своим участникам и делает один flush на участника за весь разбор очереди. Так
+ * шарды разных event loop-ов рассылают одно сообщение параллельно, а запись в соединение всегда идет из его
+ * собственного event loop-а, без задачи на каждого участника.</p>
+ * <p>Все поля, кроме очереди, принадлежат event loop-у шарда, включая состояние доставки участников
+ * ({@link ChatMember})</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+final class ChatShard {
+
+    private final ChatChannel room;
+    private final EventExecutor executor;
+
+    private final Queue<Object> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Runnable drainTask = this::drain;
+
+    private final Consumer<ChatMessage> replayTask = this::replay;
+
+    private final ArrayList<ChatMember> members = new ArrayList<>();
+    private final HashMap<Channel, ChatMember> byChannel = new HashMap<>();
+    private int backlogged;
+    private boolean draining;
+    private ChatMember replaying;
+
+    /**
+     * участники шарда по данным канала; меняется и читается только в event loop-е канала
+     */
+    int roomMembers;
+
+    ChatShard(ChatChannel room, EventExecutor executor) {
+        this.room = room;
+        this.executor = executor;
+    }
+
+    /**
+     * Передать шарду сообщение или изменение состава; если вызов из event loop-а шарда, очередь разбирается сразу
+     *
+     * @param item {@link Delivery}, {@link Join} или {@link Leave}
+     */
+    void submit(Object item) {
+        queue.offer(item);
+
+        if (executor.inEventLoop()) {
+            // из рассылки самого шарда (отключение медленного участника) очередь дочитает внешний разбор
+            if (!draining) drain();
+        } else if (scheduled.compareAndSet(false, true)) {
+            executor.execute(drainTask);
+        }
+    }
+
+    /**
+     * <p>Ввести участника сразу, если вызов из event loop-а шарда и очередь шарда пуста: последние сообщения
+     * отправляются прямо из истории канала, без копии.</p>
+     * <p>Иначе шард разберет вход позже, когда канал уже мог дописать историю, и вход передается через очередь
+     * ({@link Join}) с копией последних сообщений</p>
+     *
+     * @param member участник
+     * @param history история канала
+     * @param count сколько последних сообщений получает участник
+     * @return вошел ли участник
+     */
+    boolean joinNow(ChatMember member, MessageHistory history, int count) {
+        if (!executor.inEventLoop() || draining || !queue.isEmpty()) return false;
+
+        replaying = member;
+        try {
+            history.forEachLast(count, replayTask);
+        } finally {
+            replaying = null;
+        }
+        register(member);
+        return true;
+    }
+
+    /**
+     * <p>Соединение участника снова готово к записи; вызывается в event loop-е соединения.</p>
+     * <p>Отложенные сообщения отправляются участнику, отсчет времени до отключения сбрасывается</p>
+     *
+     * @param channel netty-канал участника
+     * @return сколько сообщений участник пропустил с момента последнего вызова
+     */
+    long resume(Channel channel) {
+        ChatMember member = byChannel.get(channel);
+        if (member == null || member.disconnected) return 0;
+
+        member.unwritableSince = 0;
+
+        if (member.hasBacklog()) {
+            ArrayDeque<ByteBuf> backlog = member.backlog;
+            ByteBuf buffer;
+            while ((buffer = backlog.pollFirst()) != null) {
+                member.write(buffer);
+            }
+            member.flush();
+            backlogged--;
+        }
+
+        long skipped = member.skipped;
+        member.skipped = 0;
+        return skipped;
+    }
+
+    private void drain() {
+        scheduled.set(false);
+        draining = true;
+        try {
+            boolean written = false;
+            Object item;
+            while ((item = queue.poll()) != null) {
+                if (item instanceof Delivery) {
+                    write((Delivery) item);
+                    written = true;
+                } else if (item instanceof Join) {
+                    add((Join) item);
+                } else {
+                    remove(((Leave) item).member);
+                }
+            }
+
+            if (written) {
+                // flush только тем, кому писали: flush отстающего участника ему не поможет
+                for (int i = 0; i < members.size(); i++) {
+                    ChatMember member = members.get(i);
+                    if (member.unflushed) {
+                        member.unflushed = false;
+                        member.flush();
+                    }
+                }
+            }
+        } finally {
+            draining = false;
+        }
+    }
+
+    /**
+     * Участник получает сообщение сразу, только если соединение готово к записи и у него нет отложенных
+     * сообщений, иначе сообщение доставляется по {@link OverflowPolicy}
+     */
+    private void write(Delivery delivery) {
+        try {
+            for (int i = 0; i < members.size(); i++) {
+                ChatMember member = members.get(i);
+                if (member.disconnected) continue;
+                ByteBuf buffer = member.isBinary() ? delivery.frame : delivery.buffer;
+
+                if (member.channel.isWritable() && (backlogged == 0 || !member.hasBacklog())) {
+                    member.write(buffer.duplicate().retain());
+                    member.unflushed = true;
+                } else {
+                    overflow(member, buffer);
+                }
+            }
+        } finally {
+            delivery.shardDone();
+        }
+    }
+
+    private void add(Join join) {
+        ChatMember member = join.member;
+        for (int i = 0; i < join.replay.size(); i++) {
+            writeHistory(member, join.replay.get(i));
+        }
+        register(member);
+    }
+
+    private void replay(ChatMessage message) {
+        writeHistory(replaying, message);
+    }
+
+    private static void writeHistory(ChatMember member, ChatMessage message) {
+        if (member.isBinary()) {
+            member.write(BinaryFrame.message(member.channel.alloc(), BinaryFrame.MESSAGE, message));
+        } else {
+            member.channel.write(message.toString());
+        }
+    }
+
+    private void register(ChatMember member) {
+        member.flush();
+
+        member.index = members.size();
+        members.add(member);
+        byChannel.put(member.channel, member);
+    }
+
+    private void remove(ChatMember member) {
+        if (byChannel.remove(member.channel) != member) return;
+
+        // на место участника ставится последний: удаление за O(1) при любом размере канала
+        ChatMember last = members.remove(members.size() - 1);
+        if (last != member) {
+            last.index = member.index;
+            members.set(member.index, last);
+        }
+
+        if (member.hasBacklog()) backlogged--;
+        member.releaseBacklog();
+    }
+
+    private void overflow(ChatMember member, ByteBuf buffer) {
+        OverflowPolicy overflowPolicy = room.getOverflowPolicy();
+        OverflowStats overflowStats = room.getOverflowStats();
+
+        switch (overflowPolicy.getMode()) {
+            case DROP_OLDEST:
+                if (member.backlog == null) member.backlog = new ArrayDeque<>();
+                if (member.backlog.isEmpty()) backlogged++;
+
+                member.backlog.addLast(buffer.duplicate().retain());
+                overflowStats.queued();
+
+                if (member.backlog.size() > overflowPolicy.getBacklogLimit()) {
+                    member.backlog.pollFirst().release();
+                    overflowStats.dropped();
+                }
+                break;
+
+            case DISCONNECT:
+                long now = System.nanoTime();
+                if (member.unwritableSince == 0) {
+                    member.unwritableSince = now;
+                } else if (now - member.unwritableSince >= overflowPolicy.getDisconnectAfterNanos()) {
+                    // состав канала меняется в event loop-е канала, участник уйдет из шарда через очередь; до тех
+                    // пор следующие сообщения его пропускают, и отключение не повторяется
+                    member.disconnected = true;
+                    room.execute(() -> room.leave(member.channel, member.username));
+                    member.channel.close();
+                    overflowStats.disconnected();
+                    break;
+                }
+                // пока таймаут не истек, участник пропускает сообщения
+                skip(member, overflowStats);
+                break;
+
+            case SKIP:
+                skip(member, overflowStats);
+                break;
+        }
+    }
+
+    private static void skip(ChatMember member, OverflowStats overflowStats) {
+        member.skipped++;
+        overflowStats.skipped();
+    }
+
+    /**
+     * Сообщение для рассылки, общее для всех шардов канала: текстовый вид и кадр для бинарных участников. Последний
+     * шард, закончивший запись, учитывает время рассылки и освобождает буферы
+     */
+    static final class Delivery {
+
+        private final ByteBuf buffer;
+        private final ByteBuf frame;
+        private final long start;
+        private final RoomMetrics metrics;
+        private final AtomicInteger remaining;
+
+        /**
+         * @param frame кадр сообщения; null, если в канале нет бинарных участников
+         */
+        Delivery(ByteBuf buffer, ByteBuf frame, long start, RoomMetrics metrics, int shards) {
+            this.buffer = buffer;
+            this.frame = frame;
+            this.start = start;
+            this.metrics = metrics;
+            this.remaining = new AtomicInteger(shards);
+        }
+
+        private void shardDone() {
+            if (remaining.decrementAndGet() == 0) {
+                buffer.release();
+                if (frame != null) frame.release();
+                metrics.messageSent(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Участник вошел в канал: получает последние сообщения истории, затем новые сообщения канала
+     */
+    static final class Join {
+
+        private final ChatMember member;
+        private final List<ChatMessage> replay;
+
+        Join(ChatMember member, List<ChatMessage> replay) {
+            this.member = member;
+            this.replay = replay;
+        }
+    }
+
+    /**
+     * Участник вышел из канала: его отложенные сообщения освобождаются
+     */
+    static final class Leave {
+
+        private final ChatMember member;
+
+        Leave(ChatMember member) {
+            this.member = member;
+        }
+    }
+}
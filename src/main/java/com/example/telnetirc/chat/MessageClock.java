@@ -0,0 +1,68 @@
+package com.example.telnetirc.chat;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * <p>Время сообщений с точностью до секунды.</p>
+ * <p>Время и его отформатированная строка вычисляются один раз в секунду и переиспользуются всеми сообщениями,
+ * опубликованными в эту секунду: в сообщении все равно выводятся только секунды. Текущая секунда публикуется
+ * через volatile-поле; если несколько потоков одновременно увидят новую секунду, каждый вычислит ее сам,
+ * и одна из одинаковых копий останется</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+final class MessageClock {
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm:ss");
+
+    private static volatile Tick current = new Tick(Long.MIN_VALUE, null, null);
+
+    private MessageClock() {
+    }
+
+    /**
+     * @return текущая секунда
+     */
+    static Tick now() {
+        long second = Math.floorDiv(System.currentTimeMillis(), 1000L);
+        Tick tick = current;
+        if (tick.second != second) {
+            LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochSecond(second), ZoneId.systemDefault());
+            tick = new Tick(second, time, DATE_FORMATTER.format(time));
+            current = tick;
+        }
+        return tick;
+    }
+
+    /**
+     * Отформатировать время сообщения; для текущей секунды возвращается уже готовая строка
+     *
+     * @param time время сообщения
+     * @return время в формате {@code dd.MM.yyyy HH:mm:ss}
+     */
+    static String format(LocalDateTime time) {
+        Tick tick = current;
+        if (time.getNano() == 0 && time.equals(tick.time)) return tick.formatted;
+        return DATE_FORMATTER.format(time);
+    }
+
+    /**
+     * Одна секунда: время и его строка
+     */
+    static final class Tick {
+
+        final long second;
+        final LocalDateTime time;
+        final String formatted;
+
+        private Tick(long second, LocalDateTime time, String formatted) {
+            this.second = second;
+            this.time = time;
+            this.formatted = formatted;
+        }
+    }
+}
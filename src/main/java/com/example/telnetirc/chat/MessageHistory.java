@@ -0,0 +1,36 @@
+package com.example.telnetirc.chat;
+
+import java.util.function.Consumer;
+
+/**
+ * История сообщений канала чата
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public interface MessageHistory extends AutoCloseable {
+
+    /**
+     * Добавить сообщение в историю
+     *
+     * @param message сообщение
+     * @return порядковый номер сообщения
+     */
+    long add(ChatMessage message);
+
+    /**
+     * Обойти последние сообщения истории, начиная с ранних
+     *
+     * @param count максимальное количество сообщений
+     * @param consumer обработчик сообщения
+     * @return количество переданных обработчику сообщений
+     */
+    int forEachLast(int count, Consumer<ChatMessage> consumer);
+
+    /**
+     * Освободить ресурсы истории; для истории в памяти ничего не делает
+     */
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.telnetirc.chat;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * <p>История сообщений канала фиксированного размера.</p>
+ * <p>Каждое сообщение получает порядковый номер и записывается в ячейку {@code номер % capacity}, вытесняя
+ * самое старое. Запись не берет блокировок, чтение последних сообщений обходит ячейки напрямую без копирования
+ * и пропускает ячейки, номер в которых не совпадает с ожидаемым (запись еще не опубликована или уже вытеснена)</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class MessageRingBuffer implements MessageHistory {
+
+    private final int capacity;
+    private final AtomicReferenceArray<Entry> slots;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     *
+     * @param capacity максимальное количество хранимых сообщений
+     */
+    public MessageRingBuffer(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity should be positive");
+
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Добавить сообщение в историю, вытеснив самое старое при заполнении
+     *
+     * @param message сообщение
+     * @return порядковый номер сообщения
+     */
+    @Override
+    public long add(ChatMessage message) {
+        if (message == null) throw new IllegalArgumentException("message can't be null");
+
+        long number = sequence.getAndIncrement();
+        int index = index(number);
+        Entry entry = new Entry(number, message);
+
+        Entry current = slots.get(index);
+        // ячейку могло уже занять более новое сообщение, если писатель отстал на целый круг
+        while ((current == null || current.number < number) && !slots.compareAndSet(index, current, entry)) {
+            current = slots.get(index);
+        }
+
+        return number;
+    }
+
+    /**
+     * Обойти последние сообщения истории, начиная с ранних
+     *
+     * @param count максимальное количество сообщений
+     * @param consumer обработчик сообщения
+     * @return количество переданных обработчику сообщений
+     */
+    @Override
+    public int forEachLast(int count, Consumer<ChatMessage> consumer) {
+        long end = sequence.get();
+        long from = Math.max(0, end - Math.min(count, capacity));
+
+        int visited = 0;
+        for (long number = from; number < end; number++) {
+            Entry entry = slots.get(index(number));
+            if (entry != null && entry.number == number) {
+                consumer.accept(entry.message);
+                visited++;
+            }
+        }
+
+        return visited;
+    }
+
+    /**
+     * Количество сообщений в истории
+     *
+     * @return количество сообщений, не больше емкости буфера
+     */
+    public int size() {
+        return (int) Math.min(sequence.get(), capacity);
+    }
+
+    /**
+     * Порядковый номер, который получит следующее сообщение
+     *
+     * @return количество сообщений, добавленных за все время
+     */
+    public long nextSequence() {
+        return sequence.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private int index(long number) {
+        return (int) (number % capacity);
+    }
+
+    private static final class Entry {
+
+        private final long number;
+        private final ChatMessage message;
+
+        private Entry(long number, ChatMessage message) {
+            this.number = number;
+            this.message = message;
+        }
+    }
+}
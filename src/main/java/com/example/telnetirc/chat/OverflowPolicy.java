@@ -0,0 +1,79 @@
+package com.example.telnetirc.chat;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Поведение канала чата по отношению к участнику, чье соединение не успевает забирать сообщения
+ * (исходящий буфер выше high watermark)
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public final class OverflowPolicy {
+
+    public enum Mode {
+        /**
+         * копить сообщения в ограниченной очереди участника, вытесняя самые старые
+         */
+        DROP_OLDEST,
+        /**
+         * пропускать сообщения и сообщить участнику, сколько он пропустил, когда соединение освободится
+         */
+        SKIP,
+        /**
+         * пропускать сообщения и отключить участника, если соединение не освобождается дольше таймаута
+         */
+        DISCONNECT
+    }
+
+    private final Mode mode;
+    private final int backlogLimit;
+    private final long disconnectAfterNanos;
+
+    private OverflowPolicy(Mode mode, int backlogLimit, long disconnectAfterNanos) {
+        this.mode = mode;
+        this.backlogLimit = backlogLimit;
+        this.disconnectAfterNanos = disconnectAfterNanos;
+    }
+
+    /**
+     *
+     * @param backlogLimit максимальное количество сообщений в очереди участника
+     * @return политика вытеснения старых сообщений
+     */
+    public static OverflowPolicy dropOldest(int backlogLimit) {
+        if (backlogLimit < 1) throw new IllegalArgumentException("backlog limit should be positive");
+        return new OverflowPolicy(Mode.DROP_OLDEST, backlogLimit, 0);
+    }
+
+    /**
+     *
+     * @return политика пропуска сообщений
+     */
+    public static OverflowPolicy skip() {
+        return new OverflowPolicy(Mode.SKIP, 0, 0);
+    }
+
+    /**
+     *
+     * @param timeout сколько участник может оставаться не готовым к записи
+     * @param unit единица измерения таймаута
+     * @return политика отключения медленных участников
+     */
+    public static OverflowPolicy disconnectAfter(long timeout, TimeUnit unit) {
+        if (timeout < 0) throw new IllegalArgumentException("timeout can't be negative");
+        return new OverflowPolicy(Mode.DISCONNECT, 0, unit.toNanos(timeout));
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getBacklogLimit() {
+        return backlogLimit;
+    }
+
+    public long getDisconnectAfterNanos() {
+        return disconnectAfterNanos;
+    }
+}
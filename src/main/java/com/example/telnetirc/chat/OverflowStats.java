@@ -0,0 +1,61 @@
+package com.example.telnetirc.chat;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Счетчики исходов рассылки участникам, не готовым к записи
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class OverflowStats {
+
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder disconnected = new LongAdder();
+
+    void queued() {
+        queued.increment();
+    }
+
+    void dropped() {
+        dropped.increment();
+    }
+
+    void skipped() {
+        skipped.increment();
+    }
+
+    void disconnected() {
+        disconnected.increment();
+    }
+
+    /**
+     * @return сколько сообщений было отложено в очередь участников
+     */
+    public long getQueued() {
+        return queued.sum();
+    }
+
+    /**
+     * @return сколько отложенных сообщений было вытеснено более новыми
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return сколько сообщений было пропущено для отстающих участников
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    /**
+     * @return сколько участников было отключено
+     */
+    public long getDisconnected() {
+        return disconnected.sum();
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.telnetirc.cluster;
+
+import com.example.telnetirc.auth.AuthResult;
+import com.example.telnetirc.auth.AuthService;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * <p>Аутентификация с сессиями, уникальными в пределах кластера.</p>
+ * <p>Пароль и сессия на этом узле проверяются локальным сервисом, после чего сессия занимается в кластере
+ * ({@link ClusterSessions}); если она уже открыта на другом узле, локальная сессия закрывается и возвращается
+ * {@link AuthResult#ALREADY_AUTHENTICATED}</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class ClusterAuthService implements AuthService {
+
+    private final AuthService local;
+    private final ClusterSessions sessions;
+
+    /**
+     *
+     * @param local сервис аутентификации этого узла
+     * @param sessions сессии пользователей кластера
+     */
+    public ClusterAuthService(AuthService local, ClusterSessions sessions) {
+        this.local = local;
+        this.sessions = sessions;
+    }
+
+    @Override
+    public AuthResult authenticate(String username, String password) {
+        AuthResult result = local.authenticate(username, password);
+        if (result != AuthResult.AUTHENTICATED) return result;
+
+        boolean acquired = false;
+        try {
+            acquired = sessions.acquire(username);
+        } finally {
+            if (!acquired) local.logout(username);
+        }
+        return acquired ? AuthResult.AUTHENTICATED : AuthResult.ALREADY_AUTHENTICATED;
+    }
+
+    /**
+     * Сессия в кластере занимается без блокировки: результат завершается, когда ответит узел-владелец имени
+     */
+    @Override
+    public CompletableFuture<AuthResult> authenticateAsync(String username, String password) {
+        return local.authenticateAsync(username, password).thenCompose(result -> {
+            if (result != AuthResult.AUTHENTICATED) return CompletableFuture.completedFuture(result);
+
+            return sessions.acquireAsync(username).handle((acquired, error) -> {
+                if (error != null || !acquired) local.logout(username);
+                if (error != null) throw new CompletionException(error);
+                return acquired ? AuthResult.AUTHENTICATED : AuthResult.ALREADY_AUTHENTICATED;
+            });
+        });
+    }
+
+    @Override
+    public boolean logout(String username) {
+        if (!local.logout(username)) return false;
+
+        sessions.release(username);
+        return true;
+    }
+}
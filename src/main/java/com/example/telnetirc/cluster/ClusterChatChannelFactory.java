@@ -0,0 +1,55 @@
+package com.example.telnetirc.cluster;
+
+import com.example.telnetirc.chat.ChatChannel;
+import com.example.telnetirc.chat.ChatChannelFactory;
+import com.example.telnetirc.chat.MessageHistory;
+import com.example.telnetirc.chat.OverflowPolicy;
+import com.example.telnetirc.metrics.ServerMetrics;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.EventLoop;
+
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Создание каналов чата, подключенных к кластеру через {@link ClusterRelay}
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class ClusterChatChannelFactory extends ChatChannelFactory {
+
+    private final ClusterRelay relay;
+
+    /**
+     *
+     * @param usersLimits максимальное количество пользователей по имени канала
+     * @param lastMessageCount количество сообщений истории, которые получает вошедший пользователь
+     * @param overflowPolicies политика для медленных участников по имени канала
+     * @param metrics реестр показателей, в котором регистрируются каналы
+     * @param histories история сообщений по имени канала
+     * @param historyExecutor однопоточный исполнитель, в котором открываются и закрываются истории каналов
+     * @param relay пересылка сообщений каналов между узлами
+     */
+    public ClusterChatChannelFactory(ToIntFunction<String> usersLimits, int lastMessageCount,
+                                     Function<String, OverflowPolicy> overflowPolicies, ServerMetrics metrics,
+                                     Function<String, MessageHistory> histories, Executor historyExecutor,
+                                     ClusterRelay relay) {
+        super(usersLimits, lastMessageCount, overflowPolicies, metrics, histories, historyExecutor);
+        this.relay = relay;
+    }
+
+    @Override
+    public ChatChannel create(String name, EventLoop eventLoop, ByteBufAllocator allocator) {
+        ChatChannel channel = super.create(name, eventLoop, allocator);
+        if (channel != null) relay.register(name, channel);
+        return channel;
+    }
+
+    @Override
+    public void remove(String name, ChatChannel channel) {
+        relay.unregister(name, channel);
+        super.remove(name, channel);
+    }
+}
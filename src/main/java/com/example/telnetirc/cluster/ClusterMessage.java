@@ -0,0 +1,172 @@
+package com.example.telnetirc.cluster;
+
+import com.example.telnetirc.chat.ChatMessage;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>Сообщение между узлами кластера.</p>
+ * <p>Сообщения неизменяемые: локальная шина передает их узлам без копирования, TCP-шина кодирует
+ * {@link ClusterMessageCodec}</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public abstract class ClusterMessage {
+
+    private ClusterMessage() {
+    }
+
+    /**
+     * Первое сообщение соединения между узлами: имя узла, который открыл соединение
+     */
+    public static final class Hello extends ClusterMessage {
+
+        private final String node;
+
+        public Hello(String node) {
+            this.node = node;
+        }
+
+        public String getNode() {
+            return node;
+        }
+    }
+
+    /**
+     * Проверка связи: отправляется по простаивающему соединению, получателю не передается
+     */
+    public static final class Heartbeat extends ClusterMessage {
+    }
+
+    /**
+     * На узле отправителя в канале появились участники ({@code interested}) или ушел последний из них
+     */
+    public static final class Interest extends ClusterMessage {
+
+        private final String room;
+        private final boolean interested;
+
+        public Interest(String room, boolean interested) {
+            this.room = room;
+            this.interested = interested;
+        }
+
+        public String getRoom() {
+            return room;
+        }
+
+        public boolean isInterested() {
+            return interested;
+        }
+    }
+
+    /**
+     * Пачка сообщений каналов чата, опубликованных на узле отправителя, в порядке публикации
+     */
+    public static final class Relay extends ClusterMessage {
+
+        private final List<RoomMessage> messages;
+
+        public Relay(List<RoomMessage> messages) {
+            this.messages = Collections.unmodifiableList(messages);
+        }
+
+        public List<RoomMessage> getMessages() {
+            return messages;
+        }
+    }
+
+    /**
+     * Сообщение канала чата в пачке {@link Relay}
+     */
+    public static final class RoomMessage {
+
+        private final String room;
+        private final ChatMessage message;
+
+        public RoomMessage(String room, ChatMessage message) {
+            this.room = room;
+            this.message = message;
+        }
+
+        public String getRoom() {
+            return room;
+        }
+
+        public ChatMessage getMessage() {
+            return message;
+        }
+    }
+
+    /**
+     * Запрос к узлу-владельцу имени пользователя
+     */
+    public static final class SessionRequest extends ClusterMessage {
+
+        public enum Type {
+            /**
+             * занять сессию, владелец отвечает {@link SessionResponse}
+             */
+            ACQUIRE,
+            /**
+             * освободить сессию
+             */
+            RELEASE,
+            /**
+             * сессия уже открыта на узле отправителя: восстановление состояния перезапущенного владельца
+             */
+            RESTORE,
+            /**
+             * от владельца: сессия, о которой сообщил {@link #RESTORE}, уже открыта на другом узле, и узел-получатель
+             * должен закрыть свою
+             */
+            REVOKE
+        }
+
+        private final long id;
+        private final Type type;
+        private final String username;
+
+        public SessionRequest(long id, Type type, String username) {
+            this.id = id;
+            this.type = type;
+            this.username = username;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+    }
+
+    /**
+     * Ответ узла-владельца на {@link SessionRequest}
+     */
+    public static final class SessionResponse extends ClusterMessage {
+
+        private final long id;
+        private final boolean granted;
+
+        public SessionResponse(long id, boolean granted) {
+            this.id = id;
+            this.granted = granted;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public boolean isGranted() {
+            return granted;
+        }
+    }
+}
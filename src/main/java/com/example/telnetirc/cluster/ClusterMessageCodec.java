@@ -0,0 +1,145 @@
+package com.example.telnetirc.cluster;
+
+import com.example.telnetirc.chat.ChatMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.MessageToMessageCodec;
+import io.netty.util.CharsetUtil;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Двоичное представление {@link ClusterMessage} в кадрах TCP-шины.</p>
+ * <p>Кадр: {@code [byte тип][поля]}, строки - {@code [int длина][UTF-8]}, время сообщения чата - миллисекунды UTC.
+ * Границы кадров задают обработчики длины перед кодеком</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+@ChannelHandler.Sharable
+class ClusterMessageCodec extends MessageToMessageCodec<ByteBuf, ClusterMessage> {
+
+    private static final byte HELLO = 1;
+    private static final byte INTEREST = 2;
+    private static final byte RELAY = 3;
+    private static final byte SESSION_REQUEST = 4;
+    private static final byte SESSION_RESPONSE = 5;
+    private static final byte HEARTBEAT = 6;
+
+    private static final ClusterMessage.Heartbeat HEARTBEAT_MESSAGE = new ClusterMessage.Heartbeat();
+    private static final ClusterMessage.SessionRequest.Type[] REQUEST_TYPES =
+            ClusterMessage.SessionRequest.Type.values();
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, ClusterMessage msg, List<Object> out) throws Exception {
+        ByteBuf buffer = ctx.alloc().buffer();
+        try {
+            encode(msg, buffer);
+            out.add(buffer.retain());
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+        out.add(decode(msg));
+    }
+
+    static void encode(ClusterMessage message, ByteBuf buffer) {
+        if (message instanceof ClusterMessage.Relay) {
+            List<ClusterMessage.RoomMessage> messages = ((ClusterMessage.Relay) message).getMessages();
+            buffer.writeByte(RELAY);
+            buffer.writeInt(messages.size());
+            for (ClusterMessage.RoomMessage roomMessage : messages) {
+                ChatMessage chatMessage = roomMessage.getMessage();
+                writeString(buffer, roomMessage.getRoom());
+                writeString(buffer, chatMessage.getUsername());
+                buffer.writeLong(chatMessage.getTime().toInstant(ZoneOffset.UTC).toEpochMilli());
+                writeString(buffer, chatMessage.getText());
+            }
+        } else if (message instanceof ClusterMessage.Interest) {
+            ClusterMessage.Interest interest = (ClusterMessage.Interest) message;
+            buffer.writeByte(INTEREST);
+            writeString(buffer, interest.getRoom());
+            buffer.writeBoolean(interest.isInterested());
+        } else if (message instanceof ClusterMessage.SessionRequest) {
+            ClusterMessage.SessionRequest request = (ClusterMessage.SessionRequest) message;
+            buffer.writeByte(SESSION_REQUEST);
+            buffer.writeLong(request.getId());
+            buffer.writeByte(request.getType().ordinal());
+            writeString(buffer, request.getUsername());
+        } else if (message instanceof ClusterMessage.SessionResponse) {
+            ClusterMessage.SessionResponse response = (ClusterMessage.SessionResponse) message;
+            buffer.writeByte(SESSION_RESPONSE);
+            buffer.writeLong(response.getId());
+            buffer.writeBoolean(response.isGranted());
+        } else if (message instanceof ClusterMessage.Heartbeat) {
+            buffer.writeByte(HEARTBEAT);
+        } else if (message instanceof ClusterMessage.Hello) {
+            buffer.writeByte(HELLO);
+            writeString(buffer, ((ClusterMessage.Hello) message).getNode());
+        } else {
+            throw new IllegalArgumentException("unknown cluster message: " + message.getClass().getName());
+        }
+    }
+
+    static ClusterMessage decode(ByteBuf buffer) {
+        byte type = buffer.readByte();
+        switch (type) {
+            case RELAY:
+                int count = buffer.readInt();
+                if (count < 0) throw new CorruptedFrameException("negative relay size: " + count);
+                List<ClusterMessage.RoomMessage> messages = new ArrayList<>(Math.min(count, 1024));
+                for (int i = 0; i < count; i++) {
+                    String room = readString(buffer);
+                    String username = readString(buffer);
+                    long millis = buffer.readLong();
+                    String text = readString(buffer);
+                    LocalDateTime time = LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000L),
+                            (int) Math.floorMod(millis, 1000L) * 1_000_000, ZoneOffset.UTC);
+                    messages.add(new ClusterMessage.RoomMessage(room, new ChatMessage(username, time, text)));
+                }
+                return new ClusterMessage.Relay(messages);
+            case INTEREST:
+                return new ClusterMessage.Interest(readString(buffer), buffer.readBoolean());
+            case SESSION_REQUEST:
+                long requestId = buffer.readLong();
+                int requestType = buffer.readUnsignedByte();
+                if (requestType >= REQUEST_TYPES.length) {
+                    throw new CorruptedFrameException("unknown session request type: " + requestType);
+                }
+                return new ClusterMessage.SessionRequest(requestId, REQUEST_TYPES[requestType], readString(buffer));
+            case SESSION_RESPONSE:
+                return new ClusterMessage.SessionResponse(buffer.readLong(), buffer.readBoolean());
+            case HELLO:
+                return new ClusterMessage.Hello(readString(buffer));
+            case HEARTBEAT:
+                return HEARTBEAT_MESSAGE;
+            default:
+                throw new CorruptedFrameException("unknown cluster message type: " + type);
+        }
+    }
+
+    private static void writeString(ByteBuf buffer, String value) {
+        int lengthIndex = buffer.writerIndex();
+        buffer.writeInt(0);
+        buffer.setInt(lengthIndex, ByteBufUtil.writeUtf8(buffer, value));
+    }
+
+    private static String readString(ByteBuf buffer) {
+        int length = buffer.readInt();
+        if (length < 0 || length > buffer.readableBytes()) {
+            throw new CorruptedFrameException("invalid string length: " + length);
+        }
+        String value = buffer.toString(buffer.readerIndex(), length, CharsetUtil.UTF_8);
+        buffer.skipBytes(length);
+        return value;
+    }
+}
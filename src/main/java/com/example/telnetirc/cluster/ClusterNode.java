@@ -0,0 +1,86 @@
+package com.example.telnetirc.cluster;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * <p>Узел кластера: шина сообщений, пересылка сообщений каналов и сессии пользователей.</p>
+ * <p>Сообщения шины передаются {@link ClusterRelay} и {@link ClusterSessions} в потоках шины; пачки пересылаемых
+ * сообщений и таймауты запросов сессий обрабатываются в одном потоке узла</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class ClusterNode implements MessageBus.Listener, AutoCloseable {
+
+    private final MessageBus bus;
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("telnetirc-cluster", true));
+    private final ClusterRelay relay;
+    private final ClusterSessions sessions;
+
+    /**
+     *
+     * @param bus шина сообщений кластера
+     * @param batchSize максимальное количество пересылаемых сообщений в пачке
+     * @param batchMillis сколько копить пересылаемые сообщения перед отправкой
+     * @param sessionTimeoutMillis сколько ждать ответа узла-владельца сессии
+     */
+    public ClusterNode(MessageBus bus, int batchSize, long batchMillis, long sessionTimeoutMillis) {
+        this.bus = bus;
+        this.relay = new ClusterRelay(bus, batchSize, batchMillis, scheduler);
+        this.sessions = new ClusterSessions(bus, sessionTimeoutMillis, scheduler);
+    }
+
+    /**
+     * Подключиться к остальным узлам
+     */
+    public void start() {
+        bus.start(this);
+    }
+
+    @Override
+    public void received(String node, ClusterMessage message) {
+        if (message instanceof ClusterMessage.Relay) {
+            relay.received((ClusterMessage.Relay) message);
+        } else if (message instanceof ClusterMessage.Interest) {
+            relay.received(node, (ClusterMessage.Interest) message);
+        } else if (message instanceof ClusterMessage.SessionRequest) {
+            sessions.received(node, (ClusterMessage.SessionRequest) message);
+        } else if (message instanceof ClusterMessage.SessionResponse) {
+            sessions.received((ClusterMessage.SessionResponse) message);
+        }
+    }
+
+    @Override
+    public void connected(String node) {
+        sessions.connected(node);
+        relay.connected(node);
+    }
+
+    @Override
+    public void disconnected(String node) {
+        sessions.disconnected(node);
+        relay.disconnected(node);
+    }
+
+    public String getName() {
+        return bus.localNode();
+    }
+
+    public ClusterRelay getRelay() {
+        return relay;
+    }
+
+    public ClusterSessions getSessions() {
+        return sessions;
+    }
+
+    @Override
+    public void close() {
+        bus.close();
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.telnetirc.cluster;
+
+import com.example.telnetirc.chat.ChatChannel;
+import com.example.telnetirc.chat.ChatChannelListener;
+import com.example.telnetirc.chat.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Пересылка сообщений каналов чата между узлами кластера.</p>
+ * <p>Узел сообщает остальным, в каких каналах у него есть участники (когда в канале появляется первый участник
+ * и уходит последний), и пересылает сообщение канала только узлам, у которых есть участники этого канала.
+ * Сообщения копятся в очереди узла-получателя и уходят одной пачкой через {@code batchMillis} после первого
+ * сообщения пачки или сразу, когда в очереди набралось {@code batchSize} сообщений</p>
+ * <p>Полученные сообщения рассылаются участникам локального канала в его event loop-е и не пересылаются дальше.
+ * Порядок сообщений, опубликованных на одном узле, сохраняется; сообщения разных узлов могут прийти участникам
+ * разных узлов в разном порядке</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class ClusterRelay {
+
+    private final MessageBus bus;
+    private final int batchSize;
+    private final long batchMillis;
+    private final ScheduledExecutorService executor;
+
+    private final Map<String, ChatChannel> rooms = new ConcurrentHashMap<>();
+    private final Set<String> localRooms = ConcurrentHashMap.newKeySet();
+    private final Map<String, Set<String>> interests = new ConcurrentHashMap<>();
+    private final Map<String, Outbox> outboxes = new ConcurrentHashMap<>();
+
+    private final LongAdder relayed = new LongAdder();
+    private final LongAdder received = new LongAdder();
+
+    /**
+     *
+     * @param bus шина сообщений кластера
+     * @param batchSize максимальное количество сообщений в пачке
+     * @param batchMillis сколько копить сообщения перед отправкой, 0 - отправлять сразу накопленные
+     * @param executor однопоточный планировщик, в котором отправляются пачки
+     */
+    public ClusterRelay(MessageBus bus, int batchSize, long batchMillis, ScheduledExecutorService executor) {
+        if (batchSize < 1) throw new IllegalArgumentException("batch size should be positive");
+        if (batchMillis < 0) throw new IllegalArgumentException("batch delay can't be negative");
+
+        this.bus = bus;
+        this.batchSize = batchSize;
+        this.batchMillis = batchMillis;
+        this.executor = executor;
+    }
+
+    /**
+     * Подключить канал чата к кластеру: его сообщения пересылаются узлам с участниками этого канала,
+     * сообщения этого канала с других узлов рассылаются его участникам
+     *
+     * @param room имя канала
+     * @param channel канал чата
+     */
+    public void register(String room, ChatChannel channel) {
+        rooms.put(room, channel);
+        channel.setListener(new RoomListener(room));
+    }
+
+    /**
+     * Отключить удаленный канал чата от кластера; сообщения этого канала с других узлов больше не рассылаются
+     *
+     * @param room имя канала
+     * @param channel канал чата
+     */
+    public void unregister(String room, ChatChannel channel) {
+        rooms.remove(room, channel);
+    }
+
+    /**
+     * @param room имя канала
+     * @return узлы, у которых есть участники канала
+     */
+    public Set<String> interestedNodes(String room) {
+        Set<String> nodes = interests.get(room);
+        return nodes == null ? Collections.emptySet() : Collections.unmodifiableSet(nodes);
+    }
+
+    /**
+     * @return количество сообщений, отправленных другим узлам
+     */
+    public long getRelayed() {
+        return relayed.sum();
+    }
+
+    /**
+     * @return количество сообщений, полученных от других узлов
+     */
+    public long getReceived() {
+        return received.sum();
+    }
+
+    void received(String node, ClusterMessage.Interest interest) {
+        if (interest.isInterested()) {
+            interests.computeIfAbsent(interest.getRoom(), room -> ConcurrentHashMap.newKeySet()).add(node);
+        } else {
+            Set<String> nodes = interests.get(interest.getRoom());
+            if (nodes != null) nodes.remove(node);
+        }
+    }
+
+    void received(ClusterMessage.Relay relay) {
+        List<ClusterMessage.RoomMessage> messages = relay.getMessages();
+        received.add(messages.size());
+
+        // подряд идущие сообщения одного канала рассылаются одной задачей в его event loop-е
+        int from = 0;
+        for (int i = 1; i <= messages.size(); i++) {
+            if (i == messages.size() || !messages.get(i).getRoom().equals(messages.get(from).getRoom())) {
+                deliver(messages.get(from).getRoom(), messages.subList(from, i));
+                from = i;
+            }
+        }
+    }
+
+    void connected(String node) {
+        for (String room : localRooms) {
+            bus.send(node, new ClusterMessage.Interest(room, true));
+        }
+    }
+
+    void disconnected(String node) {
+        interests.values().forEach(nodes -> nodes.remove(node));
+        Outbox outbox = outboxes.remove(node);
+        if (outbox != null) outbox.queue.clear();
+    }
+
+    private void deliver(String room, List<ClusterMessage.RoomMessage> messages) {
+        ChatChannel channel = rooms.get(room);
+        if (channel == null) return;
+
+        channel.execute(() -> {
+            for (ClusterMessage.RoomMessage message : messages) {
+                channel.deliver(message.getMessage());
+            }
+        });
+    }
+
+    private final class RoomListener implements ChatChannelListener {
+
+        private final String room;
+
+        private RoomListener(String room) {
+            this.room = room;
+        }
+
+        @Override
+        public void messagePosted(ChatMessage message) {
+            Set<String> nodes = interests.get(room);
+            if (nodes == null || nodes.isEmpty()) return;
+
+            ClusterMessage.RoomMessage roomMessage = new ClusterMessage.RoomMessage(room, message);
+            for (String node : nodes) {
+                outboxes.computeIfAbsent(node, Outbox::new).add(roomMessage);
+            }
+        }
+
+        @Override
+        public void membersChanged(int members) {
+            if (members > 0 && localRooms.add(room)) {
+                bus.broadcast(new ClusterMessage.Interest(room, true));
+            } else if (members == 0 && localRooms.remove(room)) {
+                bus.broadcast(new ClusterMessage.Interest(room, false));
+            }
+        }
+    }
+
+    /**
+     * Очередь сообщений одному узлу; отправляется в потоке пересылки
+     */
+    private final class Outbox implements Runnable {
+
+        private final String node;
+        private final Queue<ClusterMessage.RoomMessage> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private Outbox(String node) {
+            this.node = node;
+        }
+
+        private void add(ClusterMessage.RoomMessage message) {
+            queue.add(message);
+            try {
+                if (size.incrementAndGet() == batchSize) {
+                    executor.execute(this);
+                } else if (scheduled.compareAndSet(false, true)) {
+                    executor.schedule(this, batchMillis, TimeUnit.MILLISECONDS);
+                }
+            } catch (RejectedExecutionException e) {
+                // узел останавливается, пересылать уже некому
+            }
+        }
+
+        @Override
+        public void run() {
+            // сообщения, добавленные после этой строки, запланируют следующую отправку
+            scheduled.set(false);
+
+            List<ClusterMessage.RoomMessage> batch = new ArrayList<>(Math.min(size.get(), batchSize));
+            ClusterMessage.RoomMessage message;
+            while ((message = queue.poll()) != null) {
+                batch.add(message);
+                if (batch.size() == batchSize) {
+                    send(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) send(batch);
+        }
+
+        private void send(List<ClusterMessage.RoomMessage> batch) {
+            size.addAndGet(-batch.size());
+            relayed.add(batch.size());
+            bus.send(node, new ClusterMessage.Relay(batch));
+        }
+    }
+}
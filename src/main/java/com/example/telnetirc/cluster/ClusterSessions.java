@@ -0,0 +1,206 @@
+package com.example.telnetirc.cluster;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * <p>Сессии пользователей, уникальные в пределах кластера.</p>
+ * <p>У каждого имени пользователя есть узел-владелец, одинаковый на всех узлах: {@code nodes[hash(имя) % n]}.
+ * Владелец помнит, на каком узле открыта сессия с этим именем, и разрешает открыть ее только одному узлу.
+ * Остальные узлы спрашивают владельца через шину</p>
+ * <p>Когда узел становится недоступен, владельцы освобождают его сессии. Когда узел (снова) становится доступен,
+ * ему сообщаются сессии этого узла, владельцем которых он является, - так перезапущенный владелец восстанавливает
+ * свое состояние. Если восстановленная сессия уже занята другим узлом (пока узлы не видели друг друга, имя заняли
+ * дважды), сессия остается за занявшим ее раньше, а узлу, приславшему восстановление, владелец отвечает
+ * {@link ClusterMessage.SessionRequest.Type#REVOKE}: тот закрывает свою сессию ({@link #setRevokeListener})</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class ClusterSessions {
+
+    private final MessageBus bus;
+    private final long timeoutMillis;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * узел, на котором открыта сессия, по имени пользователя; только для имен, владелец которых этот узел
+     */
+    private final Map<String, String> holders = new ConcurrentHashMap<>();
+
+    /**
+     * имена пользователей, сессии которых открыты на этом узле
+     */
+    private final Set<String> local = ConcurrentHashMap.newKeySet();
+
+    private final Map<Long, CompletableFuture<Boolean>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong requestIds = new AtomicLong();
+
+    private volatile Consumer<String> revokeListener = username -> { };
+
+    /**
+     *
+     * @param bus шина сообщений кластера
+     * @param timeoutMillis сколько ждать ответа узла-владельца
+     * @param scheduler планировщик таймаутов запросов
+     */
+    public ClusterSessions(MessageBus bus, long timeoutMillis, ScheduledExecutorService scheduler) {
+        if (timeoutMillis <= 0) throw new IllegalArgumentException("timeout should be positive");
+
+        this.bus = bus;
+        this.timeoutMillis = timeoutMillis;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * <p>Занять сессию пользователя в кластере</p>
+     * <p>Если владелец имени - другой узел, результат завершается в потоке шины, когда придет его ответ, или
+     * c {@link IllegalStateException}, если владелец не ответил за заданный таймаут</p>
+     *
+     * @param username имя пользователя
+     * @return false, если сессия с таким именем уже открыта на каком-либо узле
+     */
+    public CompletableFuture<Boolean> acquireAsync(String username) {
+        String owner = owner(username);
+        if (owner.equals(bus.localNode())) {
+            return CompletableFuture.completedFuture(opened(username, grant(username, owner)));
+        }
+
+        long id = requestIds.incrementAndGet();
+        CompletableFuture<Boolean> response = new CompletableFuture<>();
+        pending.put(id, response);
+        ScheduledFuture<?> timeout = scheduler.schedule(() -> {
+            if (pending.remove(id, response)) {
+                // владелец мог занять сессию после таймаута, поэтому она освобождается
+                send(owner, ClusterMessage.SessionRequest.Type.RELEASE, username);
+                response.completeExceptionally(new IllegalStateException("cluster node " + owner + " didn't respond"));
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+
+        bus.send(owner, new ClusterMessage.SessionRequest(id, ClusterMessage.SessionRequest.Type.ACQUIRE, username));
+        return response.thenApply(granted -> {
+            timeout.cancel(false);
+            return opened(username, granted);
+        });
+    }
+
+    /**
+     * Занять сессию пользователя в кластере, ожидая ответа узла-владельца, см. {@link #acquireAsync(String)}
+     *
+     * @param username имя пользователя
+     * @return false, если сессия с таким именем уже открыта на каком-либо узле
+     * @throws IllegalStateException если узел-владелец не ответил
+     */
+    public boolean acquire(String username) {
+        try {
+            return acquireAsync(username).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while acquiring session", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IllegalStateException ? (IllegalStateException) e.getCause() :
+                    new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Освободить сессию пользователя, открытую на этом узле
+     *
+     * @param username имя пользователя
+     */
+    public void release(String username) {
+        local.remove(username);
+
+        String owner = owner(username);
+        if (owner.equals(bus.localNode())) {
+            holders.remove(username, owner);
+        } else {
+            send(owner, ClusterMessage.SessionRequest.Type.RELEASE, username);
+        }
+    }
+
+    /**
+     * @param revokeListener закрывает сессию пользователя на этом узле, если владелец имени отдал ее другому узлу;
+     *                       вызывается в потоке шины
+     */
+    public void setRevokeListener(Consumer<String> revokeListener) {
+        if (revokeListener == null) throw new IllegalArgumentException("revoke listener can't be null");
+        this.revokeListener = revokeListener;
+    }
+
+    /**
+     * @param username имя пользователя, владелец которого этот узел
+     * @return узел, на котором открыта сессия пользователя
+     */
+    public Optional<String> holder(String username) {
+        return Optional.ofNullable(holders.get(username));
+    }
+
+    /**
+     * @param username имя пользователя
+     * @return узел-владелец имени
+     */
+    public String owner(String username) {
+        return bus.nodes().get(Math.floorMod(username.hashCode(), bus.nodes().size()));
+    }
+
+    void received(String node, ClusterMessage.SessionRequest request) {
+        switch (request.getType()) {
+            case ACQUIRE:
+                boolean granted = grant(request.getUsername(), node);
+                bus.send(node, new ClusterMessage.SessionResponse(request.getId(), granted));
+                break;
+            case RELEASE:
+                holders.remove(request.getUsername(), node);
+                break;
+            case RESTORE:
+                String holder = holders.putIfAbsent(request.getUsername(), node);
+                if (holder != null && !holder.equals(node)) {
+                    send(node, ClusterMessage.SessionRequest.Type.REVOKE, request.getUsername());
+                }
+                break;
+            case REVOKE:
+                if (local.remove(request.getUsername())) revokeListener.accept(request.getUsername());
+                break;
+        }
+    }
+
+    void received(ClusterMessage.SessionResponse response) {
+        CompletableFuture<Boolean> future = pending.remove(response.getId());
+        if (future != null) future.complete(response.isGranted());
+    }
+
+    void connected(String node) {
+        for (String username : local) {
+            if (owner(username).equals(node)) {
+                send(node, ClusterMessage.SessionRequest.Type.RESTORE, username);
+            }
+        }
+    }
+
+    void disconnected(String node) {
+        holders.values().removeIf(node::equals);
+    }
+
+    private boolean opened(String username, boolean granted) {
+        if (granted) local.add(username);
+        return granted;
+    }
+
+    private boolean grant(String username, String node) {
+        return holders.putIfAbsent(username, node) == null;
+    }
+
+    private void send(String node, ClusterMessage.SessionRequest.Type type, String username) {
+        bus.send(node, new ClusterMessage.SessionRequest(requestIds.incrementAndGet(), type, username));
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.telnetirc.cluster;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <p>Шина сообщений между узлами в одной JVM: несколько серверов в одном процессе, например в тестах.</p>
+ * <p>Узлы одной {@link Network} передают друг другу сообщения без сериализации. У каждого узла свой поток
+ * доставки, поэтому, как и у TCP-шины, получатель обрабатывает сообщения не в потоке отправителя</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class LocalMessageBus implements MessageBus {
+
+    private final Network network;
+    private final String localNode;
+    private final ExecutorService inbox;
+
+    private volatile Listener listener;
+
+    /**
+     *
+     * @param network сеть, к которой подключается узел
+     * @param localNode имя узла, одно из {@link Network#nodes()}
+     */
+    public LocalMessageBus(Network network, String localNode) {
+        if (!network.nodes.contains(localNode)) throw new IllegalArgumentException("unknown node: " + localNode);
+
+        this.network = network;
+        this.localNode = localNode;
+        this.inbox = Executors.newSingleThreadExecutor(new DefaultThreadFactory("telnetirc-bus-" + localNode));
+    }
+
+    @Override
+    public String localNode() {
+        return localNode;
+    }
+
+    @Override
+    public List<String> nodes() {
+        return network.nodes;
+    }
+
+    @Override
+    public void start(Listener listener) {
+        if (listener == null) throw new IllegalArgumentException("listener can't be null");
+        this.listener = listener;
+
+        if (network.started.putIfAbsent(localNode, this) != null) {
+            throw new IllegalStateException("node is already started: " + localNode);
+        }
+        network.started.forEach((node, bus) -> {
+            if (bus != this) {
+                bus.deliver(() -> bus.listener.connected(localNode));
+                deliver(() -> listener.connected(node));
+            }
+        });
+    }
+
+    @Override
+    public void send(String node, ClusterMessage message) {
+        LocalMessageBus bus = network.started.get(node);
+        if (bus != null) bus.deliver(() -> bus.listener.received(localNode, message));
+    }
+
+    @Override
+    public void close() {
+        if (network.started.remove(localNode, this)) {
+            network.started.forEach((node, bus) -> bus.deliver(() -> bus.listener.disconnected(localNode)));
+        }
+        inbox.shutdown();
+    }
+
+    private void deliver(Runnable task) {
+        try {
+            inbox.execute(task);
+        } catch (RejectedExecutionException e) {
+            // узел остановлен: как и недоступному узлу TCP-шины, сообщение теряется
+        }
+    }
+
+    /**
+     * Набор узлов в одной JVM
+     */
+    public static final class Network {
+
+        private final List<String> nodes;
+        private final Map<String, LocalMessageBus> started = new ConcurrentHashMap<>();
+
+        /**
+         *
+         * @param nodes имена узлов кластера
+         */
+        public Network(String... nodes) {
+            if (nodes.length == 0) throw new IllegalArgumentException("network should have nodes");
+            this.nodes = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(nodes)));
+        }
+
+        public List<String> nodes() {
+            return nodes;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.telnetirc.cluster;
+
+import java.util.List;
+
+/**
+ * <p>Шина сообщений между узлами кластера.</p>
+ * <p>Состав кластера статический: {@link #nodes()} одинаков на всех узлах и не зависит от того, какие узлы
+ * сейчас доступны. Сообщения одному узлу доставляются в порядке отправки; сообщения недоступному узлу
+ * отбрасываются</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public interface MessageBus extends AutoCloseable {
+
+    /**
+     * @return имя этого узла
+     */
+    String localNode();
+
+    /**
+     * @return имена всех узлов кластера, включая этот, в одинаковом на всех узлах порядке
+     */
+    List<String> nodes();
+
+    /**
+     * Начать обмен сообщениями с другими узлами
+     *
+     * @param listener получатель сообщений и событий шины; вызывается из потоков шины
+     */
+    void start(Listener listener);
+
+    /**
+     * Отправить сообщение узлу
+     *
+     * @param node имя узла
+     * @param message сообщение
+     */
+    void send(String node, ClusterMessage message);
+
+    /**
+     * Отправить сообщение всем остальным узлам
+     *
+     * @param message сообщение
+     */
+    default void broadcast(ClusterMessage message) {
+        for (String node : nodes()) {
+            if (!node.equals(localNode())) send(node, message);
+        }
+    }
+
+    /**
+     * Остановить обмен сообщениями
+     */
+    @Override
+    void close();
+
+    /**
+     * Получатель сообщений шины
+     */
+    interface Listener {
+
+        /**
+         * @param node узел-отправитель
+         * @param message сообщение
+         */
+        void received(String node, ClusterMessage message);
+
+        /**
+         * Узел стал доступен: с этого момента отправленные ему сообщения доставляются
+         *
+         * @param node имя узла
+         */
+        void connected(String node);
+
+        /**
+         * Узел стал недоступен; отправленные ему после этого сообщения теряются
+         *
+         * @param node имя узла
+         */
+        void disconnected(String node);
+    }
+}
@@ -0,0 +1,311 @@
+package com.example.telnetirc.cluster;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Шина сообщений между узлами по TCP.</p>
+ * <p>Каждый узел принимает соединения на своем адресе и сам открывает по одному соединению к каждому другому узлу;
+ * по исходящему соединению только отправляет, по входящему только принимает, поэтому порядок сообщений одному узлу
+ * сохраняется. Первым кадром соединения узел называет себя. Разорванное исходящее соединение восстанавливается
+ * раз в секунду, пока шина не закрыта</p>
+ * <p>Узел считается доступным ({@link Listener#connected(String)}), только когда открыты оба соединения с ним:
+ * отправлять сообщения можно по исходящему, а его состояние приходит по входящему. Разрыв любого из них закрывает и
+ * второе, поэтому другой узел тоже замечает разрыв, и после восстановления оба узла заново обмениваются
+ * состоянием. Новое входящее соединение от узла, у которого уже есть входящее, значит, что узел перезапущен:
+ * старые соединения с ним закрываются. По простаивающему исходящему соединению каждые {@code heartbeatMillis}
+ * уходит {@link ClusterMessage.Heartbeat}; входящее соединение, по которому ничего не пришло за три интервала,
+ * закрывается - так обнаруживается узел, пропавший без разрыва соединения</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class TcpMessageBus implements MessageBus {
+
+    private static final InternalLogger logger = InternalLoggerFactory.getInstance(TcpMessageBus.class);
+
+    private static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+    private static final long RECONNECT_MILLIS = 1000;
+    private static final long HEARTBEAT_MILLIS = 1000;
+    private static final int MISSED_HEARTBEATS = 3;
+    private static final AttributeKey<String> PEER = AttributeKey.valueOf("clusterPeer");
+
+    private final String localNode;
+    private final Map<String, InetSocketAddress> addresses;
+    private final List<String> nodes;
+    private final EventLoopGroup group;
+    private final ClusterMessageCodec codec = new ClusterMessageCodec();
+    private final LengthFieldPrepender framePrepender = new LengthFieldPrepender(4);
+    private final long heartbeatMillis;
+
+    /**
+     * исходящие соединения по имени узла; читается из любого потока, меняется в потоке шины
+     */
+    private final Map<String, Channel> peers = new ConcurrentHashMap<>();
+
+    /**
+     * входящие соединения и доступные узлы; только в потоке шины
+     */
+    private final Map<String, Channel> inbound = new HashMap<>();
+    private final Set<String> available = new HashSet<>();
+
+    private final InboundHandler inboundHandler = new InboundHandler();
+
+    private volatile Listener listener;
+    private volatile boolean closed;
+    private Channel serverChannel;
+
+    /**
+     *
+     * @param localNode имя этого узла
+     * @param addresses адреса всех узлов кластера по имени, в одинаковом на всех узлах порядке
+     */
+    public TcpMessageBus(String localNode, Map<String, InetSocketAddress> addresses) {
+        this(localNode, addresses, HEARTBEAT_MILLIS);
+    }
+
+    /**
+     *
+     * @param localNode имя этого узла
+     * @param addresses адреса всех узлов кластера по имени, в одинаковом на всех узлах порядке
+     * @param heartbeatMillis интервал проверки связи с узлами
+     */
+    public TcpMessageBus(String localNode, Map<String, InetSocketAddress> addresses, long heartbeatMillis) {
+        if (!addresses.containsKey(localNode)) throw new IllegalArgumentException("unknown node: " + localNode);
+        if (heartbeatMillis <= 0) throw new IllegalArgumentException("heartbeat interval should be positive");
+
+        this.localNode = localNode;
+        this.heartbeatMillis = heartbeatMillis;
+        this.addresses = new LinkedHashMap<>(addresses);
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(addresses.keySet()));
+        this.group = new NioEventLoopGroup(1, new DefaultThreadFactory("telnetirc-bus"));
+    }
+
+    @Override
+    public String localNode() {
+        return localNode;
+    }
+
+    @Override
+    public List<String> nodes() {
+        return nodes;
+    }
+
+    @Override
+    public void start(Listener listener) {
+        if (listener == null) throw new IllegalArgumentException("listener can't be null");
+        this.listener = listener;
+
+        serverChannel = new ServerBootstrap()
+                .group(group)
+                .channel(NioServerSocketChannel.class)
+                .option(ChannelOption.SO_REUSEADDR, true)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(pipeline(inboundHandler, true))
+                .bind(addresses.get(localNode))
+                .syncUninterruptibly()
+                .channel();
+        logger.info("cluster node {} listens on {}", localNode, serverChannel.localAddress());
+
+        for (String node : nodes) {
+            if (!node.equals(localNode)) connect(node);
+        }
+    }
+
+    @Override
+    public void send(String node, ClusterMessage message) {
+        Channel channel = peers.get(node);
+        // IdleStateHandler подписывается на promise записи, поэтому voidPromise здесь не подходит
+        if (channel != null) channel.writeAndFlush(message);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (serverChannel != null) serverChannel.close();
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    private void connect(String node) {
+        if (closed) return;
+
+        ChannelFuture future = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(pipeline(OutboundHandler.INSTANCE, false))
+                .connect(addresses.get(node));
+
+        future.addListener((ChannelFuture connected) -> {
+            if (!connected.isSuccess()) {
+                reconnect(node);
+                return;
+            }
+
+            Channel channel = connected.channel();
+            channel.writeAndFlush(new ClusterMessage.Hello(localNode));
+            peers.put(node, channel);
+            linkUp(node);
+
+            channel.closeFuture().addListener(closedFuture -> {
+                if (peers.remove(node, channel)) linkDown(node);
+                reconnect(node);
+            });
+        });
+    }
+
+    /**
+     * Открыто одно из соединений с узлом; узел доступен, когда открыты оба. Вызывается в потоке шины
+     */
+    private void linkUp(String node) {
+        if (peers.containsKey(node) && inbound.containsKey(node) && available.add(node)) {
+            listener.connected(node);
+        }
+    }
+
+    /**
+     * Закрыто одно из соединений с узлом: второе тоже закрывается, чтобы и другой узел заметил разрыв и после
+     * восстановления прислал свое состояние заново. Вызывается в потоке шины
+     */
+    private void linkDown(String node) {
+        Channel out = peers.remove(node);
+        if (out != null) out.close();
+        Channel in = inbound.remove(node);
+        if (in != null) in.close();
+
+        if (available.remove(node)) listener.disconnected(node);
+    }
+
+    private void reconnect(String node) {
+        if (!closed) group.schedule(() -> connect(node), RECONNECT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean isNode(String node) {
+        return !localNode.equals(node) && addresses.containsKey(node);
+    }
+
+    private ChannelInitializer<Channel> pipeline(ChannelHandler handler, boolean incoming) {
+        return new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) throws Exception {
+                // входящее соединение ждет сообщений узла, исходящее отправляет Heartbeat при простое
+                ch.pipeline().addLast(incoming ?
+                        new IdleStateHandler(heartbeatMillis * MISSED_HEARTBEATS, 0, 0, TimeUnit.MILLISECONDS) :
+                        new IdleStateHandler(0, heartbeatMillis, 0, TimeUnit.MILLISECONDS));
+                ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(MAX_FRAME_LENGTH, 0, 4, 0, 4));
+                ch.pipeline().addLast(framePrepender);
+                ch.pipeline().addLast(codec);
+                ch.pipeline().addLast(handler);
+            }
+        };
+    }
+
+    /**
+     * Принимает сообщения узла, открывшего соединение
+     */
+    @ChannelHandler.Sharable
+    private final class InboundHandler extends SimpleChannelInboundHandler<ClusterMessage> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ClusterMessage msg) throws Exception {
+            String peer = ctx.channel().attr(PEER).get();
+            if (peer != null) {
+                if (!(msg instanceof ClusterMessage.Heartbeat)) listener.received(peer, msg);
+            } else if (msg instanceof ClusterMessage.Hello && isNode(((ClusterMessage.Hello) msg).getNode())) {
+                hello(ctx.channel(), ((ClusterMessage.Hello) msg).getNode());
+            } else {
+                logger.warn("unexpected first cluster message from {}, closing", ctx.channel().remoteAddress());
+                ctx.close();
+            }
+        }
+
+        private void hello(Channel channel, String node) {
+            // второе входящее соединение: узел перезапущен, его прежнее состояние больше не действует
+            if (inbound.containsKey(node)) linkDown(node);
+
+            channel.attr(PEER).set(node);
+            inbound.put(node, channel);
+            channel.closeFuture().addListener(closedFuture -> {
+                if (inbound.remove(node, channel)) linkDown(node);
+            });
+            linkUp(node);
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent && ((IdleStateEvent) evt).state() == IdleState.READER_IDLE) {
+                logger.warn("cluster node {} missed heartbeats, closing", ctx.channel().attr(PEER).get());
+                ctx.close();
+            } else {
+                ctx.fireUserEventTriggered(evt);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+            logger.warn("cluster connection from {} failed", ctx.channel().attr(PEER).get(), cause);
+            ctx.close();
+        }
+    }
+
+    /**
+     * Исходящее соединение только отправляет; закрывается при ошибке, после чего открывается заново
+     */
+    @ChannelHandler.Sharable
+    private static final class OutboundHandler extends SimpleChannelInboundHandler<ClusterMessage> {
+
+        static final OutboundHandler INSTANCE = new OutboundHandler();
+        private static final ClusterMessage.Heartbeat HEARTBEAT = new ClusterMessage.Heartbeat();
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ClusterMessage msg) throws Exception {
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent && ((IdleStateEvent) evt).state() == IdleState.WRITER_IDLE) {
+                ctx.writeAndFlush(HEARTBEAT);
+            } else {
+                ctx.fireUserEventTriggered(evt);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+            logger.debug("cluster connection to {} failed", ctx.channel().remoteAddress(), cause);
+            ctx.close();
+        }
+    }
+}
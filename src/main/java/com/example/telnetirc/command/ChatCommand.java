@@ -1,20 +1,114 @@
 package com.example.telnetirc.command;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCounted;
+
 /**
+ * <p>Команда отправки сообщения в канал чата.</p>
+ * <p>Строка вида {@code #канал текст} отправляет текст в указанный канал, если пользователь в нем состоит; иначе
+ * ({@code #тег текст}) строка целиком идет в активный канал, как и остальные строки.</p>
+ * <p>Команда, созданная декодером, держит срез входящего буфера и превращает его в строку только при первом
+ * обращении к {@link #getLine()}, {@link #getMessage()} или {@link #getRoom()}. Буфер освобождается вместе с
+ * командой</p>
+ *
  * @author Denis Pakhomov.
  * @version 1.0
  */
-public class ChatCommand extends Command {
+public class ChatCommand extends Command implements ReferenceCounted {
+
+    private static final String[] NO_ARGS = new String[0];
 
-    private final String message;
+    private final ByteBuf content;
+    private String line;
+    private String message;
+    private String room;
+    private boolean parsed;
 
     public ChatCommand(String[] args) {
-        super(args);
+        super(Opcode.CHAT, args);
         if (args.length != 1) throw new IllegalArgumentException("chat message can not be empty");
-        this.message = args[0];
+        this.line = args[0];
+        this.content = Unpooled.EMPTY_BUFFER;
+    }
+
+    /**
+     *
+     * @param content текст сообщения в UTF-8, команда забирает владение буфером
+     */
+    public ChatCommand(ByteBuf content) {
+        super(Opcode.CHAT, NO_ARGS);
+        if (content == null) throw new IllegalArgumentException("chat message can not be empty");
+        this.content = content;
+    }
+
+    /**
+     * @return строка целиком, вместе с именем канала
+     */
+    public String getLine() {
+        parse();
+        return line;
     }
 
+    /**
+     * @return текст без имени канала, если строка начинается с {@code #канал}, иначе строка целиком
+     */
     public String getMessage() {
+        parse();
         return message;
     }
+
+    /**
+     * @return имя канала, указанного в начале строки, null - сообщение для активного канала; если пользователь
+     * в этом канале не состоит, это не канал, а тег, и сообщение - {@link #getLine()} для активного канала
+     */
+    public String getRoom() {
+        parse();
+        return room;
+    }
+
+    private void parse() {
+        if (parsed) return;
+        parsed = true;
+
+        if (line == null) line = content.toString(CharsetUtil.UTF_8);
+        message = line;
+
+        // "#канал текст": канал без пробелов и непустой текст, иначе строка - обычное сообщение
+        if (line.length() > 2 && line.charAt(0) == '#') {
+            int space = line.indexOf(' ');
+            if (space > 1 && space < line.length() - 1) {
+                room = line.substring(1, space);
+                message = line.substring(space + 1);
+            }
+        }
+    }
+
+    @Override
+    public int refCnt() {
+        return content.refCnt();
+    }
+
+    @Override
+    public ChatCommand retain() {
+        content.retain();
+        return this;
+    }
+
+    @Override
+    public ChatCommand retain(int increment) {
+        content.retain(increment);
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return content.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return content.release(decrement);
+    }
 }
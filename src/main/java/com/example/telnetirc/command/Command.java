@@ -6,7 +6,19 @@ package com.example.telnetirc.command;
  */
 public abstract class Command {
 
-    public Command(String[] args) {
+    private final Opcode opcode;
+
+    /**
+     *
+     * @param opcode код команды
+     * @param args аргументы команды
+     */
+    public Command(Opcode opcode, String[] args) {
         if(args == null) throw new IllegalArgumentException("args can not be null");
+        this.opcode = opcode;
+    }
+
+    public Opcode getOpcode() {
+        return opcode;
     }
 }
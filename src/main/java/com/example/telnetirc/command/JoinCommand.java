@@ -8,7 +8,7 @@ public class JoinCommand extends Command {
     private final String channel;
 
     public JoinCommand(String[] args) {
-        super(args);
+        super(Opcode.JOIN, args);
         if (args.length != 1) throw new IllegalArgumentException("invalid argument count for /join command");
         this.channel = args[0];
     }
@@ -7,6 +7,6 @@ package com.example.telnetirc.command;
 public class LeaveCommand extends Command {
 
     public LeaveCommand(String[] args) {
-        super(args);
+        super(Opcode.LEAVE, args);
     }
 }
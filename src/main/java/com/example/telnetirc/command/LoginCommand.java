@@ -11,7 +11,7 @@ public class LoginCommand extends Command {
 
 
     public LoginCommand(String[] args) {
-        super(args);
+        super(Opcode.LOGIN, args);
         if(args.length != 2) throw new IllegalArgumentException("invalid arguments count for /login command");
         this.name = args[0];
         this.password = args[1];
@@ -0,0 +1,33 @@
+package com.example.telnetirc.command;
+
+/**
+ * Команда отправки личного сообщения одному пользователю: {@code /msg <пользователь> <текст>}
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class MsgCommand extends Command {
+    private final String recipient;
+    private final String text;
+
+    /**
+     *
+     * @param args имя получателя и текст сообщения целиком, с пробелами
+     */
+    public MsgCommand(String[] args) {
+        super(Opcode.MSG, args);
+        if (args.length != 2 || args[1].isEmpty()) {
+            throw new IllegalArgumentException("invalid argument count for /msg command");
+        }
+        this.recipient = args[0];
+        this.text = args[1];
+    }
+
+    public String getRecipient() {
+        return recipient;
+    }
+
+    public String getText() {
+        return text;
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.telnetirc.command;
+
+/**
+ * Код команды пользователя; по нему выбирается обработчик команды
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public enum Opcode {
+
+    LOGIN, JOIN, PART, LEAVE, USERS, CHAT, MSG, STATS
+}
@@ -0,0 +1,21 @@
+package com.example.telnetirc.command;
+
+/**
+ * Команда выхода из одного канала чата; остальные каналы пользователя и его сессия остаются
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class PartCommand extends Command {
+    private final String channel;
+
+    public PartCommand(String[] args) {
+        super(Opcode.PART, args);
+        if (args.length != 1) throw new IllegalArgumentException("invalid argument count for /part command");
+        this.channel = args[0];
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.telnetirc.command;
+
+/**
+ * Команда оператора: показатели сервера
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class StatsCommand extends Command {
+
+    public StatsCommand(String[] args) {
+        super(Opcode.STATS, args);
+    }
+}
@@ -1,12 +1,25 @@
 package com.example.telnetirc.command;
 
 /**
+ * Команда просмотра пользователей активного канала чата или канала, указанного аргументом
+ *
  * @author Denis Pakhomov.
  * @version 1.0
  */
 public class UsersCommand extends Command {
 
+    private final String channel;
+
     public UsersCommand(String[] args) {
-        super(args);
+        super(Opcode.USERS, args);
+        if (args.length > 1) throw new IllegalArgumentException("invalid argument count for /users command");
+        this.channel = args.length == 1 ? args[0] : null;
+    }
+
+    /**
+     * @return имя канала, null - активный канал пользователя
+     */
+    public String getChannel() {
+        return channel;
     }
 }
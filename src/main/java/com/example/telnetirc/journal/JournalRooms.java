@@ -0,0 +1,165 @@
+package com.example.telnetirc.journal;
+
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Журналы каналов чата в общем каталоге, у каждого канала свой каталог
+ * ({@link MessageJournal#directoryName(String)}).</p>
+ * <p>Имена каналов выбирают клиенты, поэтому количество журналов ограничено: открытие журнала нового канала сверх
+ * {@code maxRooms} удаляет журнал канала, закрытого раньше всех; если все журналы открыты, журнал не открывается.
+ * Журналы закрытых каналов, в которые не писали дольше ограничения по возрасту, удаляются при открытии журналов.
+ * Каталог закрытого журнала помечается временем закрытия</p>
+ * <p>Журналы открываются и закрываются в потоке ввода-вывода журналов</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class JournalRooms {
+
+    private static final InternalLogger logger = InternalLoggerFactory.getInstance(JournalRooms.class);
+
+    private final Path root;
+    private final int segmentSize;
+    private final long retentionBytes;
+    private final long retention;
+    private final TimeUnit unit;
+    private final int maxRooms;
+    private final Executor ioExecutor;
+
+    /**
+     * каталоги открытых журналов
+     */
+    private final Set<String> open = new HashSet<>();
+
+    /**
+     *
+     * @param root общий каталог журналов
+     * @param segmentSize размер одного сегмента в байтах
+     * @param retentionBytes максимальный суммарный размер сегментов одного журнала
+     * @param retention максимальный возраст закрытого сегмента и журнала закрытого канала, 0 - не ограничен
+     * @param unit единица измерения возраста
+     * @param maxRooms максимальное количество журналов
+     * @param ioExecutor однопоточный исполнитель, в котором закрытые сегменты сбрасываются на диск и удаляются
+     */
+    public JournalRooms(Path root, int segmentSize, long retentionBytes, long retention, TimeUnit unit, int maxRooms,
+                        Executor ioExecutor) {
+        if (maxRooms < 1) throw new IllegalArgumentException("max rooms should be positive");
+        if (retention < 0) throw new IllegalArgumentException("retention age can't be negative");
+
+        this.root = root;
+        this.segmentSize = segmentSize;
+        this.retentionBytes = retentionBytes;
+        this.retention = retention;
+        this.unit = unit;
+        this.maxRooms = maxRooms;
+        this.ioExecutor = ioExecutor;
+    }
+
+    /**
+     * Открыть журнал канала, освободив место под него при необходимости
+     *
+     * @param channelName имя канала чата
+     * @return журнал канала; null - журналов уже {@code maxRooms}, и все они открыты
+     * @throws IOException если каталог или сегменты недоступны
+     */
+    public synchronized MessageJournal open(String channelName) throws IOException {
+        String name = MessageJournal.directoryName(channelName);
+        Path directory = root.resolve(name);
+
+        // у канала уже есть журнал на диске или место под него
+        boolean known = open.contains(name) || Files.exists(directory);
+        List<Path> closed = closed(name);
+        long retentionMillis = unit.toMillis(retention);
+        long now = System.currentTimeMillis();
+        int rooms = open.size() + closed.size();
+
+        for (Path oldest : closed) {
+            boolean tooOld = retentionMillis > 0 && now - Files.getLastModifiedTime(oldest).toMillis() > retentionMillis;
+            // место под журнал нового канала освобождает журнал канала, закрытого раньше всех
+            boolean noRoom = !known && rooms >= maxRooms;
+            if (!tooOld && !noRoom) break;
+
+            if (delete(oldest)) rooms--;
+        }
+        if (!known && rooms >= maxRooms) {
+            logger.warn("{} journals are open, channel {} gets no journal", rooms, channelName);
+            return null;
+        }
+
+        MessageJournal journal = MessageJournal.open(directory, segmentSize, retentionBytes, retention, unit,
+                ioExecutor);
+        journal.closeListener = () -> closed(name, directory);
+        open.add(name);
+        return journal;
+    }
+
+    /**
+     * @return количество открытых журналов
+     */
+    public synchronized int openCount() {
+        return open.size();
+    }
+
+    private synchronized void closed(String name, Path directory) {
+        open.remove(name);
+        if (!Files.isDirectory(directory)) return;
+        try {
+            Files.setLastModifiedTime(directory, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            logger.warn("can't mark closed journal {}", directory, e);
+        }
+    }
+
+    /**
+     * @return каталоги закрытых журналов, кроме каталога {@code except}, начиная с закрытого раньше всех
+     */
+    private List<Path> closed(String except) throws IOException {
+        List<Path> closed = new ArrayList<>();
+        if (!Files.isDirectory(root)) return closed;
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path directory : stream) {
+                String name = directory.getFileName().toString();
+                if (!name.equals(except) && !open.contains(name)) closed.add(directory);
+            }
+        }
+        Map<Path, FileTime> closedAt = new HashMap<>();
+        for (Path directory : closed) {
+            closedAt.put(directory, Files.getLastModifiedTime(directory));
+        }
+        closed.sort(Comparator.comparing(closedAt::get));
+        return closed;
+    }
+
+    private static boolean delete(Path directory) {
+        try {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path file : stream) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+            logger.info("deleted journal {}", directory);
+            return true;
+        } catch (IOException e) {
+            logger.warn("can't delete journal {}", directory, e);
+            return false;
+        }
+    }
+}
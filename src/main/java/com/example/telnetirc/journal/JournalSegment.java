@@ -0,0 +1,217 @@
+package com.example.telnetirc.journal;
+
+import com.example.telnetirc.chat.ChatMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * <p>Один файл журнала, целиком отображенный в память.</p>
+ * <p>Формат записи: {@code [int длина][long время, мс][short длина имени][имя UTF-8][текст UTF-8][int длина]},
+ * длина - количество байт между двумя полями длины. Длина в конце позволяет идти по записям назад от конца
+ * журнала. Длина в начале пишется последней, поэтому недописанная запись после сбоя читается как конец данных
+ * (файл создается заполненным нулями)</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+final class JournalSegment {
+
+    private static final int LENGTH_SIZE = 4;
+    private static final int FIXED_SIZE = 8 + 2;
+    private static final int MAX_UTF8_BYTES_PER_CHAR = 3;
+
+    final Path path;
+    final long baseSequence;
+
+    private final MappedByteBuffer mapped;
+    private final ByteBuf buffer;
+
+    private int end;
+    private int count;
+    private long sealedAt;
+
+    private JournalSegment(Path path, long baseSequence, MappedByteBuffer mapped) {
+        this.path = path;
+        this.baseSequence = baseSequence;
+        this.mapped = mapped;
+        this.buffer = Unpooled.wrappedBuffer(mapped);
+    }
+
+    /**
+     * Создать пустой сегмент
+     *
+     * @param path файл сегмента
+     * @param baseSequence порядковый номер первого сообщения сегмента
+     * @param size размер файла
+     */
+    static JournalSegment create(Path path, long baseSequence, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return new JournalSegment(path, baseSequence, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    /**
+     * Открыть существующий сегмент и найти конец записанных данных
+     *
+     * @param path файл сегмента
+     * @param baseSequence порядковый номер первого сообщения сегмента
+     */
+    static JournalSegment open(Path path, long baseSequence) throws IOException {
+        JournalSegment segment;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = new JournalSegment(path, baseSequence,
+                    channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+        }
+        segment.recover();
+        segment.sealedAt = Files.getLastModifiedTime(path).toMillis();
+        return segment;
+    }
+
+    /**
+     * Дописать сообщение
+     *
+     * @return false, если сообщение может не поместиться в оставшееся место
+     */
+    boolean append(ChatMessage message) {
+        String username = message.getUsername();
+        String text = message.getText();
+
+        int maxLength = FIXED_SIZE + MAX_UTF8_BYTES_PER_CHAR * (username.length() + text.length());
+        if (end + LENGTH_SIZE + maxLength + LENGTH_SIZE > buffer.capacity()) return false;
+
+        int start = end;
+        buffer.writerIndex(start + LENGTH_SIZE);
+        buffer.writeLong(message.getTime().toInstant(ZoneOffset.UTC).toEpochMilli());
+        buffer.writeShort(0);
+        int usernameLength = ByteBufUtil.writeUtf8(buffer, username);
+        buffer.setShort(start + LENGTH_SIZE + 8, usernameLength);
+        ByteBufUtil.writeUtf8(buffer, text);
+
+        int length = buffer.writerIndex() - start - LENGTH_SIZE;
+        buffer.writeInt(length);
+        // длина в начале записи публикует ее для чтения после перезапуска
+        buffer.setInt(start, length);
+
+        end = buffer.writerIndex();
+        count++;
+        return true;
+    }
+
+    /**
+     * Прочитать сообщение
+     *
+     * @param position начало записи
+     */
+    ChatMessage read(int position) {
+        int length = buffer.getInt(position);
+        int offset = position + LENGTH_SIZE;
+
+        long millis = buffer.getLong(offset);
+        int usernameLength = buffer.getUnsignedShort(offset + 8);
+        int textOffset = offset + FIXED_SIZE + usernameLength;
+
+        return new ChatMessage(
+                buffer.toString(offset + FIXED_SIZE, usernameLength, CharsetUtil.UTF_8),
+                LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000L), (int) Math.floorMod(millis, 1000L) * 1_000_000,
+                        ZoneOffset.UTC),
+                buffer.toString(textOffset, offset + length - textOffset, CharsetUtil.UTF_8));
+    }
+
+    /**
+     * @param position начало записи
+     * @return начало следующей записи
+     */
+    int next(int position) {
+        return position + LENGTH_SIZE + buffer.getInt(position) + LENGTH_SIZE;
+    }
+
+    /**
+     * @param position конец записи
+     * @return начало записи, которая заканчивается в {@code position}
+     */
+    int previous(int position) {
+        return position - LENGTH_SIZE - buffer.getInt(position - LENGTH_SIZE) - LENGTH_SIZE;
+    }
+
+    /**
+     * Больше не писать в сегмент: запомнить время закрытия для удаления по возрасту. На диск данные сбрасывает
+     * {@link #persist()}
+     */
+    void seal() {
+        sealedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Сбросить данные закрытого сегмента на диск и сохранить время закрытия в файле
+     */
+    void persist() throws IOException {
+        mapped.force();
+        Files.setLastModifiedTime(path, FileTime.fromMillis(sealedAt));
+    }
+
+    void force() {
+        mapped.force();
+    }
+
+    void close() {
+        PlatformDependent.freeDirectBuffer(mapped);
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * @return конец записанных данных
+     */
+    int end() {
+        return end;
+    }
+
+    /**
+     * @return количество сообщений в сегменте
+     */
+    int count() {
+        return count;
+    }
+
+    long size() {
+        return buffer.capacity();
+    }
+
+    long sealedAt() {
+        return sealedAt;
+    }
+
+    private void recover() {
+        int position = 0;
+        while (position + LENGTH_SIZE + FIXED_SIZE + LENGTH_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            int trailer = position + LENGTH_SIZE + length;
+
+            if (length < FIXED_SIZE || trailer + LENGTH_SIZE > buffer.capacity()
+                    || buffer.getInt(trailer) != length) {
+                break;
+            }
+
+            position = trailer + LENGTH_SIZE;
+            count++;
+        }
+        end = position;
+    }
+}
@@ -0,0 +1,297 @@
+package com.example.telnetirc.journal;
+
+import com.example.telnetirc.chat.ChatMessage;
+import com.example.telnetirc.chat.MessageHistory;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * <p>История канала чата в журнале на диске: сообщения дописываются в сегменты, отображенные в память.</p>
+ * <p>Сегменты - файлы фиксированного размера {@code <номер первого сообщения>.log}. Когда сообщение не помещается
+ * в текущий сегмент, он закрывается и создается следующий; самые старые закрытые сегменты удаляются, когда журнал
+ * превышает ограничение по размеру или они старше ограничения по возрасту. Последние сообщения читаются прямо из
+ * отображенных сегментов, в куче хранятся только описания сегментов</p>
+ * <p>Каталог и первый сегмент создаются при первом сообщении: канал, в который не писали, не занимает диск.</p>
+ * <p>Журнал не потокобезопасен: как и состояние канала чата, он используется из event loop-а канала. Медленные
+ * операции с диском идут в отдельном потоке ввода-вывода ({@code ioExecutor}): сброс закрытого сегмента на диск
+ * ({@link java.nio.MappedByteBuffer#force()}) и удаление старых сегментов. Открытие журнала с восстановлением
+ * сегментов и {@link #close()} тоже должны вызываться в этом потоке</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class MessageJournal implements MessageHistory {
+
+    /**
+     * минимальный размер сегмента: в него помещается строка максимальной длины
+     */
+    public static final int MIN_SEGMENT_SIZE = 64 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int MAX_USERNAME_LENGTH = 0xFFFF / 3;
+
+    private static final InternalLogger logger = InternalLoggerFactory.getInstance(MessageJournal.class);
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long retentionBytes;
+    private final long retentionMillis;
+    private final Executor ioExecutor;
+    private final List<JournalSegment> segments = new ArrayList<>();
+
+    private long nextSequence;
+
+    /**
+     * вызывается после {@link #close()}, в потоке ввода-вывода журнала ({@link JournalRooms})
+     */
+    Runnable closeListener = () -> { };
+
+    private MessageJournal(Path directory, int segmentSize, long retentionBytes, long retentionMillis,
+                           Executor ioExecutor) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.retentionBytes = retentionBytes;
+        this.retentionMillis = retentionMillis;
+        this.ioExecutor = ioExecutor;
+    }
+
+    /**
+     * Открыть журнал канала, восстановив сообщения из существующих сегментов; закрытые сегменты сбрасываются на диск
+     * в потоке, который пишет в журнал
+     *
+     * @param directory каталог журнала канала, создается при первом сообщении
+     * @param segmentSize размер одного сегмента в байтах
+     * @param retentionBytes максимальный суммарный размер сегментов
+     * @param retention максимальный возраст закрытого сегмента, 0 - не ограничен
+     * @param unit единица измерения возраста
+     * @return журнал канала
+     * @throws IOException если каталог или сегменты недоступны
+     */
+    public static MessageJournal open(Path directory, int segmentSize, long retentionBytes, long retention,
+                                      TimeUnit unit) throws IOException {
+        return open(directory, segmentSize, retentionBytes, retention, unit, Runnable::run);
+    }
+
+    /**
+     * Открыть журнал канала, восстановив сообщения из существующих сегментов
+     *
+     * @param directory каталог журнала канала, создается при первом сообщении
+     * @param segmentSize размер одного сегмента в байтах
+     * @param retentionBytes максимальный суммарный размер сегментов
+     * @param retention максимальный возраст закрытого сегмента, 0 - не ограничен
+     * @param unit единица измерения возраста
+     * @param ioExecutor однопоточный исполнитель, в котором закрытые сегменты сбрасываются на диск и удаляются
+     * @return журнал канала
+     * @throws IOException если каталог или сегменты недоступны
+     */
+    public static MessageJournal open(Path directory, int segmentSize, long retentionBytes, long retention,
+                                      TimeUnit unit, Executor ioExecutor) throws IOException {
+        if (segmentSize < MIN_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("segment size should be at least " + MIN_SEGMENT_SIZE);
+        }
+        if (retentionBytes < segmentSize) {
+            throw new IllegalArgumentException("retention size should be at least one segment");
+        }
+        if (retention < 0) throw new IllegalArgumentException("retention age can't be negative");
+        if (ioExecutor == null) throw new IllegalArgumentException("io executor can't be null");
+
+        MessageJournal journal = new MessageJournal(directory, segmentSize, retentionBytes, unit.toMillis(retention),
+                ioExecutor);
+        journal.load();
+        return journal;
+    }
+
+    /**
+     * Имя каталога журнала канала, безопасное для файловой системы
+     *
+     * @param channelName имя канала чата
+     * @return имя каталога
+     */
+    public static String directoryName(String channelName) {
+        try {
+            // точки тоже кодируются, чтобы каналы "." и ".." не указывали на служебные каталоги
+            return URLEncoder.encode(channelName, "UTF-8").replace(".", "%2E").replace("*", "%2A");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public long add(ChatMessage message) {
+        if (message == null) throw new IllegalArgumentException("message can't be null");
+        if (message.getUsername().length() > MAX_USERNAME_LENGTH) {
+            throw new IllegalArgumentException("username is too long for journal");
+        }
+
+        if (segments.isEmpty()) {
+            try {
+                Files.createDirectories(directory);
+                segments.add(JournalSegment.create(segmentPath(nextSequence), nextSequence, segmentSize));
+            } catch (IOException e) {
+                throw new UncheckedIOException("can't create journal segment in " + directory, e);
+            }
+        }
+
+        if (!active().append(message)) {
+            if (active().count() == 0) throw new IllegalArgumentException("message is too large for journal segment");
+            try {
+                roll();
+            } catch (IOException e) {
+                throw new UncheckedIOException("can't roll journal segment in " + directory, e);
+            }
+            if (segments.isEmpty()) {
+            try {
+                Files.createDirectories(directory);
+                segments.add(JournalSegment.create(segmentPath(nextSequence), nextSequence, segmentSize));
+            } catch (IOException e) {
+                throw new UncheckedIOException("can't create journal segment in " + directory, e);
+            }
+        }
+
+        if (!active().append(message)) {
+                throw new IllegalArgumentException("message is too large for journal segment");
+            }
+        }
+
+        return nextSequence++;
+    }
+
+    @Override
+    public int forEachLast(int count, Consumer<ChatMessage> consumer) {
+        if (segments.isEmpty()) return 0;
+
+        // назад от конца журнала до начала count-го с конца сообщения
+        int segmentIndex = segments.size() - 1;
+        int position = active().end();
+        for (int remaining = count; remaining > 0; ) {
+            if (position == 0) {
+                if (segmentIndex == 0) break;
+                position = segments.get(--segmentIndex).end();
+            } else {
+                position = segments.get(segmentIndex).previous(position);
+                remaining--;
+            }
+        }
+
+        // и вперед, отдавая сообщения в порядке добавления
+        int visited = 0;
+        for (int i = segmentIndex; i < segments.size(); i++) {
+            JournalSegment segment = segments.get(i);
+            for (int p = i == segmentIndex ? position : 0; p < segment.end(); p = segment.next(p)) {
+                consumer.accept(segment.read(p));
+                visited++;
+            }
+        }
+
+        return visited;
+    }
+
+    /**
+     * @return порядковый номер, который получит следующее сообщение
+     */
+    public long nextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * @return количество сегментов на диске
+     */
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Сбросить текущий сегмент на диск и освободить отображения; вызывается в потоке ввода-вывода журнала, после
+     * поставленных туда сбросов и удалений сегментов
+     */
+    @Override
+    public void close() {
+        if (!segments.isEmpty()) active().force();
+        segments.forEach(JournalSegment::close);
+        segments.clear();
+        closeListener.run();
+    }
+
+    private JournalSegment active() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private void load() throws IOException {
+        if (!Files.isDirectory(directory)) return;
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long baseSequence = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            segments.add(JournalSegment.open(file, baseSequence));
+        }
+
+        if (segments.isEmpty()) return;
+        nextSequence = active().baseSequence + active().count();
+
+        applyRetention();
+    }
+
+    private void roll() throws IOException {
+        JournalSegment sealed = active();
+        sealed.seal();
+        ioExecutor.execute(() -> {
+            try {
+                sealed.persist();
+            } catch (IOException e) {
+                logger.warn("can't flush journal segment {}", sealed.path, e);
+            }
+        });
+        segments.add(JournalSegment.create(segmentPath(nextSequence), nextSequence, segmentSize));
+        applyRetention();
+    }
+
+    private void applyRetention() {
+        long total = 0;
+        for (JournalSegment segment : segments) {
+            total += segment.size();
+        }
+
+        long now = System.currentTimeMillis();
+        while (segments.size() > 1) {
+            JournalSegment oldest = segments.get(0);
+            boolean tooLarge = total > retentionBytes;
+            boolean tooOld = retentionMillis > 0 && now - oldest.sealedAt() > retentionMillis;
+            if (!tooLarge && !tooOld) break;
+
+            segments.remove(0);
+            total -= oldest.size();
+            // после сброса сегмента на диск, поставленного раньше в тот же поток
+            ioExecutor.execute(() -> {
+                try {
+                    oldest.delete();
+                } catch (IOException e) {
+                    logger.warn("can't delete journal segment {}", oldest.path, e);
+                }
+            });
+        }
+    }
+
+    private Path segmentPath(long baseSequence) {
+        // имя с ведущими нулями, чтобы сегменты сортировались по имени
+        return directory.resolve(String.format("%020d%s", baseSequence, SEGMENT_SUFFIX));
+    }
+}
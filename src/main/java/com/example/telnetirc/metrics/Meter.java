@@ -0,0 +1,67 @@
+package com.example.telnetirc.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Счетчик событий со скользящей средней частотой за минуту (экспоненциальное сглаживание с шагом
+ * {@value #TICK_SECONDS} секунд).</p>
+ * <p>{@link #mark()} только увеличивает {@link LongAdder}, сглаживание пересчитывается при чтении частоты</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class Meter {
+
+    private static final int TICK_SECONDS = 5;
+    private static final long TICK_NANOS = TimeUnit.SECONDS.toNanos(TICK_SECONDS);
+    private static final double ALPHA = 1 - Math.exp(-TICK_SECONDS / 60.0);
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder uncounted = new LongAdder();
+    private final AtomicLong lastTick = new AtomicLong(System.nanoTime());
+
+    private volatile boolean initialized;
+    private volatile double ratePerTick;
+
+    public void mark() {
+        count.increment();
+        uncounted.increment();
+    }
+
+    /**
+     * @return сколько всего было событий
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return средняя частота событий в секунду за последнюю минуту
+     */
+    public double getOneMinuteRate() {
+        tickIfNecessary();
+        return ratePerTick / TICK_SECONDS;
+    }
+
+    private void tickIfNecessary() {
+        long oldTick = lastTick.get();
+        long age = System.nanoTime() - oldTick;
+        if (age < TICK_NANOS) return;
+
+        long ticks = age / TICK_NANOS;
+        if (!lastTick.compareAndSet(oldTick, oldTick + ticks * TICK_NANOS)) return;
+
+        // события, накопленные между чтениями, распределяются поровну по всем пропущенным шагам
+        double instantRate = (double) uncounted.sumThenReset() / ticks;
+        for (long i = 0; i < ticks; i++) {
+            if (initialized) {
+                ratePerTick += ALPHA * (instantRate - ratePerTick);
+            } else {
+                ratePerTick = instantRate;
+                initialized = true;
+            }
+        }
+    }
+}
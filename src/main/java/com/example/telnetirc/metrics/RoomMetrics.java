@@ -0,0 +1,61 @@
+package com.example.telnetirc.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Показатели одного канала чата: участники, сообщения и время рассылки
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class RoomMetrics {
+
+    private final LongAdder members = new LongAdder();
+    private final Meter messages = new Meter();
+    private final LatencyHistogram fanOut;
+
+    /**
+     * Показатели канала, не связанного с общим реестром
+     */
+    public RoomMetrics() {
+        this(new LatencyHistogram());
+    }
+
+    /**
+     *
+     * @param fanOut общая гистограмма времени рассылки, в которую пишет канал
+     */
+    RoomMetrics(LatencyHistogram fanOut) {
+        this.fanOut = fanOut;
+    }
+
+    public void joined() {
+        members.increment();
+    }
+
+    public void left() {
+        members.decrement();
+    }
+
+    /**
+     * Сообщение разослано участникам канала
+     *
+     * @param fanOutNanos сколько заняла рассылка
+     */
+    public void messageSent(long fanOutNanos) {
+        messages.mark();
+        fanOut.record(fanOutNanos);
+    }
+
+    public long getMembers() {
+        return members.sum();
+    }
+
+    public long getMessages() {
+        return messages.getCount();
+    }
+
+    public double getMessageRate() {
+        return messages.getOneMinuteRate();
+    }
+}
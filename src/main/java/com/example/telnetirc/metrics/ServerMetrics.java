@@ -0,0 +1,299 @@
+package com.example.telnetirc.metrics;
+
+import com.example.telnetirc.command.Opcode;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Реестр показателей сервера.</p>
+ * <p>Обработчики только увеличивают счетчики ({@link LongAdder}), все агрегаты (сумма исходящих буферов,
+ * перцентили, частоты) считаются при чтении - через JMX или команду {@code /stats}</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+
+    private static final int TOP_ROOMS = 10;
+
+    private final ChannelGroup connections = new DefaultChannelGroup("connections", GlobalEventExecutor.INSTANCE);
+    private final LongAdder sessions = new LongAdder();
+    private final LongAdder[] commands = new LongAdder[Opcode.values().length];
+    private final LongAdder decodeErrors = new LongAdder();
+    private final LongAdder idleDisconnects = new LongAdder();
+    private final LongAdder rateLimitRejections = new LongAdder();
+    private final LongAdder throttledNanos = new LongAdder();
+    private final LongAdder compressedSessions = new LongAdder();
+    private final LongAdder compressionInputBytes = new LongAdder();
+    private final LongAdder compressionOutputBytes = new LongAdder();
+    private final LongAdder binaryConnections = new LongAdder();
+    private final LongAdder removedRoomMessages = new LongAdder();
+    private final LatencyHistogram fanOut = new LatencyHistogram();
+    private final ConcurrentHashMap<String, RoomMetrics> rooms = new ConcurrentHashMap<>();
+
+    public ServerMetrics() {
+        for (int i = 0; i < commands.length; i++) {
+            commands[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Учитывать соединение, пока оно открыто
+     *
+     * @param channel соединение пользователя
+     */
+    public void connectionOpened(Channel channel) {
+        connections.add(channel);
+    }
+
+    public void sessionOpened() {
+        sessions.increment();
+    }
+
+    public void sessionClosed() {
+        sessions.decrement();
+    }
+
+    /**
+     * @param opcode код разобранной команды пользователя
+     */
+    public void commandDecoded(Opcode opcode) {
+        commands[opcode.ordinal()].increment();
+    }
+
+    public void decodeError() {
+        decodeErrors.increment();
+    }
+
+    public void idleDisconnect() {
+        idleDisconnects.increment();
+    }
+
+    /**
+     * Команда отклонена ограничением частоты
+     */
+    public void rateLimited() {
+        rateLimitRejections.increment();
+    }
+
+    /**
+     * @param nanos сколько соединение не читалось из-за ограничения частоты
+     */
+    public void throttled(long nanos) {
+        throttledNanos.add(nanos);
+    }
+
+    /**
+     * Соединение договорилось о сжатии MCCP2
+     */
+    public void compressionStarted() {
+        compressedSessions.increment();
+    }
+
+    /**
+     * @param inputBytes байты данных, переданные на сжатие
+     * @param outputBytes байты, отправленные после сжатия
+     */
+    public void compressed(long inputBytes, long outputBytes) {
+        compressionInputBytes.add(inputBytes);
+        compressionOutputBytes.add(outputBytes);
+    }
+
+    /**
+     * Соединение перешло на бинарный протокол
+     */
+    public void binaryConnection() {
+        binaryConnections.increment();
+    }
+
+    /**
+     * Показатели канала чата; создаются при первом обращении
+     *
+     * @param name имя канала
+     * @return показатели канала
+     */
+    public RoomMetrics room(String name) {
+        return rooms.computeIfAbsent(name, n -> new RoomMetrics(fanOut));
+    }
+
+    /**
+     * @param name имя удаленного канала
+     */
+    public void removeRoom(String name) {
+        RoomMetrics removed = rooms.remove(name);
+        // сообщения удаленного канала остаются в общем счетчике
+        if (removed != null) removedRoomMessages.add(removed.getMessages());
+    }
+
+    @Override
+    public int getConnections() {
+        return connections.size();
+    }
+
+    @Override
+    public int getUnwritableConnections() {
+        int unwritable = 0;
+        for (Channel channel : connections) {
+            if (!channel.isWritable()) unwritable++;
+        }
+        return unwritable;
+    }
+
+    @Override
+    public long getOutboundBytesQueued() {
+        long bytes = 0;
+        for (Channel channel : connections) {
+            ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+            if (buffer != null) bytes += buffer.totalPendingWriteBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public long getSessions() {
+        return sessions.sum();
+    }
+
+    @Override
+    public Map<String, Long> getCommands() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Opcode opcode : Opcode.values()) {
+            long count = commands[opcode.ordinal()].sum();
+            if (count > 0) result.put(opcode.name().toLowerCase(Locale.ROOT), count);
+        }
+        return result;
+    }
+
+    @Override
+    public long getDecodeErrors() {
+        return decodeErrors.sum();
+    }
+
+    @Override
+    public long getRateLimitRejections() {
+        return rateLimitRejections.sum();
+    }
+
+    @Override
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.sum());
+    }
+
+    @Override
+    public long getCompressedSessions() {
+        return compressedSessions.sum();
+    }
+
+    @Override
+    public long getCompressionInputBytes() {
+        return compressionInputBytes.sum();
+    }
+
+    @Override
+    public long getCompressionOutputBytes() {
+        return compressionOutputBytes.sum();
+    }
+
+    @Override
+    public long getBinaryConnections() {
+        return binaryConnections.sum();
+    }
+
+    @Override
+    public long getIdleDisconnects() {
+        return idleDisconnects.sum();
+    }
+
+    @Override
+    public long getMessages() {
+        return removedRoomMessages.sum() + rooms.values().stream().mapToLong(RoomMetrics::getMessages).sum();
+    }
+
+    @Override
+    public double getMessageRate() {
+        return rooms.values().stream().mapToDouble(RoomMetrics::getMessageRate).sum();
+    }
+
+    @Override
+    public long getFanOutP50Micros() {
+        return micros(fanOut.getValueAtPercentile(50));
+    }
+
+    @Override
+    public long getFanOutP99Micros() {
+        return micros(fanOut.getValueAtPercentile(99));
+    }
+
+    @Override
+    public long getFanOutP999Micros() {
+        return micros(fanOut.getValueAtPercentile(99.9));
+    }
+
+    @Override
+    public long getFanOutMaxMicros() {
+        return micros(fanOut.getMax());
+    }
+
+    @Override
+    public Map<String, Long> getRoomMembers() {
+        Map<String, Long> result = new TreeMap<>();
+        rooms.forEach((name, room) -> result.put(name, room.getMembers()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getRoomMessageRates() {
+        Map<String, Double> result = new TreeMap<>();
+        rooms.forEach((name, room) -> result.put(name, room.getMessageRate()));
+        return result;
+    }
+
+    /**
+     * Текстовый отчет для оператора: общие показатели и самые активные каналы
+     *
+     * @return отчет, строки разделены \r\n
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+
+        report.append(String.format(Locale.ROOT, "connections: %d (unwritable %d, outbound queued %d bytes)\r\n",
+                getConnections(), getUnwritableConnections(), getOutboundBytesQueued()));
+        report.append(String.format(Locale.ROOT, "sessions: %d, idle disconnects %d\r\n", getSessions(),
+                getIdleDisconnects()));
+        report.append(String.format(Locale.ROOT, "commands: %s, decode errors %d\r\n", getCommands(),
+                getDecodeErrors()));
+        report.append(String.format(Locale.ROOT, "rate limits: rejected %d, throttled %d ms\r\n",
+                getRateLimitRejections(), getThrottledMillis()));
+        report.append(String.format(Locale.ROOT, "compression: sessions %d, %d -> %d bytes\r\n",
+                getCompressedSessions(), getCompressionInputBytes(), getCompressionOutputBytes()));
+        report.append(String.format(Locale.ROOT, "binary protocol: connections %d\r\n", getBinaryConnections()));
+        report.append(String.format(Locale.ROOT, "messages: %d (%.1f/s)\r\n", getMessages(), getMessageRate()));
+        report.append(String.format(Locale.ROOT, "fan-out us: p50 %d, p99 %d, p999 %d, max %d\r\n",
+                getFanOutP50Micros(), getFanOutP99Micros(), getFanOutP999Micros(), getFanOutMaxMicros()));
+        report.append(String.format(Locale.ROOT, "rooms: %d, top by messages/s:\r\n", rooms.size()));
+
+        rooms.entrySet().stream()
+                .sorted(Comparator.comparingDouble(
+                        (Map.Entry<String, RoomMetrics> room) -> room.getValue().getMessageRate()).reversed())
+                .limit(TOP_ROOMS)
+                .forEach(room -> report.append(String.format(Locale.ROOT, "  %s: %d members, %.1f/s\r\n",
+                        room.getKey(), room.getValue().getMembers(), room.getValue().getMessageRate())));
+
+        return report.toString();
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
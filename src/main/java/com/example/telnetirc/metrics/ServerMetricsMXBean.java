@@ -0,0 +1,105 @@
+package com.example.telnetirc.metrics;
+
+import java.util.Map;
+
+/**
+ * Показатели сервера, доступные через JMX
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public interface ServerMetricsMXBean {
+
+    /**
+     * @return открытые соединения
+     */
+    int getConnections();
+
+    /**
+     * @return соединения, исходящий буфер которых выше верхней отметки
+     */
+    int getUnwritableConnections();
+
+    /**
+     * @return байты, ожидающие отправки во всех соединениях
+     */
+    long getOutboundBytesQueued();
+
+    /**
+     * @return аутентифицированные пользователи
+     */
+    long getSessions();
+
+    /**
+     * @return разобранные команды по типам
+     */
+    Map<String, Long> getCommands();
+
+    /**
+     * @return ошибки разбора входящих строк
+     */
+    long getDecodeErrors();
+
+    /**
+     * @return команды, отклоненные ограничением частоты
+     */
+    long getRateLimitRejections();
+
+    /**
+     * @return суммарное время, на которое соединения переставали читать из-за ограничения частоты
+     */
+    long getThrottledMillis();
+
+    /**
+     * @return соединения, договорившиеся о сжатии MCCP2
+     */
+    long getCompressedSessions();
+
+    /**
+     * @return байты данных, переданные на сжатие
+     */
+    long getCompressionInputBytes();
+
+    /**
+     * @return байты, отправленные после сжатия
+     */
+    long getCompressionOutputBytes();
+
+    /**
+     * @return соединения, перешедшие на бинарный протокол
+     */
+    long getBinaryConnections();
+
+    /**
+     * @return соединения, закрытые по таймауту чтения или записи
+     */
+    long getIdleDisconnects();
+
+    /**
+     * @return разосланные сообщения чата
+     */
+    long getMessages();
+
+    /**
+     * @return сообщения чата в секунду, среднее за минуту
+     */
+    double getMessageRate();
+
+    long getFanOutP50Micros();
+
+    long getFanOutP99Micros();
+
+    long getFanOutP999Micros();
+
+    long getFanOutMaxMicros();
+
+    /**
+     * @return количество участников по каналам чата
+     */
+    Map<String, Long> getRoomMembers();
+
+    /**
+     * @return сообщения в секунду по каналам чата, среднее за минуту
+     */
+    Map<String, Double> getRoomMessageRates();
+}
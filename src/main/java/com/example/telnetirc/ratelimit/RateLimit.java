@@ -0,0 +1,56 @@
+package com.example.telnetirc.ratelimit;
+
+/**
+ * Параметры ведра токенов одного уровня ограничения
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public final class RateLimit {
+
+    /**
+     * уровень без ограничения
+     */
+    public static final RateLimit NONE = new RateLimit(0, 0);
+
+    private final int perSecond;
+    private final int burst;
+
+    private RateLimit(int perSecond, int burst) {
+        this.perSecond = perSecond;
+        this.burst = burst;
+    }
+
+    /**
+     *
+     * @param perSecond сколько действий в секунду разрешено, 0 - без ограничения
+     * @param burst сколько действий разрешено подряд
+     * @return ограничение
+     */
+    public static RateLimit of(int perSecond, int burst) {
+        if (perSecond < 0) throw new IllegalArgumentException("rate can't be negative");
+        if (perSecond == 0) return NONE;
+        if (burst < 1) throw new IllegalArgumentException("burst should be positive");
+        return new RateLimit(perSecond, burst);
+    }
+
+    public boolean isEnabled() {
+        return perSecond > 0;
+    }
+
+    public int getPerSecond() {
+        return perSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * @param now текущее время, {@link System#nanoTime()}
+     * @return полное ведро, null - ограничения нет
+     */
+    TokenBucket bucket(long now) {
+        return isEnabled() ? new TokenBucket(perSecond, burst, now) : null;
+    }
+}
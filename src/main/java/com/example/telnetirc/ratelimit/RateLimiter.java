@@ -0,0 +1,129 @@
+package com.example.telnetirc.ratelimit;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Ограничение частоты команд пользователей.</p>
+ * <p>Ведра токенов четырех уровней: соединения (все команды), адреса клиента (все команды всех его соединений),
+ * пользователя (сообщения чата и входы в каналы во всех его сессиях) и канала чата (сообщения всех участников).
+ * Ведро соединения принадлежит соединению, остальные общие и хранятся здесь. Полные ведра ничем не отличаются от
+ * новых и удаляются, когда ведер становится много, не чаще раза в секунду; удаленное ведро помечается
+ * ({@link TokenBucket#isEvicted()}), и соединения, которые его запомнили, берут новое</p>
+ * <p>Решение, что делать с командой сверх ограничения, принимает {@link com.example.telnetirc.RateLimitHandler}</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class RateLimiter {
+
+    /**
+     * без ограничений
+     */
+    public static final RateLimiter NONE = new RateLimiter(RateLimit.NONE, RateLimit.NONE, RateLimit.NONE,
+            RateLimit.NONE, 0, TimeUnit.MILLISECONDS);
+
+    private static final int SWEEP_THRESHOLD = 4096;
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final RateLimit connection;
+    private final RateLimit address;
+    private final RateLimit user;
+    private final RateLimit room;
+    private final long maxDelayNanos;
+
+    private final ConcurrentHashMap<String, TokenBucket> addresses = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, TokenBucket> users = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, TokenBucket> rooms = new ConcurrentHashMap<>();
+    private volatile long sweptAt = System.nanoTime();
+
+    /**
+     *
+     * @param connection ограничение команд соединения
+     * @param address ограничение команд всех соединений с одного адреса
+     * @param user ограничение сообщений и входов в каналы пользователя
+     * @param room ограничение сообщений канала чата
+     * @param maxDelay на сколько можно задержать команду; команда, которую пришлось бы задержать дольше,
+     *                 отклоняется
+     * @param unit единица измерения задержки
+     */
+    public RateLimiter(RateLimit connection, RateLimit address, RateLimit user, RateLimit room, long maxDelay,
+                       TimeUnit unit) {
+        if (maxDelay < 0) throw new IllegalArgumentException("max delay can't be negative");
+
+        this.connection = connection;
+        this.address = address;
+        this.user = user;
+        this.room = room;
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+    }
+
+    public boolean isEnabled() {
+        return connection.isEnabled() || address.isEnabled() || user.isEnabled() || room.isEnabled();
+    }
+
+    public long getMaxDelayNanos() {
+        return maxDelayNanos;
+    }
+
+    /**
+     * @param now текущее время, {@link System#nanoTime()}
+     * @return новое ведро соединения, null - без ограничения
+     */
+    public TokenBucket connectionBucket(long now) {
+        return connection.bucket(now);
+    }
+
+    /**
+     * @param host адрес клиента
+     * @param now текущее время, {@link System#nanoTime()}
+     * @return ведро адреса, null - без ограничения
+     */
+    public TokenBucket addressBucket(String host, long now) {
+        return bucket(addresses, host, address, now);
+    }
+
+    /**
+     * @param username имя пользователя
+     * @param now текущее время, {@link System#nanoTime()}
+     * @return ведро пользователя, null - без ограничения
+     */
+    public TokenBucket userBucket(String username, long now) {
+        return bucket(users, username, user, now);
+    }
+
+    /**
+     * @param name имя канала чата
+     * @param now текущее время, {@link System#nanoTime()}
+     * @return ведро канала, null - без ограничения
+     */
+    public TokenBucket roomBucket(String name, long now) {
+        return bucket(rooms, name, room, now);
+    }
+
+    private TokenBucket bucket(ConcurrentHashMap<String, TokenBucket> buckets, String key, RateLimit limit,
+                               long now) {
+        if (!limit.isEnabled()) return null;
+
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null || bucket.isEvicted()) {
+            if (buckets.size() >= SWEEP_THRESHOLD && now - sweptAt >= SWEEP_INTERVAL_NANOS) {
+                sweptAt = now;
+                sweep(buckets, now);
+            }
+            bucket = buckets.compute(key, (k, current) ->
+                    current == null || current.isEvicted() ? limit.bucket(now) : current);
+        }
+        return bucket;
+    }
+
+    private static void sweep(ConcurrentHashMap<String, TokenBucket> buckets, long now) {
+        for (Iterator<Map.Entry<String, TokenBucket>> iterator = buckets.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, TokenBucket> entry = iterator.next();
+            // ведро под тем же ключом могли заменить новым: удаляется только помеченное
+            if (entry.getValue().evictIfFull(now)) buckets.remove(entry.getKey(), entry.getValue());
+        }
+    }
+}
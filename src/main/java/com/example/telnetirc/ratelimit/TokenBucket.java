@@ -0,0 +1,104 @@
+package com.example.telnetirc.ratelimit;
+
+/**
+ * <p>Ведро токенов: не больше {@code burst} действий подряд, дальше - не чаще {@code perSecond} в секунду.</p>
+ * <p>Состояние ведра - количество токенов и время последнего пополнения; токены начисляются при обращении,
+ * поэтому проверка не выделяет памяти и не требует таймеров. Методы синхронизированы: ведра пользователя,
+ * канала и адреса общие для соединений из разных event loop-ов</p>
+ * <p>Общее ведро, удаленное из {@link RateLimiter} как полное, помечается ({@link #isEvicted()}): соединение,
+ * запомнившее ведро, берет вместо него новое, чтобы все соединения снова делили одно ведро</p>
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public final class TokenBucket {
+
+    private final long nanosPerToken;
+    private final long capacity;
+
+    private long tokens;
+    private long refilledAt;
+    private volatile boolean evicted;
+
+    /**
+     *
+     * @param perSecond сколько токенов начисляется в секунду
+     * @param burst максимальное количество токенов
+     * @param now текущее время, {@link System#nanoTime()}
+     */
+    public TokenBucket(int perSecond, int burst, long now) {
+        if (perSecond < 1) throw new IllegalArgumentException("rate should be positive");
+        if (burst < 1) throw new IllegalArgumentException("burst should be positive");
+
+        this.nanosPerToken = Math.max(1, 1_000_000_000L / perSecond);
+        this.capacity = burst;
+        this.tokens = burst;
+        this.refilledAt = now;
+    }
+
+    /**
+     * Взять токен
+     *
+     * @param now текущее время, {@link System#nanoTime()}
+     * @return 0, если токен взят, иначе через сколько наносекунд появится следующий токен
+     */
+    public synchronized long tryAcquire(long now) {
+        refill(now);
+        if (tokens > 0) {
+            tokens--;
+            return 0;
+        }
+        return nanosPerToken - (now - refilledAt);
+    }
+
+    /**
+     * Вернуть взятый токен, например, если действие запретило другое ведро
+     */
+    public synchronized void refund() {
+        if (tokens < capacity) tokens++;
+    }
+
+    /**
+     * Полное ведро ничем не отличается от нового, его можно удалить
+     *
+     * @param now текущее время, {@link System#nanoTime()}
+     * @return полно ли ведро
+     */
+    public synchronized boolean isFull(long now) {
+        refill(now);
+        return tokens == capacity;
+    }
+
+    /**
+     * @return удалено ли ведро из {@link RateLimiter}; такое ведро больше не общее, и его нужно получить заново
+     */
+    public boolean isEvicted() {
+        return evicted;
+    }
+
+    /**
+     * Пометить полное ведро удаленным
+     *
+     * @param now текущее время, {@link System#nanoTime()}
+     * @return помечено ли ведро; неполное ведро не удаляется
+     */
+    synchronized boolean evictIfFull(long now) {
+        if (!isFull(now)) return false;
+        evicted = true;
+        return true;
+    }
+
+    private void refill(long now) {
+        long elapsed = now - refilledAt;
+        if (elapsed < nanosPerToken) return;
+
+        long added = elapsed / nanosPerToken;
+        if (added >= capacity - tokens) {
+            tokens = capacity;
+            refilledAt = now;
+        } else {
+            tokens += added;
+            refilledAt += added * nanosPerToken;
+        }
+    }
+}
@@ -1,11 +1,19 @@
 package com.example.telnetirc.unit;
 
 import com.example.telnetirc.auth.AuthResult;
+import com.example.telnetirc.auth.AuthService;
+import com.example.telnetirc.auth.CredentialCache;
+import com.example.telnetirc.auth.ExecutorAuthService;
 import com.example.telnetirc.auth.InMemoryAuthService;
 import org.junit.Test;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import static com.example.telnetirc.auth.AuthResult.ALREADY_AUTHENTICATED;
 import static com.example.telnetirc.auth.AuthResult.AUTHENTICATED;
+import static com.example.telnetirc.auth.AuthResult.BUSY;
 import static com.example.telnetirc.auth.AuthResult.INCORRECT_PASSWORD;
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -133,4 +141,99 @@ public class AuthServiceTest {
     }
 
     //endregion
+
+    //region credential cache tests
+
+    /**
+     * проверяем, что повторный вход с тем же паролем берется из кеша проверенных паролей, а неверный пароль
+     * не кешируется
+     */
+    @Test
+    public void testRepeatedLoginUsesCredentialCache() {
+        CredentialCache cache = new CredentialCache(16, 1, TimeUnit.MINUTES);
+        InMemoryAuthService authService = new InMemoryAuthService(1000, cache);
+        authService.authenticate("vasya", "password");
+        authService.logout("vasya");
+
+        assertThat(authService.authenticate("vasya", "password")).isEqualTo(AUTHENTICATED);
+        authService.logout("vasya");
+        assertThat(authService.authenticate("vasya", "password")).isEqualTo(AUTHENTICATED);
+        assertThat(authService.authenticate("vasya", "123456789")).isEqualTo(INCORRECT_PASSWORD);
+        assertThat(authService.authenticate("vasya", "123456789")).isEqualTo(INCORRECT_PASSWORD);
+
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.getMisses()).isEqualTo(3);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    /**
+     * проверяем, что запись кеша проверенных паролей живет не дольше заданного времени, а при заполнении
+     * вытесняется давно не использованная запись
+     */
+    @Test
+    public void testCredentialCacheExpiresAndEvicts() throws InterruptedException {
+        CredentialCache expiring = new CredentialCache(16, 50, TimeUnit.MILLISECONDS);
+        expiring.put("vasya", "password");
+        assertThat(expiring.contains("vasya", "password")).isTrue();
+        assertThat(expiring.contains("vasya", "other")).isFalse();
+        Thread.sleep(100);
+        assertThat(expiring.contains("vasya", "password")).isFalse();
+        assertThat(expiring.size()).isZero();
+
+        CredentialCache bounded = new CredentialCache(2, 1, TimeUnit.MINUTES);
+        bounded.put("vasya", "password");
+        bounded.put("petya", "password");
+        bounded.contains("vasya", "password");
+        bounded.put("kolya", "password");
+
+        assertThat(bounded.size()).isEqualTo(2);
+        assertThat(bounded.contains("vasya", "password")).isTrue();
+        assertThat(bounded.contains("petya", "password")).isFalse();
+    }
+
+    //endregion
+
+    //region executor tests
+
+    /**
+     * проверяем, что аутентификация выполняется не в вызывающем потоке, а сверх ограничения незавершенных
+     * аутентификаций сразу возвращается {@link AuthResult#BUSY}
+     */
+    @Test
+    public void testExecutorAuthServiceLimitsInFlightLogins() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AuthService slow = new InMemoryAuthService() {
+            @Override
+            public CompletableFuture<AuthResult> authenticateAsync(String username, String password) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.authenticateAsync(username, password);
+            }
+        };
+
+        ExecutorAuthService authService = new ExecutorAuthService(slow, 1, 2);
+        try {
+            CompletableFuture<AuthResult> first = authService.authenticateAsync("vasya", "password");
+            CompletableFuture<AuthResult> second = authService.authenticateAsync("petya", "password");
+            CompletableFuture<AuthResult> third = authService.authenticateAsync("kolya", "password");
+
+            assertThat(first).isNotDone();
+            assertThat(third.get()).isEqualTo(BUSY);
+            assertThat(authService.getInFlight()).isEqualTo(2);
+
+            release.countDown();
+
+            assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(AUTHENTICATED);
+            assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo(AUTHENTICATED);
+            assertThat(authService.authenticateAsync("kolya", "password").get(5, TimeUnit.SECONDS))
+                    .isEqualTo(AUTHENTICATED);
+        } finally {
+            authService.close();
+        }
+    }
+
+    //endregion
 }
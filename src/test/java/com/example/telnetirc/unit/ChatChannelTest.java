@@ -1,14 +1,24 @@
 package com.example.telnetirc.unit;
 
+import com.example.telnetirc.BinaryFrameEncoder;
+import com.example.telnetirc.chat.BinaryFrame;
 import com.example.telnetirc.chat.ChatChannel;
+import com.example.telnetirc.chat.OverflowPolicy;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
 import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.ChannelGroupFuture;
+import io.netty.channel.group.ChannelMatcher;
+import io.netty.util.CharsetUtil;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -206,6 +216,26 @@ public class ChatChannelTest {
         verify(channelGroup).remove(channel);
     }
 
+    /**
+     * проверяем, что запоздалый выход старого соединения не выводит из канала пользователя, снова вошедшего с
+     * другим соединением
+     */
+    @Test
+    public void testLeaveWithStaleChannelKeepsNewMembership() {
+        ChatChannel chatChannel = new ChatChannel(2, 1, channelGroup);
+
+        Channel oldChannel = mock(Channel.class);
+        Channel newChannel = mock(Channel.class);
+
+        chatChannel.join(oldChannel, "vasya");
+        chatChannel.leave(oldChannel, "vasya");
+        chatChannel.join(newChannel, "vasya");
+
+        assertThat(chatChannel.leave(oldChannel, "vasya")).isFalse();
+        assertThat(chatChannel.isMember(newChannel, "vasya")).isTrue();
+        verify(channelGroup, never()).remove(newChannel);
+    }
+
     //endregion
 
     //region chat tests
@@ -252,19 +282,143 @@ public class ChatChannelTest {
     @Test
     public void testChatSendMessageToAllUsersOfTheGroup() {
         ChatChannel chatChannel = new ChatChannel(2, 1, channelGroup);
-
-        ArgumentCaptor<String> messageCaptor = ArgumentCaptor.forClass(String.class);
-        when(channelGroup.writeAndFlush(messageCaptor.capture())).thenReturn(mock(ChannelGroupFuture.class));
+        EmbeddedChannel vasya = new EmbeddedChannel();
+        EmbeddedChannel petya = new EmbeddedChannel();
+        chatChannel.join(vasya, "vasya");
+        chatChannel.join(petya, "petya");
 
         String text = "some text";
         chatChannel.chat("vasya", text);
 
-        verify(channelGroup).writeAndFlush(any());
+        for (EmbeddedChannel channel : new EmbeddedChannel[] {vasya, petya}) {
+            String message = readText(channel);
+            assertThat(message).containsSequence("vasya");
+            assertThat(message).containsSequence(text);
+        }
+    }
+
+    /**
+     * проверяем, что бинарный участник получает историю и новые сообщения кадрами, а текстовый - строками
+     */
+    @Test
+    public void testChatSendsFramesToBinaryMembers() {
+        ChatChannel chatChannel = new ChatChannel(3, 1, channelGroup);
+        EmbeddedChannel vasya = new EmbeddedChannel();
+        EmbeddedChannel petya = new EmbeddedChannel();
+        petya.pipeline().addLast(BinaryFrame.ENCODER, new BinaryFrameEncoder());
+        chatChannel.join(vasya, "vasya");
+        chatChannel.chat("vasya", "before");
+        chatChannel.join(petya, "petya");
+        chatChannel.chat("vasya", "after");
+
+        assertThat(readText(vasya)).contains("before");
+        assertThat(readText(vasya)).contains("after");
+        for (String text : new String[] {"before", "after"}) {
+            ByteBuf frame = (ByteBuf) petya.readOutbound();
+            assertThat(frame.readInt()).isEqualTo(frame.readableBytes());
+            assertThat(frame.readByte()).isEqualTo(BinaryFrame.MESSAGE);
+            assertThat(frame.readLong()).isPositive();
+            int length = frame.readShort();
+            assertThat(frame.toString(frame.readerIndex(), length, CharsetUtil.UTF_8)).isEqualTo("vasya");
+            frame.skipBytes(length);
+            assertThat(frame.toString(CharsetUtil.UTF_8)).isEqualTo(text);
+            frame.release();
+        }
+    }
+
+    //endregion
+
+    //region overflow tests
+
+    /**
+     * создаем участника, соединение которого не готово к записи
+     */
+    private static EmbeddedChannel slowChannel(ChatChannel chatChannel, String username) {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        channel.config().setWriteBufferLowWaterMark(1);
+        channel.config().setWriteBufferHighWaterMark(8);
+        chatChannel.join(channel, username);
+        channel.write(Unpooled.buffer().writeZero(64));
+        assertThat(channel.isWritable()).isFalse();
+        return channel;
+    }
+
+    private static String readText(EmbeddedChannel channel) {
+        ByteBuf buffer = (ByteBuf) channel.readOutbound();
+        String text = buffer.toString(CharsetUtil.UTF_8);
+        buffer.release();
+        return text;
+    }
+
+    /**
+     * проверяем, что участник, не готовый к записи, получает только последние сообщения из своей очереди,
+     * когда соединение освобождается, а остальные участники получают все сообщения сразу
+     */
+    @Test
+    public void testChatWhenMemberIsSlowAndPolicyIsDropOldestThenKeepsLastMessages() {
+        EmbeddedChannel fast = new EmbeddedChannel();
+        ChatChannel chatChannel = new ChatChannel(3, 5, fast.eventLoop(), UnpooledByteBufAllocator.DEFAULT,
+                OverflowPolicy.dropOldest(2));
+        chatChannel.join(fast, "vasya");
+        EmbeddedChannel slow = slowChannel(chatChannel, "petya");
+
+        chatChannel.chat("vasya", "text1");
+        chatChannel.chat("vasya", "text2");
+        chatChannel.chat("vasya", "text3");
+
+        assertThat(readText(fast)).contains("text1");
+        assertThat(chatChannel.getOverflowStats().getQueued()).isEqualTo(3);
+        assertThat(chatChannel.getOverflowStats().getDropped()).isEqualTo(1);
+
+        slow.flush();
+        ((ByteBuf) slow.readOutbound()).release();
+        assertThat(chatChannel.resume(slow)).isEqualTo(0);
+
+        assertThat(readText(slow)).contains("text2");
+        assertThat(readText(slow)).contains("text3");
+        assertThat((Object) slow.readOutbound()).isNull();
+    }
+
+    /**
+     * проверяем, что участник, не готовый к записи, пропускает сообщения и узнает их количество, когда
+     * соединение освобождается
+     */
+    @Test
+    public void testChatWhenMemberIsSlowAndPolicyIsSkipThenCountsSkippedMessages() {
+        EmbeddedChannel fast = new EmbeddedChannel();
+        ChatChannel chatChannel = new ChatChannel(3, 5, fast.eventLoop(), UnpooledByteBufAllocator.DEFAULT,
+                OverflowPolicy.skip());
+        chatChannel.join(fast, "vasya");
+        EmbeddedChannel slow = slowChannel(chatChannel, "petya");
+
+        chatChannel.chat("vasya", "text1");
+        chatChannel.chat("vasya", "text2");
+
+        slow.flush();
+        assertThat(chatChannel.resume(slow)).isEqualTo(2);
+        assertThat(chatChannel.resume(slow)).isEqualTo(0);
+        assertThat(chatChannel.getOverflowStats().getSkipped()).isEqualTo(2);
+    }
+
+    /**
+     * проверяем, что участник, не готовый к записи дольше таймаута, отключается и выходит из канала
+     */
+    @Test
+    public void testChatWhenMemberIsSlowLongerThanTimeoutAndPolicyIsDisconnectThenClosesChannel() {
+        EmbeddedChannel fast = new EmbeddedChannel();
+        ChatChannel chatChannel = new ChatChannel(3, 5, fast.eventLoop(), UnpooledByteBufAllocator.DEFAULT,
+                OverflowPolicy.disconnectAfter(0, TimeUnit.SECONDS));
+        chatChannel.join(fast, "vasya");
+        EmbeddedChannel slow = slowChannel(chatChannel, "petya");
+
+        chatChannel.chat("vasya", "text1");
+        assertThat(slow.isOpen()).isTrue();
+
+        chatChannel.chat("vasya", "text2");
 
-        String message = messageCaptor.getValue();
-        assertThat(message).isNotNull();
-        assertThat(message).containsSequence("vasya");
-        assertThat(message).containsSequence(text);
+        assertThat(slow.isOpen()).isFalse();
+        assertThat(chatChannel.contains("petya")).isFalse();
+        assertThat(chatChannel.getOverflowStats().getDisconnected()).isEqualTo(1);
     }
 
     //endregion
@@ -0,0 +1,51 @@
+package com.example.telnetirc.unit;
+
+import com.example.telnetirc.chat.ChatMessage;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class ChatMessageTest {
+
+    /**
+     * проверяем вид сообщения для отправки: автор, время с точностью до секунды и текст
+     */
+    @Test
+    public void testToStringFormat() {
+        LocalDateTime time = LocalDateTime.of(2017, 1, 15, 12, 30, 45, 123_000_000);
+        ChatMessage message = new ChatMessage("vasya", time, "привет");
+
+        assertThat(message.toString()).isEqualTo("vasya (15.01.2017 12:30:45):\r\n привет\r\n");
+    }
+
+    /**
+     * проверяем, что вид сообщения строится один раз
+     */
+    @Test
+    public void testToStringIsCached() {
+        ChatMessage message = new ChatMessage("vasya", "text");
+
+        assertThat(message.toString()).isSameAs(message.toString());
+    }
+
+    /**
+     * проверяем, что сообщения одной секунды получают одно и то же время без долей секунды
+     */
+    @Test
+    public void testMessagesInSameSecondShareTime() {
+        long now = System.currentTimeMillis() / 1000;
+        ChatMessage first = new ChatMessage("vasya", "text1");
+        ChatMessage next = new ChatMessage("petya", "text2");
+        assumeTrue(System.currentTimeMillis() / 1000 == now);
+
+        assertThat(first.getTime().getNano()).isZero();
+        assertThat(next.getTime()).isSameAs(first.getTime());
+    }
+}
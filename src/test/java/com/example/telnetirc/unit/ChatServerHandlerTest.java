@@ -1,19 +1,36 @@
 package com.example.telnetirc.unit;
 
 import com.example.telnetirc.ChatServerHandler;
+import com.example.telnetirc.ChatSession;
+import com.example.telnetirc.auth.AuthResult;
 import com.example.telnetirc.auth.AuthService;
+import com.example.telnetirc.chat.ChatChannel;
+import com.example.telnetirc.chat.ChatChannelFactory;
+import com.example.telnetirc.chat.MessageRingBuffer;
+import com.example.telnetirc.chat.OverflowPolicy;
 import com.example.telnetirc.command.*;
+import com.example.telnetirc.metrics.ServerMetrics;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.embedded.EmbeddedChannel;
-import io.netty.util.AttributeKey;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.CharsetUtil;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static com.example.telnetirc.auth.AuthResult.ALREADY_AUTHENTICATED;
 import static com.example.telnetirc.auth.AuthResult.AUTHENTICATED;
+import static com.example.telnetirc.auth.AuthResult.BUSY;
 import static com.example.telnetirc.auth.AuthResult.INCORRECT_PASSWORD;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -37,9 +54,27 @@ public class ChatServerHandlerTest {
     @Before
     public void setUp() {
         authService = mock(AuthService.class);
+        when(authService.authenticateAsync(anyString(), anyString())).thenAnswer(invocation ->
+                CompletableFuture.completedFuture(authService.authenticate(invocation.getArgument(0),
+                        invocation.getArgument(1))));
         chatServerHandler = new ChatServerHandler(2, authService);
     }
 
+    /**
+     * Ответ сервера: заранее закодированный буфер или строка
+     */
+    private static String response(EmbeddedChannel channel) {
+        Object response = channel.readOutbound();
+        if (!(response instanceof ByteBuf)) return (String) response;
+
+        ByteBuf buffer = (ByteBuf) response;
+        try {
+            return buffer.toString(CharsetUtil.UTF_8);
+        } finally {
+            buffer.release();
+        }
+    }
+
     //region test login command
 
     /**
@@ -53,9 +88,9 @@ public class ChatServerHandlerTest {
         EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
         channel.releaseOutbound();
         channel.writeInbound(new LoginCommand(new String[]{username, password}));
-        String response = (String) channel.readOutbound();
+        String response = response(channel);
 
-        assertThat(channel.<String>attr(AttributeKey.valueOf("username")).get()).isNull();
+        assertThat(ChatSession.get(channel).getUsername()).isNull();
         assertThat(response).isEqualTo(resource.getString("login.error.incorrect_password"));
     }
 
@@ -70,10 +105,10 @@ public class ChatServerHandlerTest {
         EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
         channel.releaseOutbound();
         channel.writeInbound(new LoginCommand(new String[]{username, password}));
-        String response = (String) channel.readOutbound();
+        String response = response(channel);
 
         assertThat(response).isEqualTo(resource.getString("login.success"));
-        assertThat(channel.<String>attr(AttributeKey.valueOf("username")).get()).isEqualTo(username);
+        assertThat(ChatSession.get(channel).getUsername()).isEqualTo(username);
     }
 
     /**
@@ -87,9 +122,9 @@ public class ChatServerHandlerTest {
         EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
         channel.releaseOutbound();
         channel.writeInbound(new LoginCommand(new String[]{username, password}));
-        String response = (String) channel.readOutbound();
+        String response = response(channel);
 
-        assertThat(channel.<String>attr(AttributeKey.valueOf("username")).get()).isNull();
+        assertThat(ChatSession.get(channel).getUsername()).isNull();
         assertThat(response).isEqualTo(resource.getString("login.error.another_auth"));
     }
 
@@ -100,14 +135,70 @@ public class ChatServerHandlerTest {
     @Test
     public void testLoginWhenAlreadyAuthenticatedReturnsError() {
         EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
-        channel.attr(AttributeKey.valueOf("username")).set("petya");
+        ChatSession.get(channel).login("petya");
         channel.writeInbound(new LoginCommand(new String[]{username, password}));
         channel.readOutbound();
-        String response = (String) channel.readOutbound();
+        String response = response(channel);
 
         assertThat(response).isEqualTo(resource.getString("login.error.already_auth"));
     }
 
+    /**
+     * проверяем, что ответ на вход пишется, когда завершится асинхронная аутентификация, а повторный вход до этого
+     * отклоняется
+     */
+    @Test
+    public void testLoginRepliesWhenAsyncAuthenticationCompletes() {
+        CompletableFuture<AuthResult> result = new CompletableFuture<>();
+        doReturn(result).when(authService).authenticateAsync(username, password);
+
+        EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
+        channel.releaseOutbound();
+        channel.writeInbound(new LoginCommand(new String[]{username, password}));
+
+        assertThat((Object) channel.readOutbound()).isNull();
+
+        channel.writeInbound(new LoginCommand(new String[]{"petya", password}));
+        assertThat(response(channel)).isEqualTo(resource.getString("login.error.pending"));
+
+        result.complete(AUTHENTICATED);
+
+        assertThat(response(channel)).isEqualTo(resource.getString("login.success"));
+        assertThat(ChatSession.get(channel).getUsername()).isEqualTo(username);
+    }
+
+    /**
+     * проверяем, что если соединение закрылось до завершения аутентификации, то открытая сессия закрывается
+     */
+    @Test
+    public void testLoginCompletedAfterDisconnectLogsOut() {
+        CompletableFuture<AuthResult> result = new CompletableFuture<>();
+        doReturn(result).when(authService).authenticateAsync(username, password);
+
+        EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
+        channel.writeInbound(new LoginCommand(new String[]{username, password}));
+        channel.close();
+
+        result.complete(AUTHENTICATED);
+
+        verify(authService).logout(username);
+    }
+
+    /**
+     * проверяем, что при превышении ограничения незавершенных входов возвращается сообщение о загрузке сервера
+     */
+    @Test
+    public void testLoginWhenServerIsBusy() {
+        doReturn(CompletableFuture.completedFuture(BUSY)).when(authService).authenticateAsync(username, password);
+
+        EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
+        channel.releaseOutbound();
+        channel.writeInbound(new LoginCommand(new String[]{username, password}));
+
+        assertThat(response(channel)).isEqualTo(resource.getString("login.error.busy"));
+        assertThat(ChatSession.get(channel).getUsername()).isNull();
+    }
+
     //endregion
 
     //region test join command
@@ -121,7 +212,7 @@ public class ChatServerHandlerTest {
         channel.releaseOutbound();
         
         channel.writeInbound(new JoinCommand(new String[]{channelName}));
-        String response = (String) channel.readOutbound();
+        String response = response(channel);
         
         assertThat(response).isEqualTo(resource.getString("join.error.anonymous"));
     }
@@ -133,14 +224,14 @@ public class ChatServerHandlerTest {
     @Test
     public void testJoinWhenChannelIsFreeReturnsSuccess() {
         EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
-        channel.attr(AttributeKey.valueOf("username")).set(username);
+        ChatSession.get(channel).login(username);
         channel.releaseOutbound();
         
         channel.writeInbound(new JoinCommand(new String[]{channelName}));
-        String response = (String) channel.readOutbound();
+        String response = response(channel);
         
         assertThat(response).isEqualTo(resource.getString("join.success"));
-        assertThat(channel.attr(AttributeKey.valueOf("chatChannel")).get()).isEqualTo(channelName);
+        assertThat(ChatSession.get(channel).getRoomName()).isEqualTo(channelName);
     }
 
     /**
@@ -150,7 +241,7 @@ public class ChatServerHandlerTest {
     @Test
     public void testJoinWhenAlreadyJoinedToChannelReturnsError() {
         EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
-        channel.attr(AttributeKey.valueOf("username")).set(username);
+        ChatSession.get(channel).login(username);
 
         JoinCommand joinCommand = new JoinCommand(new String[]{channelName});
 
@@ -158,29 +249,69 @@ public class ChatServerHandlerTest {
         channel.releaseOutbound();
 
         channel.writeInbound(joinCommand);
-        String response = (String) channel.readOutbound();
+        String response = response(channel);
         
         assertThat(response).isEqualTo(resource.getString("join.error.already_joined"));
-        assertThat(channel.attr(AttributeKey.valueOf("chatChannel")).get()).isEqualTo(channelName);
+        assertThat(ChatSession.get(channel).getRoomName()).isEqualTo(channelName);
     }
 
     /**
-     * проверяем, что при добавлении в канал пользователя, уже добавленного в другой канал, перед добавлением
-     * происходит выход из старого канала
+     * проверяем, что пользователь, добавленный в канал, остается в нем при добавлении в другой канал, а новый
+     * канал становится активным
      */
     @Test
-    public void testJoinWhenUserJoinedToAnotherChannelThenLeavesOldChannel() {
+    public void testJoinWhenUserJoinedToAnotherChannelThenStaysInBoth() {
         EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
-        channel.attr(AttributeKey.valueOf("username")).set(username);
+        ChatSession.get(channel).login(username);
 
         channel.writeInbound(new JoinCommand(new String[]{"oldChannel"}));
         channel.readOutbound();
 
         channel.writeInbound(new JoinCommand(new String[]{channelName}));
-        String response = (String) channel.readOutbound();
+        String response = response(channel);
 
         assertThat(response).isEqualTo(resource.getString("join.success"));
-        assertThat(channel.attr(AttributeKey.valueOf("chatChannel")).get()).isEqualTo(channelName);
+        assertThat(ChatSession.get(channel).getRoomName()).isEqualTo(channelName);
+        assertThat(ChatSession.get(channel).getRoomCount()).isEqualTo(2);
+        assertThat(ChatSession.get(channel).getRoom("oldChannel").contains(username)).isTrue();
+    }
+
+    /**
+     * проверяем, что повторный вход в канал, в котором пользователь уже состоит, делает канал активным
+     */
+    @Test
+    public void testJoinWhenUserAlreadyInChannelThenSwitchesActiveChannel() {
+        EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
+        ChatSession.get(channel).login(username);
+        channel.writeInbound(new JoinCommand(new String[]{"oldChannel"}));
+        channel.writeInbound(new JoinCommand(new String[]{channelName}));
+        channel.releaseOutbound();
+
+        channel.writeInbound(new JoinCommand(new String[]{"oldChannel"}));
+
+        assertThat(response(channel)).isEqualTo(resource.getString("join.active"));
+        assertThat(ChatSession.get(channel).getRoomName()).isEqualTo("oldChannel");
+        assertThat(ChatSession.get(channel).getRoomCount()).isEqualTo(2);
+    }
+
+    /**
+     * проверяем, что пользователь выходит только из указанного канала
+     */
+    @Test
+    public void testPartLeavesOnlyGivenChannel() {
+        EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
+        ChatSession.get(channel).login(username);
+        channel.writeInbound(new JoinCommand(new String[]{"oldChannel"}));
+        channel.writeInbound(new JoinCommand(new String[]{channelName}));
+        ChatChannel chatChannel = ChatSession.get(channel).getRoom();
+        channel.releaseOutbound();
+
+        channel.writeInbound(new PartCommand(new String[]{channelName}));
+
+        assertThat(response(channel)).isEqualTo(resource.getString("part.success"));
+        assertThat(chatChannel.contains(username)).isFalse();
+        assertThat(ChatSession.get(channel).getRoomName()).isEqualTo("oldChannel");
+        assertThat(ChatSession.get(channel).getRoomCount()).isEqualTo(1);
     }
 
     /**
@@ -194,24 +325,24 @@ public class ChatServerHandlerTest {
 
         // first user
         EmbeddedChannel channel1 = new EmbeddedChannel(chatServerHandler);
-        channel1.attr(AttributeKey.valueOf("username")).set("petya");
+        ChatSession.get(channel1).login("petya");
         channel1.writeInbound(joinCommand);
 
         // second user
         EmbeddedChannel channel2 = new EmbeddedChannel(chatServerHandler);
-        channel2.attr(AttributeKey.valueOf("username")).set("leonid");
+        ChatSession.get(channel2).login("leonid");
         channel2.writeInbound(joinCommand);
 
         // test user
         EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
-        channel.attr(AttributeKey.valueOf("username")).set(username);
+        ChatSession.get(channel).login(username);
         channel.releaseOutbound();
         channel.writeInbound(joinCommand);
 
-        String response = (String) channel.readOutbound();
+        String response = response(channel);
 
         assertThat(response).isEqualTo(resource.getString("join.error.user_limit"));
-        assertThat(channel.attr(AttributeKey.valueOf("chatChannel")).get()).isNull();
+        assertThat(ChatSession.get(channel).getRoomName()).isNull();
     }
 
     //endregion
@@ -228,7 +359,7 @@ public class ChatServerHandlerTest {
         channel.releaseOutbound();
         channel.writeInbound(new ChatCommand(new String[]{"message"}));
 
-        String response = (String) channel.readOutbound();
+        String response = response(channel);
         assertThat(response).isEqualTo(resource.getString("chat.error.anonymous"));
     }
 
@@ -239,14 +370,81 @@ public class ChatServerHandlerTest {
     @Test
     public void testChatWhenUserIsNotJoinedToChannelReturnsError() {
         EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
-        channel.attr(AttributeKey.valueOf("username")).set(username);
+        ChatSession.get(channel).login(username);
         channel.releaseOutbound();
         channel.writeInbound(new ChatCommand(new String[]{"message"}));
 
-        String response = (String) channel.readOutbound();
+        String response = response(channel);
         assertThat(response).isEqualTo(resource.getString("chat.error.no_channel"));
     }
 
+    /**
+     * проверяем, что сообщение "#канал текст" уходит в указанный канал, не меняя активный канал
+     */
+    @Test
+    public void testChatWithTargetRoomGoesToThatRoom() {
+        EmbeddedChannel friend = new EmbeddedChannel(chatServerHandler);
+        ChatSession.get(friend).login("petya");
+        friend.writeInbound(new JoinCommand(new String[]{channelName}));
+
+        EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
+        ChatSession.get(channel).login(username);
+        channel.writeInbound(new JoinCommand(new String[]{channelName}));
+        channel.writeInbound(new JoinCommand(new String[]{"family"}));
+        friend.releaseOutbound();
+        channel.releaseOutbound();
+
+        channel.writeInbound(new ChatCommand(new String[]{"#" + channelName + " message"}));
+
+        assertThat(response(friend)).contains("message").doesNotContain("#" + channelName);
+        assertThat(ChatSession.get(channel).getRoomName()).isEqualTo("family");
+    }
+
+    /**
+     * проверяем, что строка "#слово текст", где слово - не канал пользователя (хэштег), целиком уходит в активный
+     * канал, а не отклоняется
+     */
+    @Test
+    public void testChatWithHashtagGoesToActiveRoom() {
+        EmbeddedChannel friend = new EmbeddedChannel(chatServerHandler);
+        ChatSession.get(friend).login("petya");
+        friend.writeInbound(new JoinCommand(new String[]{channelName}));
+
+        EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
+        ChatSession.get(channel).login(username);
+        channel.writeInbound(new JoinCommand(new String[]{channelName}));
+        friend.releaseOutbound();
+        channel.releaseOutbound();
+
+        channel.writeInbound(new ChatCommand(new String[]{"#netty is fast"}));
+
+        assertThat(response(friend)).contains("#netty is fast");
+        assertThat(ChatSession.get(channel).getRoomName()).isEqualTo(channelName);
+    }
+
+    /**
+     * проверяем, что после перехода в другой канал сообщения идут только в новый канал
+     */
+    @Test
+    public void testChatAfterSwitchingChannelGoesToNewChannel() {
+        EmbeddedChannel oldMember = new EmbeddedChannel(chatServerHandler);
+        ChatSession.get(oldMember).login("petya");
+        oldMember.writeInbound(new JoinCommand(new String[]{channelName}));
+
+        EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
+        ChatSession.get(channel).login(username);
+        channel.writeInbound(new JoinCommand(new String[]{channelName}));
+        channel.writeInbound(new JoinCommand(new String[]{"family"}));
+        oldMember.releaseOutbound();
+        channel.releaseOutbound();
+
+        channel.writeInbound(new ChatCommand(new String[]{"message"}));
+
+        assertThat(ChatSession.get(channel).getRoomName()).isEqualTo("family");
+        assertThat(response(channel)).contains("message");
+        assertThat((Object) oldMember.readOutbound()).isNull();
+    }
+
     /**
      * проверяем, что при отправлении сообщения в чат - оно отправляется всем добавленным в канал клиентам
      */
@@ -257,16 +455,18 @@ public class ChatServerHandlerTest {
 
         EmbeddedChannel channel1 = new EmbeddedChannel(chatServerHandler);
         channel1.readOutbound();
-        channel1.attr(AttributeKey.valueOf("username")).set("petya");
+        ChatSession.get(channel1).login("petya");
         channel1.writeInbound(joinCommand);
 
         EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
-        channel.attr(AttributeKey.valueOf("username")).set(username);
+        ChatSession.get(channel).login(username);
         channel.writeInbound(joinCommand);
         channel.releaseOutbound();
         channel.writeInbound(new ChatCommand(new String[]{"message"}));
 
-        String message = (String) channel.readOutbound();
+        ByteBuf buffer = (ByteBuf) channel.readOutbound();
+        String message = buffer.toString(CharsetUtil.UTF_8);
+        buffer.release();
         assertThat(message).contains("message");
         assertThat(message).contains(username);
     }
@@ -281,7 +481,7 @@ public class ChatServerHandlerTest {
     @Test
     public void testLeaveWhenUserIsAuthenticatedThenLogoutAndCloseChannel() {
         EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
-        channel.attr(AttributeKey.valueOf("username")).set(username);
+        ChatSession.get(channel).login(username);
         channel.releaseOutbound();
 
         channel.writeInbound(new LeaveCommand(new String[]{}));
@@ -298,18 +498,18 @@ public class ChatServerHandlerTest {
         JoinCommand joinCommand = new JoinCommand(new String[]{channelName});
 
         EmbeddedChannel channel1 = new EmbeddedChannel(chatServerHandler);
-        channel1.attr(AttributeKey.valueOf("username")).set("petya");
+        ChatSession.get(channel1).login("petya");
         channel1.writeInbound(joinCommand);
         channel1.releaseOutbound();
 
         EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
-        channel.attr(AttributeKey.valueOf("username")).set(username);
+        ChatSession.get(channel).login(username);
         channel.writeInbound(joinCommand);
         channel.releaseOutbound();
         channel.writeInbound(new LeaveCommand(new String[]{}));
 
         channel1.writeInbound(new UsersCommand(new String[]{}));
-        String result = (String) channel1.readOutbound();
+        String result = response(channel1);
 
         assertThat(channel.isOpen()).isFalse();
         assertThat(result).doesNotContain(username);
@@ -317,6 +517,105 @@ public class ChatServerHandlerTest {
 
     //endregion
 
+    //region test disconnect
+
+    /**
+     * проверяем, что при обрыве соединения пользователь выходит из канала чата и его сессия завершается
+     */
+    @Test
+    public void testDisconnectLeavesChannelAndLogsOut() {
+        JoinCommand joinCommand = new JoinCommand(new String[]{channelName});
+
+        EmbeddedChannel channel1 = new EmbeddedChannel(chatServerHandler);
+        ChatSession.get(channel1).login("petya");
+        channel1.writeInbound(joinCommand);
+        channel1.releaseOutbound();
+
+        EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
+        ChatSession.get(channel).login(username);
+        channel.writeInbound(joinCommand);
+        channel.writeInbound(new JoinCommand(new String[]{"family"}));
+        ChatChannel family = ChatSession.get(channel).getRoom();
+        channel.close();
+
+        channel1.writeInbound(new UsersCommand(new String[]{}));
+        String result = response(channel1);
+
+        assertThat(result).doesNotContain(username);
+        assertThat(family.contains(username)).isFalse();
+        verify(authService).logout(username);
+    }
+
+    /**
+     * проверяем, что канал чата, оставшийся пустым, удаляется по истечении времени хранения пустого канала
+     */
+    @Test
+    public void testEmptyChannelIsRemovedAfterGracePeriod() {
+        ServerMetrics metrics = new ServerMetrics();
+        ChatChannelFactory factory = new ChatChannelFactory(2, 10, name -> OverflowPolicy.skip(), metrics);
+        chatServerHandler = new ChatServerHandler(factory, authService, metrics, Collections.emptySet(), 0,
+                TimeUnit.SECONDS);
+
+        EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
+        ChatSession.get(channel).login(username);
+        channel.writeInbound(new JoinCommand(new String[]{channelName}));
+        assertThat(metrics.getRoomMembers()).containsKey(channelName);
+
+        channel.close();
+        channel.runPendingTasks();
+
+        assertThat(metrics.getRoomMembers()).doesNotContainKey(channelName);
+    }
+
+    /**
+     * проверяем, что вход в новый канал завершается, когда история канала открыта в исполнителе историй, а до этого
+     * следующий вход отклоняется
+     */
+    @Test
+    public void testJoinCompletesWhenHistoryIsOpened() {
+        List<Runnable> historyTasks = new ArrayList<>();
+        ChatChannelFactory factory = new ChatChannelFactory(name -> 2, 10, name -> OverflowPolicy.skip(),
+                new ServerMetrics(), name -> new MessageRingBuffer(10), historyTasks::add);
+        chatServerHandler = new ChatServerHandler(factory, authService);
+
+        EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
+        ChatSession session = ChatSession.get(channel);
+        session.login(username);
+        channel.releaseOutbound();
+        channel.writeInbound(new JoinCommand(new String[]{channelName}));
+
+        assertThat((Object) channel.readOutbound()).isNull();
+        assertThat(session.getRoomName()).isNull();
+        channel.writeInbound(new JoinCommand(new String[]{"other"}));
+        assertThat(response(channel)).isEqualTo(resource.getString("join.error.pending"));
+
+        assertThat(historyTasks).hasSize(1);
+        historyTasks.get(0).run();
+        channel.runPendingTasks();
+
+        assertThat(response(channel)).isEqualTo(resource.getString("join.success"));
+        assertThat(session.getRoomName()).isEqualTo(channelName);
+    }
+
+    /**
+     * проверяем, что соединение, от которого долго ничего не приходило, закрывается с сообщением пользователю
+     */
+    @Test
+    public void testReaderIdleClosesConnection() {
+        EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
+        ChatSession.get(channel).login(username);
+        channel.releaseOutbound();
+
+        channel.pipeline().fireUserEventTriggered(IdleStateEvent.READER_IDLE_STATE_EVENT);
+        channel.runPendingTasks();
+
+        assertThat(response(channel)).isEqualTo(resource.getString("idle.timeout"));
+        assertThat(channel.isOpen()).isFalse();
+        verify(authService).logout(username);
+    }
+
+    //endregion
+
     //region test users command
 
     /**
@@ -325,11 +624,11 @@ public class ChatServerHandlerTest {
     @Test
     public void testUsersWhenUserNotJoinedToChannelThenReturnsError() {
         EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
-        channel.attr(AttributeKey.valueOf("username")).set(username);
+        ChatSession.get(channel).login(username);
         channel.releaseOutbound();
         channel.writeInbound(new UsersCommand(new String[]{}));
 
-        String result = (String) channel.readOutbound();
+        String result = response(channel);
         assertThat(result).isEqualTo(resource.getString("users.error.no_channel"));
     }
 
@@ -342,19 +641,112 @@ public class ChatServerHandlerTest {
 
         EmbeddedChannel channel1 = new EmbeddedChannel(chatServerHandler);
         channel1.readOutbound();
-        channel1.attr(AttributeKey.valueOf("username")).set("petya");
+        ChatSession.get(channel1).login("petya");
         channel1.writeInbound(joinCommand);
 
         EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
-        channel.attr(AttributeKey.valueOf("username")).set(username);
+        ChatSession.get(channel).login(username);
         channel.writeInbound(joinCommand);
         channel.releaseOutbound();
         channel.writeInbound(new UsersCommand(new String[]{}));
 
-        String result = (String) channel.readOutbound();
+        String result = response(channel);
         assertThat(result).contains(username);
         assertThat(result).contains("petya");
     }
 
     //endregion
+
+    //region test msg command
+
+    private EmbeddedChannel loggedIn(String name) {
+        when(authService.authenticate(name, password)).thenReturn(AUTHENTICATED);
+        EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
+        channel.writeInbound(new LoginCommand(new String[]{name, password}));
+        channel.releaseOutbound();
+        return channel;
+    }
+
+    /**
+     * проверяем, что личное сообщение доходит только до получателя
+     */
+    @Test
+    public void testMsgWhenRecipientOnlineThenDeliversToRecipient() {
+        EmbeddedChannel recipient = loggedIn("petya");
+        EmbeddedChannel channel = loggedIn(username);
+
+        channel.writeInbound(new MsgCommand(new String[]{"petya", "hello there"}));
+
+        String message = response(recipient);
+        assertThat(message).startsWith(resource.getString("msg.prefix"));
+        assertThat(message).contains(username, "hello there");
+        assertThat((Object) channel.readOutbound()).isNull();
+    }
+
+    /**
+     * проверяем, что личное сообщение пользователю, который отключился, возвращает ошибку
+     */
+    @Test
+    public void testMsgWhenRecipientDisconnectedThenReturnsError() {
+        EmbeddedChannel recipient = loggedIn("petya");
+        EmbeddedChannel channel = loggedIn(username);
+        recipient.close();
+
+        channel.writeInbound(new MsgCommand(new String[]{"petya", "hello"}));
+
+        assertThat(response(channel)).isEqualTo(resource.getString("msg.error.offline"));
+    }
+
+    /**
+     * проверяем, что аноним не может отправлять личные сообщения
+     */
+    @Test
+    public void testMsgWhenAnonymousThenReturnsError() {
+        EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
+        channel.releaseOutbound();
+
+        channel.writeInbound(new MsgCommand(new String[]{"petya", "hello"}));
+
+        assertThat(response(channel)).isEqualTo(resource.getString("msg.error.anonymous"));
+    }
+
+    //endregion
+
+    //region test stats command
+
+    /**
+     * проверяем, что показатели сервера недоступны пользователю, не являющемуся оператором
+     */
+    @Test
+    public void testStatsWhenUserIsNotOperatorThenReturnsError() {
+        EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
+        ChatSession.get(channel).login(username);
+        channel.releaseOutbound();
+        channel.writeInbound(new StatsCommand(new String[]{}));
+
+        String result = response(channel);
+        assertThat(result).isEqualTo(resource.getString("stats.error.forbidden"));
+    }
+
+    /**
+     * проверяем, что оператор получает показатели сервера: соединения, сессии, команды и каналы
+     */
+    @Test
+    public void testStatsWhenUserIsOperatorThenReturnsMetrics() {
+        when(authService.authenticate("admin", password)).thenReturn(AUTHENTICATED);
+        ServerMetrics metrics = new ServerMetrics();
+        chatServerHandler = new ChatServerHandler(2, authService, metrics, Collections.singleton("admin"));
+
+        EmbeddedChannel channel = new EmbeddedChannel(chatServerHandler);
+        channel.writeInbound(new LoginCommand(new String[]{"admin", password}));
+        channel.writeInbound(new JoinCommand(new String[]{channelName}));
+        channel.releaseOutbound();
+        channel.writeInbound(new StatsCommand(new String[]{}));
+
+        assertThat(response(channel)).isEqualTo(resource.getString("stats.header"));
+        assertThat(response(channel)).contains("connections: 1", "sessions: 1", "login=1", "join=1", "stats=1",
+                channelName + ": 1 members");
+    }
+
+    //endregion
 }
@@ -0,0 +1,325 @@
+package com.example.telnetirc.unit;
+
+import com.example.telnetirc.chat.ChatChannel;
+import com.example.telnetirc.chat.ChatMessage;
+import com.example.telnetirc.chat.OverflowPolicy;
+import com.example.telnetirc.metrics.RoomMetrics;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.AbstractByteBufAllocator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoop;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalEventLoopGroup;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.util.CharsetUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Рассылка канала чата участникам, соединения которых обслуживают разные event loop-ы
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class ChatShardTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private final LocalEventLoopGroup group = new LocalEventLoopGroup(2);
+    /**
+     * принимающая сторона соединений участников, отдельно, чтобы участники чередовали event loop-ы {@link #group}
+     */
+    private final LocalEventLoopGroup serverGroup = new LocalEventLoopGroup(1);
+    private final RecordingAllocator allocator = new RecordingAllocator();
+
+    /**
+     * что получила другая сторона соединения каждого участника, по локальному адресу участника
+     */
+    private final Map<String, List<String>> received = new ConcurrentHashMap<>();
+
+    /**
+     * вызовы {@link ChatChannel#resume}: был ли вызов в event loop-е соединения участника
+     */
+    private final List<Boolean> resumes = new CopyOnWriteArrayList<>();
+
+    private Channel server;
+    private EventLoop roomLoop;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        LocalAddress address = new LocalAddress("chat-shard-test");
+        server = new ServerBootstrap()
+                .group(serverGroup)
+                .channel(LocalServerChannel.class)
+                .childHandler(new ChannelInitializer<LocalChannel>() {
+                    @Override
+                    protected void initChannel(LocalChannel ch) throws Exception {
+                        List<String> messages = new CopyOnWriteArrayList<>();
+                        received.put(ch.remoteAddress().id(), messages);
+                        ch.pipeline().addLast(new Recorder(messages));
+                    }
+                })
+                .bind(address).sync().channel();
+        roomLoop = group.next();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        server.close().sync();
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+        serverGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+    }
+
+    private Channel member(ChatChannel room) throws InterruptedException {
+        return new Bootstrap()
+                .group(group)
+                .channel(LocalChannel.class)
+                .handler(new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+                        // как ChatServerHandler: отложенные сообщения забираются в event loop-е соединения
+                        if (ctx.channel().isWritable()) {
+                            room.resume(ctx.channel());
+                            resumes.add(ctx.channel().eventLoop().inEventLoop());
+                        }
+                        ctx.fireChannelWritabilityChanged();
+                    }
+                })
+                .connect(server.localAddress()).sync().channel();
+    }
+
+    /**
+     * два участника, соединения которых обслуживают разные event loop-ы
+     */
+    private Channel[] members(ChatChannel room) throws InterruptedException {
+        Channel first = member(room);
+        Channel second = member(room);
+        assertThat(second.eventLoop()).isNotSameAs(first.eventLoop());
+        return new Channel[] {first, second};
+    }
+
+    private List<String> received(Channel member) throws InterruptedException {
+        String id = ((LocalAddress) member.localAddress()).id();
+        await(() -> received.containsKey(id));
+        return received.get(id);
+    }
+
+    private ChatChannel room(OverflowPolicy overflowPolicy) {
+        return new ChatChannel(10, 1, roomLoop, allocator, overflowPolicy, new RoomMetrics());
+    }
+
+    private void inRoom(Runnable task) throws InterruptedException {
+        roomLoop.submit(task).sync();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.currentTimeMillis()).as("condition timeout").isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static List<String> texts(ChatMessage... messages) {
+        List<String> texts = new ArrayList<>();
+        for (ChatMessage message : messages) {
+            texts.add(message.toString());
+        }
+        return texts;
+    }
+
+    /**
+     * проверяем, что сообщение получают участники всех event loop-ов в порядке отправки, а общие буферы рассылки
+     * освобождаются ровно один раз, после записи последним шардом
+     */
+    @Test
+    public void testMembersOnDifferentLoopsReceiveMessagesAndBuffersAreReleased() throws InterruptedException {
+        ChatChannel room = room(OverflowPolicy.skip());
+        Channel[] members = members(room);
+        ChatMessage[] messages = new ChatMessage[50];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = new ChatMessage("vasya", "text" + i);
+        }
+
+        inRoom(() -> {
+            room.join(members[0], "vasya");
+            room.join(members[1], "petya");
+            for (ChatMessage message : messages) {
+                room.deliver(message);
+            }
+        });
+
+        for (Channel member : members) {
+            List<String> texts = received(member);
+            await(() -> texts.size() == messages.length);
+            assertThat(texts).isEqualTo(texts(messages));
+        }
+        assertThat(allocator.buffers).hasSize(messages.length);
+        await(() -> allocator.buffers.stream().allMatch(buffer -> buffer.refCnt() == 0));
+    }
+
+    /**
+     * проверяем, что вход и выход участника другого event loop-а упорядочены с сообщениями канала: вышедший не
+     * получает сообщений после выхода, а вернувшийся получает историю и только следующие сообщения
+     */
+    @Test
+    public void testJoinAndLeaveStayOrderedWithMessagesAcrossLoops() throws InterruptedException {
+        ChatChannel room = room(OverflowPolicy.skip());
+        Channel[] members = members(room);
+        ChatMessage first = new ChatMessage("vasya", "first");
+        ChatMessage second = new ChatMessage("vasya", "second");
+        ChatMessage third = new ChatMessage("vasya", "third");
+
+        inRoom(() -> {
+            room.join(members[0], "vasya");
+            room.join(members[1], "petya");
+            room.deliver(first);
+            room.leave(members[1], "petya");
+            room.deliver(second);
+            // история канала - одно последнее сообщение
+            room.join(members[1], "petya");
+            room.deliver(third);
+        });
+
+        List<String> vasya = received(members[0]);
+        List<String> petya = received(members[1]);
+        await(() -> vasya.size() == 3 && petya.size() == 3);
+        assertThat(vasya).isEqualTo(texts(first, second, third));
+        assertThat(petya).isEqualTo(texts(first, second, third));
+        await(() -> allocator.buffers.stream().allMatch(buffer -> buffer.refCnt() == 0));
+    }
+
+    /**
+     * проверяем, что сообщения, отложенные для участника, не готового к записи, отправляет {@link ChatChannel#resume}
+     * в event loop-е соединения участника
+     */
+    @Test
+    public void testBacklogIsResumedOnMemberLoop() throws InterruptedException {
+        ChatChannel room = room(OverflowPolicy.dropOldest(10));
+        Channel[] members = members(room);
+        Channel slow = members[0].eventLoop() != roomLoop ? members[0] : members[1];
+        slow.config().setWriteBufferLowWaterMark(1);
+        slow.config().setWriteBufferHighWaterMark(8);
+        ChatMessage[] messages = {new ChatMessage("vasya", "one"), new ChatMessage("vasya", "two")};
+        String filler = new String(new char[62]).replace('\0', 'x') + "\r\n";
+
+        inRoom(() -> room.join(slow, "vasya"));
+        slow.eventLoop().submit(() -> {
+            slow.write(allocator.buffer().writeBytes(filler.getBytes(CharsetUtil.UTF_8)));
+            assertThat(slow.isWritable()).isFalse();
+        }).sync();
+
+        inRoom(() -> {
+            for (ChatMessage message : messages) {
+                room.deliver(message);
+            }
+        });
+        await(() -> room.getOverflowStats().getQueued() == messages.length);
+
+        assertThat(received(slow)).isEmpty();
+        slow.eventLoop().execute(slow::flush);
+
+        List<String> texts = received(slow);
+        await(() -> texts.size() == 3);
+        assertThat(resumes).isNotEmpty().containsOnly(true);
+        assertThat(texts).containsExactly(filler, messages[0].toString(), messages[1].toString());
+        await(() -> allocator.buffers.stream().allMatch(buffer -> buffer.refCnt() == 0));
+    }
+
+    /**
+     * проверяем, что участник другого event loop-а, отключенный по таймауту, отключается один раз, хотя до его выхода
+     * из шарда шард разбирает еще несколько сообщений
+     */
+    @Test
+    public void testSlowMemberIsDisconnectedOnce() throws InterruptedException {
+        ChatChannel room = room(OverflowPolicy.disconnectAfter(0, TimeUnit.SECONDS));
+        Channel[] members = members(room);
+        Channel slow = members[0].eventLoop() != roomLoop ? members[0] : members[1];
+        slow.config().setWriteBufferLowWaterMark(1);
+        slow.config().setWriteBufferHighWaterMark(8);
+        String filler = new String(new char[62]).replace('\0', 'x') + "\r\n";
+
+        inRoom(() -> room.join(slow, "vasya"));
+        // сообщения ставятся в очередь шарда, пока event loop участника занят: шард разберет их все за раз
+        slow.eventLoop().submit(() -> {
+            slow.write(allocator.buffer().writeBytes(filler.getBytes(CharsetUtil.UTF_8)));
+            inRoom(() -> {
+                for (int i = 0; i < 10; i++) {
+                    room.deliver(new ChatMessage("petya", "text" + i));
+                }
+            });
+            return null;
+        }).sync();
+
+        await(() -> !slow.isOpen() && !room.contains("vasya"));
+        inRoom(() -> { });
+        assertThat(room.getOverflowStats().getDisconnected()).isEqualTo(1);
+        await(() -> allocator.buffers.stream().allMatch(buffer -> buffer.refCnt() == 0));
+    }
+
+    /**
+     * Записывает сообщения, пришедшие участнику, и освобождает их буферы
+     */
+    private static final class Recorder extends ChannelInboundHandlerAdapter {
+
+        private final List<String> messages;
+
+        private Recorder(List<String> messages) {
+            this.messages = messages;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (msg instanceof ByteBuf) {
+                ByteBuf buffer = (ByteBuf) msg;
+                messages.add(buffer.toString(CharsetUtil.UTF_8));
+                buffer.release();
+            } else {
+                messages.add(String.valueOf(msg));
+            }
+        }
+    }
+
+    /**
+     * Запоминает выделенные буферы, чтобы проверить, что все они освобождены
+     */
+    private static final class RecordingAllocator extends AbstractByteBufAllocator {
+
+        private final List<ByteBuf> buffers = new CopyOnWriteArrayList<>();
+
+        @Override
+        protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity) {
+            ByteBuf buffer = UnpooledByteBufAllocator.DEFAULT.heapBuffer(initialCapacity, maxCapacity);
+            buffers.add(buffer);
+            return buffer;
+        }
+
+        @Override
+        protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity) {
+            return newHeapBuffer(initialCapacity, maxCapacity);
+        }
+
+        @Override
+        public boolean isDirectBufferPooled() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,579 @@
+package com.example.telnetirc.unit;
+
+import com.example.telnetirc.ServerConfig;
+import com.example.telnetirc.TelnetIrcServer;
+import com.example.telnetirc.auth.InMemoryAuthService;
+import com.example.telnetirc.chat.ChatChannel;
+import com.example.telnetirc.chat.ChatChannelListener;
+import com.example.telnetirc.chat.ChatMessage;
+import com.example.telnetirc.cluster.ClusterAuthService;
+import com.example.telnetirc.cluster.ClusterMessage;
+import com.example.telnetirc.cluster.ClusterNode;
+import com.example.telnetirc.cluster.LocalMessageBus;
+import com.example.telnetirc.cluster.MessageBus;
+import com.example.telnetirc.cluster.TcpMessageBus;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static com.example.telnetirc.auth.AuthResult.ALREADY_AUTHENTICATED;
+import static com.example.telnetirc.auth.AuthResult.AUTHENTICATED;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Тесты нескольких узлов кластера в одной JVM
+ *
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class ClusterTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+    private static final long SESSION_TIMEOUT_MILLIS = 500;
+
+    private final List<AutoCloseable> closeables = new ArrayList<>();
+
+    @After
+    public void tearDown() throws Exception {
+        for (AutoCloseable closeable : closeables) {
+            closeable.close();
+        }
+    }
+
+    private ClusterNode node(MessageBus bus) {
+        ClusterNode node = new ClusterNode(bus, 16, 1, SESSION_TIMEOUT_MILLIS);
+        node.start();
+        closeables.add(node);
+        return node;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.currentTimeMillis()).as("condition timeout").isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * занять имя, дождавшись соединения с владельцем: до соединения узлов запрос владельцу теряется
+     */
+    private static void acquire(ClusterNode node, String username) throws InterruptedException {
+        await(() -> {
+            try {
+                return node.getSessions().acquire(username);
+            } catch (IllegalStateException e) {
+                return false;
+            }
+        });
+    }
+
+    private static String usernameOwnedBy(ClusterNode node, String owner) {
+        for (int i = 0; ; i++) {
+            if (node.getSessions().owner("user" + i).equals(owner)) return "user" + i;
+        }
+    }
+
+    private static ChatChannelListener register(ClusterNode node, ChatChannel channel) {
+        node.getRelay().register("room", channel);
+        ArgumentCaptor<ChatChannelListener> listener = ArgumentCaptor.forClass(ChatChannelListener.class);
+        verify(channel).setListener(listener.capture());
+        return listener.getValue();
+    }
+
+    private static ChatChannel mockChannel() {
+        ChatChannel channel = mock(ChatChannel.class);
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).when(channel).execute(any());
+        return channel;
+    }
+
+    //region sessions
+
+    /**
+     * проверяем, что пользователь не может войти на втором узле, пока не вышел на первом, в том числе когда владелец
+     * имени - третий узел
+     */
+    @Test
+    public void testSessionIsUniqueAcrossNodes() throws InterruptedException {
+        LocalMessageBus.Network network = new LocalMessageBus.Network("a", "b", "c");
+        ClusterNode a = node(new LocalMessageBus(network, "a"));
+        ClusterNode b = node(new LocalMessageBus(network, "b"));
+        node(new LocalMessageBus(network, "c"));
+        ClusterAuthService authA = new ClusterAuthService(new InMemoryAuthService(), a.getSessions());
+        ClusterAuthService authB = new ClusterAuthService(new InMemoryAuthService(), b.getSessions());
+
+        for (String owner : network.nodes()) {
+            String username = usernameOwnedBy(a, owner);
+
+            assertThat(authA.authenticate(username, "password")).isEqualTo(AUTHENTICATED);
+            assertThat(authB.authenticate(username, "password")).isEqualTo(ALREADY_AUTHENTICATED);
+
+            assertThat(authA.logout(username)).isTrue();
+            // освобождение сессии не ждет ответа владельца
+            await(() -> authB.authenticate(username, "password") == AUTHENTICATED);
+        }
+    }
+
+    /**
+     * проверяем, что сессии недоступного узла освобождаются его владельцем
+     */
+    @Test
+    public void testSessionsOfDisconnectedNodeAreReleased() throws InterruptedException {
+        LocalMessageBus.Network network = new LocalMessageBus.Network("a", "b");
+        ClusterNode a = node(new LocalMessageBus(network, "a"));
+        ClusterNode b = node(new LocalMessageBus(network, "b"));
+        String username = usernameOwnedBy(a, "b");
+
+        assertThat(a.getSessions().acquire(username)).isTrue();
+        assertThat(b.getSessions().acquire(username)).isFalse();
+
+        a.close();
+
+        await(() -> b.getSessions().acquire(username));
+    }
+
+    /**
+     * проверяем, что сессии уникальны и для узлов, связанных по TCP, и что перезапущенный владелец имени
+     * узнает о сессиях, открытых до перезапуска
+     */
+    @Test
+    public void testSessionsOverTcpSurviveOwnerRestart() throws Exception {
+        Map<String, InetSocketAddress> addresses = new LinkedHashMap<>();
+        addresses.put("a", new InetSocketAddress("127.0.0.1", freePort()));
+        addresses.put("b", new InetSocketAddress("127.0.0.1", freePort()));
+
+        ClusterNode a = node(new TcpMessageBus("a", addresses));
+        ClusterNode b = node(new TcpMessageBus("b", addresses));
+        String username = usernameOwnedBy(a, "b");
+        acquire(a, username);
+
+        b.close();
+        ClusterNode restarted = node(new TcpMessageBus("b", addresses));
+
+        await(() -> restarted.getSessions().holder(username).equals(Optional.of("a")));
+        assertThat(restarted.getSessions().acquire(username)).isFalse();
+    }
+
+    /**
+     * проверяем, что имя, занятое двумя узлами, пока они не видели друг друга, остается за занявшим его раньше,
+     * а узел, восстановивший сессию позже, ее закрывает
+     */
+    @Test
+    public void testConflictingRestoredSessionIsRevoked() throws Exception {
+        Map<String, InetSocketAddress> addresses = addresses("a", "b", "c");
+        Proxy proxy = proxy(addresses.get("b"));
+        Map<String, InetSocketAddress> addressesA = new LinkedHashMap<>(addresses);
+        addressesA.put("b", proxy.address());
+
+        ClusterNode a = node(new TcpMessageBus("a", addressesA));
+        ClusterNode b = node(new TcpMessageBus("b", addresses));
+        ClusterNode c = node(new TcpMessageBus("c", addresses));
+        List<String> revoked = new CopyOnWriteArrayList<>();
+        a.getSessions().setRevokeListener(revoked::add);
+        String username = usernameOwnedBy(a, "b");
+        acquire(a, username);
+
+        // узел a не может достучаться до владельца, и владелец отдает имя узлу c
+        proxy.refuse(true);
+        proxy.drop();
+        await(() -> !b.getSessions().holder(username).isPresent());
+        acquire(c, username);
+
+        proxy.refuse(false);
+
+        await(() -> revoked.contains(username));
+        assertThat(b.getSessions().holder(username)).contains("c");
+        assertThat(a.getSessions().acquire(username)).isFalse();
+    }
+
+    //endregion
+
+    //region tcp
+
+    /**
+     * проверяем, что разрыв соединения только в одну сторону оба узла видят как недоступность друг друга и после
+     * восстановления заново обмениваются состоянием
+     */
+    @Test
+    public void testTcpBusReconnectsBothDirectionsWhenOneDrops() throws Exception {
+        Map<String, InetSocketAddress> addresses = addresses("a", "b");
+        Proxy proxy = proxy(addresses.get("b"));
+        Map<String, InetSocketAddress> addressesA = new LinkedHashMap<>(addresses);
+        addressesA.put("b", proxy.address());
+
+        ClusterNode a = node(new TcpMessageBus("a", addressesA));
+        Recorder b = bus(new TcpMessageBus("b", addresses, 1000));
+        register(a, mockChannel()).membersChanged(1);
+        await(() -> b.events.contains("interest"));
+
+        // соединение b -> a остается открытым
+        proxy.drop();
+
+        await(() -> b.after("disconnected a").containsAll(asList("connected a", "interest")));
+    }
+
+    /**
+     * проверяем, что узел, переставший отвечать без разрыва соединения, обнаруживается по пропущенным проверкам
+     * связи
+     */
+    @Test
+    public void testTcpBusDetectsSilentPeer() throws Exception {
+        Map<String, InetSocketAddress> addresses = addresses("a", "b");
+        Proxy proxy = proxy(addresses.get("b"));
+        Map<String, InetSocketAddress> addressesA = new LinkedHashMap<>(addresses);
+        addressesA.put("b", proxy.address());
+
+        Recorder a = bus(new TcpMessageBus("a", addressesA, 100));
+        Recorder b = bus(new TcpMessageBus("b", addresses, 100));
+        await(() -> a.events.equals(asList("connected b")) && b.events.equals(asList("connected a")));
+
+        proxy.freeze(true);
+        await(() -> a.events.contains("disconnected b") && b.events.contains("disconnected a"));
+        proxy.freeze(false);
+
+        await(() -> a.events.equals(asList("connected b", "disconnected b", "connected b"))
+                && b.events.equals(asList("connected a", "disconnected a", "connected a")));
+    }
+
+    private Recorder bus(MessageBus bus) {
+        Recorder recorder = new Recorder();
+        bus.start(recorder);
+        closeables.add(bus);
+        return recorder;
+    }
+
+    private Proxy proxy(InetSocketAddress target) throws IOException {
+        Proxy proxy = new Proxy(target);
+        closeables.add(0, proxy);
+        return proxy;
+    }
+
+    private static Map<String, InetSocketAddress> addresses(String... nodes) throws IOException {
+        Map<String, InetSocketAddress> addresses = new LinkedHashMap<>();
+        for (String node : nodes) {
+            addresses.put(node, new InetSocketAddress("127.0.0.1", freePort()));
+        }
+        return addresses;
+    }
+
+    /**
+     * записывает события шины
+     */
+    private static final class Recorder implements MessageBus.Listener {
+
+        private final List<String> events = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void received(String node, ClusterMessage message) {
+            if (message instanceof ClusterMessage.Interest) events.add("interest");
+        }
+
+        @Override
+        public void connected(String node) {
+            events.add("connected " + node);
+        }
+
+        @Override
+        public void disconnected(String node) {
+            events.add("disconnected " + node);
+        }
+
+        /**
+         * @return события после первого события {@code event}
+         */
+        private List<String> after(String event) {
+            List<String> snapshot = new ArrayList<>(events);
+            int index = snapshot.indexOf(event);
+            return index < 0 ? Collections.emptyList() : snapshot.subList(index + 1, snapshot.size());
+        }
+    }
+
+    /**
+     * TCP-прокси перед узлом: позволяет разорвать или заморозить соединения, идущие через него, не трогая остальные
+     */
+    private static final class Proxy implements AutoCloseable {
+
+        private final ServerSocket server;
+        private final InetSocketAddress target;
+        private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+        private volatile boolean refusing;
+        private volatile boolean frozen;
+
+        private Proxy(InetSocketAddress target) throws IOException {
+            this.target = target;
+            this.server = new ServerSocket(0);
+            Thread acceptor = new Thread(this::accept, "proxy-" + server.getLocalPort());
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        private InetSocketAddress address() {
+            return new InetSocketAddress("127.0.0.1", server.getLocalPort());
+        }
+
+        /**
+         * @param refusing закрывать новые соединения сразу после установки
+         */
+        private void refuse(boolean refusing) {
+            this.refusing = refusing;
+        }
+
+        /**
+         * @param frozen перестать пересылать данные, не закрывая соединений
+         */
+        private void freeze(boolean frozen) {
+            this.frozen = frozen;
+        }
+
+        /**
+         * разорвать все соединения, идущие через прокси
+         */
+        private void drop() {
+            for (Socket socket : sockets) {
+                closeQuietly(socket);
+            }
+            sockets.clear();
+        }
+
+        private void accept() {
+            while (!server.isClosed()) {
+                Socket client;
+                try {
+                    client = server.accept();
+                } catch (IOException e) {
+                    // прокси закрыт
+                    continue;
+                }
+                try {
+                    if (refusing) {
+                        client.close();
+                        continue;
+                    }
+                    Socket upstream = new Socket(target.getAddress(), target.getPort());
+                    sockets.add(client);
+                    sockets.add(upstream);
+                    pump(client, upstream);
+                    pump(upstream, client);
+                } catch (IOException e) {
+                    // узел еще не слушает: соединение с прокси тоже разрывается
+                    closeQuietly(client);
+                }
+            }
+        }
+
+        private void pump(Socket from, Socket to) {
+            Thread thread = new Thread(() -> {
+                byte[] buffer = new byte[8192];
+                try {
+                    InputStream input = from.getInputStream();
+                    OutputStream output = to.getOutputStream();
+                    for (int read; (read = input.read(buffer)) >= 0; ) {
+                        while (frozen && !from.isClosed()) {
+                            Thread.sleep(10);
+                        }
+                        output.write(buffer, 0, read);
+                    }
+                } catch (IOException | InterruptedException e) {
+                    // соединение разорвано
+                } finally {
+                    closeQuietly(from);
+                    closeQuietly(to);
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private static void closeQuietly(Socket socket) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // уже закрыт
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+            drop();
+        }
+    }
+
+    //endregion
+
+    //region relay
+
+    /**
+     * проверяем, что сообщения канала пересылаются пачками в порядке публикации и только узлам, у которых есть
+     * участники этого канала
+     */
+    @Test
+    public void testRelayDeliversOnlyToNodesWithMembers() throws InterruptedException {
+        LocalMessageBus.Network network = new LocalMessageBus.Network("a", "b", "c");
+        ClusterNode a = node(new LocalMessageBus(network, "a"));
+        ClusterNode b = node(new LocalMessageBus(network, "b"));
+        ClusterNode c = node(new LocalMessageBus(network, "c"));
+        ChatChannel roomA = mockChannel();
+        ChatChannel roomB = mockChannel();
+        ChatChannel roomC = mockChannel();
+        ChatChannelListener listenerA = register(a, roomA);
+        ChatChannelListener listenerB = register(b, roomB);
+        register(c, roomC);
+
+        listenerB.membersChanged(1);
+        await(() -> a.getRelay().interestedNodes("room").contains("b"));
+
+        List<ChatMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            ChatMessage message = new ChatMessage("vasya", "text" + i);
+            messages.add(message);
+            listenerA.messagePosted(message);
+        }
+
+        InOrder inOrder = inOrder(roomB);
+        for (ChatMessage message : messages) {
+            inOrder.verify(roomB, timeout(TIMEOUT_MILLIS)).deliver(message);
+        }
+        assertThat(a.getRelay().getRelayed()).isEqualTo(40);
+        verify(roomC, never()).deliver(any());
+        verify(roomA, never()).deliver(any());
+
+        listenerB.membersChanged(0);
+        await(() -> a.getRelay().interestedNodes("room").isEmpty());
+        listenerA.messagePosted(new ChatMessage("vasya", "nobody"));
+        assertThat(a.getRelay().getRelayed()).isEqualTo(40);
+    }
+
+    /**
+     * проверяем, что узел, подключившийся позже, узнает, в каких каналах есть участники
+     */
+    @Test
+    public void testLateNodeLearnsInterests() throws InterruptedException {
+        LocalMessageBus.Network network = new LocalMessageBus.Network("a", "b");
+        ClusterNode a = node(new LocalMessageBus(network, "a"));
+        register(a, mockChannel()).membersChanged(3);
+
+        ClusterNode b = node(new LocalMessageBus(network, "b"));
+
+        await(() -> b.getRelay().interestedNodes("room").contains("a"));
+    }
+
+    //endregion
+
+    /**
+     * проверяем работу двух серверов как одного чата: пользователи разных узлов видят сообщения друг друга в общем
+     * канале, а имя пользователя занято на всех узлах
+     */
+    @Test
+    public void testTwoServersShareRoomsAndSessions() throws Exception {
+        LocalMessageBus.Network network = new LocalMessageBus.Network("a", "b");
+        Properties properties = new Properties();
+        properties.setProperty("jmx.enabled", "false");
+        properties.setProperty("worker.threads", "1");
+        ServerConfig config = new ServerConfig(properties);
+
+        int portA = startServer(new TelnetIrcServer(0, config, new LocalMessageBus(network, "a")));
+        int portB = startServer(new TelnetIrcServer(0, config, new LocalMessageBus(network, "b")));
+
+        Client vasya = new Client(portA);
+        vasya.send("/login vasya password");
+        vasya.await("authentication successful");
+        vasya.send("/join room");
+        vasya.await("You joined the channel");
+
+        Client petya = new Client(portB);
+        petya.send("/login petya password");
+        petya.await("authentication successful");
+        petya.send("/join room");
+        petya.await("You joined the channel");
+
+        Client twin = new Client(portB);
+        twin.send("/login vasya password");
+        twin.await("another user authenticated with this username");
+
+        // участники узла a могли еще не дойти до узла b
+        for (int i = 0; vasya.poll("hello from b", 100) == null; i++) {
+            assertThat(i).as("relayed message").isLessThan(50);
+            petya.send("hello from b");
+        }
+        vasya.send("hello from a");
+        petya.await("hello from a");
+    }
+
+    private int startServer(TelnetIrcServer server) throws InterruptedException {
+        int port = ((InetSocketAddress) server.bind().localAddress()).getPort();
+        closeables.add(server::shutdown);
+        return port;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private final class Client {
+
+        private final Socket socket;
+        private final BufferedReader reader;
+        private final OutputStream output;
+
+        private Client(int port) throws IOException {
+            socket = new Socket("127.0.0.1", port);
+            closeables.add(0, socket);
+            reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            output = socket.getOutputStream();
+        }
+
+        private void send(String line) throws IOException {
+            output.write((line + "\r\n").getBytes(StandardCharsets.UTF_8));
+            output.flush();
+        }
+
+        private void await(String text) throws IOException {
+            assertThat(poll(text, TIMEOUT_MILLIS)).as("line with '%s'", text).isNotNull();
+        }
+
+        private String poll(String text, long timeoutMillis) throws IOException {
+            socket.setSoTimeout(50);
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (System.currentTimeMillis() < deadline) {
+                try {
+                    String line = reader.readLine();
+                    if (line == null) return null;
+                    if (line.contains(text)) return line;
+                } catch (SocketTimeoutException e) {
+                    // строки еще нет
+                }
+            }
+            return null;
+        }
+    }
+}
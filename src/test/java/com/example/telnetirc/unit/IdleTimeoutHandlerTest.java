@@ -0,0 +1,101 @@
+package com.example.telnetirc.unit;
+
+import com.example.telnetirc.IdleTimeoutHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class IdleTimeoutHandlerTest {
+
+    private Timer timer;
+    private Timeout timeout;
+    private List<Object> events;
+
+    @Before
+    public void setUp() {
+        timer = mock(Timer.class);
+        timeout = mock(Timeout.class);
+        when(timer.newTimeout(any(TimerTask.class), anyLong(), any(TimeUnit.class))).thenReturn(timeout);
+        events = new ArrayList<>();
+    }
+
+    private EmbeddedChannel channel(long readTimeoutMillis) {
+        return new EmbeddedChannel(new IdleTimeoutHandler(timer, readTimeoutMillis, 0, TimeUnit.MILLISECONDS),
+                new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) {
+                        events.add(evt);
+                    }
+                });
+    }
+
+    private TimerTask lastTask() {
+        ArgumentCaptor<TimerTask> task = ArgumentCaptor.forClass(TimerTask.class);
+        verify(timer, atLeastOnce()).newTimeout(task.capture(), anyLong(), any(TimeUnit.class));
+        return task.getValue();
+    }
+
+    /**
+     * проверяем, что событие простоя чтения передается, если от пользователя ничего не приходило дольше таймаута
+     */
+    @Test
+    public void testReaderIdleEventAfterTimeout() throws Exception {
+        channel(1);
+        Thread.sleep(5);
+
+        lastTask().run(timeout);
+
+        assertThat(events).containsExactly(IdleStateEvent.READER_IDLE_STATE_EVENT);
+    }
+
+    /**
+     * проверяем, что чтение откладывает таймаут: событие не передается, таймер перепланируется на остаток
+     */
+    @Test
+    public void testReadPostponesTimeout() throws Exception {
+        EmbeddedChannel channel = channel(50);
+        TimerTask task = lastTask();
+        Thread.sleep(60);
+
+        channel.writeInbound("login vasya password");
+        task.run(timeout);
+
+        assertThat(events).isEmpty();
+        assertThat((Object) channel.readInbound()).isEqualTo("login vasya password");
+    }
+
+    /**
+     * проверяем, что после закрытия соединения таймаут отменяется
+     */
+    @Test
+    public void testCloseCancelsTimeout() {
+        EmbeddedChannel channel = channel(1000);
+
+        channel.close();
+
+        verify(timeout).cancel();
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.telnetirc.unit;
+
+import com.example.telnetirc.chat.ChatMessage;
+import com.example.telnetirc.journal.JournalRooms;
+import com.example.telnetirc.journal.MessageJournal;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class JournalRoomsTest {
+
+    private static final int SEGMENT_SIZE = MessageJournal.MIN_SEGMENT_SIZE;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JournalRooms rooms(long retentionHours, int maxRooms) {
+        return new JournalRooms(folder.getRoot().toPath(), SEGMENT_SIZE, SEGMENT_SIZE, retentionHours, TimeUnit.HOURS,
+                maxRooms, Runnable::run);
+    }
+
+    private Path directory(String channelName) {
+        return folder.getRoot().toPath().resolve(MessageJournal.directoryName(channelName));
+    }
+
+    /**
+     * пишем сообщение в журнал канала и закрываем журнал, как при удалении канала; каталог помечается временем
+     * закрытия {@code closedAgo} миллисекунд назад
+     */
+    private void writeAndClose(JournalRooms rooms, String channelName, long closedAgo) throws IOException {
+        MessageJournal journal = rooms.open(channelName);
+        journal.add(new ChatMessage("vasya", "text"));
+        journal.close();
+        Files.setLastModifiedTime(directory(channelName), FileTime.fromMillis(System.currentTimeMillis() - closedAgo));
+    }
+
+    private static long fileCount(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    /**
+     * проверяем, что каталог и сегмент журнала создаются при первом сообщении, а не при открытии журнала
+     */
+    @Test
+    public void testJournalDirectoryIsCreatedOnFirstMessage() throws IOException {
+        JournalRooms rooms = rooms(0, 10);
+
+        MessageJournal journal = rooms.open("family");
+        assertThat(Files.exists(directory("family"))).isFalse();
+        assertThat(journal.segmentCount()).isZero();
+        assertThat(journal.forEachLast(10, message -> { })).isZero();
+
+        journal.add(new ChatMessage("vasya", "text"));
+        assertThat(journal.segmentCount()).isEqualTo(1);
+        assertThat(fileCount(directory("family"))).isEqualTo(1);
+        journal.close();
+        assertThat(rooms.openCount()).isZero();
+    }
+
+    /**
+     * проверяем, что журнал нового канала сверх лимита вытесняет журнал канала, закрытого раньше всех
+     */
+    @Test
+    public void testNewRoomOverLimitEvictsLeastRecentlyClosedJournal() throws IOException {
+        JournalRooms rooms = rooms(0, 2);
+        writeAndClose(rooms, "first", 60_000);
+        writeAndClose(rooms, "second", 0);
+
+        MessageJournal journal = rooms.open("third");
+
+        assertThat(journal).isNotNull();
+        assertThat(Files.exists(directory("first"))).isFalse();
+        assertThat(Files.exists(directory("second"))).isTrue();
+        journal.close();
+    }
+
+    /**
+     * проверяем, что журнал канала, уже лежащий на диске, открывается без вытеснения других журналов
+     */
+    @Test
+    public void testReopenedRoomKeepsOtherJournals() throws IOException {
+        JournalRooms rooms = rooms(0, 2);
+        writeAndClose(rooms, "first", 60_000);
+        writeAndClose(rooms, "second", 0);
+
+        MessageJournal journal = rooms.open("first");
+
+        assertThat(journal.nextSequence()).isEqualTo(1);
+        assertThat(Files.exists(directory("second"))).isTrue();
+        journal.close();
+    }
+
+    /**
+     * проверяем, что, пока открыты все журналы лимита, журнал нового канала не открывается
+     */
+    @Test
+    public void testNoJournalWhenAllJournalsAreOpen() throws IOException {
+        JournalRooms rooms = rooms(0, 1);
+        MessageJournal first = rooms.open("first");
+
+        assertThat(rooms.open("second")).isNull();
+
+        first.close();
+        MessageJournal second = rooms.open("second");
+        assertThat(second).isNotNull();
+        second.close();
+    }
+
+    /**
+     * проверяем, что журнал закрытого канала старше ограничения по возрасту удаляется при открытии другого журнала
+     */
+    @Test
+    public void testClosedJournalOlderThanRetentionIsDeleted() throws IOException {
+        JournalRooms rooms = rooms(1, 10);
+        writeAndClose(rooms, "old", TimeUnit.HOURS.toMillis(2));
+        writeAndClose(rooms, "recent", 0);
+
+        MessageJournal journal = rooms.open("family");
+
+        assertThat(Files.exists(directory("old"))).isFalse();
+        assertThat(Files.exists(directory("recent"))).isTrue();
+        journal.close();
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.telnetirc.unit;
+
+import com.example.telnetirc.metrics.LatencyHistogram;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * проверяем, что у пустой гистограммы все перцентили нулевые
+     */
+    @Test
+    public void testEmptyHistogramReturnsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertThat(histogram.getCount()).isEqualTo(0);
+        assertThat(histogram.getValueAtPercentile(99)).isEqualTo(0);
+    }
+
+    /**
+     * проверяем, что малые значения хранятся точно
+     */
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 4; value++) {
+            histogram.record(value);
+        }
+
+        assertThat(histogram.getValueAtPercentile(50)).isEqualTo(2);
+        assertThat(histogram.getValueAtPercentile(100)).isEqualTo(4);
+    }
+
+    /**
+     * проверяем, что перцентили больших значений отличаются от точных не больше чем на 1/8
+     */
+    @Test
+    public void testPercentilesWithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        assertThat(histogram.getCount()).isEqualTo(100_000);
+        assertThat(histogram.getMax()).isEqualTo(100_000_000);
+        assertThat((double) histogram.getValueAtPercentile(50)).isCloseTo(50_000_000, within(50_000_000 / 8.0));
+        assertThat((double) histogram.getValueAtPercentile(99)).isCloseTo(99_000_000, within(99_000_000 / 8.0));
+        assertThat(histogram.getValueAtPercentile(100)).isEqualTo(100_000_000);
+    }
+
+    /**
+     * проверяем, что нельзя запросить перцентиль вне диапазона [0, 100]
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testPercentileOutOfRangeThrowsException() {
+        new LatencyHistogram().getValueAtPercentile(101);
+    }
+}
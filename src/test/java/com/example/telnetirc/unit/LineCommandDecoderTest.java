@@ -0,0 +1,177 @@
+package com.example.telnetirc.unit;
+
+import com.example.telnetirc.LineCommandDecoder;
+import com.example.telnetirc.command.*;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class LineCommandDecoderTest {
+
+    private EmbeddedChannel channel() {
+        return new EmbeddedChannel(new LineCommandDecoder(64));
+    }
+
+    private static ByteBuf line(String text) {
+        return Unpooled.copiedBuffer(text, CharsetUtil.UTF_8);
+    }
+
+    /**
+     * проверяем, что нельзя отправить пустую сервисную команду
+     */
+    @Test(expected = DecoderException.class)
+    public void testEmptyCommandThrowsException() {
+        channel().writeInbound(line("/\r\n"));
+    }
+
+    /**
+     * проверяем, что при отправлении несуществующей сервисной команды возвращается исключение
+     */
+    @Test(expected = DecoderException.class)
+    public void testCreateUndefinedCommandThrowsException() {
+        channel().writeInbound(line("/vote\r\n"));
+    }
+
+    /**
+     * проверяем, что строка чата передается как есть, без разделителя строки, и буфер освобождается вместе
+     * с командой
+     */
+    @Test
+    public void testCreateChatCommand() {
+        EmbeddedChannel channel = channel();
+        channel.writeInbound(line("тестовый чат \r\n"));
+
+        ChatCommand chatCommand = (ChatCommand) channel.readInbound();
+
+        assertThat(chatCommand).isNotNull();
+        assertThat(chatCommand.getMessage()).isEqualTo("тестовый чат ");
+        assertThat(chatCommand.release()).isTrue();
+    }
+
+    /**
+     * проверяем, что строка вида "#канал текст" адресует сообщение каналу, а строка без текста остается обычным
+     * сообщением
+     */
+    @Test
+    public void testCreateChatCommandWithTargetRoom() {
+        EmbeddedChannel channel = channel();
+        channel.writeInbound(line("#friends привет всем\r\n#friends\r\n"));
+
+        ChatCommand targeted = (ChatCommand) channel.readInbound();
+        assertThat(targeted.getRoom()).isEqualTo("friends");
+        assertThat(targeted.getMessage()).isEqualTo("привет всем");
+        targeted.release();
+
+        ChatCommand plain = (ChatCommand) channel.readInbound();
+        assertThat(plain.getRoom()).isNull();
+        assertThat(plain.getMessage()).isEqualTo("#friends");
+        plain.release();
+    }
+
+    /**
+     * проверяем, что текст личного сообщения берется остатком строки вместе с пробелами
+     */
+    @Test
+    public void testCreateMsgCommand() {
+        EmbeddedChannel channel = channel();
+        channel.writeInbound(line("/msg  petya привет,  как дела?\r\n"));
+
+        MsgCommand msgCommand = (MsgCommand) channel.readInbound();
+
+        assertThat(msgCommand.getRecipient()).isEqualTo("petya");
+        assertThat(msgCommand.getText()).isEqualTo("привет,  как дела?");
+    }
+
+    /**
+     * проверяем, что команда, пришедшая несколькими частями, собирается, а несколько команд в одном буфере
+     * разбираются по отдельности
+     */
+    @Test
+    public void testDecodeFragmentedAndPipelinedLines() {
+        EmbeddedChannel channel = channel();
+        channel.writeInbound(line("/join prof"));
+        assertThat((Object) channel.readInbound()).isNull();
+
+        channel.writeInbound(line("souz\n/users\nhello\n"));
+
+        JoinCommand joinCommand = (JoinCommand) channel.readInbound();
+        assertThat(joinCommand.getChannel()).isEqualTo("profsouz");
+        assertThat((Object) channel.readInbound()).isInstanceOf(UsersCommand.class);
+        assertThat(((ChatCommand) channel.readInbound()).getMessage()).isEqualTo("hello");
+    }
+
+    /**
+     * проверяем корректное создание сервисной команды аутентификации
+     */
+    @Test
+    public void testCreateLoginCommand() {
+        EmbeddedChannel channel = channel();
+        channel.writeInbound(line("/login vasya  password \r\n"));
+
+        LoginCommand loginCommand = (LoginCommand) channel.readInbound();
+
+        assertThat(loginCommand).isNotNull();
+        assertThat(loginCommand.getName()).isEqualTo("vasya");
+        assertThat(loginCommand.getPassword()).isEqualTo("password");
+    }
+
+    /**
+     * проверяем, что у команды с неверным количеством аргументов возвращается исключение
+     */
+    @Test(expected = DecoderException.class)
+    public void testLoginCommandWithoutPasswordThrowsException() {
+        channel().writeInbound(line("/login vasya\r\n"));
+    }
+
+    /**
+     * проверяем корректное создание сервисных команд без аргументов
+     */
+    @Test
+    public void testCreateLeaveCommand() {
+        EmbeddedChannel channel = channel();
+        channel.writeInbound(line("/leave\r\n"));
+
+        assertThat((Object) channel.readInbound()).isInstanceOf(LeaveCommand.class);
+    }
+
+    /**
+     * проверяем создание команды оператора
+     */
+    @Test
+    public void testCreateStatsCommand() {
+        EmbeddedChannel channel = channel();
+        channel.writeInbound(line("/stats\r\n"));
+
+        assertThat((Object) channel.readInbound()).isInstanceOf(StatsCommand.class);
+    }
+
+    /**
+     * проверяем, что слишком длинная строка отбрасывается целиком, а следующая за ней разбирается
+     */
+    @Test
+    public void testTooLongLineIsDiscarded() {
+        EmbeddedChannel channel = channel();
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 100; i++) longLine.append('a');
+
+        try {
+            channel.writeInbound(line(longLine.toString()));
+        } catch (DecoderException e) {
+            assertThat(e).isInstanceOf(TooLongFrameException.class);
+        }
+        channel.writeInbound(line(longLine + "\n/users\n"));
+
+        assertThat((Object) channel.readInbound()).isInstanceOf(UsersCommand.class);
+        assertThat((Object) channel.readInbound()).isNull();
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.telnetirc.unit;
+
+import com.example.telnetirc.Mccp2Handler;
+import com.example.telnetirc.metrics.ServerMetrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import java.util.zip.Inflater;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class Mccp2HandlerTest {
+
+    private static final byte[] WILL_COMPRESS2 = {(byte) 255, (byte) 251, 86};
+    private static final byte[] DO_COMPRESS2 = {(byte) 255, (byte) 253, 86};
+    private static final byte[] DONT_COMPRESS2 = {(byte) 255, (byte) 254, 86};
+    private static final byte[] START_COMPRESS2 = {(byte) 255, (byte) 250, 86, (byte) 255, (byte) 240};
+
+    private ServerMetrics metrics = new ServerMetrics();
+
+    /**
+     * все байты, записанные в соединение
+     */
+    private static byte[] outbound(EmbeddedChannel channel) {
+        ByteBuf all = Unpooled.buffer();
+        ByteBuf buffer;
+        while ((buffer = (ByteBuf) channel.readOutbound()) != null) {
+            all.writeBytes(buffer);
+            buffer.release();
+        }
+        return bytes(all);
+    }
+
+    private static byte[] bytes(ByteBuf buffer) {
+        byte[] bytes = new byte[buffer.readableBytes()];
+        buffer.readBytes(bytes);
+        return bytes;
+    }
+
+    private static ByteBuf text(String text) {
+        return Unpooled.copiedBuffer(text, CharsetUtil.UTF_8);
+    }
+
+    /**
+     * проверяем, что после согласия клиента данные идут zlib-потоком, который распаковывается в исходный текст
+     */
+    @Test
+    public void testOutputIsCompressedAfterClientAgrees() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel(new Mccp2Handler(6, 0, metrics));
+        assertThat(outbound(channel)).isEqualTo(WILL_COMPRESS2);
+
+        channel.writeOutbound(text("before\r\n"));
+        channel.writeInbound(Unpooled.wrappedBuffer(DO_COMPRESS2));
+        channel.writeOutbound(text("hello\r\n"), text("hello again\r\n"));
+
+        byte[] output = outbound(channel);
+        byte[] prefix = "before\r\n".getBytes(CharsetUtil.UTF_8);
+        assertThat(new String(output, 0, prefix.length, CharsetUtil.UTF_8)).isEqualTo("before\r\n");
+        byte[] start = new byte[START_COMPRESS2.length];
+        System.arraycopy(output, prefix.length, start, 0, start.length);
+        assertThat(start).isEqualTo(START_COMPRESS2);
+
+        Inflater inflater = new Inflater();
+        int offset = prefix.length + start.length;
+        inflater.setInput(output, offset, output.length - offset);
+        byte[] inflated = new byte[1024];
+        int length = inflater.inflate(inflated);
+        inflater.end();
+
+        assertThat(new String(inflated, 0, length, CharsetUtil.UTF_8)).isEqualTo("hello\r\nhello again\r\n");
+        assertThat(metrics.getCompressedSessions()).isEqualTo(1);
+        assertThat(metrics.getCompressionInputBytes()).isEqualTo(20);
+        assertThat((Object) channel.readInbound()).isNull();
+    }
+
+    /**
+     * проверяем, что отказ клиента завершает zlib-поток, и следующие данные идут без сжатия
+     */
+    @Test
+    public void testClientDontEndsCompressedStream() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel(new Mccp2Handler(6, 0, metrics));
+        channel.writeInbound(Unpooled.wrappedBuffer(DO_COMPRESS2));
+        outbound(channel);
+
+        channel.writeOutbound(text("compressed\r\n"));
+        channel.writeInbound(Unpooled.wrappedBuffer(DONT_COMPRESS2));
+        byte[] stream = outbound(channel);
+
+        Inflater inflater = new Inflater();
+        inflater.setInput(stream);
+        byte[] inflated = new byte[1024];
+        int length = inflater.inflate(inflated);
+        assertThat(inflater.finished()).isTrue();
+        inflater.end();
+        assertThat(new String(inflated, 0, length, CharsetUtil.UTF_8)).isEqualTo("compressed\r\n");
+
+        channel.writeOutbound(text("plain\r\n"));
+        assertThat(new String(outbound(channel), CharsetUtil.UTF_8)).isEqualTo("plain\r\n");
+    }
+
+    /**
+     * проверяем, что telnet-команды вырезаются из входящих данных, в том числе пришедшие по частям, а IAC IAC
+     * становится байтом 255
+     */
+    @Test
+    public void testTelnetCommandsAreRemovedFromInput() {
+        EmbeddedChannel channel = new EmbeddedChannel(new Mccp2Handler(6, 0, metrics));
+
+        channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{'a', (byte) 255, (byte) 251}));
+        channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{24, 'b', (byte) 255, (byte) 250, 24, 1, (byte) 255,
+                (byte) 240, 'c', (byte) 255, (byte) 255}));
+
+        ByteBuf input = Unpooled.buffer();
+        ByteBuf buffer;
+        while ((buffer = (ByteBuf) channel.readInbound()) != null) {
+            input.writeBytes(buffer);
+            buffer.release();
+        }
+
+        assertThat(bytes(input)).isEqualTo(new byte[]{'a', 'b', 'c', (byte) 255});
+    }
+}
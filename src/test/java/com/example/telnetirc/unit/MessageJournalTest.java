@@ -0,0 +1,222 @@
+package com.example.telnetirc.unit;
+
+import com.example.telnetirc.chat.ChatMessage;
+import com.example.telnetirc.journal.MessageJournal;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class MessageJournalTest {
+
+    private static final int SEGMENT_SIZE = MessageJournal.MIN_SEGMENT_SIZE;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MessageJournal open(Path directory, long retentionBytes, long retentionHours) throws IOException {
+        return MessageJournal.open(directory, SEGMENT_SIZE, retentionBytes, retentionHours, TimeUnit.HOURS);
+    }
+
+    private static List<String> texts(MessageJournal journal, int count) {
+        List<String> texts = new ArrayList<>();
+        journal.forEachLast(count, message -> texts.add(message.getText()));
+        return texts;
+    }
+
+    private static String text(int number, int length) {
+        StringBuilder text = new StringBuilder("text" + number + " ");
+        while (text.length() < length) text.append('x');
+        return text.toString();
+    }
+
+    /**
+     * проверяем, что нельзя создать журнал с сегментом меньше минимального размера
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testOpenWithTooSmallSegmentThrowsException() throws IOException {
+        MessageJournal.open(folder.getRoot().toPath(), 1024, 1024, 0, TimeUnit.HOURS);
+    }
+
+    /**
+     * проверяем, что возвращаются последние сообщения в порядке добавления, вместе с автором и временем
+     */
+    @Test
+    public void testForEachLastReturnsLastMessagesInOrder() throws IOException {
+        MessageJournal journal = open(folder.getRoot().toPath(), SEGMENT_SIZE, 0);
+        LocalDateTime time = LocalDateTime.of(2017, 1, 15, 12, 30, 45);
+        for (int i = 0; i < 5; i++) {
+            journal.add(new ChatMessage("vasya", time, "text" + i));
+        }
+
+        List<String> messages = new ArrayList<>();
+        int count = journal.forEachLast(3, message -> messages.add(message.toString()));
+
+        assertThat(count).isEqualTo(3);
+        assertThat(messages).containsExactly(
+                new ChatMessage("vasya", time, "text2").toString(),
+                new ChatMessage("vasya", time, "text3").toString(),
+                new ChatMessage("vasya", time, "text4").toString());
+        assertThat(texts(journal, 10)).hasSize(5);
+        journal.close();
+    }
+
+    /**
+     * проверяем, что после повторного открытия журнал содержит все сообщения и продолжает нумерацию
+     */
+    @Test
+    public void testReopenRestoresMessages() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        MessageJournal journal = open(directory, SEGMENT_SIZE, 0);
+        journal.add(new ChatMessage("vasya", "привет"));
+        journal.add(new ChatMessage("petya", "hello"));
+        journal.close();
+
+        MessageJournal reopened = open(directory, SEGMENT_SIZE, 0);
+
+        assertThat(reopened.nextSequence()).isEqualTo(2);
+        assertThat(texts(reopened, 10)).containsExactly("привет", "hello");
+        assertThat(reopened.add(new ChatMessage("vasya", "again"))).isEqualTo(2);
+        assertThat(texts(reopened, 1)).containsExactly("again");
+        reopened.close();
+    }
+
+    /**
+     * проверяем, что при заполнении сегмента создается следующий, а последние сообщения читаются через границу
+     * сегментов
+     */
+    @Test
+    public void testRollSegmentsAndReplayAcrossSegments() throws IOException {
+        MessageJournal journal = open(folder.getRoot().toPath(), 10L * SEGMENT_SIZE, 0);
+        for (int i = 0; i < 200; i++) {
+            journal.add(new ChatMessage("vasya", text(i, 1000)));
+        }
+
+        assertThat(journal.segmentCount()).isGreaterThan(1);
+
+        List<String> last = texts(journal, 100);
+        assertThat(last).hasSize(100);
+        assertThat(last.get(0)).startsWith("text100 ");
+        assertThat(last.get(99)).startsWith("text199 ");
+        journal.close();
+    }
+
+    /**
+     * проверяем, что самые старые сегменты удаляются, когда журнал превышает ограничение по размеру
+     */
+    @Test
+    public void testRetentionBySizeDeletesOldestSegments() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        MessageJournal journal = open(directory, 2L * SEGMENT_SIZE, 0);
+        for (int i = 0; i < 500; i++) {
+            journal.add(new ChatMessage("vasya", text(i, 1000)));
+        }
+
+        assertThat(journal.segmentCount()).isEqualTo(2);
+        assertThat(segmentFiles(directory)).hasSize(2);
+
+        List<String> all = texts(journal, 1000);
+        assertThat(all.size()).isLessThan(500);
+        assertThat(all.get(all.size() - 1)).startsWith("text499 ");
+        journal.close();
+    }
+
+    /**
+     * проверяем, что сброс закрытых сегментов на диск и их удаление ставятся в поток ввода-вывода журнала по
+     * порядку, а не выполняются в потоке записи
+     */
+    @Test
+    public void testSealAndDeleteRunInIoExecutor() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        List<Runnable> io = new ArrayList<>();
+        MessageJournal journal = MessageJournal.open(directory, SEGMENT_SIZE, 2L * SEGMENT_SIZE, 0, TimeUnit.HOURS,
+                io::add);
+        for (int i = 0; i < 130; i++) {
+            journal.add(new ChatMessage("vasya", text(i, 1000)));
+        }
+
+        // два сегмента закрыты, самый старый вышел за ограничение размера, но его файл еще не удален
+        assertThat(journal.segmentCount()).isEqualTo(2);
+        assertThat(io).hasSize(3);
+        assertThat(segmentFiles(directory)).hasSize(3);
+
+        io.forEach(Runnable::run);
+
+        assertThat(segmentFiles(directory)).hasSize(2);
+        assertThat(texts(journal, 1).get(0)).startsWith("text129 ");
+        journal.close();
+    }
+
+    /**
+     * проверяем, что при открытии удаляются закрытые сегменты старше ограничения по возрасту
+     */
+    @Test
+    public void testRetentionByAgeDeletesOldSegments() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        MessageJournal journal = open(directory, 10L * SEGMENT_SIZE, 1);
+        for (int i = 0; i < 100; i++) {
+            journal.add(new ChatMessage("vasya", text(i, 1000)));
+        }
+        journal.close();
+
+        List<Path> files = segmentFiles(directory);
+        assertThat(files).hasSize(2);
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2));
+        Files.setLastModifiedTime(files.get(0), old);
+
+        MessageJournal reopened = open(directory, 10L * SEGMENT_SIZE, 1);
+
+        assertThat(reopened.segmentCount()).isEqualTo(1);
+        assertThat(reopened.nextSequence()).isEqualTo(100);
+        reopened.close();
+    }
+
+    /**
+     * проверяем, что недописанная запись в конце журнала (сбой во время записи) не читается и перезаписывается
+     */
+    @Test
+    public void testTornRecordIsIgnoredOnReopen() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        MessageJournal journal = open(directory, SEGMENT_SIZE, 0);
+        for (int i = 0; i < 3; i++) {
+            journal.add(new ChatMessage("vasya", "text" + i));
+        }
+        journal.close();
+
+        // каждая запись: 4 + 8 + 2 + 5 ("vasya") + 5 ("textN") + 4 байт; после них - длина без данных
+        try (RandomAccessFile file = new RandomAccessFile(segmentFiles(directory).get(0).toFile(), "rw")) {
+            file.seek(3 * 28);
+            file.writeInt(100);
+        }
+
+        MessageJournal reopened = open(directory, SEGMENT_SIZE, 0);
+        assertThat(reopened.nextSequence()).isEqualTo(3);
+
+        reopened.add(new ChatMessage("vasya", "text3"));
+        assertThat(texts(reopened, 10)).containsExactly("text0", "text1", "text2", "text3");
+        reopened.close();
+    }
+
+    private static List<Path> segmentFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".log")).sorted().collect(Collectors.toList());
+        }
+    }
+}
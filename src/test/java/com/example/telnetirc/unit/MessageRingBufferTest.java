@@ -0,0 +1,105 @@
+package com.example.telnetirc.unit;
+
+import com.example.telnetirc.chat.ChatMessage;
+import com.example.telnetirc.chat.MessageRingBuffer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class MessageRingBufferTest {
+
+    /**
+     * проверяем, что нельзя создать буфер нулевой емкости
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateWithZeroCapacityThrowsException() {
+        new MessageRingBuffer(0);
+    }
+
+    /**
+     * проверяем, что пока буфер не заполнен, возвращаются все сообщения в порядке добавления
+     */
+    @Test
+    public void testForEachLastWhenNotFullReturnsAllMessagesInOrder() {
+        MessageRingBuffer buffer = new MessageRingBuffer(5);
+        buffer.add(new ChatMessage("vasya", "text1"));
+        buffer.add(new ChatMessage("vasya", "text2"));
+
+        List<String> messages = new ArrayList<>();
+        int count = buffer.forEachLast(5, message -> messages.add(message.toString()));
+
+        assertThat(count).isEqualTo(2);
+        assertThat(buffer.size()).isEqualTo(2);
+        assertThat(messages.get(0)).contains("text1");
+        assertThat(messages.get(1)).contains("text2");
+    }
+
+    /**
+     * проверяем, что при переполнении вытесняются самые старые сообщения и размер не превышает емкость
+     */
+    @Test
+    public void testAddWhenFullEvictsOldestMessages() {
+        MessageRingBuffer buffer = new MessageRingBuffer(3);
+        for (int i = 0; i < 10; i++) {
+            buffer.add(new ChatMessage("vasya", "text" + i));
+        }
+
+        List<String> messages = new ArrayList<>();
+        buffer.forEachLast(10, message -> messages.add(message.toString()));
+
+        assertThat(buffer.size()).isEqualTo(3);
+        assertThat(buffer.nextSequence()).isEqualTo(10);
+        assertThat(messages).hasSize(3);
+        assertThat(messages.get(0)).contains("text7");
+        assertThat(messages.get(2)).contains("text9");
+    }
+
+    /**
+     * проверяем, что можно запросить меньше сообщений, чем хранится в буфере
+     */
+    @Test
+    public void testForEachLastReturnsOnlyRequestedCount() {
+        MessageRingBuffer buffer = new MessageRingBuffer(5);
+        for (int i = 0; i < 5; i++) {
+            buffer.add(new ChatMessage("vasya", "text" + i));
+        }
+
+        List<String> messages = new ArrayList<>();
+        buffer.forEachLast(2, message -> messages.add(message.toString()));
+
+        assertThat(messages).hasSize(2);
+        assertThat(messages.get(0)).contains("text3");
+        assertThat(messages.get(1)).contains("text4");
+    }
+
+    /**
+     * проверяем, что при конкурентной записи буфер остается заполненным ровно до емкости
+     */
+    @Test
+    public void testConcurrentAddKeepsCapacity() throws InterruptedException {
+        MessageRingBuffer buffer = new MessageRingBuffer(16);
+        int writers = 4;
+        CountDownLatch done = new CountDownLatch(writers);
+
+        for (int w = 0; w < writers; w++) {
+            new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    buffer.add(new ChatMessage("vasya", "text"));
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+
+        assertThat(buffer.nextSequence()).isEqualTo(40_000);
+        assertThat(buffer.forEachLast(100, message -> { })).isEqualTo(16);
+    }
+}
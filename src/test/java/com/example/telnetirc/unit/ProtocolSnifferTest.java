@@ -0,0 +1,108 @@
+package com.example.telnetirc.unit;
+
+import com.example.telnetirc.BinaryCommandDecoder;
+import com.example.telnetirc.LineCommandDecoder;
+import com.example.telnetirc.ProtocolSniffer;
+import com.example.telnetirc.chat.BinaryFrame;
+import com.example.telnetirc.command.ChatCommand;
+import com.example.telnetirc.command.JoinCommand;
+import com.example.telnetirc.command.MsgCommand;
+import com.example.telnetirc.command.Opcode;
+import com.example.telnetirc.metrics.ServerMetrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.string.StringEncoder;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class ProtocolSnifferTest {
+
+    private ServerMetrics metrics = new ServerMetrics();
+
+    private EmbeddedChannel connection() {
+        return new EmbeddedChannel(new ProtocolSniffer(8192, metrics), new LineCommandDecoder(8192),
+                new StringEncoder(CharsetUtil.UTF_8));
+    }
+
+    /**
+     * кадр команды клиента: длина, тип и аргументы с длиной
+     */
+    private static ByteBuf frame(byte type, String... args) {
+        ByteBuf frame = Unpooled.buffer().writeInt(0).writeByte(type);
+        for (String arg : args) {
+            byte[] bytes = arg.getBytes(CharsetUtil.UTF_8);
+            frame.writeShort(bytes.length).writeBytes(bytes);
+        }
+        return frame.setInt(0, frame.readableBytes() - 4);
+    }
+
+    /**
+     * проверяем, что соединение, начавшееся со строки, остается текстовым
+     */
+    @Test
+    public void testTextClientKeepsTextPipeline() {
+        EmbeddedChannel channel = connection();
+
+        channel.writeInbound(Unpooled.copiedBuffer("/join general\r\n", CharsetUtil.UTF_8));
+
+        assertThat(((JoinCommand) channel.readInbound()).getChannel()).isEqualTo("general");
+        assertThat(channel.pipeline().get(ProtocolSniffer.class)).isNull();
+        assertThat(channel.pipeline().get(LineCommandDecoder.class)).isNotNull();
+        assertThat((Object) channel.readOutbound()).isNull();
+        assertThat(metrics.getBinaryConnections()).isZero();
+    }
+
+    /**
+     * проверяем, что клиент, начавший с сигнатуры, получает ее в ответ, его кадры разбираются в команды, пришедшие
+     * в том же чтении, а ответы сервера уходят кадрами
+     */
+    @Test
+    public void testBinaryClientSwitchesToFrames() {
+        EmbeddedChannel channel = connection();
+
+        ByteBuf in = Unpooled.buffer().writeBytes(BinaryFrame.MAGIC)
+                .writeBytes(frame(BinaryCommandDecoder.MSG, "petya", "hello there"));
+        channel.writeInbound(in);
+
+        ByteBuf magic = (ByteBuf) channel.readOutbound();
+        assertThat(magic.toString(CharsetUtil.ISO_8859_1)).isEqualTo("\0TIB");
+        MsgCommand msg = (MsgCommand) channel.readInbound();
+        assertThat(msg.getRecipient()).isEqualTo("petya");
+        assertThat(msg.getText()).isEqualTo("hello there");
+        assertThat(metrics.getBinaryConnections()).isEqualTo(1);
+
+        ByteBuf chat = Unpooled.buffer().writeInt(4).writeByte(BinaryCommandDecoder.CHAT)
+                .writeBytes("hey".getBytes(CharsetUtil.UTF_8));
+        channel.writeInbound(chat);
+        ChatCommand command = (ChatCommand) channel.readInbound();
+        assertThat(command.getOpcode()).isEqualTo(Opcode.CHAT);
+        assertThat(command.getMessage()).isEqualTo("hey");
+        command.release();
+
+        channel.writeOutbound("Error: x\r\n");
+        ByteBuf reply = (ByteBuf) channel.readOutbound();
+        assertThat(reply.readInt()).isEqualTo(reply.readableBytes());
+        assertThat(reply.readByte()).isEqualTo(BinaryFrame.TEXT);
+        assertThat(reply.toString(CharsetUtil.UTF_8)).isEqualTo("Error: x\r\n");
+        reply.release();
+    }
+
+    /**
+     * проверяем, что соединение с первым байтом 0, но чужой сигнатурой закрывается
+     */
+    @Test
+    public void testUnknownSignatureClosesConnection() {
+        EmbeddedChannel channel = connection();
+
+        channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{0, 'H', 'T', 'T'}));
+
+        assertThat(channel.isOpen()).isFalse();
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.telnetirc.unit;
+
+import com.example.telnetirc.ChatServerHandler;
+import com.example.telnetirc.ChatSession;
+import com.example.telnetirc.RateLimitHandler;
+import com.example.telnetirc.auth.AuthService;
+import com.example.telnetirc.command.ChatCommand;
+import com.example.telnetirc.command.JoinCommand;
+import com.example.telnetirc.command.UsersCommand;
+import com.example.telnetirc.metrics.ServerMetrics;
+import com.example.telnetirc.ratelimit.RateLimit;
+import com.example.telnetirc.ratelimit.RateLimiter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class RateLimitHandlerTest {
+
+    private ResourceBundle resource = ResourceBundle.getBundle("messages/messages");
+    private ServerMetrics metrics = new ServerMetrics();
+
+    private EmbeddedChannel channel(RateLimit connection, long maxDelayMillis) {
+        RateLimiter limiter = new RateLimiter(connection, RateLimit.NONE, RateLimit.NONE, RateLimit.NONE,
+                maxDelayMillis, TimeUnit.MILLISECONDS);
+        return new EmbeddedChannel(new RateLimitHandler(limiter, metrics));
+    }
+
+    /**
+     * проверяем, что команда сверх ограничения не отклоняется, а выполняется после паузы, в течение которой
+     * соединение не читает
+     */
+    @Test
+    public void testCommandOverLimitIsDelayedAndReadsPaused() throws Exception {
+        EmbeddedChannel channel = channel(RateLimit.of(50, 1), 1000);
+        UsersCommand first = new UsersCommand(new String[0]);
+        UsersCommand second = new UsersCommand(new String[0]);
+
+        channel.writeInbound(first);
+        channel.writeInbound(second);
+
+        assertThat((Object) channel.readInbound()).isSameAs(first);
+        assertThat((Object) channel.readInbound()).isNull();
+        assertThat(channel.config().isAutoRead()).isFalse();
+
+        Thread.sleep(30);
+        channel.runPendingTasks();
+
+        assertThat((Object) channel.readInbound()).isSameAs(second);
+        assertThat(channel.config().isAutoRead()).isTrue();
+        assertThat(metrics.getThrottledMillis()).isPositive();
+        assertThat(metrics.getRateLimitRejections()).isZero();
+    }
+
+    /**
+     * проверяем, что команда, которую пришлось бы ждать дольше допустимого, отклоняется с сообщением об ошибке,
+     * а ее буфер освобождается
+     */
+    @Test
+    public void testCommandOverMaxDelayIsRejected() {
+        EmbeddedChannel channel = channel(RateLimit.of(1, 1), 10);
+        ByteBuf content = Unpooled.copiedBuffer("flood", CharsetUtil.UTF_8);
+
+        channel.writeInbound(new UsersCommand(new String[0]));
+        channel.readInbound();
+        channel.writeInbound(new ChatCommand(content));
+
+        assertThat((Object) channel.readInbound()).isNull();
+        assertThat(content.refCnt()).isZero();
+        assertThat(metrics.getRateLimitRejections()).isEqualTo(1);
+
+        ByteBuf response = (ByteBuf) channel.readOutbound();
+        assertThat(response.toString(CharsetUtil.UTF_8)).isEqualTo(resource.getString("rate.error.limited"));
+        response.release();
+    }
+
+    /**
+     * проверяем, что токен канала берется только для каналов, в которых состоит пользователь: строки анонимного
+     * клиента не расходуют ведра каналов, а строка с чужим каналом (хэштегом) расходует ведро активного канала
+     */
+    @Test
+    public void testRoomTokenIsChargedOnlyForJoinedRoom() {
+        RateLimiter limiter = new RateLimiter(RateLimit.NONE, RateLimit.NONE, RateLimit.NONE, RateLimit.of(1, 1),
+                0, TimeUnit.MILLISECONDS);
+        EmbeddedChannel channel = new EmbeddedChannel(new RateLimitHandler(limiter, metrics),
+                new ChatServerHandler(2, mock(AuthService.class)));
+
+        channel.writeInbound(new ChatCommand(new String[]{"#room a"}));
+        channel.writeInbound(new ChatCommand(new String[]{"#room b"}));
+        assertThat(metrics.getRateLimitRejections()).isZero();
+
+        ChatSession.get(channel).login("vasya");
+        channel.writeInbound(new JoinCommand(new String[]{"room"}));
+        channel.writeInbound(new JoinCommand(new String[]{"family"}));
+        channel.writeInbound(new ChatCommand(new String[]{"#room a"}));
+        channel.writeInbound(new ChatCommand(new String[]{"#room b"}));
+        assertThat(metrics.getRateLimitRejections()).isEqualTo(1);
+
+        // хэштег расходует токен активного канала family
+        channel.writeInbound(new ChatCommand(new String[]{"#other a"}));
+        channel.writeInbound(new ChatCommand(new String[]{"b"}));
+        assertThat(metrics.getRateLimitRejections()).isEqualTo(2);
+        channel.finishAndReleaseAll();
+    }
+}
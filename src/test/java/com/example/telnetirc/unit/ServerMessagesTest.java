@@ -0,0 +1,67 @@
+package com.example.telnetirc.unit;
+
+import com.example.telnetirc.ServerMessages;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class ServerMessagesTest {
+
+    private ResourceBundle resource = ResourceBundle.getBundle("messages/messages");
+    private ServerMessages messages = ServerMessages.forLocale(Locale.getDefault());
+
+    private static String read(ByteBuf buffer) {
+        try {
+            return buffer.toString(CharsetUtil.UTF_8);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * проверяем, что ответ совпадает со строкой из ресурсов, а общий буфер не портится чтением и освобождением копий
+     */
+    @Test
+    public void testSharedMessageSurvivesReadAndRelease() {
+        ByteBuf first = messages.get("login.success");
+        first.skipBytes(first.readableBytes());
+        first.release();
+
+        assertThat(read(messages.get("login.success"))).isEqualTo(resource.getString("login.success"));
+        assertThat(read(messages.get("login.success"))).isEqualTo(resource.getString("login.success"));
+    }
+
+    /**
+     * проверяем, что шаблоны дают тот же текст, что и {@link MessageFormat}
+     */
+    @Test
+    public void testTemplateMatchesMessageFormat() {
+        ByteBuf users = messages.template("users.online").format(UnpooledByteBufAllocator.DEFAULT,
+                Arrays.asList("petya", "вася"), ", ");
+        ByteBuf lagged = messages.template("chat.warning.lagged").format(UnpooledByteBufAllocator.DEFAULT, 42);
+
+        assertThat(read(users)).isEqualTo(MessageFormat.format(resource.getString("users.online"), "petya, вася"));
+        assertThat(read(lagged)).isEqualTo(MessageFormat.format(resource.getString("chat.warning.lagged"), 42));
+    }
+
+    /**
+     * проверяем, что неизвестный ключ приводит к ошибке, как и в {@link ResourceBundle}
+     */
+    @Test(expected = MissingResourceException.class)
+    public void testUnknownKey() {
+        messages.get("unknown");
+    }
+}
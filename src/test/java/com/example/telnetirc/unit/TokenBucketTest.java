@@ -0,0 +1,87 @@
+package com.example.telnetirc.unit;
+
+import com.example.telnetirc.ratelimit.RateLimit;
+import com.example.telnetirc.ratelimit.RateLimiter;
+import com.example.telnetirc.ratelimit.TokenBucket;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * проверяем, что подряд выдается не больше burst токенов, а затем возвращается время до следующего токена
+     */
+    @Test
+    public void testBurstThenDelay() {
+        TokenBucket bucket = new TokenBucket(10, 3, 0);
+
+        assertThat(bucket.tryAcquire(0)).isZero();
+        assertThat(bucket.tryAcquire(0)).isZero();
+        assertThat(bucket.tryAcquire(0)).isZero();
+        assertThat(bucket.tryAcquire(SECOND / 20)).isEqualTo(SECOND / 20);
+    }
+
+    /**
+     * проверяем, что токены начисляются со временем, но не больше burst
+     */
+    @Test
+    public void testRefillUpToBurst() {
+        TokenBucket bucket = new TokenBucket(10, 3, 0);
+        for (int i = 0; i < 3; i++) bucket.tryAcquire(0);
+
+        assertThat(bucket.tryAcquire(SECOND / 10)).isZero();
+        assertThat(bucket.tryAcquire(SECOND / 10)).isPositive();
+        assertThat(bucket.isFull(10 * SECOND)).isTrue();
+
+        for (int i = 0; i < 3; i++) assertThat(bucket.tryAcquire(10 * SECOND)).isZero();
+        assertThat(bucket.tryAcquire(10 * SECOND)).isPositive();
+    }
+
+    /**
+     * проверяем, что возвращенный токен можно взять снова
+     */
+    @Test
+    public void testRefund() {
+        TokenBucket bucket = new TokenBucket(1, 1, 0);
+        bucket.tryAcquire(0);
+
+        bucket.refund();
+
+        assertThat(bucket.tryAcquire(0)).isZero();
+    }
+
+    /**
+     * проверяем, что полное ведро, удаленное из ограничителя, помечается, а следующий запрос ведра по тому же ключу
+     * возвращает новое, которое снова делят все соединения
+     */
+    @Test
+    public void testEvictedBucketIsReplaced() {
+        long start = System.nanoTime();
+        RateLimiter limiter = new RateLimiter(RateLimit.NONE, RateLimit.of(1, 1), RateLimit.NONE, RateLimit.NONE, 0,
+                TimeUnit.SECONDS);
+        TokenBucket bucket = limiter.addressBucket("10.0.0.1", start);
+        bucket.tryAcquire(start);
+        for (int i = 0; i < 4096; i++) {
+            limiter.addressBucket("10.1." + i, start);
+        }
+
+        // через две секунды ведро снова полное, и очистка удаляет его
+        long later = start + 2 * SECOND;
+        limiter.addressBucket("10.2.0.1", later);
+
+        assertThat(bucket.isEvicted()).isTrue();
+        TokenBucket replaced = limiter.addressBucket("10.0.0.1", later);
+        assertThat(replaced).isNotSameAs(bucket);
+        assertThat(replaced.isEvicted()).isFalse();
+        assertThat(limiter.addressBucket("10.0.0.1", later)).isSameAs(replaced);
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.telnetirc.unit;
+
+import com.example.telnetirc.auth.CredentialCache;
+import com.example.telnetirc.auth.InMemoryAuthService;
+import com.example.telnetirc.auth.PasswordHash;
+import com.example.telnetirc.auth.User;
+import com.example.telnetirc.auth.UserStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.example.telnetirc.auth.AuthResult.AUTHENTICATED;
+import static com.example.telnetirc.auth.AuthResult.INCORRECT_PASSWORD;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Denis Pakhomov.
+ * @version 1.0
+ */
+public class UserStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static User user(String username) {
+        return User.withPasswordHash(username, PasswordHash.create("password", 1));
+    }
+
+    private static InMemoryAuthService authService(Path directory) throws IOException {
+        return new InMemoryAuthService(1, new CredentialCache(0, 1, TimeUnit.SECONDS), UserStore.open(directory, 1000));
+    }
+
+    private static Map<String, User> recover(Path directory) throws IOException {
+        Map<String, User> users = new ConcurrentHashMap<>();
+        UserStore store = UserStore.open(directory, 1000);
+        store.recover(user -> users.put(user.getUsername(), user));
+        store.close();
+        return users;
+    }
+
+    /**
+     * проверяем, что после перезапуска пользователи восстанавливаются из журнала регистраций вместе с паролем
+     */
+    @Test
+    public void testRecoverReplaysWal() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        Map<String, User> users = new ConcurrentHashMap<>();
+        UserStore store = UserStore.open(directory, 1000);
+        store.recover(user -> users.put(user.getUsername(), user));
+        store.start(users.values());
+
+        for (String username : new String[]{"vasya", "петя"}) {
+            User user = user(username);
+            users.put(username, user);
+            store.append(user).get(5, TimeUnit.SECONDS);
+        }
+        store.close();
+
+        Map<String, User> recovered = recover(directory);
+
+        assertThat(recovered.keySet()).containsOnly("vasya", "петя");
+        assertThat(recovered.get("петя").isPasswordCorrect("password")).isTrue();
+        assertThat(recovered.get("петя").isPasswordCorrect("wrong")).isFalse();
+    }
+
+    /**
+     * проверяем, что снимок заменяет старые журналы, а регистрации после снимка читаются из нового журнала
+     */
+    @Test
+    public void testRecoverLoadsSnapshotAndWalTail() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        Map<String, User> users = new ConcurrentHashMap<>();
+        UserStore store = UserStore.open(directory, 1000);
+        store.start(users.values());
+
+        for (int i = 0; i < 10; i++) {
+            User user = user("user" + i);
+            users.put(user.getUsername(), user);
+            store.append(user);
+        }
+        store.snapshot().get(5, TimeUnit.SECONDS);
+        for (int i = 10; i < 15; i++) {
+            User user = user("user" + i);
+            users.put(user.getUsername(), user);
+            store.append(user).get(5, TimeUnit.SECONDS);
+        }
+        store.close();
+
+        assertThat(files(directory, ".snap")).hasSize(1);
+        assertThat(files(directory, ".wal")).hasSize(1);
+        assertThat(recover(directory)).hasSize(15);
+    }
+
+    /**
+     * проверяем, что в снимок попадают только пользователи, чья регистрация записана в журнал, а не все
+     * пользователи живого представления
+     */
+    @Test
+    public void testSnapshotSkipsUsersNotYetStored() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        Map<String, User> users = new ConcurrentHashMap<>();
+        UserStore store = UserStore.open(directory, 1000);
+        store.start(users.values());
+
+        User stored = user("vasya");
+        users.put(stored.getUsername(), stored);
+        store.append(stored).get(5, TimeUnit.SECONDS);
+        // регистрация еще не передана хранилищу или не сохранилась
+        users.put("petya", user("petya"));
+        store.snapshot().get(5, TimeUnit.SECONDS);
+        store.close();
+
+        assertThat(files(directory, ".snap")).hasSize(1);
+        assertThat(recover(directory).keySet()).containsOnly("vasya");
+    }
+
+    /**
+     * проверяем, что недописанная запись в конце журнала (сбой во время записи) не читается и отрезается
+     */
+    @Test
+    public void testTornWalRecordIsIgnored() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        Map<String, User> users = new ConcurrentHashMap<>();
+        UserStore store = UserStore.open(directory, 1000);
+        store.start(users.values());
+        store.append(user("vasya")).get(5, TimeUnit.SECONDS);
+        store.close();
+
+        Path wal = files(directory, ".wal").get(0);
+        long size = Files.size(wal);
+        try (RandomAccessFile file = new RandomAccessFile(wal.toFile(), "rw")) {
+            file.seek(size);
+            file.writeInt(100);
+            file.writeInt(0);
+            file.write(new byte[10]);
+        }
+
+        assertThat(recover(directory).keySet()).containsOnly("vasya");
+        assertThat(Files.size(wal)).isEqualTo(size);
+    }
+
+    /**
+     * проверяем, что регистрации, накопившиеся в очереди, записываются на диск одной пачкой, а не по одной
+     */
+    @Test
+    public void testQueuedAppendsShareSync() throws Exception {
+        Map<String, User> users = new ConcurrentHashMap<>();
+        UserStore store = UserStore.open(folder.getRoot().toPath(), 100_000);
+
+        List<CompletableFuture<Void>> appends = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            appends.add(store.append(user("user" + i)));
+        }
+        assertThat(appends.get(0)).isNotDone();
+
+        store.start(users.values());
+        CompletableFuture.allOf(appends.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+        assertThat(store.getRecords()).isEqualTo(1000);
+        assertThat(store.getSyncs()).isEqualTo(1);
+        store.close();
+    }
+
+    /**
+     * проверяем, что сервис аутентификации с хранилищем помнит пользователей и их пароли после перезапуска
+     */
+    @Test
+    public void testAuthServiceRestoresUsers() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        InMemoryAuthService authService = authService(directory);
+        assertThat(authService.authenticate("vasya", "password")).isEqualTo(AUTHENTICATED);
+        authService.close();
+
+        InMemoryAuthService restarted = authService(directory);
+
+        assertThat(restarted.authenticate("vasya", "wrong")).isEqualTo(INCORRECT_PASSWORD);
+        assertThat(restarted.authenticate("vasya", "password")).isEqualTo(AUTHENTICATED);
+        restarted.close();
+    }
+
+    private static List<Path> files(Path directory, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(suffix)).sorted().collect(Collectors.toList());
+        }
+    }
+}
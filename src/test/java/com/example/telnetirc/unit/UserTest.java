@@ -1,5 +1,6 @@
 package com.example.telnetirc.unit;
 
+import com.example.telnetirc.auth.PasswordHash;
 import com.example.telnetirc.auth.User;
 import org.junit.Test;
 
@@ -50,7 +51,7 @@ public class UserTest {
     public void testCreateUserWithNotEmptyFieldsCreatesUserWithNotActiveSession() {
         User user = new User("vasya", "password");
         assertThat(user.getUsername()).isEqualTo("vasya");
-        assertThat(user.getPassword()).isEqualTo("password");
+        assertThat(user.getPasswordHash().encode()).doesNotContain("password");
         assertThat(user.getActive()).isFalse();
     }
 
@@ -120,4 +121,18 @@ public class UserTest {
         assertThat(user.getActive()).isFalse();
 
     }
+
+    /**
+     * проверяем, что хеш пароля восстанавливается из строкового представления вместе со стоимостью и солью
+     */
+    @Test
+    public void testPasswordHashEncodeDecodeRoundTrip() {
+        PasswordHash hash = PasswordHash.create("password", 1000);
+        PasswordHash decoded = PasswordHash.decode(hash.encode());
+
+        assertThat(decoded.getIterations()).isEqualTo(1000);
+        assertThat(decoded.matches("password")).isTrue();
+        assertThat(decoded.matches("Password")).isFalse();
+        assertThat(PasswordHash.create("password", 1000).encode()).isNotEqualTo(hash.encode());
+    }
 }